@@ -32,6 +32,7 @@ public class FlacAudioFrame extends FlacFrame {
     */
    private boolean blockSizeVariable;
    private long codedNumber;
+   private long firstSampleNumber;
 
    private int blockSizeRaw;
    private int blockSize;
@@ -47,9 +48,28 @@ public class FlacAudioFrame extends FlacFrame {
    private FlacAudioSubFrame[] subFrames;
 
    private byte[] frameData;
+   private int[][] samples;
 
+   /** If created from the whole frame data, the data and header size */
+   private byte[] rawData;
+   private int headerLength;
+
+   /**
+    * Creates the frame from the complete frame data, with header
+    *  sync checking. Only the frame header is read at this point,
+    *  the sub-frames are read when first requested, so it's cheap
+    *  to create these just to check the sample numbers and sizes.
+    */
    public FlacAudioFrame(byte[] data, FlacInfo info) throws IOException {
-       this(new ByteArrayInputStream(data), info);
+       if (data.length < 2) {
+           throw new IllegalArgumentException("Frame Header start sync not found");
+       }
+       int first2 = getAndCheckFirstTwo(IOUtils.toInt(data[0]), IOUtils.toInt(data[1]));
+       ByteArrayInputStream stream = new ByteArrayInputStream(data, 2, data.length-2);
+       readHeader(first2, stream, new BitsReader(stream), info);
+
+       this.rawData = data;
+       this.headerLength = data.length - stream.available();
    }
 
    /**
@@ -72,15 +92,30 @@ public class FlacAudioFrame extends FlacFrame {
        // Wrap the InputStream so that it captures the contents
        BytesCapturingInputStream stream = new BytesCapturingInputStream(rawStream);
 
+       // Mostly, this works in bits not nicely padded bytes
+       BitsReader br = new BitsReader(stream);
+       readHeader(first2, stream, br, info);
+       readSubFrames(br);
+
+       // Skip any remaining bits, to hit the boundary
+       br.readToByteBoundary();
+
+       // Footer CRC, not checked
+       stream.read();
+       stream.read();
+
+       // Capture the raw bytes read
+       frameData = stream.getData();
+   }
+
+   private void readHeader(int first2, InputStream stream, BitsReader br,
+                           FlacInfo info) throws IOException {
        // First 14 bits are the sync, 15 is reserved, 16 is block size
        blockSizeVariable = ((first2 & 1) == 1);
 
-       // Mostly, this works in bits not nicely padded bytes
-       BitsReader br = new BitsReader(stream);
-       
        // Block Size + Sample Rate
        blockSizeRaw = br.read(4); 
-       sampleRate = br.read(4);
+       sampleRateRaw = br.read(4);
 
        // Decode those, as best we can
        boolean readBlockSize8 = false;
@@ -90,7 +125,7 @@ public class FlacAudioFrame extends FlacFrame {
            blockSize = 0;
        } else if (blockSizeRaw == 1) {
            blockSize = 192;
-       } else if (blockSizeRaw >= 2 && blockSizeRaw < 5) {
+       } else if (blockSizeRaw >= 2 && blockSizeRaw <= 5) {
            blockSize = 576 * (int)Math.pow(2, blockSizeRaw-2);
        } else if (blockSizeRaw == 6) {
            readBlockSize8 = true;
@@ -144,10 +179,21 @@ public class FlacAudioFrame extends FlacFrame {
            blockSize = IOUtils.getIntBE(stream.read(), stream.read())+1;
        }
 
+       // Fixed block size streams give the frame number, and all
+       //  but the last frame will be the stream's block size
+       if (blockSizeVariable) {
+           firstSampleNumber = codedNumber;
+       } else if (info.getMinimumBlockSize() > 0 &&
+                  info.getMinimumBlockSize() == info.getMaximumBlockSize()) {
+           firstSampleNumber = codedNumber * info.getMaximumBlockSize();
+       } else {
+           firstSampleNumber = codedNumber * blockSize;
+       }
+
        // Ext sample rate
        if (sampleRateRaw == 12) {
-           // 8 bit Hz
-           sampleRate = stream.read();
+           // 8 bit kHz
+           sampleRate = 1000*stream.read();
        }
        if (sampleRateRaw == 13) {
            // 16 bit Hz
@@ -160,7 +206,9 @@ public class FlacAudioFrame extends FlacFrame {
 
        // Header CRC, not checked
        stream.read();
+   }
 
+   private void readSubFrames(BitsReader br) throws IOException {
        // One sub-frame per channel
        subFrames = new FlacAudioSubFrame[numChannels];
        for (int cn=0; cn<numChannels; cn++) {
@@ -181,16 +229,6 @@ public class FlacAudioFrame extends FlacFrame {
            // Sub-Frame data
            subFrames[cn] = FlacAudioSubFrame.create(type, cn, wb, this, br);
        }
-
-       // Skip any remaining bits, to hit the boundary
-       br.readToByteBoundary();
-
-       // Footer CRC, not checked
-       stream.read();
-       stream.read();
-
-       // Capture the raw bytes read
-       frameData = stream.getData();
    }
 
    private static int getAndCheckFirstTwo(InputStream stream) throws IOException {
@@ -219,6 +257,9 @@ public class FlacAudioFrame extends FlacFrame {
     */
    @Override
    public byte[] getData() {
+       if (rawData != null) {
+           return rawData;
+       }
        byte[] data = new byte[frameData.length+2];
 
        int first2 = (FRAME_SYNC<<2);
@@ -233,6 +274,9 @@ public class FlacAudioFrame extends FlacFrame {
     * How big is the compressed audio frame, including headers?
     */
    public int getCompresedSize() {
+      if (rawData != null) {
+         return rawData.length;
+      }
       return frameData.length+2;
    }
 
@@ -285,13 +329,71 @@ public class FlacAudioFrame extends FlacFrame {
        return codedNumber;
    }
 
+   /**
+    * The sample number of the first sample in this frame,
+    *  based on the coded number and (for fixed block size
+    *  streams) the block size from the info
+    */
+   public long getFirstSampleNumber() {
+       return firstSampleNumber;
+   }
+
    /**
     * SubFrames hold the encoded audio data on a per-channel basis
     */
    public FlacAudioSubFrame[] getSubFrames() {
+       if (subFrames == null && rawData != null) {
+           try {
+               readSubFrames(new BitsReader(new ByteArrayInputStream(
+                       rawData, headerLength, rawData.length-headerLength)));
+           } catch (IOException e) {
+               // Shouldn't ever happen when reading from memory!
+               throw new RuntimeException(e);
+           }
+       }
        return subFrames;
    }
 
+   /**
+    * Decodes the audio, returning the samples for each channel,
+    *  with any inter-channel decorrelation (left/side, right/side,
+    *  mid/side) undone. Samples are signed, at {@link #getBitsPerSample()}.
+    * <p>The decoding is done on the first call, and cached.
+    */
+   public int[][] getSamples() {
+       if (samples == null) {
+           int[][] s = new int[numChannels][];
+           for (int cn=0; cn<numChannels; cn++) {
+               s[cn] = getSubFrames()[cn].getSamples();
+           }
+
+           if (channelType == ChannelType.LEFT) {
+               // Left + Side, Right = Left - Side
+               int[] left = s[0], side = s[1];
+               for (int i=0; i<blockSize; i++) {
+                   side[i] = left[i] - side[i];
+               }
+           } else if (channelType == ChannelType.RIGHT) {
+               // Side + Right, Left = Side + Right
+               int[] side = s[0], right = s[1];
+               for (int i=0; i<blockSize; i++) {
+                   side[i] = side[i] + right[i];
+               }
+           } else if (channelType == ChannelType.MID) {
+               // Mid + Side, with the low bit of Mid coming from Side
+               int[] mid = s[0], side = s[1];
+               for (int i=0; i<blockSize; i++) {
+                   int m = (mid[i] << 1) | (side[i] & 1);
+                   int sd = side[i];
+                   mid[i] = (m + sd) >> 1;
+                   side[i] = (m - sd) >> 1;
+               }
+           }
+           samples = s;
+       }
+       return samples;
+   }
+
    protected static class SampleRate {
        protected final double kHz;
        protected final int Hz;
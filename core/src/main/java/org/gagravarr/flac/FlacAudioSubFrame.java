@@ -14,6 +14,7 @@
 package org.gagravarr.flac;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.gagravarr.ogg.BitsReader;
 import org.gagravarr.flac.FlacAudioFrame.ChannelType;
@@ -48,6 +49,13 @@ public abstract class FlacAudioSubFrame {
     protected final int blockSize;
     private int wastedBits;
 
+    /**
+     * Holds the warm-up samples and residuals as read, then
+     *  the decoded samples once the prediction has been applied
+     */
+    protected int[] samples;
+    private boolean samplesDecoded;
+
     protected FlacAudioSubFrame(int predictorOrder, int channelNumber, int wastedBits, FlacAudioFrame audioFrame) {
         this.predictorOrder = predictorOrder;
         this.wastedBits = wastedBits;
@@ -94,13 +102,43 @@ public abstract class FlacAudioSubFrame {
     }
     public abstract String getType();
 
+    /**
+     * Returns the decoded samples for this channel, with any
+     *  wasted bits restored, but before any inter-channel
+     *  decorrelation (eg mid/side stereo) has been undone.
+     * See {@link FlacAudioFrame#getSamples()} for the final
+     *  per-channel audio.
+     */
+    public int[] getSamples() {
+        if (! samplesDecoded) {
+            if (samples == null) {
+                samples = new int[blockSize];
+            }
+            restoreSamples();
+            if (wastedBits > 0) {
+                for (int i=0; i<samples.length; i++) {
+                    samples[i] <<= wastedBits;
+                }
+            }
+            samplesDecoded = true;
+        }
+        return samples;
+    }
+    /**
+     * Turns the residuals into samples in-place, for those
+     *  types which use prediction
+     */
+    protected void restoreSamples() {}
+
     public static class SubFrameConstant extends FlacAudioSubFrame {
         protected SubFrameConstant(int channelNumber, int wastedBits, FlacAudioFrame audioFrame,
                                    BitsReader data) throws IOException {
             super(-1, channelNumber, wastedBits, audioFrame);
-            // TODO Capture the real value, adjust for wasted bits,
-            //       and make available as the subframe samples
-            data.read(sampleSizeBits);
+            int value = data.readSigned(sampleSizeBits);
+            samples = new int[blockSize];
+            if (value != 0) {
+                Arrays.fill(samples, value);
+            }
         }
         public static boolean matchesType(final int type) {
             if (type == 0) return true;
@@ -112,10 +150,9 @@ public abstract class FlacAudioSubFrame {
         protected SubFrameVerbatim(int channelNumber, int wastedBits, FlacAudioFrame audioFrame,
                                    BitsReader data) throws IOException {
             super(-1, channelNumber, wastedBits, audioFrame);
+            samples = new int[blockSize];
             for (int i=0; i<blockSize; i++) {
-               // TODO Capture the values, adjust for wasted bits,
-               //       and make the samples available
-                data.read(sampleSizeBits);
+                samples[i] = data.readSigned(sampleSizeBits);
             }
         }
         public static boolean matchesType(final int type) {
@@ -126,7 +163,7 @@ public abstract class FlacAudioSubFrame {
     }
 
     public static class SubFrameWithResidual extends FlacAudioSubFrame {
-        protected int[] warmUpSamples; // TODO Adjust for wasted bits
+        protected int[] warmUpSamples; // Excludes any wasted bits
         protected SubFrameResidual residual;
         protected SubFrameWithResidual(int predictorOrder, int channelNumber, 
                                        int wastedBits, FlacAudioFrame audioFrame) {
@@ -146,13 +183,39 @@ public abstract class FlacAudioSubFrame {
                                 BitsReader data) throws IOException {
             super((type & 7), channelNumber, wastedBits, audioFrame);
 
+            samples = new int[blockSize];
             warmUpSamples = new int[predictorOrder];
             for (int i=0; i<predictorOrder; i++) {
-                warmUpSamples[i] = data.read(sampleSizeBits); // TODO Adjust for wasted bits
+                warmUpSamples[i] = data.readSigned(sampleSizeBits);
+                samples[i] = warmUpSamples[i];
             }
 
             residual = createResidual(data);
         }
+        @Override
+        protected void restoreSamples() {
+            final int[] s = samples;
+            switch (predictorOrder) {
+            case 1:
+                for (int i=1; i<s.length; i++)
+                    s[i] += s[i-1];
+                break;
+            case 2:
+                for (int i=2; i<s.length; i++)
+                    s[i] += 2*s[i-1] - s[i-2];
+                break;
+            case 3:
+                for (int i=3; i<s.length; i++)
+                    s[i] += 3*s[i-1] - 3*s[i-2] + s[i-3];
+                break;
+            case 4:
+                for (int i=4; i<s.length; i++)
+                    s[i] += 4*s[i-1] - 6*s[i-2] + 4*s[i-3] - s[i-4];
+                break;
+            default:
+                // Order zero is just the residual
+            }
+        }
         public static boolean matchesType(final int type) {
             if (type >= 8  && type <= 15) return true;
             return false;
@@ -169,9 +232,11 @@ public abstract class FlacAudioSubFrame {
                               BitsReader data) throws IOException {
             super((type & 31) + 1, channelNumber, wastedBits, audioFrame);
 
+            samples = new int[blockSize];
             warmUpSamples = new int[predictorOrder];
             for (int i=0; i<predictorOrder; i++) {
-                warmUpSamples[i] = data.read(sampleSizeBits); // TODO Adjust for wasted bits
+                warmUpSamples[i] = data.readSigned(sampleSizeBits);
+                samples[i] = warmUpSamples[i];
             }
 
             this.linearPredictorCoefficientPrecision = data.read(4)+1;
@@ -179,11 +244,25 @@ public abstract class FlacAudioSubFrame {
 
             coefficients = new int[predictorOrder];
             for (int i=0; i<predictorOrder; i++) {
-                coefficients[i] = data.read(linearPredictorCoefficientPrecision);
+                coefficients[i] = data.readSigned(linearPredictorCoefficientPrecision);
             }
 
             residual = createResidual(data);
         }
+        @Override
+        protected void restoreSamples() {
+            final int[] s = samples;
+            final int[] c = coefficients;
+            final int order = predictorOrder;
+            final int shift = linearPredictorCoefficientShift;
+            for (int i=order; i<s.length; i++) {
+                long sum = 0;
+                for (int j=0; j<order; j++) {
+                    sum += (long)c[j] * s[i-j-1];
+                }
+                s[i] += (int)(sum >> shift);
+            }
+        }
         public static boolean matchesType(final int type) {
             if (type >= 32) return true;
             return false;
@@ -237,6 +316,7 @@ public abstract class FlacAudioSubFrame {
             numPartitions = 1<<partitionOrder;
             riceParams = new int[numPartitions];
 
+            int sn = predictorOrder;
             int numSamples = 0;
             if (partitionOrder > 0) {
                 numSamples = blockSize >> partitionOrder;
@@ -258,17 +338,24 @@ public abstract class FlacAudioSubFrame {
                     // Partition holds un-encoded binary form
                     riceParam = data.read(5);
                     for (int i=0; i<partitionSamples; i++) {
-                        data.read(riceParam);
+                        samples[sn++] = data.readSigned(riceParam);
                     }
                 } else {
                     // Partition holds Rice encoded data
-                    for (int sn=0; sn<partitionSamples; sn++) {
+                    for (int i=0; i<partitionSamples; i++) {
                         // Q value stored as zero-based unary
-                        data.bitsToNextOne();
+                        int q = data.bitsToNextOne();
                         // R value stored as truncated binary
-                        data.read(riceParam);
+                        int r = data.read(riceParam);
+                        // Value is zig-zag encoded to be un-signed
+                        int v = (q << riceParam) | r;
+                        samples[sn++] = (v >>> 1) ^ -(v & 1);
                     }
                 }
+                if (data.isEOF()) {
+                    throw new IllegalArgumentException("Residual data ended early in partition "
+                                                       + pn + " of " + numPartitions);
+                }
 
                 // Record the Rice Parameter for use in unit tests etc
                 riceParams[pn] = riceParam;
@@ -40,6 +40,18 @@ public abstract class FlacFile implements Closeable {
     public static FlacFile open(File f) throws IOException, FileNotFoundException {
         // Open, in a way that we can skip backwards a few bytes
         InputStream inp = new BufferedInputStream(new FileInputStream(f), 8);
+
+        // Native files are opened directly, to allow seeking
+        inp.mark(4);
+        byte[] header = new byte[4];
+        IOUtils.readFully(inp, header);
+        inp.reset();
+        if(header[0] == (byte)'f' && header[1] == (byte)'L' &&
+           header[2] == (byte)'a' && header[3] == (byte)'C') {
+            inp.close();
+            return new FlacNativeFile(f);
+        }
+
         FlacFile file = open(inp);
         return file;
     }
@@ -72,6 +84,13 @@ public abstract class FlacFile implements Closeable {
 
    public abstract FlacAudioFrame getNextAudioPacket() throws IOException;
 
+   /**
+    * Returns the raw, un-parsed bytes of the next audio frame,
+    *  or null if there are no more. Useful if the decoding of the
+    *  frames is to be done elsewhere, eg by {@link FlacParallelDecoder}
+    */
+   public abstract byte[] getNextAudioFrameData() throws IOException;
+
    /**
     * Skips the audio data to the next packet with a granule
     *  of at least the given granule position.
@@ -88,6 +107,18 @@ public abstract class FlacFile implements Closeable {
    public List<FlacMetadataBlock> getOtherMetadata() {
       return otherMetadata;
    }
+   /**
+    * Returns the Seek Table, if the file has one, or null if not
+    */
+   public FlacSeekTable getSeekTable() {
+      if (otherMetadata == null) return null;
+      for (FlacMetadataBlock m : otherMetadata) {
+         if (m instanceof FlacSeekTable) {
+            return (FlacSeekTable)m;
+         }
+      }
+      return null;
+   }
 
    /**
     * In Reading mode, will close the underlying ogg/flac
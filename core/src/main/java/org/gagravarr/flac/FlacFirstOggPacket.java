@@ -65,6 +65,7 @@ public class FlacFirstOggPacket extends HighLevelOggStreamPacket {
     public OggPacket write() {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try {
+            baos.write(0x7f);
             baos.write("FLAC".getBytes("ASCII"));
             baos.write(majorVersion);
             baos.write(minorVersion);
@@ -0,0 +1,312 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.flac;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.gagravarr.ogg.CRCUtils;
+
+/**
+ * Splits a native FLAC audio stream up into the raw bytes of
+ *  each audio frame, without decoding the sub-frames.
+ * <p>Native FLAC doesn't record the length of a frame, so the
+ *  end of one is found by looking for the next valid frame
+ *  header (sync code plus matching CRC-8), where the CRC-16
+ *  of everything before it matches.
+ */
+public class FlacFrameScanner {
+    /** Sync, 2 bytes of settings, 7 byte number, 2+2 extras, CRC-8 */
+    protected static final int MAX_HEADER_SIZE = 16;
+    /** Smallest possible header, plus the footer CRC-16 */
+    protected static final int MIN_FRAME_SIZE = 8;
+
+    private InputStream input;
+    private byte[] buffer;
+    private int start;
+    private int end;
+    private boolean eof;
+
+    /** Stream position of the start of the buffer */
+    private long bufferPosition;
+    /** Stream position of the last frame returned */
+    private long framePosition = -1;
+    /** The largest frame to look for, so the buffer can't grow without limit */
+    private int maxFrameSize;
+
+    public FlacFrameScanner(InputStream input) {
+        this(input, 0, 0);
+    }
+    /**
+     * Creates a scanner for the stream, which is currently at
+     *  the given position (normally relative to the first frame),
+     *  and where frames are no bigger than the given size (or
+     *  zero if not known)
+     */
+    public FlacFrameScanner(InputStream input, long position, int maxFrameSize) {
+        this.input = input;
+        this.buffer = new byte[65536];
+        this.bufferPosition = position;
+        this.maxFrameSize = (maxFrameSize > 0 ? maxFrameSize : DEFAULT_MAX_FRAME_SIZE);
+    }
+    private static final int DEFAULT_MAX_FRAME_SIZE = 1<<20;
+
+    /**
+     * Returns the raw data of the next audio frame, including
+     *  the sync header and footer CRC, or null if the
+     *  end of the stream has been reached
+     */
+    public byte[] getNextFrame() throws IOException {
+        return readFrame(false);
+    }
+    /**
+     * Returns the next audio frame which passes both the header and
+     *  whole-frame CRC checks, without warning about any data skipped
+     *  to find it. Used when starting from a point which might be
+     *  part way through a frame, eg when seeking.
+     */
+    public byte[] findNextFrame() throws IOException {
+        return readFrame(true);
+    }
+
+    private byte[] readFrame(boolean resync) throws IOException {
+        int skipped = 0;
+        while (true) {
+            // Find the start of the next frame
+            while (true) {
+                fill(MAX_HEADER_SIZE);
+                if (end - start < MIN_FRAME_SIZE) {
+                    skipped += (end - start);
+                    start = end;
+                    if (skipped > 0 && !resync)
+                        System.err.println("Warning - had to skip " + skipped +
+                                " bytes of junk data at the end of the stream");
+                    return null;
+                }
+                if (isFrameHeader(buffer, start, end)) {
+                    break;
+                }
+                start++;
+                skipped++;
+            }
+
+            // Look for where the next frame starts, which is where the
+            //  CRC-16 of everything so far comes out as zero
+            int len = 0;
+            int crc = 0;
+            boolean tooBig = false;
+            while (true) {
+                boolean more = fill(len + MAX_HEADER_SIZE);
+                if (!more && len >= end - start) {
+                    // Last frame in the stream
+                    break;
+                }
+                if (crc == 0 && len >= MIN_FRAME_SIZE &&
+                        isFrameHeader(buffer, start+len, end)) {
+                    break;
+                }
+                if (len > maxFrameSize) {
+                    if (!resync) {
+                        throw new IllegalArgumentException("No frame end found within the maximum frame size of " +
+                                maxFrameSize + " bytes, at " + (bufferPosition + start));
+                    }
+                    tooBig = true;
+                    break;
+                }
+                crc = CRCUtils.updateCRC16(crc, buffer[start+len]);
+                len++;
+            }
+
+            if (tooBig || (resync && crc != 0)) {
+                // False sync, try again from the next byte
+                start++;
+                skipped++;
+                continue;
+            }
+            if (skipped > 0 && !resync)
+                System.err.println("Warning - had to skip " + skipped +
+                        " bytes of junk data before finding the next packet header");
+
+            byte[] frame = Arrays.copyOfRange(buffer, start, start+len);
+            framePosition = bufferPosition + start;
+            start += len;
+            return frame;
+        }
+    }
+
+    /**
+     * The position in the stream of the frame last returned,
+     *  or -1 if none has been
+     */
+    public long getFramePosition() {
+        return framePosition;
+    }
+    /**
+     * The position in the stream of the next byte to be checked
+     */
+    public long getPosition() {
+        return bufferPosition + start;
+    }
+
+    /**
+     * Discards anything buffered, for when the underlying
+     *  stream has been moved to the given position
+     */
+    public void reset(long position) {
+        start = 0;
+        end = 0;
+        eof = false;
+        bufferPosition = position;
+        framePosition = -1;
+    }
+    /**
+     * Moves forward in the stream to the given position,
+     *  skipping over any data between here and there
+     */
+    public void skipTo(long position) throws IOException {
+        long current = getPosition();
+        if (position < current) {
+            throw new IllegalArgumentException("Can't skip backwards from " + current + " to " + position);
+        }
+        if (position <= bufferPosition + end) {
+            start = (int)(position - bufferPosition);
+            return;
+        }
+
+        long toSkip = position - (bufferPosition + end);
+        reset(position);
+        while (toSkip > 0) {
+            long skipped = input.skip(toSkip);
+            if (skipped <= 0) {
+                if (input.read() == -1) {
+                    eof = true;
+                    break;
+                }
+                skipped = 1;
+            }
+            toSkip -= skipped;
+        }
+    }
+
+    /**
+     * Ensures there are at least the given number of bytes
+     *  available from the current start, unless the end of
+     *  the stream is hit first
+     */
+    private boolean fill(int needed) throws IOException {
+        if (end - start >= needed) return true;
+        if (eof) return false;
+
+        // Move what we have to the front, growing if needed
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end-start);
+            bufferPosition += start;
+            end -= start;
+            start = 0;
+        }
+        if (buffer.length < needed) {
+            buffer = Arrays.copyOf(buffer, Math.max(needed, buffer.length*2));
+        }
+
+        // Read as much as we can
+        while (end < needed) {
+            int read = input.read(buffer, end, buffer.length-end);
+            if (read == -1) {
+                eof = true;
+                return false;
+            }
+            end += read;
+        }
+        return true;
+    }
+
+    /**
+     * Finds the last whole audio frame within the last given number
+     *  of bytes of the file, without reading the rest of the file,
+     *  returning null if there isn't one. Frames are checked against
+     *  both their header and footer CRCs, to avoid false matches.
+     */
+    public static byte[] findLastFrame(FileChannel channel, int tailBytes) throws IOException {
+        long size = channel.size();
+        int length = (int)Math.min(size, tailBytes);
+        ByteBuffer tail = ByteBuffer.allocate(length);
+        long position = size - length;
+        while (tail.hasRemaining()) {
+            if (channel.read(tail, position + tail.position()) == -1) break;
+        }
+
+        FlacFrameScanner scanner = new FlacFrameScanner(
+                new ByteArrayInputStream(tail.array(), 0, tail.position()), position, length);
+        byte[] last = null;
+        byte[] frame;
+        while ((frame = scanner.findNextFrame()) != null) {
+            last = frame;
+        }
+        return last;
+    }
+
+    /**
+     * Is there a valid frame header at the given position,
+     *  checked by the reserved values and the header CRC-8?
+     */
+    public static boolean isFrameHeader(byte[] data, int offset, int end) {
+        if (end - offset < 6) return false;
+
+        // Sync code, plus reserved zero bit
+        if ((data[offset] & 0xff) != 0xff) return false;
+        if ((data[offset+1] & 0xfe) != 0xf8) return false;
+
+        int blockSizeRaw = (data[offset+2] & 0xf0) >> 4;
+        int sampleRateRaw = (data[offset+2] & 0x0f);
+        if (blockSizeRaw == 0 || sampleRateRaw == 15) return false;
+
+        int channelTypeRaw = (data[offset+3] & 0xf0) >> 4;
+        int sampleSizeRaw = (data[offset+3] & 0x0e) >> 1;
+        if (channelTypeRaw > 10 || sampleSizeRaw == 3) return false;
+        if ((data[offset+3] & 1) != 0) return false;
+
+        // UTF-8 style coded number
+        int pos = offset + 4;
+        int first = data[pos] & 0xff;
+        int extra;
+        if ((first & 0x80) == 0)      extra = 0;
+        else if ((first & 0xe0) == 0xc0) extra = 1;
+        else if ((first & 0xf0) == 0xe0) extra = 2;
+        else if ((first & 0xf8) == 0xf0) extra = 3;
+        else if ((first & 0xfc) == 0xf8) extra = 4;
+        else if ((first & 0xfe) == 0xfc) extra = 5;
+        else if (first == 0xfe)          extra = 6;
+        else return false;
+        if (pos + extra >= end) return false;
+        for (int i=1; i<=extra; i++) {
+            if ((data[pos+i] & 0xc0) != 0x80) return false;
+        }
+        pos += 1 + extra;
+
+        // Optional block size and sample rate
+        if (blockSizeRaw == 6) pos += 1;
+        if (blockSizeRaw == 7) pos += 2;
+        if (sampleRateRaw == 12) pos += 1;
+        if (sampleRateRaw == 13 || sampleRateRaw == 14) pos += 2;
+        if (pos >= end) return false;
+
+        // Header CRC-8
+        int crc = CRCUtils.getCRC8(data, offset, pos-offset);
+        return crc == (data[pos] & 0xff);
+    }
+}
@@ -80,7 +80,14 @@ public class FlacInfo extends FlacMetadataBlock {
      * Reads the Info from the specified data
      */
     public FlacInfo(byte[] data, int offset) {
-        super(STREAMINFO);
+        this(STREAMINFO, data, offset);
+    }
+    /**
+     * Reads the Info from the specified data, with the
+     *  given type (which may flag it as the last metadata block)
+     */
+    public FlacInfo(byte type, byte[] data, int offset) {
+        super(type);
 
         // Grab the range numbers
         minimumBlockSize = IOUtils.getIntBE(
@@ -112,7 +119,7 @@ public class FlacInfo extends FlacMetadataBlock {
         sampleRate = (next[0]<<12) + (next[1]<<4) + ((next[2]&0xf0)>>4);
         numChannels = ((next[2] & 0x0e) >> 1) + 1;
         bitsPerSample = ((next[2]&0x01)<<4) + ((next[3]&0xf0)>>4) + 1;
-        numberOfSamples = ((next[3]&0x0f)<<30) + (next[4]<<24) + 
+        numberOfSamples = ((long)(next[3]&0x0f)<<32) + ((long)next[4]<<24) +
                 (next[5]<<16) + (next[6]<<8) + next[7];
 
         // Get the signature
@@ -128,9 +135,17 @@ public class FlacInfo extends FlacMetadataBlock {
         IOUtils.writeInt3BE(out, minimumFrameSize);
         IOUtils.writeInt3BE(out, maximumFrameSize);
 
-        // Write the rates/channels/samples
-        // TODO
-        out.write(new byte[8]);
+        // Write the rates/channels/samples, bit packed
+        byte[] next = new byte[8];
+        next[0] = (byte)(sampleRate >> 12);
+        next[1] = (byte)(sampleRate >> 4);
+        next[2] = (byte)(((sampleRate & 0x0f) << 4) |
+                         (((numChannels-1) & 0x07) << 1) |
+                         (((bitsPerSample-1) & 0x10) >> 4));
+        next[3] = (byte)((((bitsPerSample-1) & 0x0f) << 4) |
+                         (int)((numberOfSamples >> 32) & 0x0f));
+        IOUtils.putInt4BE(next, 4, numberOfSamples & 0xffffffffL);
+        out.write(next);
 
         // Write the signature
         out.write(signature);
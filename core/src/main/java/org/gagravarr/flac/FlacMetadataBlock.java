@@ -61,7 +61,9 @@ public abstract class FlacMetadataBlock extends FlacFrame {
 
       switch(blockType) {
          case STREAMINFO:
-            return new FlacInfo(data, 0);
+            return new FlacInfo(type, data, 0);
+         case SEEKTABLE:
+            return new FlacSeekTable(type, data);
          case VORBIS_COMMENT:
             return new FlacTags.FlacTagsAsMetadata(type, data);
          default:
@@ -81,6 +83,13 @@ public abstract class FlacMetadataBlock extends FlacFrame {
        // Top bit of the type is the flag for this
        return (type & MASK_LASTBLOCK) != 0;
    }
+   public void setLastMetadataBlock(boolean last) {
+       if (last) {
+           type |= MASK_LASTBLOCK;
+       } else {
+           type &= MASK_BLOCKTYPE;
+       }
+   }
 
    public byte[] getData() {
        ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -100,7 +109,7 @@ public abstract class FlacMetadataBlock extends FlacFrame {
 
        // Fix the length
        byte[] data = baos.toByteArray();
-       IOUtils.putInt3BE(data, 1, data.length);
+       IOUtils.putInt3BE(data, 1, data.length-4);
 
        // All done
        return data;
@@ -16,10 +16,16 @@ package org.gagravarr.flac;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.List;
 
+import org.gagravarr.flac.FlacSeekTable.SeekPoint;
 import org.gagravarr.flac.FlacTags.FlacTagsAsMetadata;
 import org.gagravarr.ogg.IOUtils;
 
@@ -29,6 +35,30 @@ import org.gagravarr.ogg.IOUtils;
  */
 public class FlacNativeFile extends FlacFile {
    private InputStream input;
+   private FlacFrameScanner scanner;
+   private byte[] pendingFrame;
+
+   /** Only available if opened directly from a file */
+   private FileChannel channel;
+   private long audioStart;
+
+   private OutputStream output;
+   private boolean headerWritten;
+   private long infoPosition;
+   private double seekTableSpacing = -1;
+   private int seekTablePoints;
+   private FlacSeekTable seekTablePlaceholder;
+   private FlacSeekTableBuilder seekTableBuilder;
+   private long audioWritten;
+   private long samplesWritten;
+   private int minFrameSize, maxFrameSize;
+   private int minBlockSize, maxBlockSize, lastBlockSize;
+
+   /**
+    * When bisecting to seek, how close to get before
+    *  switching to reading frame-by-frame
+    */
+   protected static final int SEEK_LINEAR_BYTES = 65536;
    
    /**
     * Opens the given file for reading
@@ -37,6 +67,32 @@ public class FlacNativeFile extends FlacFile {
       this(new FileInputStream(f));
    }
    
+   /**
+    * Opens for writing.
+    */
+   public FlacNativeFile(OutputStream out) {
+      this(out, new FlacInfo(), new FlacTags());
+   }
+   /**
+    * Opens for writing, based on the settings
+    *  from a pre-read file.
+    * The Info and Tags, plus any other metadata, are written
+    *  out before the first audio frame. If the output is a
+    *  {@link FileOutputStream}, then the Info frame sizes and
+    *  number of samples are updated when closed, otherwise the
+    *  Info needs to have had those set up-front if wanted.
+    */
+   public FlacNativeFile(OutputStream out, FlacInfo info, FlacTags tags) {
+      this.output = out;
+      this.info = info;
+      this.tags = (tags == null ? new FlacTags() : tags);
+      this.otherMetadata = new ArrayList<FlacMetadataBlock>();
+
+      if (out instanceof FileOutputStream) {
+         channel = ((FileOutputStream)out).getChannel();
+      }
+   }
+
    /**
     * Opens the given FLAC file
     */
@@ -56,7 +112,7 @@ public class FlacNativeFile extends FlacFile {
       
       // Read the rest of the Metadata blocks
       otherMetadata = new ArrayList<FlacMetadataBlock>();
-      while(true) {
+      while(! info.isLastMetadataBlock()) {
          FlacMetadataBlock m = FlacMetadataBlock.create(inp);
          if(m instanceof FlacTagsAsMetadata) {
             tags = ((FlacTagsAsMetadata)m).getTags();
@@ -71,46 +127,264 @@ public class FlacNativeFile extends FlacFile {
       
       // Rest is audio
       this.input = inp;
+      this.scanner = new FlacFrameScanner(inp, 0, info.getMaximumFrameSize());
+
+      // If we can, allow seeking backwards and bisection
+      if (inp instanceof FileInputStream) {
+         channel = ((FileInputStream)inp).getChannel();
+         audioStart = channel.position();
+      }
    }
    
 	
    public FlacAudioFrame getNextAudioPacket() throws IOException {
-       int skipped = 0;
-       int b1 = 0;
-       int b2 = input.read();
-       while (b1 != -1 && b2 != -1) {
-           b1 = b2;
-           b2 = input.read();
-           if (FlacAudioFrame.isFrameHeaderStart(b1, b2)) {
-               if (skipped > 0)
-                   System.err.println("Warning - had to skip " + skipped +
-                           " bytes of junk data before finding the next packet header");
-               return new FlacAudioFrame(b1, b2, input, info);
-           }
-           skipped++;
+       byte[] data = getNextAudioFrameData();
+       if (data == null) return null;
+       return new FlacAudioFrame(data, info);
+   }
+
+   public byte[] getNextAudioFrameData() throws IOException {
+       if (pendingFrame != null) {
+           byte[] data = pendingFrame;
+           pendingFrame = null;
+           return data;
        }
-       return null;
+       return scanner.getNextFrame();
    }
 
    /**
-    * Skips the audio data to the next packet with a granule
-    *  of at least the given granule position.
-    * Note that skipping backwards is not currently supported!
+    * Skips the audio data to the frame which holds the given
+    *  sample number (FLAC granules are sample numbers), so that
+    *  it's the next one returned.
+    * Uses the Seek Table if there is one, otherwise bisects
+    *  on the frame headers. Skipping backwards is only supported
+    *  when the file was opened from a {@link File} or
+    *  {@link FileInputStream}.
     */
    public void skipToGranule(long granulePosition) throws IOException {
-       throw new RuntimeException("Not supported");
+       // Work out where to start reading frames from
+       long startAt = -1;
+       FlacSeekTable seekTable = getSeekTable();
+       if (seekTable != null) {
+           SeekPoint point = seekTable.getSeekPoint(granulePosition);
+           if (point != null) {
+               startAt = point.getByteOffset();
+           }
+       }
+       if (startAt == -1 && channel != null) {
+           startAt = bisect(granulePosition);
+       }
+
+       // Get there, if we can and it's worth it
+       if (channel != null) {
+           if (startAt == -1) startAt = 0;
+           seekTo(startAt);
+       } else if (startAt > scanner.getPosition()) {
+           // Can only go forwards, any earlier target frame is
+           //  picked up by reading on from where we are
+           pendingFrame = null;
+           scanner.skipTo(startAt);
+       }
+
+       // Read forward until we find the frame that holds it
+       byte[] data;
+       while ((data = getNextAudioFrameData()) != null) {
+           FlacAudioFrame frame = new FlacAudioFrame(data, info);
+           if (frame.getFirstSampleNumber() + frame.getBlockSize() > granulePosition) {
+               pendingFrame = data;
+               break;
+           }
+       }
+   }
+
+   /**
+    * Bisects on the frame headers, to find the position of a
+    *  frame close to but before the given sample number
+    */
+   private long bisect(long sampleNumber) throws IOException {
+       long low = 0;
+       long high = channel.size() - audioStart;
+       while (high - low > SEEK_LINEAR_BYTES) {
+           long mid = low + (high-low)/2;
+           seekTo(mid);
+
+           byte[] data = scanner.findNextFrame();
+           long position = scanner.getFramePosition();
+           if (data == null || position >= high) {
+               high = mid;
+               continue;
+           }
+
+           FlacAudioFrame frame = new FlacAudioFrame(data, info);
+           if (frame.getFirstSampleNumber() <= sampleNumber) {
+               low = position;
+           } else {
+               high = mid;
+           }
+       }
+       return low;
+   }
+
+   private void seekTo(long position) throws IOException {
+       channel.position(audioStart + position);
+       scanner.reset(position);
+       pendingFrame = null;
+   }
+
+   /**
+    * When writing, requests that a Seek Table be generated, with
+    *  a Seek Point every given number of seconds (eg
+    *  {@link FlacSeekTableBuilder#DEFAULT_SPACING_SECONDS}),
+    *  replacing any existing one. Space for the table is reserved
+    *  before the audio, based on the number of samples in the Info,
+    *  so use {@link #setSeekTableSpacing(double, int)} if that
+    *  isn't known. Only supported when writing to a file.
+    */
+   public void setSeekTableSpacing(double seconds) {
+       setSeekTableSpacing(seconds, 0);
+   }
+   /**
+    * When writing, requests that a Seek Table be generated, with
+    *  a Seek Point every given number of seconds, with space reserved
+    *  for the given number of points. If the audio turns out to
+    *  be longer, the points will be spread out to fit.
+    */
+   public void setSeekTableSpacing(double seconds, int numPoints) {
+       if (headerWritten) {
+           throw new IllegalStateException("Seek Table must be requested before writing audio");
+       }
+       this.seekTableSpacing = seconds;
+       this.seekTablePoints = numPoints;
+   }
+
+   /**
+    * Writes the given audio frame out, writing the metadata
+    *  blocks first if this is the first frame.
+    */
+   public void writeAudioData(FlacAudioFrame frame) throws IOException {
+       if (output == null) {
+           throw new IllegalStateException("Not open for writing");
+       }
+       if (!headerWritten) {
+           writeHeader();
+       }
+
+       byte[] data = frame.getData();
+       if (seekTableBuilder != null) {
+           seekTableBuilder.addFrame(samplesWritten, frame.getBlockSize(), audioWritten);
+       }
+       output.write(data);
+
+       // Track the sizes for the Info
+       if (samplesWritten == 0 || data.length < minFrameSize) minFrameSize = data.length;
+       if (data.length > maxFrameSize) maxFrameSize = data.length;
+       if (lastBlockSize > 0) {
+           // Only the last frame may be smaller than the minimum
+           if (minBlockSize == 0 || lastBlockSize < minBlockSize) minBlockSize = lastBlockSize;
+       }
+       lastBlockSize = frame.getBlockSize();
+       if (lastBlockSize > maxBlockSize) maxBlockSize = lastBlockSize;
+
+       audioWritten += data.length;
+       samplesWritten += frame.getBlockSize();
+   }
+   /**
+    * Writes the given raw audio frame data out. Only the frame
+    *  header is read, so this can be used for copying audio
+    *  without decoding it.
+    */
+   public void writeAudioData(byte[] frameData) throws IOException {
+       writeAudioData(new FlacAudioFrame(frameData, info));
+   }
+
+   private void writeHeader() throws IOException {
+       headerWritten = true;
+       long start = (channel == null ? 0 : channel.position());
+       output.write(new byte[] { 'f', 'L', 'a', 'C' });
+       infoPosition = start + 4;
+
+       // Seek Table goes straight after the Info, so they can be
+       //  updated together at the end
+       if (seekTableSpacing >= 0) {
+           if (channel == null) {
+               System.err.println("Warning - Seek Tables can only be generated when writing to a file");
+           } else {
+               seekTableBuilder = new FlacSeekTableBuilder(info, seekTableSpacing);
+               int points = seekTablePoints;
+               if (points <= 0) {
+                   points = seekTableBuilder.getNumberOfPointsFor(info.getNumberOfSamples());
+               }
+               if (points <= 0) {
+                   System.err.println("Warning - Number of samples not known, so no Seek Table space reserved");
+                   seekTableBuilder = null;
+               } else {
+                   seekTablePlaceholder = FlacSeekTableBuilder.createPlaceholder(points);
+               }
+           }
+       }
+       List<FlacMetadataBlock> metadata = new ArrayList<FlacMetadataBlock>();
+       for (FlacMetadataBlock m : otherMetadata) {
+           if (seekTableBuilder != null && m instanceof FlacSeekTable) continue;
+           metadata.add(m);
+       }
+       for (int i=0; i<metadata.size(); i++) {
+           metadata.get(i).setLastMetadataBlock(i == metadata.size()-1);
+       }
+
+       // Info, then the Seek Table, then the Tags, then any others
+       info.setLastMetadataBlock(false);
+       output.write(info.getData());
+       if (seekTablePlaceholder != null) {
+           seekTablePlaceholder.setLastMetadataBlock(false);
+           output.write(seekTablePlaceholder.getData());
+       }
+       byte[] tagsData = tags.write().getData();
+       if (metadata.isEmpty()) {
+           tagsData[0] |= (byte)FlacMetadataBlock.MASK_LASTBLOCK;
+       }
+       output.write(tagsData);
+       for (FlacMetadataBlock m : metadata) {
+           output.write(m.getData());
+       }
    }
 
    /**
     * In Reading mode, will close the underlying ogg/flac
     *  file and free its resources.
-    * In Writing mode, will write out the Info and 
-    *  Comments objects, and then the audio data.
+    * In Writing mode, will update the Info (and Seek Table,
+    *  if requested) if writing to a file, then close.
     */
    public void close() throws IOException {
        if(input != null) {
            input.close();
            input = null;
+       } else if(output != null) {
+           if (!headerWritten) {
+               writeHeader();
+           }
+
+           if (channel != null && samplesWritten > 0) {
+               // Fill in what we now know
+               info.setMinimumFrameSize(minFrameSize);
+               info.setMaximumFrameSize(maxFrameSize);
+               info.setMinimumBlockSize(minBlockSize > 0 ? minBlockSize : lastBlockSize);
+               info.setMaximumBlockSize(maxBlockSize);
+               info.setNumberOfSamples(samplesWritten);
+
+               ByteBuffer update = ByteBuffer.wrap(info.getData());
+               long position = infoPosition;
+               while (update.hasRemaining()) {
+                   position += channel.write(update, position);
+               }
+
+               // The Seek Table comes straight after the Info
+               if (seekTableBuilder != null) {
+                   seekTableBuilder.writeOver(channel, position, seekTablePlaceholder);
+               }
+           }
+
+           output.close();
+           output = null;
        } else {
            throw new RuntimeException("Not supported");
        }
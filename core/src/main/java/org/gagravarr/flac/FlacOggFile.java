@@ -43,6 +43,9 @@ public class FlacOggFile extends FlacFile implements OggAudioHeaders {
 
     private FlacFirstOggPacket firstPacket;
     private List<FlacAudioFrame> writtenAudio;
+    private double seekTableSpacing = -1;
+    private boolean headersWritten;
+    private long lastGranule;
    
     /**
      * Opens the given file for reading
@@ -78,11 +81,13 @@ public class FlacOggFile extends FlacFile implements OggAudioHeaders {
         info = firstPacket.getInfo();
 
         // Next must be the Tags (Comments)
-        tags = new FlacTags(r.getNextPacketWithSid(sid));
+        p = r.getNextPacketWithSid(sid);
+        tags = new FlacTags(p);
+        boolean tagsLast = (p.getData()[0] & FlacMetadataBlock.MASK_LASTBLOCK) != 0;
 
         // Then continue until the last metadata
         otherMetadata = new ArrayList<FlacMetadataBlock>();
-        while( (p = r.getNextPacketWithSid(sid)) != null ) {
+        while( !tagsLast && (p = r.getNextPacketWithSid(sid)) != null ) {
             FlacMetadataBlock block = FlacMetadataBlock.create(new ByteArrayInputStream(p.getData()));
             otherMetadata.add(block);
             if(block.isLastMetadataBlock()) {
@@ -125,6 +130,7 @@ public class FlacOggFile extends FlacFile implements OggAudioHeaders {
         }
 
         writtenAudio = new ArrayList<FlacAudioFrame>();
+        otherMetadata = new ArrayList<FlacMetadataBlock>();
 
         this.firstPacket = new FlacFirstOggPacket(info);
         this.info = info;
@@ -139,9 +145,22 @@ public class FlacOggFile extends FlacFile implements OggAudioHeaders {
     }
 
     public FlacAudioFrame getNextAudioPacket() throws IOException {
-        OggPacket p = null;
-        while( (p = r.getNextPacketWithSid(sid)) != null ) {
-            return new FlacAudioFrame(p.getData(), info);
+        byte[] data = getNextAudioFrameData();
+        if (data == null) return null;
+        return new FlacAudioFrame(data, info);
+    }
+
+    /**
+     * Returns the data of the next audio packet, which in Ogg
+     *  always holds exactly one FLAC frame
+     */
+    public byte[] getNextAudioFrameData() throws IOException {
+        OggPacket p;
+        while ((p = r.getNextPacketWithSid(sid)) != null) {
+            // Skip any empty End-Of-Stream marker packets
+            if (p.getData().length > 0) {
+                return p.getData();
+            }
         }
         return null;
     }
@@ -179,6 +198,103 @@ public class FlacOggFile extends FlacFile implements OggAudioHeaders {
     public void writeAudioData(FlacAudioFrame data) {
         writtenAudio.add(data);
     }
+    /**
+     * Writes the given audio straight out, with the given granule
+     *  (the number of samples up to the end of this frame, eg from
+     *  {@link FlacAudioFrame#getFirstSampleNumber()}).
+     * {@link #writeHeaders()} must have been called first.
+     */
+    public void writeAudioData(FlacAudioFrame data, long granule) throws IOException {
+        if (!headersWritten) {
+            throw new IllegalStateException("Headers must be written before streaming audio");
+        }
+        writeFrame(data, granule);
+    }
+
+    /**
+     * Writes out the Info, Tags and other metadata now, rather than
+     *  waiting for {@link #close()}, so that audio can then be
+     *  streamed straight out without being buffered. Any audio
+     *  already buffered is written too.
+     * As the Ogg pages can't be changed later, no Seek Table can
+     *  be generated when writing like this, and the Info needs to
+     *  have been fully populated first.
+     */
+    public void writeHeaders() throws IOException {
+        if (headersWritten) return;
+        if (w == null) {
+            throw new IllegalStateException("Not open for writing");
+        }
+
+        // Work out the other metadata, including any Seek Table
+        List<FlacMetadataBlock> metadata = new ArrayList<FlacMetadataBlock>();
+        for (FlacMetadataBlock m : otherMetadata) {
+            if (seekTableSpacing >= 0 && m instanceof FlacSeekTable) continue;
+            metadata.add(m);
+        }
+        if (seekTableSpacing >= 0) {
+            FlacSeekTableBuilder seekTable =
+                    new FlacSeekTableBuilder(info, seekTableSpacing);
+            long offset = 0;
+            for(FlacAudioFrame fa : writtenAudio) {
+                seekTable.addFrame(fa, offset);
+                offset += fa.getCompresedSize();
+            }
+            metadata.add(seekTable.build());
+        }
+        for (int i=0; i<metadata.size(); i++) {
+            metadata.get(i).setLastMetadataBlock(i == metadata.size()-1);
+        }
+
+        // Info goes on a page of its own, then the other headers
+        firstPacket.setNumberOfHeaderBlocks(1 + metadata.size());
+        w.bufferPacket(firstPacket.write(), true);
+        byte[] tagsData = tags.write().getData();
+        if (metadata.isEmpty()) {
+            // Tags are the last metadata block
+            tagsData[0] |= (byte)FlacMetadataBlock.MASK_LASTBLOCK;
+        }
+        w.bufferPacket(new OggPacket(tagsData), false);
+        for (FlacMetadataBlock m : metadata) {
+            w.bufferPacket(new OggPacket(m.getData()), false);
+        }
+        w.flush();
+        headersWritten = true;
+
+        writeBufferedAudio();
+    }
+
+    private void writeBufferedAudio() throws IOException {
+        for(FlacAudioFrame fa : writtenAudio) {
+            writeFrame(fa, lastGranule + fa.getBlockSize());
+        }
+        writtenAudio.clear();
+    }
+
+    private void writeFrame(FlacAudioFrame fa, long granule) throws IOException {
+        // Flush if needed, keeping the last packet back
+        //  so that it can be marked as End-Of-Stream
+        if(w.getSizePendingFlush() > 16384) {
+            w.flush();
+        }
+
+        // Granule is the number of samples so far
+        w.bufferPacket(new OggPacket(fa.getData()), granule);
+        lastGranule = granule;
+    }
+
+    /**
+     * Requests that a Seek Table be generated when writing,
+     *  with a Seek Point every given number of seconds (eg
+     *  {@link FlacSeekTableBuilder#DEFAULT_SPACING_SECONDS}),
+     *  replacing any existing one. Use a negative spacing to
+     *  not generate one (the default).
+     * The byte offsets are those of the FLAC frames, excluding
+     *  the Ogg overhead, as if the audio were native FLAC
+     */
+    public void setSeekTableSpacing(double seconds) {
+        this.seekTableSpacing = seconds;
+    }
 	
     /**
      * In Reading mode, will close the underlying ogg
@@ -193,28 +309,8 @@ public class FlacOggFile extends FlacFile implements OggAudioHeaders {
             ogg = null;
         }
         if(w != null) {
-            w.bufferPacket(firstPacket.write(), true);
-            w.bufferPacket(tags.write(), false);
-            // TODO Write the others
-            //w.bufferPacket(setup.write(), true);
-
-            long lastGranule = 0;
-            for(FlacAudioFrame fa : writtenAudio) {
-                // Update the granule position as we go
-                // TODO Track this
-//              if(fa.getGranulePosition() >= 0 &&
-//                 lastGranule != fa.getGranulePosition()) {
-//                 w.flush();
-//                 lastGranule = fa.getGranulePosition();
-//                 w.setGranulePosition(lastGranule);
-//              }
-
-                // Write the data, flushing if needed
-                w.bufferPacket(new OggPacket(fa.getData()));
-                if(w.getSizePendingFlush() > 16384) {
-                    w.flush();
-                }
-            }
+            writeHeaders();
+            writeBufferedAudio();
 
             w.close();
             w = null;
@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.flac;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes the audio frames of a {@link FlacFile} using several
+ *  threads, while still returning them in stream order.
+ * <p>FLAC frames are independent of each other, so once the raw
+ *  frame bytes have been split out (cheap, done on the calling
+ *  thread), the sub-frame decoding and prediction can be done
+ *  on a pool. A bounded window of frames is kept in flight,
+ *  so memory use doesn't depend on the length of the stream.
+ * <p>Closing this doesn't close the underlying {@link FlacFile}.
+ */
+public class FlacParallelDecoder implements Closeable {
+    private final FlacFile file;
+    private final FlacInfo info;
+    private final ExecutorService executor;
+    private final boolean ownExecutor;
+    private final int maxInFlight;
+
+    private final ArrayDeque<Future<FlacAudioFrame>> inFlight;
+    private boolean finished;
+
+    /**
+     * Decodes with one thread per processor, which will be
+     *  shut down when this is closed
+     */
+    public FlacParallelDecoder(FlacFile file) {
+        this(file, Runtime.getRuntime().availableProcessors());
+    }
+    private FlacParallelDecoder(FlacFile file, int threads) {
+        this(file, Executors.newFixedThreadPool(threads), threads*4, true);
+    }
+    /**
+     * Decodes using the given executor, with at most the given
+     *  number of frames being decoded or waiting to be
+     *  returned at any one time. The executor is not shut down
+     *  on close.
+     */
+    public FlacParallelDecoder(FlacFile file, ExecutorService executor, int maxInFlight) {
+        this(file, executor, maxInFlight, false);
+    }
+    private FlacParallelDecoder(FlacFile file, ExecutorService executor,
+                                int maxInFlight, boolean ownExecutor) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Must allow at least one frame in flight, not " + maxInFlight);
+        }
+        this.file = file;
+        this.info = file.getInfo();
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new ArrayDeque<Future<FlacAudioFrame>>(maxInFlight);
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Returns the next audio frame, in stream order, with the
+     *  samples already decoded (see {@link FlacAudioFrame#getSamples()}),
+     *  or null at the end of the stream.
+     */
+    public FlacAudioFrame getNextFrame() throws IOException {
+        fillWindow();
+
+        Future<FlacAudioFrame> next = inFlight.poll();
+        if (next == null) return null;
+
+        // Keep the pool busy while we wait for this one
+        fillWindow();
+
+        try {
+            return next.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a frame to decode");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException)cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private void fillWindow() throws IOException {
+        while (!finished && inFlight.size() < maxInFlight) {
+            final byte[] data = file.getNextAudioFrameData();
+            if (data == null) {
+                finished = true;
+                break;
+            }
+            inFlight.add(executor.submit(new Callable<FlacAudioFrame>() {
+                public FlacAudioFrame call() throws IOException {
+                    FlacAudioFrame frame = new FlacAudioFrame(data, info);
+                    frame.getSamples();
+                    return frame;
+                }
+            }));
+        }
+    }
+
+    /**
+     * Abandons any frames still being decoded, and shuts down
+     *  the threads if we created them
+     */
+    public void close() throws IOException {
+        finished = true;
+        Future<FlacAudioFrame> f;
+        while ((f = inFlight.poll()) != null) {
+            f.cancel(true);
+        }
+        if (ownExecutor) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.flac;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gagravarr.ogg.IOUtils;
+
+/**
+ * The Seek Table metadata block, which holds a series of
+ *  Seek Points, each giving the sample number and byte
+ *  offset of the start of a frame, to allow quick seeking
+ *  within the audio.
+ */
+public class FlacSeekTable extends FlacMetadataBlock {
+    /** Each seek point is 8 + 8 + 2 bytes */
+    public static final int SEEK_POINT_SIZE = 18;
+    /** Sample number used for placeholder seek points */
+    public static final long PLACEHOLDER = 0xffffffffffffffffL;
+
+    private List<SeekPoint> points;
+
+    /**
+     * Creates a new, empty seek table
+     */
+    public FlacSeekTable() {
+        super(SEEKTABLE);
+        points = new ArrayList<SeekPoint>();
+    }
+
+    /**
+     * Reads the seek points from the specified data
+     */
+    public FlacSeekTable(byte type, byte[] data) {
+        super(type);
+
+        int numPoints = data.length / SEEK_POINT_SIZE;
+        points = new ArrayList<SeekPoint>(numPoints);
+        for (int i=0; i<numPoints; i++) {
+            int offset = i*SEEK_POINT_SIZE;
+            long sampleNumber = IOUtils.getInt8BE(data, offset);
+            long byteOffset = IOUtils.getInt8BE(data, offset+8);
+            int numSamples = IOUtils.getInt2BE(data, offset+16);
+            points.add(new SeekPoint(sampleNumber, byteOffset, numSamples));
+        }
+    }
+
+    @Override
+    protected void write(OutputStream out) throws IOException {
+        for (SeekPoint p : points) {
+            IOUtils.writeInt8BE(out, p.sampleNumber);
+            IOUtils.writeInt8BE(out, p.byteOffset);
+            IOUtils.writeInt2BE(out, p.numSamples);
+        }
+    }
+
+    /**
+     * All the Seek Points, including any placeholders
+     */
+    public List<SeekPoint> getSeekPoints() {
+        return points;
+    }
+    public void addSeekPoint(SeekPoint point) {
+        points.add(point);
+    }
+
+    /**
+     * Finds the (non-placeholder) Seek Point with the highest
+     *  sample number which is at or before the given sample,
+     *  or null if there isn't one.
+     */
+    public SeekPoint getSeekPoint(long sampleNumber) {
+        SeekPoint best = null;
+        for (SeekPoint p : points) {
+            if (p.isPlaceholder()) continue;
+            if (p.sampleNumber <= sampleNumber) {
+                if (best == null || p.sampleNumber > best.sampleNumber) {
+                    best = p;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Where the given sample can be found, by the sample
+     *  number of the first sample of a target frame, and
+     *  the offset in bytes of that frame from the first
+     *  frame of the audio data.
+     */
+    public static class SeekPoint {
+        private final long sampleNumber;
+        private final long byteOffset;
+        private final int numSamples;
+
+        public SeekPoint(long sampleNumber, long byteOffset, int numSamples) {
+            this.sampleNumber = sampleNumber;
+            this.byteOffset = byteOffset;
+            this.numSamples = numSamples;
+        }
+        /**
+         * Creates a placeholder point, which can later be
+         *  replaced with a real one
+         */
+        public static SeekPoint placeholder() {
+            return new SeekPoint(PLACEHOLDER, 0, 0);
+        }
+
+        /**
+         * Sample number of the first sample of the target frame
+         */
+        public long getSampleNumber() {
+            return sampleNumber;
+        }
+        /**
+         * Offset in bytes from the first byte of the first frame
+         *  header to the first byte of the target frame header
+         */
+        public long getByteOffset() {
+            return byteOffset;
+        }
+        /**
+         * Number of samples in the target frame
+         */
+        public int getNumSamples() {
+            return numSamples;
+        }
+        public boolean isPlaceholder() {
+            return sampleNumber == PLACEHOLDER;
+        }
+
+        @Override
+        public String toString() {
+            if (isPlaceholder()) return "SeekPoint(placeholder)";
+            return "SeekPoint(sample=" + sampleNumber + ", offset=" + byteOffset +
+                   ", samples=" + numSamples + ")";
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.flac;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gagravarr.flac.FlacSeekTable.SeekPoint;
+
+/**
+ * Builds up a {@link FlacSeekTable} as audio frames are written,
+ *  with a Seek Point every so many samples.
+ * <p>As the number of points needed is normally known (or can be
+ *  estimated) before the audio is written, a table of placeholder
+ *  points can be written out first, then over-written in place with
+ *  the real one of the same size once all the audio is done, so
+ *  no second pass over the audio is needed.
+ */
+public class FlacSeekTableBuilder {
+    /** By default, have a seek point every 10 seconds */
+    public static final double DEFAULT_SPACING_SECONDS = 10;
+
+    private final long spacing;
+    private final List<SeekPoint> points;
+    private long nextPointAt;
+
+    /**
+     * Creates a builder with a seek point every given number
+     *  of samples
+     */
+    public FlacSeekTableBuilder(long spacingSamples) {
+        if (spacingSamples < 1) {
+            throw new IllegalArgumentException("Spacing must be at least one sample, not " + spacingSamples);
+        }
+        this.spacing = spacingSamples;
+        this.points = new ArrayList<SeekPoint>();
+    }
+    /**
+     * Creates a builder with a seek point every given number
+     *  of seconds, based on the sample rate of the Info
+     */
+    public FlacSeekTableBuilder(FlacInfo info, double spacingSeconds) {
+        this(Math.max(1, (long)(info.getSampleRate() * spacingSeconds)));
+    }
+
+    public long getSpacing() {
+        return spacing;
+    }
+
+    /**
+     * Records a frame which has been written. The byte offset
+     *  is from the start of the first frame.
+     */
+    public void addFrame(long firstSampleNumber, int numSamples, long byteOffset) {
+        long endSample = firstSampleNumber + numSamples;
+        if (endSample <= nextPointAt) return;
+
+        points.add(new SeekPoint(firstSampleNumber, byteOffset, numSamples));
+        while (nextPointAt < endSample) {
+            nextPointAt += spacing;
+        }
+    }
+    /**
+     * Records a frame which has been written. The byte offset
+     *  is from the start of the first frame.
+     */
+    public void addFrame(FlacAudioFrame frame, long byteOffset) {
+        addFrame(frame.getFirstSampleNumber(), frame.getBlockSize(), byteOffset);
+    }
+
+    /**
+     * How many seek points have been recorded so far
+     */
+    public int getNumberOfPoints() {
+        return points.size();
+    }
+    /**
+     * How many seek points will be needed for the given
+     *  number of samples, at the given spacing
+     */
+    public static int getNumberOfPoints(long numberOfSamples, long spacing) {
+        if (numberOfSamples <= 0) return 0;
+        return (int)((numberOfSamples-1) / spacing) + 1;
+    }
+    /**
+     * How many seek points will be needed for the given
+     *  number of samples, at our spacing
+     */
+    public int getNumberOfPointsFor(long numberOfSamples) {
+        return getNumberOfPoints(numberOfSamples, spacing);
+    }
+
+    /**
+     * Creates a Seek Table of the given number of placeholders,
+     *  to be written out before the audio to reserve space
+     */
+    public static FlacSeekTable createPlaceholder(int numPoints) {
+        FlacSeekTable table = new FlacSeekTable();
+        for (int i=0; i<numPoints; i++) {
+            table.addSeekPoint(SeekPoint.placeholder());
+        }
+        return table;
+    }
+
+    /**
+     * Creates a Seek Table with all the points recorded
+     */
+    public FlacSeekTable build() {
+        FlacSeekTable table = new FlacSeekTable();
+        for (SeekPoint p : points) {
+            table.addSeekPoint(p);
+        }
+        return table;
+    }
+    /**
+     * Creates a Seek Table with exactly the given number of points,
+     *  to replace a placeholder one. If too few points were recorded,
+     *  placeholders are added on the end, if too many then an evenly
+     *  spread subset is used.
+     */
+    public FlacSeekTable build(int numPoints) {
+        FlacSeekTable table = new FlacSeekTable();
+        int have = points.size();
+        if (have <= numPoints) {
+            for (SeekPoint p : points) {
+                table.addSeekPoint(p);
+            }
+            for (int i=have; i<numPoints; i++) {
+                table.addSeekPoint(SeekPoint.placeholder());
+            }
+        } else {
+            for (int i=0; i<numPoints; i++) {
+                table.addSeekPoint(points.get((int)((long)i * have / numPoints)));
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Over-writes a placeholder Seek Table block, previously written
+     *  at the given position in the file, with the real one
+     */
+    public void writeOver(FileChannel channel, long position, FlacSeekTable placeholder) throws IOException {
+        FlacSeekTable table = build(placeholder.getSeekPoints().size());
+        table.setLastMetadataBlock(placeholder.isLastMetadataBlock());
+
+        ByteBuffer data = ByteBuffer.wrap(table.getData());
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.flac;
+
+import org.gagravarr.ogg.IOUtils;
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggStreamHandler;
+import org.gagravarr.ogg.OggStreamIdentifier;
+import org.gagravarr.ogg.OggStreamPacket;
+
+/**
+ * Identifies FLAC-in-Ogg streams, and creates their first
+ *  and tags packets. Other metadata and the audio frames
+ *  have no high level Ogg packet form.
+ */
+public class FlacStreamHandler extends OggStreamHandler {
+    public FlacStreamHandler() {
+        super(OggStreamIdentifier.OGG_FLAC, IOUtils.toUTF8Bytes("\u007fFLAC"));
+    }
+
+    @Override
+    public boolean isStream(OggPacket firstPacket) {
+        return FlacFirstOggPacket.isFlacStream(firstPacket);
+    }
+    @Override
+    public OggStreamPacket createPacket(OggPacket packet) {
+        if (packet.isBeginningOfStream()) {
+            return new FlacFirstOggPacket(packet);
+        }
+        byte[] data = packet.getData();
+        if (data.length > 0 && (data[0] & 0x7f) == FlacMetadataBlock.VORBIS_COMMENT) {
+            return new FlacTags(packet);
+        }
+        return null;
+    }
+}
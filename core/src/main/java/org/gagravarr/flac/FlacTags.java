@@ -32,7 +32,7 @@ public class FlacTags extends VorbisStyleComments implements OggAudioTagsHeader
       
       // Verify the type
       byte type = getData()[0];
-      if(type != FlacMetadataBlock.VORBIS_COMMENT) {
+      if((type & FlacMetadataBlock.MASK_BLOCKTYPE) != FlacMetadataBlock.VORBIS_COMMENT) {
          throw new IllegalArgumentException("Invalid type " + type);
       }
    }
@@ -61,7 +61,7 @@ public class FlacTags extends VorbisStyleComments implements OggAudioTagsHeader
    @Override
    public void populateMetadataHeader(byte[] b, int dataLength) {
       b[0] = FlacMetadataBlock.VORBIS_COMMENT;
-      IOUtils.putInt3BE(b, 1, dataLength);
+      IOUtils.putInt3BE(b, 1, dataLength - getHeaderSize());
    }
    @Override
    protected void populateMetadataFooter(OutputStream out) {
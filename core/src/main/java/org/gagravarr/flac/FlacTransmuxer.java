@@ -0,0 +1,108 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.flac;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Converts FLAC between native framing and Flac-in-Ogg, by copying
+ *  the raw audio frames across, without decoding them.
+ * <p>Only the frame headers are read, to get the sample numbers
+ *  for the Ogg granules. Frames are written out as they are read,
+ *  so only a few pages or frames are held in memory at once. The
+ *  Tags and other metadata (including any Seek Table, whose offsets
+ *  exclude the Ogg overhead) are copied over unchanged.
+ */
+public class FlacTransmuxer {
+    private FlacTransmuxer() {}
+
+    /**
+     * Copies the audio from whichever kind of FLAC file is given
+     *  into the other kind, written to the given stream
+     */
+    public static void transmux(FlacFile in, OutputStream out) throws IOException {
+        if (in instanceof FlacOggFile) {
+            toNative((FlacOggFile)in, out);
+        } else if (in instanceof FlacNativeFile) {
+            toOgg((FlacNativeFile)in, out);
+        } else {
+            throw new IllegalArgumentException("Unsupported FLAC file " + in);
+        }
+    }
+
+    /**
+     * Copies the audio from a Flac-in-Ogg file to a native FLAC
+     *  one, closing the output when done. If the output is a
+     *  {@link java.io.FileOutputStream}, the Info frame sizes
+     *  and number of samples will be updated at the end.
+     */
+    public static void toNative(FlacOggFile in, OutputStream out) throws IOException {
+        FlacNativeFile flac = new FlacNativeFile(out, toNativeInfo(in.getInfo()), in.getTags());
+        flac.getOtherMetadata().addAll(in.getOtherMetadata());
+
+        byte[] frame;
+        while ((frame = in.getNextAudioFrameData()) != null) {
+            flac.writeAudioData(frame);
+        }
+        flac.close();
+    }
+
+    /**
+     * Copies the audio from a native FLAC file into Flac-in-Ogg,
+     *  closing the output when done. The granule of each page comes
+     *  from the sample numbers in the header of the last frame on it.
+     */
+    public static void toOgg(FlacNativeFile in, OutputStream out) throws IOException {
+        FlacInfo nativeInfo = in.getInfo();
+        FlacTags tags = in.getTags();
+        if (tags == null) {
+            tags = new FlacTags();
+        }
+
+        FlacOggFile flac = new FlacOggFile(out, toOggInfo(nativeInfo), tags);
+        flac.getOtherMetadata().addAll(in.getOtherMetadata());
+        flac.writeHeaders();
+
+        byte[] data;
+        long lastGranule = 0;
+        while ((data = in.getNextAudioFrameData()) != null) {
+            // Only the frame header gets parsed
+            FlacAudioFrame frame = new FlacAudioFrame(data, nativeInfo);
+            long granule = frame.getFirstSampleNumber() + frame.getBlockSize();
+            if (granule < lastGranule) {
+                System.err.println("Warning - frame " + frame.getCodedNumber() +
+                        " has sample numbers before the previous frame, ignoring");
+                granule = lastGranule + frame.getBlockSize();
+            }
+            flac.writeAudioData(frame, granule);
+            lastGranule = granule;
+        }
+        flac.close();
+    }
+
+    /**
+     * Returns a native version of the given Info
+     */
+    public static FlacInfo toNativeInfo(FlacInfo info) {
+        return new FlacInfo(info.getData(), 4);
+    }
+    /**
+     * Returns a Flac-in-Ogg version of the given Info, ready
+     *  to go in a new (version 1.0) first Ogg packet
+     */
+    public static FlacOggInfo toOggInfo(FlacInfo info) {
+        return new FlacOggInfo(info.getData(), 4, null);
+    }
+}
@@ -58,6 +58,19 @@ public class BitsReader {
         if (eof) return -1;
         return res;
     }
+
+    /**
+     * Reads the given number of bits as a two's complement
+     *  signed number.
+     * <p>As -1 is a valid value, check {@link #isEOF()} to
+     *  detect the end of the stream.
+     */
+    public int readSigned(int numBits) throws IOException {
+        if (numBits == 0) return 0;
+        int res = read(numBits);
+        int shift = 32 - numBits;
+        return (res << shift) >> shift;
+    }
     
     /**
      * Counts the number of bits until the next zero (false)
@@ -47,4 +47,70 @@ public class CRCUtils {
 
         return crc;
     }
+
+    // FLAC uses two smaller CRCs, CRC-8 for frame headers
+    //  and CRC-16 for whole frames, both without reflection
+    protected static final int CRC8_POLYNOMIAL = 0x07;
+    protected static final int CRC16_POLYNOMIAL = 0x8005;
+    private static int[] CRC8_TABLE = new int[256];
+    private static int[] CRC16_TABLE = new int[256];
+
+    static {
+        for(int i=0; i<256; i++) {
+            int crc = i;
+            for(int j=0; j<8; j++) {
+                if( (crc & 0x80) != 0 ) {
+                    crc = ((crc << 1) ^ CRC8_POLYNOMIAL) & 0xff;
+                } else {
+                    crc = (crc << 1) & 0xff;
+                }
+            }
+            CRC8_TABLE[i] = crc;
+
+            crc = i << 8;
+            for(int j=0; j<8; j++) {
+                if( (crc & 0x8000) != 0 ) {
+                    crc = ((crc << 1) ^ CRC16_POLYNOMIAL) & 0xffff;
+                } else {
+                    crc = (crc << 1) & 0xffff;
+                }
+            }
+            CRC16_TABLE[i] = crc;
+        }
+    }
+
+    /**
+     * Calculates the FLAC frame header CRC-8 of the given range
+     */
+    public static int getCRC8(byte[] data, int offset, int length) {
+        int crc = 0;
+        for(int i=offset; i<offset+length; i++) {
+            crc = CRC8_TABLE[ crc ^ (data[i] & 0xff) ];
+        }
+        return crc;
+    }
+
+    /**
+     * Calculates the FLAC frame CRC-16 of the given range
+     */
+    public static int getCRC16(byte[] data, int offset, int length) {
+        return getCRC16(data, offset, length, 0);
+    }
+    /**
+     * Continues calculating a FLAC frame CRC-16, from the
+     *  CRC of the previous data
+     */
+    public static int getCRC16(byte[] data, int offset, int length, int previous) {
+        int crc = previous;
+        for(int i=offset; i<offset+length; i++) {
+            crc = ((crc << 8) & 0xffff) ^ CRC16_TABLE[ (crc >>> 8) ^ (data[i] & 0xff) ];
+        }
+        return crc;
+    }
+    /**
+     * Updates a FLAC frame CRC-16 with a single byte
+     */
+    public static int updateCRC16(int crc, int b) {
+        return ((crc << 8) & 0xffff) ^ CRC16_TABLE[ (crc >>> 8) ^ (b & 0xff) ];
+    }
 }
@@ -186,6 +186,13 @@ public class IOUtils {
         return getIntBE(b0, b1, b2, b3);
     }
 
+    public static long getInt8BE(byte[] data) {
+        return getInt8BE(data, 0);
+    }
+    public static long getInt8BE(byte[] data, int offset) {
+        return (getInt4BE(data, offset) << 32) + getInt4BE(data, offset+4);
+    }
+
     public static int getIntBE(int i0, int i1) {
         return (i0 << 8) + (i1 << 0);
     }
@@ -193,7 +200,7 @@ public class IOUtils {
         return (i0 << 16) + (i1 << 8) + (i2 << 0);
     }
     public static long getIntBE(int i0, int i1, int i2, int i3) {
-        return (i0 << 24) + (i1 << 16) + (i2 << 8) + (i3 << 0);
+        return ((long)i0 << 24) + (i1 << 16) + (i2 << 8) + (i3 << 0);
     }
 
 
@@ -301,6 +308,16 @@ public class IOUtils {
         data[i+0] = (byte)((v >>> 24) & 0xFF);
     }
 
+    public static void writeInt8BE(OutputStream out, long v) throws IOException {
+        byte[] b8 = new byte[8];
+        putInt8BE(b8, 0, v);
+        out.write(b8);
+    }
+    public static void putInt8BE(byte[] data, int offset, long v) {
+        putInt4BE(data, offset, v >>> 32);
+        putInt4BE(data, offset+4, v & 0xFFFFFFFFL);
+    }
+
     /**
      * Gets the integer value that is stored in UTF-8 like fashion, in Big Endian.
      * A high bit at the start indicates continuation, count until the first
@@ -0,0 +1,284 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds the links of a chained Ogg file, where one logical stream
+ *  follows on after another (eg internet radio recordings, or joined
+ *  up podcasts), from the Ogg page headers alone.
+ * <p>Rather than reading the whole file, the end of each link is
+ *  found by bisection, looking at the serial number of the page found
+ *  at each point, so only a few dozen pages need to be read for each
+ *  link however long it is. Each link is expected to hold a single
+ *  logical stream, as is normal for chained audio.
+ */
+public class OggChainIndex {
+    private static final int SCAN_SIZE = OggGranuleFinder.MAXIMUM_PAGE_SIZE;
+
+    private final FileChannel channel;
+    private final long size;
+    private final List<Link> links = new ArrayList<Link>();
+    private int pagesRead;
+
+    private final byte[] window = new byte[4*SCAN_SIZE];
+    private long windowStart = -1;
+    private int windowLength;
+
+    /**
+     * Indexes the links of the chained Ogg file
+     */
+    public OggChainIndex(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+
+        long start = 0;
+        OggPageHeader first;
+        while ((first = findPage(start, size)) != null) {
+            if (! first.isBeginningOfStream()) {
+                System.err.println("Warning - chain link at " + first.getOffset() +
+                                   " doesn't start with a Beginning Of Stream page");
+            }
+            long[] endAndGranule = findLinkEnd(first);
+            long end = endAndGranule[0];
+            links.add(new Link(links.size(), first.getSid(), first.getOffset(), end, endAndGranule[1]));
+            start = end;
+        }
+    }
+
+    /**
+     * The links of the chain, in order
+     */
+    public List<Link> getLinks() {
+        return Collections.unmodifiableList(links);
+    }
+    /**
+     * Returns the link holding the given offset in the file,
+     *  or null if the offset is outside of all of them
+     */
+    public Link findLink(long offset) {
+        for (Link link : links) {
+            if (offset >= link.startOffset && offset < link.endOffset) {
+                return link;
+            }
+        }
+        return null;
+    }
+    /**
+     * How many pages were read to index the file
+     */
+    public int getPagesRead() {
+        return pagesRead;
+    }
+
+    /**
+     * Finds where the first page of a different stream starts, by
+     *  bisection, and the granule of the last page before that
+     * @return The end offset and last granule
+     */
+    private long[] findLinkEnd(OggPageHeader first) throws IOException {
+        int sid = first.getSid();
+        OggPageHeader last = first;
+        long lo = first.getOffset() + first.getPageSize();
+        long hi = size;
+        long end = size;
+
+        // The end lies between lo (the end of a page in the link) and
+        //  end (the start of a page of another stream, or the end of
+        //  the file), with no pages starting between hi and end
+        while (lo < hi) {
+            long mid = lo + (hi - lo) / 2;
+            OggPageHeader page = findPage(mid, hi);
+            if (page == null) {
+                hi = mid;
+            } else if (page.getSid() == sid) {
+                last = page;
+                lo = page.getOffset() + page.getPageSize();
+            } else {
+                end = page.getOffset();
+                hi = page.getOffset();
+            }
+        }
+
+        // Pages follow on from each other, so the last one found in
+        //  the link is normally the one just before the end
+        long granule = last.getGranulePosition();
+        if (granule < 0 || last.getOffset() + last.getPageSize() != end) {
+            granule = findLastGranule(sid, first.getOffset(), end);
+        }
+        return new long[] { end, granule };
+    }
+
+    /**
+     * Finds the last granule in the stream, reading back from the end
+     */
+    private long findLastGranule(int sid, long start, long end) throws IOException {
+        long from = end;
+        while (from > start) {
+            from = Math.max(start, from - 2*SCAN_SIZE);
+            long granule = -1;
+            long offset = from;
+            OggPageHeader page;
+            while ((page = findPage(offset, end)) != null) {
+                if (page.getSid() == sid && page.getGranulePosition() >= 0) {
+                    granule = page.getGranulePosition();
+                }
+                offset = page.getOffset() + page.getPageSize();
+            }
+            if (granule >= 0) {
+                return granule;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the first whole, valid page starting between the two
+     *  offsets, or null if there isn't one
+     */
+    private OggPageHeader findPage(long from, long to) throws IOException {
+        to = Math.min(to, size);
+        while (from < to) {
+            // Keep enough read ahead for a whole page
+            long windowEnd = windowStart + windowLength;
+            if (windowStart < 0 || from < windowStart ||
+                    (windowEnd < size && from > windowEnd - 2*SCAN_SIZE)) {
+                fillWindow(from);
+                windowEnd = windowStart + windowLength;
+            }
+
+            // Pages starting before here will be wholly in the window
+            long searchEnd = (windowEnd == size) ? windowEnd : windowEnd - SCAN_SIZE;
+            searchEnd = Math.min(searchEnd, to);
+            OggPageHeader page = OggPageScanner.findPage(window, windowLength, windowStart,
+                    (int)(from - windowStart), (int)(searchEnd - windowStart));
+            if (page != null) {
+                pagesRead++;
+                return page;
+            }
+            from = searchEnd;
+        }
+        return null;
+    }
+    private void fillWindow(long from) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(window, 0, (int)Math.min(window.length, size - from));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, from + buffer.position()) == -1) break;
+        }
+        windowStart = from;
+        windowLength = buffer.position();
+    }
+
+    /**
+     * One link of the chain, a whole logical stream
+     */
+    public class Link {
+        private final int number;
+        private final int sid;
+        private final long startOffset;
+        private final long endOffset;
+        private final long lastGranule;
+
+        private Link(int number, int sid, long startOffset, long endOffset, long lastGranule) {
+            this.number = number;
+            this.sid = sid;
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+            this.lastGranule = lastGranule;
+        }
+
+        /**
+         * Which link this is, from zero
+         */
+        public int getNumber() {
+            return number;
+        }
+        public int getSid() {
+            return sid;
+        }
+        /**
+         * Where in the file the link's first page starts
+         */
+        public long getStartOffset() {
+            return startOffset;
+        }
+        /**
+         * Where in the file the link ends, and the next starts
+         */
+        public long getEndOffset() {
+            return endOffset;
+        }
+        /**
+         * The granule of the link's last page, or -1 if none had one
+         */
+        public long getLastGranule() {
+            return lastGranule;
+        }
+
+        /**
+         * Returns a reader for just this link's packets
+         */
+        public OggPacketReader getPacketReader() {
+            return new OggPacketReader(new BufferedInputStream(
+                    new ChannelRangeInputStream(channel, startOffset, endOffset)));
+        }
+
+        public String toString() {
+            return "Link " + number + " of stream " + sid + " from " +
+                   startOffset + " to " + endOffset + ", last granule " + lastGranule;
+        }
+    }
+
+    /**
+     * Reads part of a channel, without changing its position
+     */
+    private static class ChannelRangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        private ChannelRangeInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int read = read(b, 0, 1);
+            return (read == -1) ? -1 : (b[0] & 0xff);
+        }
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int toRead = (int)Math.min(len, end - position);
+            int read = channel.read(ByteBuffer.wrap(b, off, toRead), position);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+    }
+}
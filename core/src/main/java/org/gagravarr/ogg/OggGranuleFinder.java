@@ -0,0 +1,182 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Finds the last granule position of an Ogg stream from the
+ *  Ogg page headers alone, without splitting the pages up into
+ *  packets. Used to quickly work out how long a file is, either
+ *  by looking at just the end of a file, or by skimming
+ *  the pages of a stream. Can also find where in a file a given
+ *  granule is, by bisection, for seeking.
+ */
+public class OggGranuleFinder {
+    /** The largest an Ogg Page can be, headers plus data */
+    public static final int MAXIMUM_PAGE_SIZE = 27 + 255 + 255*255;
+
+    private OggGranuleFinder() {}
+
+    /**
+     * Finds the last granule of the given stream (or any stream,
+     *  if the Stream ID is negative) in the last given number of
+     *  bytes of the file, returning -1 if none is found there.
+     * For the true last granule to be found, the last page of
+     *  that stream must be within those bytes, so at least
+     *  {@link #MAXIMUM_PAGE_SIZE} should be given for the last page
+     *  of the file to always be found.
+     */
+    public static long findLastGranule(FileChannel channel, int sid, int tailBytes) throws IOException {
+        long size = channel.size();
+        int length = (int)Math.min(size, tailBytes);
+        ByteBuffer tail = ByteBuffer.allocate(length);
+        long position = size - length;
+        while (tail.hasRemaining()) {
+            int read = channel.read(tail, position + tail.position());
+            if (read == -1) break;
+        }
+        byte[] data = tail.array();
+        int end = tail.position();
+
+        // Check every possible page start, as the start of the
+        //  tail is unlikely to be the start of a page
+        long granule = -1;
+        int from = 0;
+        OggPageHeader page;
+        while ((page = OggPageScanner.findPage(data, end, position, from, end)) != null) {
+            if ((sid < 0 || page.getSid() == sid) && page.getGranulePosition() >= 0) {
+                granule = page.getGranulePosition();
+            }
+            // Carry on from after this page
+            from = (int)(page.getOffset() - position) + page.getPageSize();
+        }
+        return granule;
+    }
+
+    /**
+     * Reads through the pages of the stream, without processing
+     *  their packets, to find the last granule of the given stream
+     *  (or any stream, if the Stream ID is negative).
+     * If more than the given number of bytes would need to be read
+     *  (if positive) before reaching the end, gives up and returns -1.
+     */
+    public static long findLastGranule(InputStream inp, int sid, long maxBytes) throws IOException {
+        long granule = -1;
+        long read = 0;
+        int pos = 0;
+        int r;
+        while ((r = inp.read()) != -1) {
+            read++;
+            if (maxBytes > 0 && read > maxBytes) {
+                return -1;
+            }
+
+            // Look for the OggS capture pattern
+            if (r == "OggS".charAt(pos)) {
+                pos++;
+            } else {
+                pos = (r == 'O' ? 1 : 0);
+            }
+            if (pos < 4) continue;
+            pos = 0;
+
+            OggPage page;
+            try {
+                page = new OggPage(inp);
+            } catch (EOFException e) {
+                System.err.println("Warning - data ended mid-page: " + e.getMessage());
+                break;
+            }
+            read += page.getPageSize() - 4;
+            if (maxBytes > 0 && read > maxBytes) {
+                return -1;
+            }
+
+            if ((sid < 0 || page.getSid() == sid) && page.getGranulePosition() >= 0) {
+                granule = page.getGranulePosition();
+            }
+        }
+        return granule;
+    }
+
+    /**
+     * Finds, by bisection, where the last page of the given stream
+     *  with a granule at or before the given one starts, so that
+     *  reading can begin there without going through the whole file.
+     * Packets after that page will be at or after the granule.
+     * Returns -1 if the stream's first granule is after the given one.
+     */
+    public static long findPageBefore(FileChannel channel, int sid, long granulePosition) throws IOException {
+        byte[] buffer = new byte[2*MAXIMUM_PAGE_SIZE];
+        long found = -1;
+        long lo = 0;
+        long hi = channel.size();
+
+        // Granules only go up, so halve the range until small enough
+        //  to hold just a page or two
+        while (hi - lo > MAXIMUM_PAGE_SIZE) {
+            long mid = lo + (hi - lo) / 2;
+            OggPageHeader page = findGranulePage(channel, buffer, sid, mid, hi);
+            if (page == null || page.getGranulePosition() > granulePosition) {
+                hi = mid;
+            } else {
+                found = page.getOffset();
+                lo = page.getOffset() + page.getPageSize();
+            }
+        }
+        OggPageHeader page;
+        while ((page = findGranulePage(channel, buffer, sid, lo, hi)) != null &&
+                page.getGranulePosition() <= granulePosition) {
+            found = page.getOffset();
+            lo = page.getOffset() + page.getPageSize();
+        }
+        return found;
+    }
+
+    /**
+     * Finds the first valid page of the stream with a granule, which
+     *  starts between the offsets
+     */
+    private static OggPageHeader findGranulePage(FileChannel channel, byte[] buffer, int sid,
+                                                 long from, long to) throws IOException {
+        long size = channel.size();
+        to = Math.min(to, size);
+        while (from < to) {
+            ByteBuffer bb = ByteBuffer.wrap(buffer, 0, (int)Math.min(buffer.length, size - from));
+            while (bb.hasRemaining()) {
+                if (channel.read(bb, from + bb.position()) == -1) break;
+            }
+            int length = bb.position();
+            // Only pages starting in the first half are sure to be whole
+            int searchLength = (from + length == size) ? length : MAXIMUM_PAGE_SIZE;
+            int searchEnd = (int)Math.min(searchLength, to - from);
+
+            int i = 0;
+            OggPageHeader page;
+            while ((page = OggPageScanner.findPage(buffer, length, from, i, searchEnd)) != null) {
+                if (page.getSid() == sid && page.getGranulePosition() >= 0) {
+                    return page;
+                }
+                i = (int)(page.getOffset() - from) + page.getPageSize();
+            }
+            from += Math.max(i, searchEnd);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.gagravarr.flac.FlacMetadataBlock;
+import org.gagravarr.ogg.OggStreamIdentifier.OggStreamType;
+import org.gagravarr.ogg.audio.OggAudioHeaders;
+import org.gagravarr.ogg.audio.OggAudioSetupHeader;
+import org.gagravarr.ogg.audio.OggAudioStreamHeaders;
+import org.gagravarr.ogg.audio.OggAudioTagsHeader;
+import org.gagravarr.opus.OpusTags;
+import org.gagravarr.skeleton.SkeletonStream;
+import org.gagravarr.speex.SpeexTags;
+import org.gagravarr.theora.TheoraSetup;
+import org.gagravarr.vorbis.VorbisSetup;
+
+/**
+ * Reads all the streams of an Ogg file in one pass, whatever their
+ *  types, such as a video with several soundtracks and a Skeleton.
+ *  Each stream is identified with {@link OggStreamIdentifier}, and
+ *  its headers are read as it is found, so that the packets of the
+ *  Vorbis, Opus, Speex, FLAC and Theora streams can be returned as
+ *  their high level {@link OggStreamAudioVisualData} types.
+ * <p>Packets of streams of other types are passed through as they are,
+ *  headers and all, with the high level data only if their
+ *  {@link OggStreamHandler} can create it.
+ * <p>By default the packets of every stream are returned, in the order
+ *  they are found in the file. Call {@link #subscribe(int)} to only
+ *  get the packets of the streams wanted, and skip the others.
+ */
+public class OggMediaFile implements Closeable {
+    private OggFile ogg;
+    private OggPacketReader r;
+
+    private Map<Integer,MediaStream> streams = new LinkedHashMap<Integer, MediaStream>();
+    private LinkedList<MediaPacket> pendingPackets = new LinkedList<MediaPacket>();
+    private Set<Integer> subscribed;
+
+    /**
+     * Opens the given file for reading
+     */
+    public OggMediaFile(OggFile ogg) throws IOException {
+        this(ogg.getPacketReader());
+        this.ogg = ogg;
+    }
+    /**
+     * Reads from the given packet reader, starting with the
+     *  headers of all the streams at the start of the file
+     */
+    public OggMediaFile(OggPacketReader r) throws IOException {
+        this.r = r;
+
+        // The headers of the streams can be interleaved with each
+        //  other, and with the start of the data, so read on until
+        //  they're all done, holding on to any data found before then
+        OggPacket p;
+        while ((p = r.getNextPacket()) != null) {
+            MediaPacket data = processPacket(p);
+            if (data != null) {
+                pendingPackets.add(data);
+                if (hasAllHeaders()) break;
+            }
+        }
+    }
+
+    /**
+     * Returns all the streams found so far, in the order their
+     *  first packets were found
+     */
+    public Collection<MediaStream> getStreams() {
+        return Collections.unmodifiableCollection(streams.values());
+    }
+    /**
+     * Returns the stream with the given Stream ID (sid),
+     *  or null if it hasn't been found
+     */
+    public MediaStream getStream(int sid) {
+        return streams.get(sid);
+    }
+
+    /**
+     * Have all the streams found so far had all their headers read?
+     */
+    public boolean hasAllHeaders() {
+        for (MediaStream stream : streams.values()) {
+            if (! stream.hasAllHeaders()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Only returns packets from the given stream, and any others
+     *  subscribed to. Until this is first called, the packets of
+     *  all streams are returned.
+     */
+    public void subscribe(int sid) {
+        if (subscribed == null) {
+            subscribed = new HashSet<Integer>();
+        }
+        subscribed.add(sid);
+    }
+    /**
+     * Stops returning packets from the given stream
+     */
+    public void unsubscribe(int sid) {
+        if (subscribed == null) {
+            subscribed = new HashSet<Integer>(streams.keySet());
+        }
+        subscribed.remove(sid);
+    }
+    /**
+     * Goes back to returning the packets of all streams
+     */
+    public void subscribeAll() {
+        subscribed = null;
+    }
+    public boolean isSubscribed(int sid) {
+        return subscribed == null || subscribed.contains(sid);
+    }
+
+    /**
+     * Returns the next data packet from any of the subscribed
+     *  streams, or null if no more remain. Header packets of the
+     *  streams of known types aren't returned, they're available
+     *  from {@link MediaStream#getHeaders()}.
+     */
+    public MediaPacket getNextPacket() throws IOException {
+        while (! pendingPackets.isEmpty()) {
+            MediaPacket data = pendingPackets.removeFirst();
+            if (isSubscribed(data.getSid())) {
+                return data;
+            }
+        }
+
+        OggPacket p;
+        while ((p = r.getNextPacket()) != null) {
+            MediaPacket data = processPacket(p);
+            if (data != null && isSubscribed(data.getSid())) {
+                return data;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tracks the packet against its stream, returning it
+     *  if it's data, or null if it's a header
+     */
+    private MediaPacket processPacket(OggPacket p) {
+        MediaStream stream = streams.get(p.getSid());
+        if (stream == null || p.isBeginningOfStream()) {
+            // Start of a new stream, possibly a new link in a chain
+            stream = new MediaStream(p);
+            streams.put(p.getSid(), stream);
+        }
+        if (p.isEndOfStream()) {
+            stream.ended = true;
+        }
+
+        if (! stream.hasAllHeaders() && stream.processHeader(p)) {
+            return null;
+        }
+        return stream.createData(p);
+    }
+
+    /**
+     * In Reading mode, will close the underlying ogg
+     *  file and free its resources.
+     */
+    public void close() throws IOException {
+        if (ogg != null) {
+            ogg.close();
+            ogg = null;
+        }
+        r = null;
+    }
+
+    /**
+     * A stream within the file, and what's known about it so far
+     */
+    public static class MediaStream {
+        private final int sid;
+        private final OggStreamType type;
+        private OggStreamHandler handler;
+        private final boolean supported;
+        private final List<OggStreamPacket> headers = new ArrayList<OggStreamPacket>();
+        private boolean allHeaders;
+        private boolean ended;
+        private OggAudioStreamHeaders audio;
+        private SkeletonStream skeleton;
+
+        private MediaStream(OggPacket firstPacket) {
+            this.sid = firstPacket.getSid();
+
+            OggStreamType type = OggStreamIdentifier.UNKNOWN;
+            if (firstPacket.isBeginningOfStream()) {
+                handler = OggStreamIdentifier.findHandler(firstPacket);
+            }
+            if (handler != null) {
+                type = handler.getType();
+            }
+            this.type = type;
+
+            // Annodex v2 is identified as Skeleton, but has
+            //  its own handler which can't read the packets
+            supported = isSupported(type) && handler == OggStreamIdentifier.getHandler(type);
+            if (! supported) {
+                allHeaders = true;
+            }
+        }
+        private static boolean isSupported(OggStreamType type) {
+            return type == OggStreamIdentifier.OGG_VORBIS ||
+                   type == OggStreamIdentifier.OPUS_AUDIO ||
+                   type == OggStreamIdentifier.SPEEX_AUDIO ||
+                   type == OggStreamIdentifier.OGG_FLAC ||
+                   type == OggStreamIdentifier.THEORA_VIDEO ||
+                   type == OggStreamIdentifier.SKELETON;
+        }
+
+        /**
+         * Handles the packet if it's one of the stream's headers
+         * @return Whether it was a header
+         */
+        private boolean processHeader(OggPacket p) {
+            OggStreamPacket header = null;
+            if (type == OggStreamIdentifier.SKELETON) {
+                if (skeleton == null) {
+                    skeleton = new SkeletonStream(p);
+                } else {
+                    skeleton.processPacket(p);
+                }
+                header = handler.createPacket(p);
+                allHeaders = skeleton.hasWholeStream();
+                if (header != null) headers.add(header);
+                return true;
+            }
+
+            if (type == OggStreamIdentifier.OGG_FLAC) {
+                header = handler.createPacket(p);
+                if (header == null) {
+                    // Other metadata, only kept in their raw form
+                    header = new OggStreamAudioVisualData(p);
+                }
+                headers.add(header);
+                allHeaders = p.getData().length > 0 &&
+                        (p.getData()[0] & FlacMetadataBlock.MASK_LASTBLOCK) != 0;
+            } else if (type == OggStreamIdentifier.THEORA_VIDEO) {
+                header = handler.createPacket(p);
+                if (header instanceof OggStreamAudioVisualData) {
+                    return false;
+                }
+                headers.add(header);
+                allHeaders = header instanceof TheoraSetup;
+                return true;
+            } else {
+                if (p.getData().length == 0) {
+                    return false;
+                }
+                header = handler.createPacket(p);
+                if (header instanceof OggStreamAudioVisualData) {
+                    allHeaders = true;
+                    return false;
+                }
+                headers.add(header);
+                allHeaders = header instanceof VorbisSetup ||
+                             header instanceof OpusTags ||
+                             header instanceof SpeexTags;
+            }
+
+            // Track the audio headers too
+            if (p.isBeginningOfStream()) {
+                audio = OggAudioStreamHeaders.create(p);
+            } else if (header instanceof OggAudioTagsHeader ||
+                       header instanceof OggAudioSetupHeader) {
+                audio.populate(p);
+            }
+            return true;
+        }
+
+        /**
+         * Creates the high level type for a data packet
+         */
+        private MediaPacket createData(OggPacket p) {
+            OggStreamAudioVisualData data = null;
+            if (supported && type != OggStreamIdentifier.THEORA_VIDEO &&
+                    p.getData().length == 0) {
+                // Empty packet just marking the end of the stream
+                return null;
+            }
+            if (type == OggStreamIdentifier.OGG_FLAC) {
+                // Each packet holds one FLAC frame
+                data = new OggStreamAudioData(p);
+            } else if (handler != null) {
+                // Handlers of other types may be able to create it too
+                OggStreamPacket packet = handler.createPacket(p);
+                if (packet instanceof OggStreamAudioVisualData) {
+                    data = (OggStreamAudioVisualData)packet;
+                } else if (supported) {
+                    // Skeleton has no data
+                    return null;
+                }
+            }
+            return new MediaPacket(this, p, data);
+        }
+
+        /**
+         * Returns the Ogg Stream ID
+         */
+        public int getSid() {
+            return sid;
+        }
+        /**
+         * Returns the type of the stream, as identified from
+         *  its first packet, or {@link OggStreamIdentifier#UNKNOWN}
+         *  if that wasn't found
+         */
+        public OggStreamType getType() {
+            return type;
+        }
+        /**
+         * Can the packets of this stream be returned as their high
+         *  level types, or only as raw packets?
+         */
+        public boolean isSupported() {
+            return supported;
+        }
+        /**
+         * Returns the handler which identified the stream,
+         *  or null if none did
+         */
+        public OggStreamHandler getHandler() {
+            return handler;
+        }
+        /**
+         * Returns the headers read so far, of streams of
+         *  supported types
+         */
+        public List<OggStreamPacket> getHeaders() {
+            return Collections.unmodifiableList(headers);
+        }
+        /**
+         * Have all the headers of the stream been read? Always true for
+         *  streams of types which aren't supported, as none are known
+         */
+        public boolean hasAllHeaders() {
+            return allHeaders;
+        }
+        /**
+         * Has the last packet of the stream been read?
+         */
+        public boolean isEnded() {
+            return ended;
+        }
+        /**
+         * Returns the headers of an audio stream,
+         *  or null if it isn't audio
+         */
+        public OggAudioHeaders getAudioHeaders() {
+            return audio;
+        }
+        /**
+         * Returns the Skeleton data describing all the
+         *  streams, if this is a Skeleton stream, or null if not
+         */
+        public SkeletonStream getSkeleton() {
+            return skeleton;
+        }
+
+        public String toString() {
+            return "Stream " + sid + " of " + type;
+        }
+    }
+
+    /**
+     * A data packet from one of the streams
+     */
+    public static class MediaPacket {
+        private final MediaStream stream;
+        private final OggPacket packet;
+        private final OggStreamAudioVisualData data;
+
+        private MediaPacket(MediaStream stream, OggPacket packet, OggStreamAudioVisualData data) {
+            this.stream = stream;
+            this.packet = packet;
+            this.data = data;
+        }
+
+        public MediaStream getStream() {
+            return stream;
+        }
+        /**
+         * Returns the Ogg Stream ID of the stream
+         *  the packet is from
+         */
+        public int getSid() {
+            return stream.getSid();
+        }
+        /**
+         * Returns the packet as it was read
+         */
+        public OggPacket getOggPacket() {
+            return packet;
+        }
+        /**
+         * Returns the high level audio or video data, or null
+         *  if the stream's handler can't create it
+         */
+        public OggStreamAudioVisualData getData() {
+            return data;
+        }
+        public long getGranulePosition() {
+            return packet.getGranulePosition();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Writes several logical streams (eg video and its soundtracks) into
+ *  one file, with their pages interleaved in time order, so that
+ *  players don't need to buffer much of one stream to get to the
+ *  matching part of another.
+ * <p>Use it as an {@link OggFile}, getting a {@link OggPacketWriter}
+ *  for each stream, and tell it the granule rate of each stream with
+ *  {@link #setGranuleRate(int, long, long, int)}. Pages written by
+ *  those writers are held back until no other stream can still write
+ *  an earlier one, and then written out in order of the time of their
+ *  granule. To keep the memory used bounded, if one stream falls more
+ *  than {@link #getMaxSkew()} behind the others, whatever it has
+ *  buffered is flushed out, and the others carry on without it.
+ * <p>Pages of streams without a granule rate, such as Skeleton,
+ *  aren't held back.
+ */
+public class OggMuxer extends OggFile {
+    /** The default for how far apart in time, in milliseconds, streams can get */
+    public static final int DEFAULT_MAX_SKEW_MS = 1000;
+
+    private final Map<Integer,Track> tracks = new HashMap<Integer, Track>();
+    private final Map<Integer,OggPacketWriter> writers = new HashMap<Integer, OggPacketWriter>();
+    private final PriorityQueue<QueuedPage> queue = new PriorityQueue<QueuedPage>(16, new Comparator<QueuedPage>() {
+        public int compare(QueuedPage a, QueuedPage b) {
+            int cmp = Double.compare(a.time, b.time);
+            if (cmp != 0) return cmp;
+            return Long.compare(a.order, b.order);
+        }
+    });
+    private long queued;
+    private double latestTime;
+    private double writtenTime;
+    private int maxSkewMs = DEFAULT_MAX_SKEW_MS;
+    private boolean draining;
+
+    /**
+     * Opens a file for writing.
+     * Call {@link #getPacketWriter()} to
+     *  begin writing each stream's data.
+     */
+    public OggMuxer(OutputStream output) {
+        super(output);
+    }
+
+    /**
+     * Sets how far apart in time, in milliseconds, the streams
+     *  can get before the one which is behind is flushed out
+     */
+    public void setMaxSkew(int millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Skew can't be negative");
+        }
+        this.maxSkewMs = millis;
+    }
+    public int getMaxSkew() {
+        return maxSkewMs;
+    }
+
+    /**
+     * Sets how the granules of the given stream convert into time,
+     *  as the number of granules per second, and for video the
+     *  number of bits of granule used for the frames since the last
+     *  key frame (the granule shift, or zero if there isn't one).
+     *  Eg 48000/1 for Opus, the sample rate for Vorbis, and the
+     *  frame rate for Theora, as given by a Skeleton Fisbone.
+     */
+    public void setGranuleRate(int sid, long rateNumerator, long rateDenominator, int granuleShift) {
+        if (rateNumerator <= 0 || rateDenominator <= 0) {
+            throw new IllegalArgumentException("Invalid granule rate " + rateNumerator + "/" + rateDenominator);
+        }
+        tracks.put(sid, new Track(sid, rateNumerator, rateDenominator, granuleShift));
+    }
+
+    @Override
+    public OggPacketWriter getPacketWriter(int sid) {
+        OggPacketWriter w = super.getPacketWriter(sid);
+        writers.put(sid, w);
+        return w;
+    }
+
+    @Override
+    protected synchronized void writePages(OggPage[] pages) throws IOException {
+        for (OggPage page : pages) {
+            Track track = tracks.get(page.getSid());
+            double time = writtenTime;
+            if (track != null) {
+                time = track.getTime(page.getGranulePosition());
+                track.queuedPages++;
+                if (page.isEndOfStream()) {
+                    track.ended = true;
+                }
+                latestTime = Math.max(latestTime, time);
+            }
+            queue.add(new QueuedPage(page, track, time, queued++));
+        }
+        drain(false);
+    }
+
+    /**
+     * Writes out the queued pages which no other stream can
+     *  still write an earlier page than
+     */
+    private void drain(boolean all) throws IOException {
+        if (draining) return;
+        draining = true;
+        try {
+            while (! queue.isEmpty()) {
+                QueuedPage next = queue.peek();
+                if (! all && next.track != null) {
+                    Track behind = findTrackBehind(next);
+                    if (behind != null) {
+                        if (latestTime - next.time <= maxSkewMs / 1000.0) {
+                            // Wait for it to catch up
+                            break;
+                        }
+                        // Too far behind, flush whatever it has, and
+                        //  don't wait any longer for it
+                        behind.skipped = true;
+                        OggPacketWriter w = writers.get(behind.sid);
+                        if (w != null && w.getSizePendingFlush() > 0) {
+                            // Its pages are only queued, while draining
+                            w.flush();
+                            continue;
+                        }
+                    }
+                }
+
+                queue.poll();
+                if (next.track != null) {
+                    next.track.queuedPages--;
+                    next.track.lastTime = Math.max(next.track.lastTime, next.time);
+                    next.track.skipped = false;
+                }
+                writtenTime = Math.max(writtenTime, next.time);
+                super.writePages(new OggPage[] { next.page });
+            }
+        } finally {
+            draining = false;
+        }
+    }
+
+    /**
+     * Finds a stream which could still write a page earlier than
+     *  the given one, as it has none queued and hasn't got as far
+     */
+    private Track findTrackBehind(QueuedPage next) {
+        for (Track track : tracks.values()) {
+            if (track == next.track || track.ended || track.skipped) continue;
+            if (track.queuedPages == 0 && track.lastTime < next.time) {
+                return track;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes out everything still queued, then closes the output.
+     *  Close all the packet writers first!
+     */
+    @Override
+    public void close() throws IOException {
+        drain(true);
+        super.close();
+    }
+
+    private static class Track {
+        private final int sid;
+        private final long rateNumerator;
+        private final long rateDenominator;
+        private final int granuleShift;
+        private double lastTime;
+        private int queuedPages;
+        private boolean ended;
+        private boolean skipped;
+
+        private Track(int sid, long rateNumerator, long rateDenominator, int granuleShift) {
+            this.sid = sid;
+            this.rateNumerator = rateNumerator;
+            this.rateDenominator = rateDenominator;
+            this.granuleShift = granuleShift;
+        }
+
+        private double getTime(long granulePosition) {
+            if (granulePosition < 0) {
+                // No packets finish on the page
+                return lastTime;
+            }
+            long units = granulePosition;
+            if (granuleShift > 0) {
+                units = (granulePosition >> granuleShift) +
+                        (granulePosition & ((1L << granuleShift) - 1));
+            }
+            return ((double)units) * rateDenominator / rateNumerator;
+        }
+    }
+    private static class QueuedPage {
+        private final OggPage page;
+        private final Track track;
+        private final double time;
+        private final long order;
+
+        private QueuedPage(OggPage page, Track track, double time, long order) {
+            this.page = page;
+            this.track = track;
+            this.time = time;
+            this.order = order;
+        }
+    }
+}
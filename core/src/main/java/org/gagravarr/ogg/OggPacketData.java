@@ -24,6 +24,7 @@ package org.gagravarr.ogg;
  */
 public class OggPacketData {
     private byte[] data;
+    private int pages = 1;
 
     protected OggPacketData(byte[] data) {
         this.data = data;
@@ -35,4 +36,15 @@ public class OggPacketData {
     public byte[] getData() {
         return data;
     }
+
+    /**
+     * Returns how many {@link OggPage}s the data of this
+     *  packet was spread across, normally 1
+     */
+    public int getNumberOfPages() {
+        return pages;
+    }
+    protected void setNumberOfPages(int pages) {
+        this.pages = pages;
+    }
 }
@@ -23,6 +23,17 @@ public class OggPacketReader {
     private Iterator<OggPacketData> it;
     private OggPacket nextPacket;
 
+    /** How many bytes have been read from the stream */
+    private long position;
+    /** Where the current page started */
+    private long pageOffset = -1;
+    /** Where the packet carried on from the previous page started */
+    private long partialOffset = -1;
+    private boolean continuing;
+    /** Where the last packet returned, and any un-read one, started */
+    private long packetOffset = -1;
+    private long nextPacketOffset = -1;
+
     public OggPacketReader(InputStream inp) {
         this.inp = inp;
     }
@@ -42,6 +53,7 @@ public class OggPacketReader {
         if(nextPacket != null) {
             OggPacket p = nextPacket;
             nextPacket = null;
+            packetOffset = nextPacketOffset;
             return p;
         }
 
@@ -51,10 +63,14 @@ public class OggPacketReader {
         OggPacketData leftOver = null;
         if(it != null && it.hasNext()) {
             OggPacketData packet = it.next();
+            long start = continuing ? partialOffset : pageOffset;
+            continuing = false;
             if(packet instanceof OggPacket) {
+                packetOffset = start;
                 return (OggPacket)packet;
             }
             leftOver = packet;
+            partialOffset = start;
         }
 
         // Find the next page, from which
@@ -69,6 +85,7 @@ public class OggPacketReader {
                 // No more data
                 return null;
             }
+            position++;
 
             switch(pos) {
             case -1:
@@ -114,8 +131,10 @@ public class OggPacketReader {
         }
 
         // Create the page, and prime the iterator on it
+        pageOffset = position - 4;
         try {
             OggPage page = new OggPage(inp);
+            position += page.getPageSize() - 4;
             if (!page.isChecksumValid()) {
                 System.err.println("Warning - invalid checksum on page " +
                                    page.getSequenceNumber() + " of stream " +
@@ -123,6 +142,7 @@ public class OggPacketReader {
                                    page.getSid() + ")");
             }
             it = page.getPacketIterator(leftOver);
+            continuing = (leftOver != null);
             return getNextPacket();
         } catch (EOFException eof) {
             System.err.println("Warning - data ended mid-page: " + eof.getMessage());
@@ -157,6 +177,31 @@ public class OggPacketReader {
             throw new IllegalStateException("Can't un-read twice");
         }
         nextPacket = packet;
+        nextPacketOffset = packetOffset;
+    }
+
+    /**
+     * Returns where the page holding the start of the last packet
+     *  returned begins, counting from where this reader started
+     *  reading its stream, or -1 if no packets have been read yet.
+     * Reading can later be resumed from that point to get the
+     *  packet again, eg to build an index for seeking.
+     */
+    public long getLastPacketOffset() {
+        return packetOffset;
+    }
+
+    /**
+     * Returns how many bytes have been read from the stream, if
+     *  every packet of the pages read so far has been returned,
+     *  otherwise -1. A new reader on the stream from that point
+     *  would carry on with the next packet.
+     */
+    public long getPageBoundaryPosition() {
+        if (nextPacket != null || (it != null && it.hasNext())) {
+            return -1;
+        }
+        return position;
     }
 
     /**
@@ -173,6 +218,7 @@ public class OggPacketReader {
         while( (p = getNextPacket()) != null ) {
             if(p.getSid() == sid && p.getSequenceNumber() >= sequenceNumber) {
                 nextPacket = p;
+                nextPacketOffset = packetOffset;
                 break;
             }
         }
@@ -192,6 +238,7 @@ public class OggPacketReader {
         while( (p = getNextPacket()) != null ) {
             if(p.getSid() == sid && p.getGranulePosition() >= granulePosition) {
                 nextPacket = p;
+                nextPacketOffset = packetOffset;
                 break;
             }
         }
@@ -237,6 +237,19 @@ public class OggPage {
         isContinue = true;
     }
 
+    /**
+     * Is this the first page of its stream?
+     */
+    public boolean isBeginningOfStream() {
+        return isBOS;
+    }
+    /**
+     * Is this the last page of its stream?
+     */
+    public boolean isEndOfStream() {
+        return isEOS;
+    }
+
     /**
      * This should only ever be called by
      *  {@link OggPacketWriter#close()} !
@@ -251,6 +264,18 @@ public class OggPage {
     protected int getNumLVs() {
         return numLVs;
     }
+    /**
+     * How many packets end on this page?
+     */
+    protected int getNumPacketsEnded() {
+        int ended = 0;
+        for(int i=0; i<numLVs; i++) {
+            if(IOUtils.toInt(lvs[i]) < 255) {
+                ended++;
+            }
+        }
+        return ended;
+    }
 
 
     public void writeHeader(OutputStream out) throws IOException {
@@ -372,12 +397,14 @@ public class OggPage {
                 System.arraycopy(data, currentOffset+offset, pd, offset, size);
             }
             // Tack on anything spare from last time too
+            int pages = 1;
             if(prevPart != null) {
                 int prevSize = prevPart.getData().length;
                 byte[] fpd = new byte[prevSize+pd.length];
                 System.arraycopy(prevPart.getData(), 0, fpd, 0, prevSize);
                 System.arraycopy(pd, 0, fpd, prevSize, pd.length);
 
+                pages += prevPart.getNumberOfPages();
                 prevPart = null;
                 pd = fpd;
             }
@@ -398,6 +425,7 @@ public class OggPage {
 
                 packet = new OggPacket(OggPage.this, pd, packetBOS, packetEOS);
             }
+            packet.setNumberOfPages(pages);
 
             // Wind on
             currentLV += packetLVs;
@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg;
+
+/**
+ * The header details of an Ogg Page found by {@link OggPageScanner},
+ *  along with where in the file it starts, for working through the
+ *  pages of a file without splitting them up into packets.
+ */
+public class OggPageHeader {
+    private final long offset;
+    private final int size;
+    private final int sid;
+    private final int seqNum;
+    private final long granulePosition;
+    private final boolean isContinue;
+    private final boolean hasContinuation;
+    private final boolean isBOS;
+    private final boolean isEOS;
+    private final int packetsEnded;
+
+    protected OggPageHeader(long offset, OggPage page) {
+        this.offset = offset;
+        this.size = page.getPageSize();
+        this.sid = page.getSid();
+        this.seqNum = page.getSequenceNumber();
+        this.granulePosition = page.getGranulePosition();
+        this.isContinue = page.isContinuation();
+        this.hasContinuation = page.hasContinuation();
+        this.isBOS = page.isBeginningOfStream();
+        this.isEOS = page.isEndOfStream();
+        this.packetsEnded = page.getNumPacketsEnded();
+    }
+
+    /**
+     * Where in the file the page starts
+     */
+    public long getOffset() {
+        return offset;
+    }
+    /**
+     * How big is the page, including headers?
+     */
+    public int getPageSize() {
+        return size;
+    }
+
+    public int getSid() {
+        return sid;
+    }
+    public int getSequenceNumber() {
+        return seqNum;
+    }
+    public long getGranulePosition() {
+        return granulePosition;
+    }
+
+    /**
+     * Is this carrying on a packet from a previous page?
+     */
+    public boolean isContinuation() {
+        return isContinue;
+    }
+    /**
+     * Is there a subsequent page containing the
+     *  remainder of the last packet?
+     */
+    public boolean hasContinuation() {
+        return hasContinuation;
+    }
+    /**
+     * Is this the first page of its stream?
+     */
+    public boolean isBeginningOfStream() {
+        return isBOS;
+    }
+    /**
+     * Is this the last page of its stream?
+     */
+    public boolean isEndOfStream() {
+        return isEOS;
+    }
+    /**
+     * How many packets end on this page, including
+     *  any carried on from a previous page
+     */
+    public int getNumPacketsEnded() {
+        return packetsEnded;
+    }
+
+    public String toString() {
+        return "Ogg Page - " + sid + " @ " + seqNum + " - at " + offset;
+    }
+}
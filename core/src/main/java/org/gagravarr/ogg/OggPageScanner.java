@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Finds and reads Ogg Pages from the raw bytes of a file, giving
+ *  just their {@link OggPageHeader}s, for when the pages need to
+ *  be worked through or searched without processing their packets.
+ */
+public class OggPageScanner {
+    private OggPageScanner() {}
+
+    /**
+     * Finds the first whole page, with a valid checksum, which starts
+     *  between the two indexes of the buffer, or null if there isn't
+     *  one. The first given number of bytes of the buffer hold what
+     *  was read from the given offset in the file.
+     */
+    public static OggPageHeader findPage(byte[] buffer, int length, long bufferOffset,
+                                         int from, int to) throws IOException {
+        for (int i=from; i<to && i+OggPage.getMinimumPageSize() <= length; i++) {
+            if (buffer[i] != 'O' || buffer[i+1] != 'g' || buffer[i+2] != 'g' || buffer[i+3] != 'S') {
+                continue;
+            }
+            OggPage page;
+            try {
+                page = new OggPage(new ByteArrayInputStream(buffer, i+4, length-i-4));
+            } catch (EOFException e) {
+                // Not a whole page, or not a real one
+                continue;
+            } catch (UnsupportedOperationException e) {
+                continue;
+            }
+            if (page.isChecksumValid()) {
+                return new OggPageHeader(bufferOffset + i, page);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the page which the stream is positioned at the start of,
+     *  which is at the given offset in the file, returning null if
+     *  the end of the stream has been reached. If an OutputStream is
+     *  given, the bytes of the page are copied to it unchanged.
+     */
+    public static OggPageHeader readPage(InputStream inp, long offset, OutputStream copyTo) throws IOException {
+        int first = inp.read();
+        if (first == -1) {
+            return null;
+        }
+        byte[] capture = new byte[4];
+        capture[0] = (byte)first;
+        IOUtils.readFully(inp, capture, 1, 3);
+        if (capture[0] != 'O' || capture[1] != 'g' || capture[2] != 'g' || capture[3] != 'S') {
+            throw new IllegalArgumentException("Expected an Ogg page at " + offset);
+        }
+
+        OggPage page = new OggPage(inp);
+        if (copyTo != null) {
+            byte[] header = page.getHeader();
+            IOUtils.putInt4(header, 22, page.getChecksum());
+            copyTo.write(header);
+            copyTo.write(page.getData());
+        }
+        return new OggPageHeader(offset, page);
+    }
+}
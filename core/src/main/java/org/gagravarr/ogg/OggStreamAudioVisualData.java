@@ -22,15 +22,21 @@ import org.gagravarr.ogg.OggPacket;
  */
 public class OggStreamAudioVisualData extends HighLevelOggStreamPacket {
     protected long granulePosition;
+    private int sequenceNumber;
+    private int numberOfPages;
 
     public OggStreamAudioVisualData(OggPacket pkt) {
         super(pkt);
         granulePosition = pkt.getGranulePosition();
+        sequenceNumber = pkt.getSequenceNumber();
+        numberOfPages = pkt.getNumberOfPages();
     }
     public OggStreamAudioVisualData(byte[] data) {
         super();
         setData(data);
         granulePosition = -1;
+        sequenceNumber = -1;
+        numberOfPages = 0;
     }
 
     /**
@@ -43,4 +49,20 @@ public class OggStreamAudioVisualData extends HighLevelOggStreamPacket {
     public void setGranulePosition(long granulePosition) {
         this.granulePosition = granulePosition;
     }
+
+    /**
+     * Returns the sequence number of the page this was
+     *  read from (the last one, if it was spread over several),
+     *  or -1 if this wasn't read from a file
+     */
+    public int getSequenceNumber() {
+        return sequenceNumber;
+    }
+    /**
+     * Returns how many pages this was spread over when read,
+     *  or 0 if this wasn't read from a file
+     */
+    public int getNumberOfPages() {
+        return numberOfPages;
+    }
 }
@@ -0,0 +1,97 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg;
+
+import java.io.IOException;
+
+import org.gagravarr.ogg.OggStreamIdentifier.OggStreamType;
+import org.gagravarr.ogg.OggStreamIdentifier.OggStreamType.Kind;
+import org.gagravarr.ogg.audio.OggAudioHeaders;
+import org.gagravarr.ogg.audio.OggAudioStatistics;
+import org.gagravarr.ogg.audio.OggAudioStream;
+
+/**
+ * Handles one type of Ogg stream, identifying it from the magic
+ *  bytes at the start of its first packet, and optionally creating
+ *  high level packets and statistics for it.
+ * <p>Handlers for the formats supported here are built in. Others can
+ *  be added without changing {@link OggStreamIdentifier}, by listing
+ *  them in a <code>META-INF/services/org.gagravarr.ogg.OggStreamHandler</code>
+ *  file for the {@link java.util.ServiceLoader} to find, or by calling
+ *  {@link OggStreamIdentifier#register(OggStreamHandler)}. These are
+ *  tried before the built in ones, so can replace them.
+ * <p>Subclasses need a public no-argument constructor, to be loaded.
+ */
+public class OggStreamHandler {
+    private final OggStreamType type;
+    private final byte[] magic;
+
+    /**
+     * @param type The type of stream handled
+     * @param magic The bytes which the first packet of the stream
+     *  starts with. At least one byte is needed to be found quickly.
+     */
+    public OggStreamHandler(OggStreamType type, byte[] magic) {
+        this.type = type;
+        this.magic = magic;
+    }
+
+    /**
+     * The type of stream handled
+     */
+    public OggStreamType getType() {
+        return type;
+    }
+    /**
+     * The bytes which the first packet of the stream starts with
+     */
+    public byte[] getMagic() {
+        return magic;
+    }
+
+    /**
+     * Is this the first packet of a stream of this type? Only called
+     *  for packets starting with the first byte of the magic. By
+     *  default, checks it starts with all the magic bytes.
+     */
+    public boolean isStream(OggPacket firstPacket) {
+        byte[] data = firstPacket.getData();
+        return data.length >= magic.length &&
+               IOUtils.byteRangeMatches(magic, data, 0);
+    }
+
+    /**
+     * Creates the high level form of a packet of the stream, or
+     *  returns null if there isn't one. By default, there's none.
+     */
+    public OggStreamPacket createPacket(OggPacket packet) {
+        return null;
+    }
+
+    /**
+     * Creates the statistics calculator for an audio stream of this type,
+     *  or returns null if the stream isn't audio. Call
+     *  {@link OggAudioStatistics#calculate()} on it to process the audio.
+     */
+    public OggAudioStatistics createStatistics(OggAudioHeaders headers, OggAudioStream audio) throws IOException {
+        if (type.kind == Kind.AUDIO) {
+            return new OggAudioStatistics(headers, audio);
+        }
+        return null;
+    }
+
+    public String toString() {
+        return "Handler for " + type;
+    }
+}
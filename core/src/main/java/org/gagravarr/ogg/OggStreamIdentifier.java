@@ -13,13 +13,20 @@
  */
 package org.gagravarr.ogg;
 
-import org.gagravarr.flac.FlacFirstOggPacket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import org.gagravarr.flac.FlacStreamHandler;
 import org.gagravarr.ogg.OggStreamIdentifier.OggStreamType.Kind;
-import org.gagravarr.opus.OpusPacketFactory;
-import org.gagravarr.skeleton.SkeletonPacketFactory;
-import org.gagravarr.speex.SpeexPacketFactory;
-import org.gagravarr.theora.TheoraPacketFactory;
-import org.gagravarr.vorbis.VorbisPacketFactory;
+import org.gagravarr.opus.OpusStreamHandler;
+import org.gagravarr.skeleton.SkeletonStreamHandler;
+import org.gagravarr.speex.SpeexStreamHandler;
+import org.gagravarr.theora.TheoraStreamHandler;
+import org.gagravarr.vorbis.VorbisStreamHandler;
 
 /**
  * Detector for identifying the kind of data stored in a given stream.
@@ -27,6 +34,9 @@ import org.gagravarr.vorbis.VorbisPacketFactory;
  *  the type, if recognised.
  * Note - the mime types and descriptions should be kept roughly in sync
  *  with those in Apache Tika
+ * <p>Each type is recognised by an {@link OggStreamHandler}, with only
+ *  those whose magic starts with the same byte as the packet tried, so
+ *  new types can be added without changing this.
  */
 public class OggStreamIdentifier {
     public static class OggStreamType {
@@ -100,81 +110,178 @@ public class OggStreamIdentifier {
    public static final OggStreamType KATE = new OggStreamType(
                                      "application/kate", "Kate", Kind.METADATA);
    
+   /**
+    * Identifies the type of the stream from its first packet,
+    *  returning {@link #UNKNOWN} if no handler recognises it
+    */
    public static OggStreamType identifyType(OggPacket p) {
+       OggStreamHandler handler = findHandler(p);
+       if (handler != null) {
+           return handler.getType();
+       }
+       // Couldn't determine what it is
+       return UNKNOWN;
+   }
+
+   /**
+    * Finds the handler for the stream from its first packet,
+    *  or returns null if none recognises it
+    */
+   public static OggStreamHandler findHandler(OggPacket p) {
        if (! p.isBeginningOfStream()) {
            // All streams so far can be identified from their first packet
            // Very few can be identified past about their 2nd or 3rd
            // So, we only support identifying off the first one
            throw new IllegalArgumentException("Can only Identify from the first packet in a stream");
-       } else {
-           if (p.getData() != null && p.getData().length > 10) {
-               // Is it a Metadata related stream?
-               if (SkeletonPacketFactory.isSkeletonStream(p)) {
-                   return SKELETON;
-               }
-               if (isAnnodex2Stream(p)) {
-                   return SKELETON;
-               }
-               if (isCMMLStream(p)) {
-                   return CMML;
-               }
-               if (isKateStream(p)) {
-                   return KATE;
-               }
+       }
+       if (p.getData() == null || p.getData().length <= 10) {
+           return null;
+       }
 
-               // Is it an Audio stream?
-               if (VorbisPacketFactory.isVorbisStream(p)) {
-                   // Vorbis Audio stream
-                   return OGG_VORBIS;
-               }
-               if (SpeexPacketFactory.isSpeexStream(p)) {
-                   // Speex Audio stream
-                   return SPEEX_AUDIO;
-               }
-               if (OpusPacketFactory.isOpusStream(p)) {
-                   // Opus Audio stream
-                   return OPUS_AUDIO;
-               }
-               if (FlacFirstOggPacket.isFlacStream(p)) {
-                   // FLAC-in-Ogg Audio stream
-                   return OGG_FLAC;
-               }
-               if (isOggPCMStream(p)) {
-                   // PCM-in-Ogg Audio stream
-                   return OGG_PCM;
+       // Only try those whose magic starts with the same byte
+       Handlers handlers = getHandlersTable();
+       OggStreamHandler[] candidates = handlers.byFirstByte[p.getData()[0] & 0xff];
+       if (candidates != null) {
+           for (OggStreamHandler handler : candidates) {
+               if (handler.isStream(p)) {
+                   return handler;
                }
+           }
+       }
+       for (OggStreamHandler handler : handlers.withoutMagic) {
+           if (handler.isStream(p)) {
+               return handler;
+           }
+       }
+       return null;
+   }
 
-               // Is it a video stream?
-               if (TheoraPacketFactory.isTheoraStream(p)) {
-                   return THEORA_VIDEO;
-               }
-               if (isDaalaStream(p)) {
-                   return DAALA_VIDEO;
-               }
-               if (isDiracStream(p)) {
-                   return DIRAC_VIDEO;
-               }
-               if (isOggOGMStream(p)) {
-                   return OGM_VIDEO;
-               }
-               if (isOggUVSStream(p)) {
-                   return OGG_UVS;
+   /**
+    * Returns the handler used for streams of the given type,
+    *  or null if there isn't one
+    */
+   public static OggStreamHandler getHandler(OggStreamType type) {
+       for (OggStreamHandler handler : getHandlersTable().all) {
+           if (handler.getType() == type) {
+               return handler;
+           }
+       }
+       return null;
+   }
+   /**
+    * Returns all the handlers, in the order they're tried
+    */
+   public static List<OggStreamHandler> getHandlers() {
+       return getHandlersTable().all;
+   }
+
+   /**
+    * Adds a handler, to be tried before all those already known,
+    *  including any found by the {@link ServiceLoader}
+    */
+   public static synchronized void register(OggStreamHandler handler) {
+       registered.add(0, handler);
+       handlersTable = null;
+   }
+   /**
+    * Removes a handler previously added with {@link #register(OggStreamHandler)},
+    *  returning false if it wasn't registered
+    */
+   public static synchronized boolean unregister(OggStreamHandler handler) {
+       if (registered.remove(handler)) {
+           handlersTable = null;
+           return true;
+       }
+       return false;
+   }
+
+   // Those added with register, then found by the ServiceLoader,
+   //  then built in, looked up by the first byte of their magic
+   private static final List<OggStreamHandler> registered = new ArrayList<OggStreamHandler>();
+   private static volatile Handlers handlersTable;
+
+   private static Handlers getHandlersTable() {
+       Handlers handlers = handlersTable;
+       if (handlers == null) {
+           synchronized (OggStreamIdentifier.class) {
+               handlers = handlersTable;
+               if (handlers == null) {
+                   List<OggStreamHandler> all = new ArrayList<OggStreamHandler>(registered);
+                   try {
+                       for (OggStreamHandler handler : ServiceLoader.load(OggStreamHandler.class)) {
+                           all.add(handler);
+                       }
+                   } catch (ServiceConfigurationError e) {
+                       System.err.println("Warning - unable to load Ogg stream handlers: " + e);
+                   }
+                   all.addAll(getBuiltInHandlers());
+                   handlers = new Handlers(all);
+                   handlersTable = handlers;
                }
-               if (isOggYUVStream(p)) {
-                   return OGG_YUV;
+           }
+       }
+       return handlers;
+   }
+
+   private static List<OggStreamHandler> getBuiltInHandlers() {
+       return Arrays.asList(
+               // Metadata related streams
+               new SkeletonStreamHandler(),
+               new OggStreamHandler(SKELETON, MAGIC_ANNODEX2),
+               new OggStreamHandler(CMML, MAGIC_CMML),
+               new OggStreamHandler(KATE, MAGIC_KATE),
+               // Audio streams
+               new VorbisStreamHandler(),
+               new SpeexStreamHandler(),
+               new OpusStreamHandler(),
+               new FlacStreamHandler(),
+               new OggStreamHandler(OGG_PCM, MAGIC_OGG_PCM),
+               // Video streams
+               new TheoraStreamHandler(),
+               new OggStreamHandler(DAALA_VIDEO, MAGIC_DAALA),
+               new OggStreamHandler(DIRAC_VIDEO, MAGIC_DIRAC),
+               new OggStreamHandler(OGM_VIDEO, MAGIC_OGG_OGM),
+               new OggStreamHandler(OGG_UVS, MAGIC_OGG_UVS),
+               new OggStreamHandler(OGG_YUV, MAGIC_OGG_YUV),
+               new OggStreamHandler(OGG_RGB, MAGIC_OGG_RGB)
+       );
+   }
+
+   private static class Handlers {
+       private final List<OggStreamHandler> all;
+       private final OggStreamHandler[][] byFirstByte = new OggStreamHandler[256][];
+       private final OggStreamHandler[] withoutMagic;
+
+       private Handlers(List<OggStreamHandler> all) {
+           this.all = Collections.unmodifiableList(all);
+
+           List<OggStreamHandler> without = new ArrayList<OggStreamHandler>();
+           for (OggStreamHandler handler : all) {
+               byte[] magic = handler.getMagic();
+               if (magic == null || magic.length == 0) {
+                   without.add(handler);
+                   continue;
                }
-               if (isOggRGBStream(p)) {
-                   return OGG_RGB;
+               int first = magic[0] & 0xff;
+               OggStreamHandler[] those = byFirstByte[first];
+               if (those == null) {
+                   byFirstByte[first] = new OggStreamHandler[] { handler };
+               } else {
+                   those = Arrays.copyOf(those, those.length + 1);
+                   those[those.length - 1] = handler;
+                   byFirstByte[first] = those;
                }
            }
-           // Couldn't determine what it is
-           return UNKNOWN;
+           withoutMagic = without.toArray(new OggStreamHandler[without.size()]);
        }
    }
 
-   // These methods provide first packet type detection for the
-   //  various Ogg-based formats we lack general support for
+   // The first packet magic of the various Ogg-based formats we
+   //  lack general support for, checked by plain handlers. The
+   //  is*Stream methods are kept for subclasses which still call them
    protected static final byte[] MAGIC_OGG_PCM = IOUtils.toUTF8Bytes("PCM     ");
+   /** @deprecated Use {@link #findHandler(OggPacket)} instead */
+   @Deprecated
    protected static boolean isOggPCMStream(OggPacket p) {
        return IOUtils.byteRangeMatches(MAGIC_OGG_PCM, p.getData(), 0);
    }
@@ -185,31 +292,45 @@ public class OggStreamIdentifier {
        IOUtils.putUTF8(MAGIC_DAALA, 1, "daala");
        // Remaining 2 bytes are all zero
    }
+   /** @deprecated Use {@link #findHandler(OggPacket)} instead */
+   @Deprecated
    protected static boolean isDaalaStream(OggPacket p) {
        return IOUtils.byteRangeMatches(MAGIC_DAALA, p.getData(), 0);
    }
    protected static final byte[] MAGIC_DIRAC = IOUtils.toUTF8Bytes("BBCD");
+   /** @deprecated Use {@link #findHandler(OggPacket)} instead */
+   @Deprecated
    protected static boolean isDiracStream(OggPacket p) {
        return IOUtils.byteRangeMatches(MAGIC_DIRAC, p.getData(), 0);
    }
    protected static final byte[] MAGIC_OGG_OGM = IOUtils.toUTF8Bytes("video");
+   /** @deprecated Use {@link #findHandler(OggPacket)} instead */
+   @Deprecated
    protected static boolean isOggOGMStream(OggPacket p) {
        return IOUtils.byteRangeMatches(MAGIC_OGG_OGM, p.getData(), 0);
    }
    protected static final byte[] MAGIC_OGG_UVS = IOUtils.toUTF8Bytes("UVS ");
+   /** @deprecated Use {@link #findHandler(OggPacket)} instead */
+   @Deprecated
    protected static boolean isOggUVSStream(OggPacket p) {
        return IOUtils.byteRangeMatches(MAGIC_OGG_UVS, p.getData(), 0);
    }
    protected static final byte[] MAGIC_OGG_YUV = IOUtils.toUTF8Bytes("\1YUV");
+   /** @deprecated Use {@link #findHandler(OggPacket)} instead */
+   @Deprecated
    protected static boolean isOggYUVStream(OggPacket p) {
        return IOUtils.byteRangeMatches(MAGIC_OGG_YUV, p.getData(), 0);
    }
    protected static final byte[] MAGIC_OGG_RGB = IOUtils.toUTF8Bytes("\1GBP");
+   /** @deprecated Use {@link #findHandler(OggPacket)} instead */
+   @Deprecated
    protected static boolean isOggRGBStream(OggPacket p) {
        return IOUtils.byteRangeMatches(MAGIC_OGG_RGB, p.getData(), 0);
    }
 
    protected static final byte[] MAGIC_CMML = IOUtils.toUTF8Bytes("CMML\0\0\0\0");
+   /** @deprecated Use {@link #findHandler(OggPacket)} instead */
+   @Deprecated
    protected static boolean isCMMLStream(OggPacket p) {
        return IOUtils.byteRangeMatches(MAGIC_CMML, p.getData(), 0);
    }
@@ -219,10 +340,14 @@ public class OggStreamIdentifier {
        IOUtils.putUTF8(MAGIC_KATE, 1, "kate");
        // Remaining 3 bytes are all zero
    }
+   /** @deprecated Use {@link #findHandler(OggPacket)} instead */
+   @Deprecated
    protected static boolean isKateStream(OggPacket p) {
        return IOUtils.byteRangeMatches(MAGIC_KATE, p.getData(), 0);
    }
    protected static final byte[] MAGIC_ANNODEX2 = IOUtils.toUTF8Bytes("Annodex\0");
+   /** @deprecated Use {@link #findHandler(OggPacket)} instead */
+   @Deprecated
    protected static boolean isAnnodex2Stream(OggPacket p) {
        return IOUtils.byteRangeMatches(MAGIC_ANNODEX2, p.getData(), 0);
    }
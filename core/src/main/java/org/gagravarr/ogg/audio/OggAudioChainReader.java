@@ -0,0 +1,173 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg.audio;
+
+import java.io.IOException;
+
+import org.gagravarr.ogg.OggChainIndex;
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggPacketReader;
+import org.gagravarr.ogg.OggStreamAudioData;
+import org.gagravarr.ogg.OggStreamIdentifier;
+
+/**
+ * Reads the audio of a chained Ogg file, where one logical stream
+ *  follows another, each with their own headers and tags. (The File
+ *  classes, such as {@link org.gagravarr.opus.OpusFile}, only read
+ *  the first link.) Links can be of any of the supported audio types,
+ *  and needn't all be the same.
+ * <p>Call {@link #nextLink()} to move on to each link in turn, then
+ *  {@link #getNextAudioPacket()} to read its audio, which returns null
+ *  at the end of the link. To jump straight to a link, get its reader
+ *  from an {@link OggChainIndex}.
+ */
+public class OggAudioChainReader implements OggAudioStream {
+    private final OggPacketReader r;
+    private OggAudioStreamHeaders headers;
+    private int linkNumber = -1;
+    private boolean linkEnded;
+    private long lastGranule;
+
+    public OggAudioChainReader(OggPacketReader r) {
+        this.r = r;
+    }
+    /**
+     * Reads just the given link of an indexed chain
+     */
+    public OggAudioChainReader(OggChainIndex.Link link) {
+        this(link.getPacketReader());
+        this.linkNumber = link.getNumber() - 1;
+    }
+
+    /**
+     * Moves on to the next link, skipping any audio left in the current
+     *  one, and reads its headers. Any non-audio streams are skipped.
+     * @return The headers of the new link, or null if no more remain
+     */
+    public OggAudioHeaders nextLink() throws IOException {
+        headers = null;
+        linkEnded = true;
+        lastGranule = -1;
+
+        OggPacket p;
+        while ((p = r.getNextPacket()) != null) {
+            if (! p.isBeginningOfStream()) {
+                continue;
+            }
+            try {
+                headers = OggAudioStreamHeaders.create(p);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Warning - skipping non audio stream " + p.getSid() +
+                                   " of type " + OggStreamIdentifier.identifyType(p));
+                continue;
+            }
+            break;
+        }
+        if (headers == null) {
+            return null;
+        }
+
+        // Read the rest of the headers
+        boolean more = true;
+        while (more && (p = r.getNextPacketWithSid(headers.getSid())) != null) {
+            more = headers.populate(p);
+        }
+        linkNumber++;
+        linkEnded = false;
+        return headers;
+    }
+
+    /**
+     * The headers of the current link, or null if there is none
+     */
+    public OggAudioHeaders getHeaders() {
+        return headers;
+    }
+    /**
+     * Which link is being read, from zero, or -1 before the first
+     */
+    public int getLinkNumber() {
+        return linkNumber;
+    }
+
+    /**
+     * Returns the next audio packet of the current link, or null
+     *  once the end of the link has been reached
+     */
+    public OggStreamAudioData getNextAudioPacket() throws IOException {
+        if (linkEnded || headers == null) {
+            return null;
+        }
+        OggPacket p;
+        while ((p = r.getNextPacket()) != null) {
+            if (p.isBeginningOfStream()) {
+                // Next link has started, without this one ending properly
+                r.unreadPacket(p);
+                break;
+            }
+            if (p.getSid() != headers.getSid()) {
+                continue;
+            }
+            if (p.isEndOfStream()) {
+                linkEnded = true;
+            }
+
+            OggStreamAudioData audio = headers.createAudio(p);
+            if (audio == null) {
+                audio = new OggStreamAudioData(p);
+            }
+            if (audio.getGranulePosition() >= 0) {
+                lastGranule = audio.getGranulePosition();
+            }
+            return audio;
+        }
+        linkEnded = true;
+        return null;
+    }
+
+    /**
+     * Skips the audio of the current link to the next packet with a
+     *  granule of at least the given granule position
+     */
+    public void skipToGranule(long granulePosition) throws IOException {
+        if (headers != null && !linkEnded) {
+            r.skipToGranulePosition(headers.getSid(), granulePosition);
+        }
+    }
+
+    /**
+     * The granule of the audio read so far in the current link,
+     *  or -1 if there hasn't been any
+     */
+    public long getLastGranule() {
+        return lastGranule;
+    }
+    /**
+     * The duration of the audio read so far in the current link
+     */
+    public double getDurationSeconds() {
+        if (headers == null || lastGranule < 0) {
+            return 0;
+        }
+        return getDurationSeconds(headers, lastGranule);
+    }
+
+    /**
+     * Works out the duration of a link from its headers and
+     *  last granule, eg as found by an {@link OggChainIndex}
+     */
+    public static double getDurationSeconds(OggAudioHeaders headers, long lastGranule) {
+        return OggAudioStatistics.getDurationSeconds(headers.getInfo(), lastGranule);
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg.audio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.gagravarr.ogg.OggFile;
+import org.gagravarr.ogg.OggPacketWriter;
+import org.gagravarr.ogg.OggStreamAudioData;
+import org.gagravarr.opus.OpusAudioData;
+import org.gagravarr.opus.OpusInfo;
+
+/**
+ * Writes Ogg audio (eg Opus or Vorbis) live, as it is produced,
+ *  for streaming out to listeners. Unlike the File classes, which
+ *  write everything on close, the headers are written straight
+ *  away, and then the audio is written a page at a time whenever
+ *  the latency budget worth of granules has been buffered.
+ * <p>Each track is written as a new chained Ogg stream, with its own
+ *  headers and tags. The pages holding the headers of the current
+ *  track are kept, so that listeners who join part way through can
+ *  be sent those first, followed by the audio from the next page.
+ * <p>The output is flushed after every set of pages is written, so
+ *  a flush of the output always falls on a page boundary.
+ */
+public class OggAudioLiveWriter implements Closeable {
+    /** The default latency budget, in milliseconds */
+    public static final int DEFAULT_LATENCY_MS = 40;
+    private static final int MAX_PENDING_SIZE = 16384;
+
+    private final HeaderCapturingOutputStream out;
+    private final OggFile ogg;
+    private OggPacketWriter w;
+    private int latencyMs = DEFAULT_LATENCY_MS;
+
+    private int granuleRate;
+    private long latencyGranules;
+    private long granule;
+    private long flushedGranule;
+    private volatile ByteBuffer headerPages;
+
+    public OggAudioLiveWriter(OutputStream out) {
+        this.out = new HeaderCapturingOutputStream(out);
+        this.ogg = new OggFile(this.out);
+    }
+
+    /**
+     * Sets how much audio, in milliseconds, can be buffered before
+     *  a page is written out. Lower values give less latency, but
+     *  more pages and so more overhead. Typically 20-60ms.
+     */
+    public void setLatency(int millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Latency can't be negative");
+        }
+        this.latencyMs = millis;
+        updateLatencyGranules();
+    }
+    public int getLatency() {
+        return latencyMs;
+    }
+    private void updateLatencyGranules() {
+        latencyGranules = (long)latencyMs * granuleRate / 1000;
+    }
+
+    /**
+     * Starts a new track, as a new chained stream with the given
+     *  headers, ending the current one if there is one. The headers
+     *  are written out straight away.
+     */
+    public void startStream(OggAudioHeaders headers) throws IOException {
+        startStream(headers.getInfo(), headers.getTags(), headers.getSetup());
+    }
+    /**
+     * Starts a new track, as a new chained stream with the given
+     *  headers, ending the current one if there is one. The setup
+     *  header should be null for formats which don't have one.
+     */
+    public void startStream(OggAudioInfoHeader info, OggAudioTagsHeader tags,
+                            OggAudioSetupHeader setup) throws IOException {
+        endStream();
+
+        if (info instanceof OpusInfo) {
+            // Opus granules are always at 48kHz
+            granuleRate = OpusAudioData.OPUS_GRANULE_RATE;
+        } else {
+            granuleRate = info.getSampleRate();
+        }
+        updateLatencyGranules();
+        granule = 0;
+        flushedGranule = 0;
+
+        // Info goes on its own page, the others on the following
+        //  page(s), with the audio starting on a new page after
+        w = ogg.getPacketWriter();
+        out.startCapture();
+        w.bufferPacket(info.write(), true);
+        w.bufferPacket(tags.write());
+        if (setup != null) {
+            w.bufferPacket(setup.write());
+        }
+        w.flush();
+        headerPages = ByteBuffer.wrap(out.endCapture()).asReadOnlyBuffer();
+    }
+
+    /**
+     * Ends the current track, if there is one, marking the end
+     *  of its stream
+     */
+    public void endStream() throws IOException {
+        if (w != null) {
+            w.close();
+            w = null;
+        }
+    }
+
+    /**
+     * Writes the audio packet, which should have its granule position
+     *  set. (Opus packets without one have it calculated for them.)
+     *  A page is written out if enough audio is now buffered.
+     */
+    public void writeAudio(OggStreamAudioData audio) throws IOException {
+        if (w == null) {
+            throw new IllegalStateException("Start a stream before writing audio");
+        }
+        long packetGranule = audio.getGranulePosition();
+        if (packetGranule < 0) {
+            if (audio instanceof OpusAudioData) {
+                packetGranule = granule + ((OpusAudioData)audio).getNumberOfSamples();
+            } else {
+                throw new IllegalArgumentException("Audio packet has no granule position");
+            }
+        }
+        granule = packetGranule;
+        w.bufferPacket(audio.write(), granule);
+
+        if (granule - flushedGranule >= latencyGranules ||
+                w.getSizePendingFlush() > MAX_PENDING_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes out any buffered audio now
+     */
+    public void flush() throws IOException {
+        if (w != null && w.getSizePendingFlush() > 0) {
+            w.flush();
+            flushedGranule = granule;
+        }
+    }
+
+    /**
+     * Returns the pages of the current stream's headers, ready to
+     *  send to a new listener before the next page of audio, or
+     *  null if no stream has been started. Each call returns a new
+     *  read-only view, so they can be used from multiple threads.
+     */
+    public ByteBuffer getHeaderPages() {
+        ByteBuffer pages = headerPages;
+        if (pages == null) {
+            return null;
+        }
+        return pages.duplicate();
+    }
+
+    /**
+     * The granule position of the last audio written
+     */
+    public long getGranulePosition() {
+        return granule;
+    }
+    /**
+     * The Ogg Stream ID of the current stream, or -1 if none
+     */
+    public int getSid() {
+        return (w == null) ? -1 : w.getSid();
+    }
+
+    /**
+     * Ends the current stream, and closes the output
+     */
+    public void close() throws IOException {
+        endStream();
+        ogg.close();
+    }
+
+    /**
+     * Passes everything through, optionally keeping a copy
+     */
+    private static class HeaderCapturingOutputStream extends FilterOutputStream {
+        private ByteArrayOutputStream capture;
+
+        private HeaderCapturingOutputStream(OutputStream out) {
+            super(out);
+        }
+        private void startCapture() {
+            capture = new ByteArrayOutputStream();
+        }
+        private byte[] endCapture() {
+            byte[] captured = capture.toByteArray();
+            capture = null;
+            return captured;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (capture != null) {
+                capture.write(b);
+            }
+        }
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (capture != null) {
+                capture.write(b, off, len);
+            }
+        }
+    }
+}
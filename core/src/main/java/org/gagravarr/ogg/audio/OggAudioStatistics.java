@@ -26,12 +26,43 @@ import org.gagravarr.opus.OpusInfo;
 /**
  * For computing statistics around an {@link OggAudioStream},
  *  such as how long it lasts.
+ * As well as the duration, sizes and overhead, this works out the
+ *  spread of packet sizes and per-second bitrates, whether the
+ *  stream is Constant or Variable bitrate, and spots lost pages and
+ *  granules which go backwards. All of this is done in a single
+ *  pass with fixed size counters, so long streams need no more
+ *  memory than short ones.
  * Format specific subclasses may be able to also identify 
  *  additional statistics beyond these.
  */
 public class OggAudioStatistics {
+    /** Packet sizes below this are counted exactly */
+    private static final int PACKET_SIZE_EXACT = 1024;
+    /** Packet sizes above the exact ones are counted in steps of this */
+    private static final int PACKET_SIZE_STEP = 64;
+    private static final int PACKET_SIZE_BUCKETS =
+            PACKET_SIZE_EXACT + (65536 - PACKET_SIZE_EXACT) / PACKET_SIZE_STEP + 1;
+
+    /** The width, in bits per second, of each bitrate histogram bucket */
+    public static final int BITRATE_HISTOGRAM_STEP = 8000;
+    /** How many bitrate histogram buckets there are, the last catching all higher rates */
+    public static final int BITRATE_HISTOGRAM_BUCKETS = 256;
+    /**
+     * How much the per-second bitrates may vary, as a fraction
+     *  of their average, for the stream to still count as CBR
+     */
+    public static final double CBR_MAX_VARIATION = 0.05;
+
+    /**
+     * Whether the stream is Constant or Variable bitrate
+     */
+    public enum BitrateMode {
+        CBR, VBR, UNKNOWN
+    }
+
     private final OggAudioStream audio;
     private final OggAudioHeaders headers;
+    private OggAudioInfoHeader info;
 
     private int audioPackets = 0;
     private long lastGranule = -1;
@@ -41,6 +72,27 @@ public class OggAudioStatistics {
     private long headerOverheadSize = 0;
     private long audioDataSize = 0;
 
+    private int minPacketSize = -1;
+    private int maxPacketSize = -1;
+    private final int[] packetSizes = new int[PACKET_SIZE_BUCKETS];
+
+    private long currentSecond = 0;
+    private long currentSecondBytes = 0;
+    private int bitrateSeconds = 0;
+    private long minSecondBitrate = -1;
+    private long maxSecondBitrate = -1;
+    private double meanSecondBitrate = 0;
+    private double sumSquaresSecondBitrate = 0;
+    private final int[] bitrates = new int[BITRATE_HISTOGRAM_BUCKETS];
+
+    private int audioPages = 0;
+    private int lastSequenceNumber = -1;
+    private long lastPageGranule = -1;
+    private long pageStartGranule = -1;
+    private int lostPages = 0;
+    private int sequenceGaps = 0;
+    private int granuleDiscontinuities = 0;
+
     public OggAudioStatistics(OggAudioHeaders headers, OggAudioStream audio) throws IOException {
         this.audio = audio;
         this.headers = headers;
@@ -53,7 +105,7 @@ public class OggAudioStatistics {
         OggStreamAudioData data;
 
         // Calculate the headers sizing
-        OggAudioInfoHeader info = headers.getInfo();
+        info = headers.getInfo();
         handleHeader(info);
         handleHeader(headers.getTags());
         handleHeader(headers.getSetup());
@@ -65,16 +117,36 @@ public class OggAudioStatistics {
 
         // Calculate the duration from the granules, if found
         if (lastGranule > 0) {
-            long samples = lastGranule - info.getPreSkip();
-            double sampleRate = info.getSampleRate();
-            if (info instanceof OpusInfo) {
-                // Opus is a special case - granule *always* runs at 48kHz
-                sampleRate = OpusAudioData.OPUS_GRANULE_RATE;
+            durationSeconds = getDurationSeconds(info, lastGranule);
+        }
+
+        // The final second is often only part of one, which we
+        //  only use if it was all there was
+        if (currentSecondBytes > 0) {
+            double part = durationSeconds - currentSecond;
+            if (part >= 1) {
+                handleSecond(currentSecondBytes * 8);
+            } else if (part > 0 && bitrateSeconds == 0) {
+                handleSecond((long)(currentSecondBytes * 8 / part));
             }
-            durationSeconds = samples / sampleRate;
         }
     }
 
+    /**
+     * Works out the duration, in seconds, of audio which ends at the
+     *  given granule, eg when the last granule has been found some
+     *  other way than processing all the audio packets
+     */
+    public static double getDurationSeconds(OggAudioInfoHeader info, long lastGranule) {
+        long samples = lastGranule - info.getPreSkip();
+        double sampleRate = info.getSampleRate();
+        if (info instanceof OpusInfo) {
+            // Opus is a special case - granule *always* runs at 48kHz
+            sampleRate = OpusAudioData.OPUS_GRANULE_RATE;
+        }
+        return samples / sampleRate;
+    }
+
     protected void handleHeader(OggStreamPacket header) {
         if (header != null) {
             oggOverheadSize += header.getOggOverheadSize();
@@ -83,13 +155,102 @@ public class OggAudioStatistics {
     }
 
     protected void handleAudioData(OggStreamAudioData audioData) {
+        int size = audioData.getData().length;
+        long granule = audioData.getGranulePosition();
+
         audioPackets++;
-        audioDataSize += audioData.getData().length;
+        audioDataSize += size;
         oggOverheadSize += audioData.getOggOverheadSize();
 
-        if (audioData.getGranulePosition() > lastGranule) {
-            lastGranule = audioData.getGranulePosition();
+        if (granule > lastGranule) {
+            lastGranule = granule;
         }
+
+        handlePage(audioData);
+        handlePacketSize(size);
+
+        // Packets count towards the second in which their page
+        //  starts, ie where the previous one ended
+        long start = (audioData.getSequenceNumber() < 0 ? granule : pageStartGranule);
+        if (start >= 0 && info != null) {
+            long second = (long)Math.max(0, getDurationSeconds(info, start));
+            if (second > currentSecond) {
+                if (currentSecondBytes > 0) {
+                    handleSecond(currentSecondBytes * 8);
+                }
+                currentSecond = second;
+                currentSecondBytes = 0;
+            }
+        }
+        currentSecondBytes += size;
+    }
+
+    private void handlePage(OggStreamAudioData audioData) {
+        int seq = audioData.getSequenceNumber();
+        if (seq < 0 || seq == lastSequenceNumber) {
+            // Not from a file, or on the same page as the last packet
+            return;
+        }
+        int pages = Math.max(1, audioData.getNumberOfPages());
+        if (lastSequenceNumber < 0) {
+            audioPages += pages;
+        } else {
+            // Packets spread across several pages will skip the
+            //  sequence numbers of all but their last one
+            int expected = lastSequenceNumber + pages;
+            if (seq > expected) {
+                lostPages += seq - expected;
+                sequenceGaps++;
+            } else if (seq < lastSequenceNumber) {
+                sequenceGaps++;
+            }
+            audioPages += Math.max(1, Math.min(seq - lastSequenceNumber, pages));
+        }
+        lastSequenceNumber = seq;
+
+        long granule = audioData.getGranulePosition();
+        pageStartGranule = lastPageGranule;
+        if (granule >= 0) {
+            if (lastPageGranule >= 0 && granule < lastPageGranule) {
+                granuleDiscontinuities++;
+            }
+            lastPageGranule = granule;
+        }
+    }
+
+    private void handlePacketSize(int size) {
+        if (minPacketSize < 0 || size < minPacketSize) {
+            minPacketSize = size;
+        }
+        if (size > maxPacketSize) {
+            maxPacketSize = size;
+        }
+
+        int bucket;
+        if (size < PACKET_SIZE_EXACT) {
+            bucket = size;
+        } else {
+            bucket = PACKET_SIZE_EXACT + (size - PACKET_SIZE_EXACT) / PACKET_SIZE_STEP;
+        }
+        packetSizes[Math.min(bucket, PACKET_SIZE_BUCKETS-1)]++;
+    }
+
+    private void handleSecond(long bitrate) {
+        bitrateSeconds++;
+        if (minSecondBitrate < 0 || bitrate < minSecondBitrate) {
+            minSecondBitrate = bitrate;
+        }
+        if (bitrate > maxSecondBitrate) {
+            maxSecondBitrate = bitrate;
+        }
+
+        // Running mean and variance, as per Welford
+        double delta = bitrate - meanSecondBitrate;
+        meanSecondBitrate += delta / bitrateSeconds;
+        sumSquaresSecondBitrate += delta * (bitrate - meanSecondBitrate);
+
+        int bucket = (int)Math.min(bitrate / BITRATE_HISTOGRAM_STEP, BITRATE_HISTOGRAM_BUCKETS-1);
+        bitrates[bucket]++;
     }
 
     /**
@@ -184,4 +345,141 @@ public class OggAudioStatistics {
     public double getAverageAudioBitrate() {
         return audioDataSize * 8.0 / durationSeconds;
     }
+
+    /**
+     * The smallest audio packet, in bytes, or -1 if there were none
+     */
+    public int getMinPacketSize() {
+        return minPacketSize;
+    }
+    /**
+     * The largest audio packet, in bytes, or -1 if there were none
+     */
+    public int getMaxPacketSize() {
+        return maxPacketSize;
+    }
+    /**
+     * The average size of the audio packets, in bytes
+     */
+    public double getAveragePacketSize() {
+        if (audioPackets == 0) return 0;
+        return audioDataSize / (double)audioPackets;
+    }
+    /**
+     * The size, in bytes, which the given percentage (0-100) of
+     *  audio packets are no bigger than, eg 50 for the median.
+     * Exact for packets under 1kb, otherwise rounded down to
+     *  the nearest 64 bytes. Returns -1 if there were no packets.
+     */
+    public int getPacketSizePercentile(double percentile) {
+        if (audioPackets == 0) return -1;
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be 0-100, not " + percentile);
+        }
+
+        long wanted = Math.max(1, (long)Math.ceil(audioPackets * percentile / 100));
+        long seen = 0;
+        for (int i=0; i<PACKET_SIZE_BUCKETS; i++) {
+            seen += packetSizes[i];
+            if (seen >= wanted) {
+                int size = i;
+                if (i >= PACKET_SIZE_EXACT) {
+                    size = PACKET_SIZE_EXACT + (i - PACKET_SIZE_EXACT) * PACKET_SIZE_STEP;
+                }
+                // Keep within what was actually seen
+                return Math.min(Math.max(size, minPacketSize), maxPacketSize);
+            }
+        }
+        return maxPacketSize;
+    }
+
+    /**
+     * How many seconds of audio the per-second bitrates
+     *  were worked out for
+     */
+    public int getBitrateSecondsCount() {
+        return bitrateSeconds;
+    }
+    /**
+     * The lowest bitrate, in bits per second, of the audio data in
+     *  any one second, or -1 if unknown
+     */
+    public long getMinSecondBitrate() {
+        return minSecondBitrate;
+    }
+    /**
+     * The highest bitrate, in bits per second, of the audio data in
+     *  any one second, or -1 if unknown
+     */
+    public long getMaxSecondBitrate() {
+        return maxSecondBitrate;
+    }
+    /**
+     * The standard deviation, in bits per second, of the per-second
+     *  audio bitrates
+     */
+    public double getSecondBitrateDeviation() {
+        if (bitrateSeconds < 2) return 0;
+        return Math.sqrt(sumSquaresSecondBitrate / bitrateSeconds);
+    }
+    /**
+     * How many seconds had audio bitrates in each range, with
+     *  bucket <em>i</em> covering from <em>i</em> to <em>i+1</em>
+     *  times {@link #BITRATE_HISTOGRAM_STEP} bits per second, and the
+     *  last bucket also holding all the higher bitrates
+     */
+    public int[] getBitrateHistogram() {
+        return bitrates.clone();
+    }
+
+    /**
+     * Is the audio Constant Bitrate (all packets the same size,
+     *  or the per-second bitrates all within
+     *  {@link #CBR_MAX_VARIATION} of the average), or Variable?
+     * Needs at least two whole seconds of audio to tell,
+     *  unless the packets are all the same size.
+     */
+    public BitrateMode getBitrateMode() {
+        if (audioPackets == 0) {
+            return BitrateMode.UNKNOWN;
+        }
+        if (audioPackets > 1 && minPacketSize == maxPacketSize) {
+            return BitrateMode.CBR;
+        }
+        if (bitrateSeconds < 2 || meanSecondBitrate <= 0) {
+            return BitrateMode.UNKNOWN;
+        }
+        if (getSecondBitrateDeviation() / meanSecondBitrate <= CBR_MAX_VARIATION) {
+            return BitrateMode.CBR;
+        }
+        return BitrateMode.VBR;
+    }
+
+    /**
+     * The number of Ogg pages holding audio data
+     */
+    public int getAudioPagesCount() {
+        return audioPages;
+    }
+    /**
+     * How many pages appear to be missing, based on
+     *  gaps in the page sequence numbers
+     */
+    public int getLostPagesCount() {
+        return lostPages;
+    }
+    /**
+     * How many times the page sequence numbers jumped forwards,
+     *  or went backwards
+     */
+    public int getSequenceGapsCount() {
+        return sequenceGaps;
+    }
+    /**
+     * How many times the granule (time position) went backwards
+     *  from one page to the next
+     */
+    public int getGranuleDiscontinuitiesCount() {
+        return granuleDiscontinuities;
+    }
 }
@@ -0,0 +1,195 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.opus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.gagravarr.ogg.OggFile;
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggPacketWriter;
+
+/**
+ * Cuts and joins Opus audio to the exact sample, by copying the
+ *  compressed packets across without decoding or re-encoding them.
+ * <p>Each clip is written as its own (chained) Ogg stream, with the
+ *  pre-skip in its Info header trimming off the start, and the
+ *  granule of its last page trimming off the end. As Opus decoders
+ *  need some audio to settle down, clips which don't start at the
+ *  beginning include an extra {@link #PRE_ROLL_SAMPLES} of audio
+ *  before the start, which the pre-skip hides.
+ * <p>Packets are written out as they are read, so only a page's
+ *  worth of audio is held in memory at a time. All sample positions
+ *  are at 48kHz, and (as with the granule) count from the start of
+ *  the playable audio, after the input's own pre-skip.
+ */
+public class OpusEditor implements Closeable {
+    /** How much audio a decoder needs before it is fully settled, 80ms */
+    public static final int PRE_ROLL_SAMPLES = 3840;
+    private static final int MAX_PACKETS_PER_PAGE = 50;
+    private static final int MAX_PRE_SKIP = 65535;
+
+    private final OggFile ogg;
+    private long samplesWritten;
+
+    /**
+     * Creates an editor which writes its clips to the given stream
+     */
+    public OpusEditor(OutputStream out) {
+        this.ogg = new OggFile(out);
+    }
+
+    /**
+     * Cuts the audio between the given samples out of the file
+     * @param endSample The sample to stop before, or -1 for the end
+     */
+    public static void cut(OpusFile in, OutputStream out, long startSample, long endSample) throws IOException {
+        OpusEditor editor = new OpusEditor(out);
+        editor.append(in, startSample, endSample);
+        editor.close();
+    }
+    /**
+     * Joins the whole of each of the files together, one after another
+     */
+    public static void concatenate(List<OpusFile> in, OutputStream out) throws IOException {
+        OpusEditor editor = new OpusEditor(out);
+        for (OpusFile file : in) {
+            editor.append(file);
+        }
+        editor.close();
+    }
+
+    /**
+     * How many samples of playable audio have been written so far
+     */
+    public long getSamplesWritten() {
+        return samplesWritten;
+    }
+
+    /**
+     * Adds the whole of the file's audio as the next clip
+     */
+    public void append(OpusFile in) throws IOException {
+        append(in, 0, -1);
+    }
+    /**
+     * Adds the audio between the given samples as the next clip.
+     * The file should not have had any audio read from it yet.
+     * @param startSample The first sample to include
+     * @param endSample The sample to stop before, or -1 for the end
+     */
+    public void append(OpusFile in, long startSample, long endSample) throws IOException {
+        if (startSample < 0 || (endSample >= 0 && endSample <= startSample)) {
+            throw new IllegalArgumentException("Invalid clip from " + startSample + " to " + endSample);
+        }
+
+        // Work in the decoder's samples, which include the pre-skip
+        int inputPreSkip = in.getInfo().getPreSkip();
+        long decodeStart = startSample + inputPreSkip;
+        long decodeEnd = (endSample < 0) ? Long.MAX_VALUE : endSample + inputPreSkip;
+        long preRollStart = (startSample == 0) ? 0 : Math.max(0, decodeStart - PRE_ROLL_SAMPLES);
+
+        OggPacketWriter w = null;
+        long firstSample = -1;
+        long position = 0;
+        long written = 0;
+        long inputGranule = -1;
+        int onPage = 0;
+        boolean reachedEnd = true;
+
+        OpusAudioData audio;
+        while ((audio = in.getNextAudioPacket()) != null) {
+            int samples = audio.getNumberOfSamples();
+            if (samples < 0) {
+                System.err.println("Warning - invalid Opus packet at sample " + position + ", skipping");
+                continue;
+            }
+            inputGranule = audio.getGranulePosition();
+            long packetEnd = position + samples;
+
+            // Skip the packets before the clip (and its pre-roll)
+            if (packetEnd <= preRollStart) {
+                position = packetEnd;
+                continue;
+            }
+            // Stop once past the end
+            if (position >= decodeEnd) {
+                reachedEnd = false;
+                break;
+            }
+
+            if (w == null) {
+                firstSample = position;
+                w = startClip(in, decodeStart - firstSample);
+            }
+
+            // Flush the previous page if full, always keeping the latest
+            //  back so that the end trim can be set on it
+            if (onPage >= MAX_PACKETS_PER_PAGE || w.getSizePendingFlush() > 16384) {
+                w.flush();
+                onPage = 0;
+            }
+            written += samples;
+            w.bufferPacket(new OggPacket(audio.getData()), written);
+            onPage++;
+            position = packetEnd;
+        }
+
+        if (w == null) {
+            throw new IllegalArgumentException("Clip starts at " + startSample +
+                    " but the audio ends at " + Math.max(0, position - inputPreSkip));
+        }
+
+        // The final granule trims off any extra audio at the end,
+        //  including any the input itself was trimming off
+        long finalGranule = written;
+        if (decodeEnd != Long.MAX_VALUE) {
+            finalGranule = Math.min(finalGranule, decodeEnd - firstSample);
+        }
+        if (reachedEnd && inputGranule >= 0) {
+            finalGranule = Math.min(finalGranule, Math.max(0, inputGranule - firstSample));
+        }
+        long preSkip = decodeStart - firstSample;
+        finalGranule = Math.max(finalGranule, preSkip);
+        w.setGranulePosition(finalGranule);
+        w.close();
+
+        samplesWritten += finalGranule - preSkip;
+    }
+
+    /**
+     * Writes the headers of a new chained stream for a clip
+     */
+    private OggPacketWriter startClip(OpusFile in, long preSkip) throws IOException {
+        if (preSkip > MAX_PRE_SKIP) {
+            throw new IllegalStateException("Pre-skip of " + preSkip + " is too large");
+        }
+        OpusInfo info = new OpusInfo(in.getInfo().write());
+        info.setPreSkip((int)preSkip);
+
+        OggPacketWriter w = ogg.getPacketWriter();
+        w.bufferPacket(info.write(), true);
+        w.bufferPacket(in.getTags().write(), true);
+        return w;
+    }
+
+    /**
+     * Finishes writing, and closes the output
+     */
+    public void close() throws IOException {
+        ogg.close();
+    }
+}
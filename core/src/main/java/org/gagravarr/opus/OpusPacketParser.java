@@ -0,0 +1,386 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.opus;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses the structure of Opus audio packets, as given by the TOC
+ *  byte and frame lengths (RFC 6716 section 3), without decoding
+ *  any audio. Gives the configuration, mode, bandwidth and the
+ *  position and length of each frame, or why the packet is invalid.
+ * <p>The parser is a re-usable view onto the last packet parsed,
+ *  and parsing doesn't allocate anything, so one instance can be
+ *  used for a whole stream. It isn't thread safe.
+ * <p>Packets can be parsed from a byte array, or from a
+ *  {@link ByteBuffer} (between its position and limit, which aren't
+ *  changed). Frame offsets are indexes into the array or buffer.
+ */
+public class OpusPacketParser {
+    /** The most frames a packet can hold, 120ms of 2.5ms frames */
+    public static final int MAX_FRAMES = 48;
+    /** The most bytes a single frame can take */
+    public static final int MAX_FRAME_LENGTH = 1275;
+    /** The most audio a packet can hold, at 48kHz */
+    public static final int MAX_PACKET_SAMPLES = 5760;
+
+    private static final String ERROR_EMPTY = "Empty packet";
+    private static final String ERROR_TRUNCATED = "Packet too short for its frame lengths";
+    private static final String ERROR_ODD_LENGTH = "Code 1 packet with an odd length";
+    private static final String ERROR_NO_FRAMES = "Code 3 packet with no frames";
+    private static final String ERROR_TOO_LONG = "Packet has more than 120ms of audio";
+    private static final String ERROR_CBR_LENGTH = "Code 3 CBR packet length not a multiple of the frames";
+    private static final String ERROR_FRAME_TOO_LONG = "Frame longer than 1275 bytes";
+
+    /**
+     * Which of the Opus coding modes a packet uses
+     */
+    public static enum Mode {
+        /** Linear prediction, for speech */
+        SILK,
+        /** SILK for the low frequencies, CELT for the high */
+        HYBRID,
+        /** MDCT based, for music and low latency */
+        CELT
+    }
+    /**
+     * The audio bandwidth of a packet
+     */
+    public static enum Bandwidth {
+        NARROWBAND(4000),
+        MEDIUMBAND(6000),
+        WIDEBAND(8000),
+        SUPERWIDEBAND(12000),
+        FULLBAND(20000);
+
+        /** The highest frequency coded, in Hz */
+        public final int frequency;
+        private Bandwidth(int frequency) {
+            this.frequency = frequency;
+        }
+    }
+
+    private final int[] frameOffsets = new int[MAX_FRAMES];
+    private final int[] frameLengths = new int[MAX_FRAMES];
+
+    private byte[] array;
+    private ByteBuffer buffer;
+
+    private boolean valid;
+    private String error;
+    private int toc;
+    private int frames;
+    private boolean vbr;
+    private int paddingLength;
+
+    /**
+     * Parses the whole of the given packet data
+     * @return Whether the packet is valid
+     */
+    public boolean parse(byte[] data) {
+        return parse(data, 0, data.length);
+    }
+    /**
+     * Parses the packet held in the given part of the array
+     * @return Whether the packet is valid
+     */
+    public boolean parse(byte[] data, int offset, int length) {
+        this.array = data;
+        this.buffer = null;
+        return parse(offset, length);
+    }
+    /**
+     * Parses the packet held between the buffer's position and limit.
+     *  The position and limit are left unchanged.
+     * @return Whether the packet is valid
+     */
+    public boolean parse(ByteBuffer data) {
+        this.array = null;
+        this.buffer = data;
+        return parse(data.position(), data.remaining());
+    }
+    /**
+     * Parses the structure of an Opus audio packet
+     * @return Whether the packet is valid
+     */
+    public boolean parse(OpusAudioData audio) {
+        return parse(audio.getData());
+    }
+
+    private int byteAt(int index) {
+        if (array != null) {
+            return array[index] & 0xff;
+        }
+        return buffer.get(index) & 0xff;
+    }
+
+    private boolean parse(int offset, int length) {
+        valid = false;
+        error = null;
+        toc = 0;
+        frames = 0;
+        vbr = false;
+        paddingLength = 0;
+
+        if (length < 1) {
+            return fail(ERROR_EMPTY);
+        }
+        toc = byteAt(offset);
+        int pos = offset + 1;
+        int remaining = length - 1;
+        int lastLength;
+
+        int code = toc & 0x3;
+        if (code == 0) {
+            frames = 1;
+            lastLength = remaining;
+        } else if (code == 1) {
+            if ((remaining & 1) != 0) {
+                return fail(ERROR_ODD_LENGTH);
+            }
+            frames = 2;
+            frameLengths[0] = remaining / 2;
+            lastLength = remaining / 2;
+        } else if (code == 2) {
+            int first = readLength(pos, remaining);
+            if (first < 0) {
+                return fail(ERROR_TRUNCATED);
+            }
+            int bytes = lengthBytes(pos);
+            pos += bytes;
+            remaining -= bytes;
+            if (first > remaining) {
+                return fail(ERROR_TRUNCATED);
+            }
+            frames = 2;
+            frameLengths[0] = first;
+            lastLength = remaining - first;
+        } else {
+            if (remaining < 1) {
+                return fail(ERROR_TRUNCATED);
+            }
+            int countByte = byteAt(pos++);
+            remaining--;
+            frames = countByte & 0x3f;
+            vbr = (countByte & 0x80) != 0;
+            if (frames == 0) {
+                return fail(ERROR_NO_FRAMES);
+            }
+            if (frames * getSamplesPerFrame() > MAX_PACKET_SAMPLES) {
+                return fail(ERROR_TOO_LONG);
+            }
+
+            // Padding, which comes off the end of the packet
+            if ((countByte & 0x40) != 0) {
+                int p;
+                do {
+                    if (remaining < 1) {
+                        return fail(ERROR_TRUNCATED);
+                    }
+                    p = byteAt(pos++);
+                    remaining--;
+                    int padding = (p == 255) ? 254 : p;
+                    remaining -= padding;
+                    paddingLength += padding;
+                } while (p == 255);
+                if (remaining < 0) {
+                    return fail(ERROR_TRUNCATED);
+                }
+            }
+
+            if (vbr) {
+                lastLength = remaining;
+                for (int i=0; i<frames-1; i++) {
+                    int frameLength = readLength(pos, remaining);
+                    if (frameLength < 0) {
+                        return fail(ERROR_TRUNCATED);
+                    }
+                    int bytes = lengthBytes(pos);
+                    pos += bytes;
+                    remaining -= bytes;
+                    if (frameLength > remaining) {
+                        return fail(ERROR_TRUNCATED);
+                    }
+                    frameLengths[i] = frameLength;
+                    lastLength -= bytes + frameLength;
+                }
+                if (lastLength < 0) {
+                    return fail(ERROR_TRUNCATED);
+                }
+            } else {
+                lastLength = remaining / frames;
+                if (lastLength * frames != remaining) {
+                    return fail(ERROR_CBR_LENGTH);
+                }
+                for (int i=0; i<frames-1; i++) {
+                    frameLengths[i] = lastLength;
+                }
+            }
+        }
+        frameLengths[frames-1] = lastLength;
+
+        // Frames follow on from each other after the lengths
+        for (int i=0; i<frames; i++) {
+            if (frameLengths[i] > MAX_FRAME_LENGTH) {
+                return fail(ERROR_FRAME_TOO_LONG);
+            }
+            frameOffsets[i] = pos;
+            pos += frameLengths[i];
+        }
+        valid = true;
+        return true;
+    }
+    private boolean fail(String why) {
+        error = why;
+        frames = 0;
+        return false;
+    }
+
+    /**
+     * Reads a frame length of 1 or 2 bytes, or -1 if not enough data
+     */
+    private int readLength(int pos, int remaining) {
+        if (remaining < 1) {
+            return -1;
+        }
+        int first = byteAt(pos);
+        if (first < 252) {
+            return first;
+        }
+        if (remaining < 2) {
+            return -1;
+        }
+        return first + 4 * byteAt(pos+1);
+    }
+    private int lengthBytes(int pos) {
+        return (byteAt(pos) < 252) ? 1 : 2;
+    }
+
+    /**
+     * Was the last packet parsed valid?
+     */
+    public boolean isValid() {
+        return valid;
+    }
+    /**
+     * Why the last packet parsed was invalid, or null if it was valid
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * The TOC (Table Of Contents) byte
+     */
+    public int getToc() {
+        return toc;
+    }
+    /**
+     * The configuration number, 0-31, which sets the mode,
+     *  bandwidth and frame duration
+     */
+    public int getConfig() {
+        return toc >> 3;
+    }
+    public Mode getMode() {
+        int config = getConfig();
+        if (config < 12) return Mode.SILK;
+        if (config < 16) return Mode.HYBRID;
+        return Mode.CELT;
+    }
+    public Bandwidth getBandwidth() {
+        int config = getConfig();
+        if (config < 12) {
+            return Bandwidth.values()[config >> 2];
+        }
+        if (config < 16) {
+            return (config < 14) ? Bandwidth.SUPERWIDEBAND : Bandwidth.FULLBAND;
+        }
+        // CELT has no mediumband
+        int band = (config - 16) >> 2;
+        return (band == 0) ? Bandwidth.NARROWBAND : Bandwidth.values()[band + 1];
+    }
+    public boolean isStereo() {
+        return (toc & 0x4) != 0;
+    }
+    /**
+     * The frame count code, 0 for one frame, 1 for two of the same
+     *  size, 2 for two of different sizes, 3 for any number
+     */
+    public int getFrameCountCode() {
+        return toc & 0x3;
+    }
+    /**
+     * For code 3 packets, whether the frames have their own lengths
+     */
+    public boolean isVbr() {
+        return vbr;
+    }
+
+    /**
+     * The number of samples (at 48kHz) in each frame
+     */
+    public int getSamplesPerFrame() {
+        int config = getConfig();
+        if (config < 12) {
+            // SILK 10, 20, 40 or 60ms
+            int size = config & 0x3;
+            return (size == 3) ? 2880 : (480 << size);
+        }
+        if (config < 16) {
+            // Hybrid 10 or 20ms
+            return 480 << (config & 0x1);
+        }
+        // CELT 2.5, 5, 10 or 20ms
+        return 120 << (config & 0x3);
+    }
+    public int getNumberOfFrames() {
+        return frames;
+    }
+    /**
+     * The number of samples (at 48kHz) in the whole packet
+     */
+    public int getNumberOfSamples() {
+        return frames * getSamplesPerFrame();
+    }
+
+    /**
+     * Where the given frame starts, as an index into the
+     *  array or buffer that was parsed
+     */
+    public int getFrameOffset(int frame) {
+        checkFrame(frame);
+        return frameOffsets[frame];
+    }
+    /**
+     * The length of the given frame, which may be zero
+     *  (eg for Discontinuous Transmission)
+     */
+    public int getFrameLength(int frame) {
+        checkFrame(frame);
+        return frameLengths[frame];
+    }
+    private void checkFrame(int frame) {
+        if (!valid || frame < 0 || frame >= frames) {
+            throw new IllegalArgumentException("No frame " + frame + " in the packet");
+        }
+    }
+    /**
+     * How many bytes of padding are at the end of the packet,
+     *  not including the bytes that give the padding length
+     */
+    public int getPaddingLength() {
+        return paddingLength;
+    }
+}
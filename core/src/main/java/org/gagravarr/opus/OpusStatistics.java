@@ -40,6 +40,12 @@ public class OpusStatistics extends OggAudioStatistics {
 
     private OpusInfo info;
 
+    private final OpusPacketParser parser = new OpusPacketParser();
+    private final int[] mode_packets = new int[OpusPacketParser.Mode.values().length];
+    private final int[] bandwidth_packets = new int[OpusPacketParser.Bandwidth.values().length];
+    private int stereo_packets;
+    private int malformed_packets;
+
     public OpusStatistics(OggAudioHeaders headers, OggAudioStream audio) throws IOException {
         super(headers, audio);
 
@@ -136,6 +142,13 @@ public class OpusStatistics extends OggAudioStatistics {
         //    continue;
         //}
         byte[] d = audioData.getData();
+        if (! parser.parse(d)) {
+            malformed_packets++;
+        } else {
+            mode_packets[parser.getMode().ordinal()]++;
+            bandwidth_packets[parser.getBandwidth().ordinal()]++;
+            if (parser.isStereo()) stereo_packets++;
+        }
         if (d.length < 1) {
             System.err.println("WARNING: Invalid packet TOC in stream with sid "+sid);
             return;
@@ -188,4 +201,30 @@ public class OpusStatistics extends OggAudioStatistics {
     public int getMinPacketBytes() {
         return min_packet_bytes;
     }
+
+    /**
+     * How many audio packets used the given coding mode
+     */
+    public int getModePacketsCount(OpusPacketParser.Mode mode) {
+        return mode_packets[mode.ordinal()];
+    }
+    /**
+     * How many audio packets had the given audio bandwidth
+     */
+    public int getBandwidthPacketsCount(OpusPacketParser.Bandwidth bandwidth) {
+        return bandwidth_packets[bandwidth.ordinal()];
+    }
+    /**
+     * How many audio packets were coded as stereo
+     */
+    public int getStereoPacketsCount() {
+        return stereo_packets;
+    }
+    /**
+     * How many audio packets had an invalid structure, such as
+     *  frame lengths which don't fit within the packet
+     */
+    public int getMalformedPacketsCount() {
+        return malformed_packets;
+    }
 }
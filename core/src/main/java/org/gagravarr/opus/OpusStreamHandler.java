@@ -0,0 +1,47 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.opus;
+
+import java.io.IOException;
+
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggStreamHandler;
+import org.gagravarr.ogg.OggStreamIdentifier;
+import org.gagravarr.ogg.OggStreamPacket;
+import org.gagravarr.ogg.audio.OggAudioHeaders;
+import org.gagravarr.ogg.audio.OggAudioStatistics;
+import org.gagravarr.ogg.audio.OggAudioStream;
+
+/**
+ * Identifies Opus streams, and creates their packets and
+ *  {@link OpusStatistics}
+ */
+public class OpusStreamHandler extends OggStreamHandler {
+    public OpusStreamHandler() {
+        super(OggStreamIdentifier.OPUS_AUDIO, OpusPacket.MAGIC_HEADER_BYTES);
+    }
+
+    @Override
+    public boolean isStream(OggPacket firstPacket) {
+        return OpusPacketFactory.isOpusStream(firstPacket);
+    }
+    @Override
+    public OggStreamPacket createPacket(OggPacket packet) {
+        return OpusPacketFactory.create(packet);
+    }
+    @Override
+    public OggAudioStatistics createStatistics(OggAudioHeaders headers, OggAudioStream audio) throws IOException {
+        return new OpusStatistics(headers, audio);
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.skeleton;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gagravarr.ogg.OggFile;
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggPacketReader;
+import org.gagravarr.ogg.OggPacketWriter;
+import org.gagravarr.ogg.OggPageHeader;
+import org.gagravarr.ogg.OggPageScanner;
+import org.gagravarr.theora.TheoraInfo;
+import org.gagravarr.theora.TheoraKeyFrameIndex;
+import org.gagravarr.theora.TheoraKeyFrameIndex.KeyFrame;
+import org.gagravarr.theora.TheoraPacketFactory;
+
+/**
+ * Adds Skeleton 4 key frame indexes to a file which has a Skeleton
+ *  stream, as a second pass once it has been written, so that
+ *  players can seek with a single read rather than by bisection.
+ * <p>The pages of the other streams are copied across unchanged, with
+ *  only the Skeleton pages re-written, so all the content moves along
+ *  by the same amount. As the index holds offsets to the content, it
+ *  is padded as needed until the offsets it gives settle down.
+ * <p>Theora streams get a key point for every key frame, and other
+ *  streams (where every packet can be decoded on its own) get one at
+ *  most every {@link #getKeyPointSpacing()} milliseconds, at the start
+ *  of a page, timed from the granule of the page before.
+ */
+public class SkeletonIndexer {
+    private static final long TIMESTAMP_DENOMINATOR = 1000;
+    private static final int MAX_ATTEMPTS = 10;
+
+    private final File file;
+    private long keyPointSpacing = 2000;
+
+    private int skeletonSid = -1;
+    private SkeletonStream skeleton;
+    private List<Integer> theoraSids = new ArrayList<Integer>();
+
+    private List<Page> headerPages = new ArrayList<Page>();
+    private List<Page> contentPages = new ArrayList<Page>();
+    private long contentOffset = -1;
+    private long segmentEnd;
+    private Map<Integer,TheoraKeyFrameIndex> theoraIndexes = new HashMap<Integer, TheoraKeyFrameIndex>();
+
+    /**
+     * Reads the layout of the given file, ready to index it
+     */
+    public SkeletonIndexer(File file) throws IOException {
+        this.file = file;
+        readHeaders();
+        readPages();
+    }
+
+    /**
+     * Copies the file to the output, with key frame indexes added
+     *  for all the streams the Skeleton describes
+     */
+    public static void index(File in, OutputStream out) throws IOException {
+        new SkeletonIndexer(in).write(out);
+    }
+
+    /**
+     * The least time, in milliseconds, between key points for streams
+     *  which aren't video. Key points for video are at every key frame.
+     */
+    public long getKeyPointSpacing() {
+        return keyPointSpacing;
+    }
+    public void setKeyPointSpacing(long keyPointSpacing) {
+        this.keyPointSpacing = keyPointSpacing;
+    }
+
+    /**
+     * Writes the file out with the indexes, which will be
+     *  worked out from the offsets the content will have
+     */
+    public void write(OutputStream out) throws IOException {
+        // Each attempt uses the content offset from the one before,
+        //  until the size of the headers stops changing
+        Map<Integer,Integer> indexSizes = new HashMap<Integer, Integer>();
+        long shift = 0;
+        byte[][] skeletonPages = null;
+        for (int attempt=0; attempt<MAX_ATTEMPTS; attempt++) {
+            skeletonPages = writeSkeleton(shift, indexSizes);
+
+            long headersSize = skeletonPages[0].length + skeletonPages[1].length;
+            for (Page page : headerPages) {
+                if (page.sid != skeletonSid) {
+                    headersSize += page.data.length;
+                }
+            }
+            long newShift = headersSize - contentOffset;
+            if (newShift == shift) {
+                break;
+            }
+            shift = newShift;
+            skeletonPages = null;
+        }
+        if (skeletonPages == null) {
+            throw new IllegalStateException("Skeleton index size never settled down");
+        }
+
+        // Skeleton head first, then the other headers, with the rest
+        //  of the Skeleton in place of the original
+        boolean skeletonWritten = false;
+        for (Page page : headerPages) {
+            if (page.sid != skeletonSid) {
+                out.write(page.data);
+            } else if (page.bos) {
+                out.write(skeletonPages[0]);
+            } else if (! skeletonWritten) {
+                out.write(skeletonPages[1]);
+                skeletonWritten = true;
+            }
+        }
+        if (! skeletonWritten) {
+            out.write(skeletonPages[1]);
+        }
+
+        // Then everything else as-is
+        FileInputStream inp = new FileInputStream(file);
+        try {
+            FileChannel channel = inp.getChannel();
+            channel.position(contentOffset);
+            InputStream content = Channels.newInputStream(channel);
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            inp.close();
+        }
+    }
+
+    /**
+     * Writes the Skeleton pages, as the fishead page and then
+     *  the rest, with the content moved along by the shift
+     */
+    private byte[][] writeSkeleton(long shift, Map<Integer,Integer> indexSizes) throws IOException {
+        SkeletonFishead fishead = skeleton.getFishead();
+        fishead.setVersionMajor(4);
+        fishead.setVersionMinor(0);
+        fishead.setContentOffset(contentOffset + shift);
+        fishead.setSegmentLength(segmentEnd + shift);
+
+        // Any indexes already there are replaced
+        List<SkeletonKeyFramePacket> indexes = new ArrayList<SkeletonKeyFramePacket>();
+        for (SkeletonFisbone bone : skeleton.getFisbones()) {
+            SkeletonKeyFramePacket index = buildIndex(bone, shift);
+            if (index != null) {
+                indexes.add(index);
+            }
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        OggFile ogg = new OggFile(baos);
+        OggPacketWriter w = ogg.getPacketWriter(skeletonSid);
+        w.bufferPacket(fishead.write(), true);
+        int headSize = baos.size();
+
+        for (SkeletonFisbone bone : skeleton.getFisbones()) {
+            w.bufferPacket(bone.write(), true);
+        }
+        for (SkeletonKeyFramePacket index : indexes) {
+            // Pad out to the largest size so far, so it can only grow
+            byte[] data = index.write().getData();
+            Integer size = indexSizes.get(index.getSerialNumber());
+            if (size != null && size > data.length) {
+                data = Arrays.copyOf(data, size);
+            }
+            indexSizes.put(index.getSerialNumber(), data.length);
+            w.bufferPacket(new OggPacket(data), true);
+        }
+        w.close();
+        ogg.close();
+
+        byte[] all = baos.toByteArray();
+        return new byte[][] {
+                Arrays.copyOfRange(all, 0, headSize),
+                Arrays.copyOfRange(all, headSize, all.length)
+        };
+    }
+
+    private SkeletonKeyFramePacket buildIndex(SkeletonFisbone bone, long shift) throws IOException {
+        int sid = bone.getSerialNumber();
+        SkeletonKeyFramePacket index = new SkeletonKeyFramePacket();
+        index.setSerialNumber(sid);
+        index.setTimestampDenominator(TIMESTAMP_DENOMINATOR);
+
+        if (theoraSids.contains(sid)) {
+            TheoraKeyFrameIndex frames = getTheoraIndex(sid);
+            TheoraInfo info = frames.getInfo();
+            if (info.getFrameRateNumerator() == 0) {
+                return null;
+            }
+            for (KeyFrame kf : frames.getKeyFrames()) {
+                index.addKeyPoint(kf.getOffset() + shift,
+                                  toTime(kf.getFrameNumber(), info.getFrameRateDenominator(),
+                                         info.getFrameRateNumerator()));
+            }
+            index.setLastSampleEndTime(toTime(frames.getNumberOfFrames(), info.getFrameRateDenominator(),
+                                              info.getFrameRateNumerator()));
+            return index;
+        }
+
+        long num = bone.getGranulerateNumerator();
+        long den = bone.getGranulerateDenominator();
+        if (num <= 0 || den <= 0) {
+            return null;
+        }
+        long granule = 0;
+        long lastKeyPoint = -1;
+        for (Page page : contentPages) {
+            if (page.sid != sid) continue;
+
+            // Any packet starting on the page starts after the
+            //  granule of the page before
+            if (page.startsPacket) {
+                long time = toTime(granule, den, num);
+                if (lastKeyPoint == -1 || time - lastKeyPoint >= keyPointSpacing) {
+                    index.addKeyPoint(page.offset + shift, time);
+                    lastKeyPoint = time;
+                }
+            }
+            if (page.granule >= 0) {
+                granule = page.granule;
+            }
+        }
+        index.setLastSampleEndTime(toTime(granule, den, num));
+        return index;
+    }
+    private TheoraKeyFrameIndex getTheoraIndex(int sid) throws IOException {
+        TheoraKeyFrameIndex frames = theoraIndexes.get(sid);
+        if (frames == null) {
+            FileInputStream inp = new FileInputStream(file);
+            try {
+                frames = new TheoraKeyFrameIndex(new BufferedInputStream(inp), sid);
+            } finally {
+                inp.close();
+            }
+            theoraIndexes.put(sid, frames);
+        }
+        return frames;
+    }
+    private static long toTime(long units, long unitDenominator, long unitNumerator) {
+        return units * unitDenominator * TIMESTAMP_DENOMINATOR / unitNumerator;
+    }
+
+    /**
+     * Finds the Skeleton, and the stream types, from the headers
+     */
+    private void readHeaders() throws IOException {
+        FileInputStream inp = new FileInputStream(file);
+        try {
+            OggPacketReader r = new OggPacketReader(new BufferedInputStream(inp));
+            OggPacket p;
+            while ((p = r.getNextPacket()) != null) {
+                if (p.isBeginningOfStream()) {
+                    if (SkeletonPacketFactory.isSkeletonStream(p)) {
+                        skeletonSid = p.getSid();
+                        skeleton = new SkeletonStream(p);
+                    } else if (TheoraPacketFactory.isTheoraStream(p)) {
+                        theoraSids.add(p.getSid());
+                    }
+                } else if (p.getSid() == skeletonSid) {
+                    skeleton.processPacket(p);
+                    if (skeleton.hasWholeStream()) break;
+                }
+            }
+        } finally {
+            inp.close();
+        }
+
+        if (skeleton == null) {
+            throw new IllegalArgumentException("No Skeleton stream found");
+        }
+        if (! skeleton.hasWholeStream()) {
+            throw new IllegalArgumentException("Skeleton stream never ends");
+        }
+    }
+
+    /**
+     * Finds where the content pages start, from the number of
+     *  header packets each stream's fisbone gives, and where
+     *  the packets on the content pages start
+     */
+    private void readPages() throws IOException {
+        Map<Integer,Integer> packetCounts = new HashMap<Integer, Integer>();
+
+        FileInputStream inp = new FileInputStream(file);
+        try {
+            segmentEnd = inp.getChannel().size();
+            InputStream in = new BufferedInputStream(inp);
+            long offset = 0;
+            Page page;
+            while ((page = readPage(in, offset, contentOffset == -1)) != null) {
+                offset += page.size;
+
+                if (contentOffset != -1 && page.bos) {
+                    // Another link of a chained file, leave it as-is
+                    segmentEnd = page.offset;
+                    break;
+                }
+
+                Integer before = packetCounts.get(page.sid);
+                int packets = (before == null) ? 0 : before;
+                packetCounts.put(page.sid, packets + page.packetsFinished);
+
+                if (contentOffset == -1 && page.sid != skeletonSid) {
+                    SkeletonFisbone bone = skeleton.getBoneForStream(page.sid);
+                    int headers = (bone == null) ? 1 : bone.getNumHeaderPackets();
+                    int lastPacket = packets + page.packetsFinished - (page.endsInPacket ? 0 : 1);
+                    if (lastPacket >= headers) {
+                        contentOffset = page.offset;
+                    }
+                }
+
+                if (contentOffset == -1) {
+                    headerPages.add(page);
+                } else {
+                    if (page.sid == skeletonSid) {
+                        throw new IllegalArgumentException("Skeleton stream continues into the content, at " + page.offset);
+                    }
+                    page.data = null;
+                    contentPages.add(page);
+                }
+            }
+        } finally {
+            inp.close();
+        }
+
+        if (contentOffset == -1) {
+            contentOffset = segmentEnd;
+        }
+    }
+
+    private static Page readPage(InputStream in, long offset, boolean keepData) throws IOException {
+        ByteArrayOutputStream data = (keepData ? new ByteArrayOutputStream() : null);
+        OggPageHeader header = OggPageScanner.readPage(in, offset, data);
+        if (header == null) {
+            return null;
+        }
+
+        Page page = new Page();
+        page.offset = offset;
+        page.size = header.getPageSize();
+        page.sid = header.getSid();
+        page.granule = header.getGranulePosition();
+        page.bos = header.isBeginningOfStream();
+        page.packetsFinished = header.getNumPacketsEnded();
+        page.endsInPacket = header.hasContinuation();
+        // A packet starts here if the page doesn't carry one on,
+        //  or if one ends before the last packet on the page
+        boolean empty = (page.packetsFinished == 0 && ! page.endsInPacket);
+        page.startsPacket = (! header.isContinuation() && ! empty) ||
+                page.packetsFinished > (page.endsInPacket ? 0 : 1);
+        if (keepData) {
+            page.data = data.toByteArray();
+        }
+        return page;
+    }
+
+    private static class Page {
+        private long offset;
+        private int size;
+        private int sid;
+        private long granule;
+        private boolean bos;
+        private int packetsFinished;
+        private boolean startsPacket;
+        private boolean endsInPacket;
+        private byte[] data;
+    }
+}
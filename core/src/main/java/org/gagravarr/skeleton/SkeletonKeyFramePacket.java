@@ -13,20 +13,248 @@
  */
 package org.gagravarr.skeleton;
 
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.gagravarr.ogg.HighLevelOggStreamPacket;
+import org.gagravarr.ogg.IOUtils;
 import org.gagravarr.ogg.OggPacket;
-import org.gagravarr.ogg.OggStreamAudioData;
 
 /**
  * Keyframe Index Packets, used for seeking within the
- *  main streams
+ *  main streams. Skeleton 4+ has one per stream, listing
+ *  key points of the byte offset of a page to start
+ *  decoding from, and the time of the key frame there.
+ * See http://wiki.xiph.org/Ogg_Skeleton_4 for details.
  */
-public class SkeletonKeyFramePacket extends OggStreamAudioData implements SkeletonPacket {
+public class SkeletonKeyFramePacket extends HighLevelOggStreamPacket implements SkeletonPacket {
+    private static final int KEY_POINTS_OFFSET = 42;
+
+    private int serialNumber;
+    private long timestampDenominator;
+    private long firstSampleTime;
+    private long lastSampleEndTime;
+    private List<KeyPoint> keyPoints = new ArrayList<KeyPoint>();
+
+    public SkeletonKeyFramePacket() {
+        super();
+        timestampDenominator = 1000;
+    }
+
     public SkeletonKeyFramePacket(OggPacket pkt) {
         super(pkt);
+
+        // Verify the type, allowing for the empty end of stream packet
+        byte[] data = getData();
+        if (data.length == 0) {
+            return;
+        }
+        if (data.length < KEY_POINTS_OFFSET ||
+                ! IOUtils.byteRangeMatches(MAGIC_INDEX_BYTES, data, 0)) {
+            throw new IllegalArgumentException("Invalid type, not a Skeleton Index Packet");
+        }
+
+        // Parse
+        serialNumber = (int)IOUtils.getInt4(data, 6);
+        long numKeyPoints = IOUtils.getInt8(data, 10);
+        timestampDenominator = IOUtils.getInt8(data, 18);
+        firstSampleTime = IOUtils.getInt8(data, 26);
+        lastSampleEndTime = IOUtils.getInt8(data, 34);
+
+        // Key points are stored as the difference from the one
+        //  before, and may be followed by padding
+        int[] position = new int[] { KEY_POINTS_OFFSET };
+        long offset = 0;
+        long timestamp = 0;
+        for (long i=0; i<numKeyPoints; i++) {
+            offset += getVariableLength(data, position);
+            timestamp += getVariableLength(data, position);
+            keyPoints.add(new KeyPoint(offset, timestamp));
+        }
+    }
+
+    @Override
+    public OggPacket write() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[KEY_POINTS_OFFSET], 0, KEY_POINTS_OFFSET);
+
+        long offset = 0;
+        long timestamp = 0;
+        for (KeyPoint kp : keyPoints) {
+            putVariableLength(out, kp.offset - offset);
+            putVariableLength(out, kp.timestampNumerator - timestamp);
+            offset = kp.offset;
+            timestamp = kp.timestampNumerator;
+        }
+
+        byte[] data = out.toByteArray();
+        System.arraycopy(MAGIC_INDEX_BYTES, 0, data, 0, MAGIC_INDEX_BYTES.length);
+        IOUtils.putInt4(data, 6, serialNumber);
+        IOUtils.putInt8(data, 10, keyPoints.size());
+        IOUtils.putInt8(data, 18, timestampDenominator);
+        IOUtils.putInt8(data, 26, firstSampleTime);
+        IOUtils.putInt8(data, 34, lastSampleEndTime);
+
+        setData(data);
+        return super.write();
+    }
+
+    /**
+     * Variable length numbers have 7 bits per byte, lowest first,
+     *  with the high bit set on the last byte
+     */
+    private static long getVariableLength(byte[] data, int[] position) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            if (position[0] >= data.length) {
+                throw new IllegalArgumentException("Skeleton Index Packet truncated");
+            }
+            int b = data[position[0]++] & 0xff;
+            value |= (long)(b & 0x7f) << shift;
+            if ((b & 0x80) != 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+    private static void putVariableLength(ByteArrayOutputStream out, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Key points must be in order, found a change of " + value);
+        }
+        while (value > 0x7f) {
+            out.write((int)(value & 0x7f));
+            value >>>= 7;
+        }
+        out.write((int)value | 0x80);
+    }
+
+    /**
+     * The serial number of the stream which this indexes
+     */
+    public int getSerialNumber() {
+        return serialNumber;
+    }
+    public void setSerialNumber(int serialNumber) {
+        this.serialNumber = serialNumber;
     }
-    public SkeletonKeyFramePacket(byte[] data) {
-        super(data);
+
+    /**
+     * The denominator of all the times, eg 1000 for milliseconds
+     */
+    public long getTimestampDenominator() {
+        return timestampDenominator;
+    }
+    public void setTimestampDenominator(long timestampDenominator) {
+        this.timestampDenominator = timestampDenominator;
+    }
+
+    /**
+     * The presentation time of the first sample of the stream,
+     *  over the timestamp denominator
+     */
+    public long getFirstSampleTime() {
+        return firstSampleTime;
+    }
+    public void setFirstSampleTime(long firstSampleTime) {
+        this.firstSampleTime = firstSampleTime;
+    }
+
+    /**
+     * The time at which the last sample of the stream ends,
+     *  over the timestamp denominator
+     */
+    public long getLastSampleEndTime() {
+        return lastSampleEndTime;
+    }
+    public void setLastSampleEndTime(long lastSampleEndTime) {
+        this.lastSampleEndTime = lastSampleEndTime;
+    }
+
+    /**
+     * The key points, in order
+     */
+    public List<KeyPoint> getKeyPoints() {
+        return Collections.unmodifiableList(keyPoints);
+    }
+    /**
+     * Adds a key point, which must come after all the others
+     * @param offset The offset of the page to start decoding from
+     * @param timestampNumerator The time of the key frame, over the
+     *  timestamp denominator
+     */
+    public KeyPoint addKeyPoint(long offset, long timestampNumerator) {
+        KeyPoint kp = new KeyPoint(offset, timestampNumerator);
+        keyPoints.add(kp);
+        return kp;
+    }
+
+    /**
+     * Returns the last key point at or before the given time,
+     *  over the timestamp denominator, which decoding needs to
+     *  start from to get there, or null if there is none
+     */
+    public KeyPoint findKeyPoint(long timestampNumerator) {
+        int lo = 0;
+        int hi = keyPoints.size() - 1;
+        KeyPoint found = null;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            KeyPoint kp = keyPoints.get(mid);
+            if (kp.timestampNumerator <= timestampNumerator) {
+                found = kp;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+    /**
+     * Returns the last key point at or before the given time
+     *  in seconds, or null if there is none
+     */
+    public KeyPoint findKeyPointAt(double seconds) {
+        return findKeyPoint((long)Math.floor(seconds * timestampDenominator));
+    }
+
+    /**
+     * A point in the stream to start decoding from
+     */
+    public class KeyPoint {
+        private final long offset;
+        private final long timestampNumerator;
+
+        private KeyPoint(long offset, long timestampNumerator) {
+            this.offset = offset;
+            this.timestampNumerator = timestampNumerator;
+        }
+
+        /**
+         * Where the page to start decoding from begins, from the
+         *  start of the Ogg segment (normally the file)
+         */
+        public long getOffset() {
+            return offset;
+        }
+        /**
+         * The time of the key frame, over the timestamp denominator
+         */
+        public long getTimestampNumerator() {
+            return timestampNumerator;
+        }
+        /**
+         * The time of the key frame, in seconds
+         */
+        public double getTimestamp() {
+            if (timestampDenominator == 0) return 0;
+            return ((double)timestampNumerator) / timestampDenominator;
+        }
+
+        public String toString() {
+            return "Key point " + timestampNumerator + "/" + timestampDenominator + " at " + offset;
+        }
     }
-    
-    // TODO Parse
 }
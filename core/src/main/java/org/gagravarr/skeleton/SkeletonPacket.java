@@ -22,6 +22,8 @@ import org.gagravarr.ogg.OggStreamPacket;
 public interface SkeletonPacket extends OggStreamPacket {
    public static final String MAGIC_FISHEAD_STR = "fishead\0";
    public static final String MAGIC_FISBONE_STR = "fisbone\0";
+   public static final String MAGIC_INDEX_STR = "index\0";
    public static final byte[] MAGIC_FISHEAD_BYTES = IOUtils.toUTF8Bytes(MAGIC_FISHEAD_STR);
    public static final byte[] MAGIC_FISBONE_BYTES = IOUtils.toUTF8Bytes(MAGIC_FISBONE_STR);
+   public static final byte[] MAGIC_INDEX_BYTES = IOUtils.toUTF8Bytes(MAGIC_INDEX_STR);
 }
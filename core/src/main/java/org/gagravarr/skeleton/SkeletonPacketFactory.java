@@ -65,8 +65,9 @@ public class SkeletonPacketFactory extends HighLevelOggStreamPacket {
            }
        }
 
-       // Only Skeleton 4+ has key frames
-       // Skeleton 3 just has the two fis* packets
+       // Only Skeleton 4+ has key frame index packets
+       // Skeleton 3 just has the two fis* packets, and
+       //  an empty one at the end
        return new SkeletonKeyFramePacket(packet);
    }
 }
\ No newline at end of file
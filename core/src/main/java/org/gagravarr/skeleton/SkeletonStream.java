@@ -23,7 +23,7 @@ import org.gagravarr.ogg.OggPacket;
 /**
  * A Skeleton Stream is made up of a single Fishead,
  *  one Fisbone per described stream, and optionally
- *  key frame data per stream.
+ *  (from Skeleton 4) a key frame index per stream.
  */
 public class SkeletonStream {
     private int sid = -1;
@@ -32,6 +32,7 @@ public class SkeletonStream {
     private List<SkeletonFisbone> fisbones;
     private Map<Integer,SkeletonFisbone> bonesByStream;
     private List<SkeletonKeyFramePacket> keyFrames;
+    private Map<Integer,SkeletonKeyFramePacket> indexesByStream;
 
     /**
      * Starts tracking a new Skeleton Stream,
@@ -44,6 +45,7 @@ public class SkeletonStream {
         this.fisbones = new ArrayList<SkeletonFisbone>();
         this.bonesByStream = new HashMap<Integer, SkeletonFisbone>();
         this.keyFrames = new ArrayList<SkeletonKeyFramePacket>();
+        this.indexesByStream = new HashMap<Integer, SkeletonKeyFramePacket>();
 
         processPacket(packet);
     }
@@ -54,6 +56,10 @@ public class SkeletonStream {
      */
     public SkeletonStream(int[] sids) {
         this.fishead = new SkeletonFishead();
+        this.fisbones = new ArrayList<SkeletonFisbone>();
+        this.bonesByStream = new HashMap<Integer, SkeletonFisbone>();
+        this.keyFrames = new ArrayList<SkeletonKeyFramePacket>();
+        this.indexesByStream = new HashMap<Integer, SkeletonKeyFramePacket>();
         for (int sid : sids) {
             addBoneForStream(sid);
         }
@@ -64,6 +70,13 @@ public class SkeletonStream {
      *  the stream
      */
     public void processPacket(OggPacket packet) {
+        if (packet.getData().length == 0) {
+            // Empty packet just marking the end of the stream
+            if (packet.isEndOfStream()) {
+                hasWholeStream = true;
+            }
+            return;
+        }
         SkeletonPacket skel = SkeletonPacketFactory.create(packet);
 
         // First packet must be the head
@@ -74,7 +87,9 @@ public class SkeletonStream {
             fisbones.add(bone);
             bonesByStream.put(bone.getSerialNumber(), bone);
         } else if (skel instanceof SkeletonKeyFramePacket) {
-            keyFrames.add((SkeletonKeyFramePacket)skel);
+            SkeletonKeyFramePacket index = (SkeletonKeyFramePacket)skel;
+            keyFrames.add(index);
+            indexesByStream.put(index.getSerialNumber(), index);
         } else {
             throw new IllegalStateException("Unexpected Skeleton " + skel);
         }
@@ -135,9 +150,17 @@ public class SkeletonStream {
     }
 
     /**
-     * Get all known key frames
+     * Get all known key frame index packets
      */
     public List<SkeletonKeyFramePacket> getKeyFrames() {
         return keyFrames;
     }
+
+    /**
+     * Get the key frame index for a given stream, or null
+     *  if the stream isn't indexed (only Skeleton 4+ has them)
+     */
+    public SkeletonKeyFramePacket getIndexForStream(int sid) {
+        return indexesByStream.get(sid);
+    }
 }
@@ -0,0 +1,42 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.skeleton;
+
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggStreamHandler;
+import org.gagravarr.ogg.OggStreamIdentifier;
+import org.gagravarr.ogg.OggStreamPacket;
+
+/**
+ * Identifies Skeleton streams, and creates their packets
+ */
+public class SkeletonStreamHandler extends OggStreamHandler {
+    public SkeletonStreamHandler() {
+        // Fishead and Fisbone share their first byte
+        super(OggStreamIdentifier.SKELETON, SkeletonPacket.MAGIC_FISHEAD_BYTES);
+    }
+
+    @Override
+    public boolean isStream(OggPacket firstPacket) {
+        return SkeletonPacketFactory.isSkeletonStream(firstPacket);
+    }
+    @Override
+    public OggStreamPacket createPacket(OggPacket packet) {
+        if (packet.getData().length == 0) {
+            // Empty packet just marking the end of the stream
+            return null;
+        }
+        return SkeletonPacketFactory.create(packet);
+    }
+}
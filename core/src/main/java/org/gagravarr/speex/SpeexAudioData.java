@@ -18,12 +18,43 @@ import org.gagravarr.ogg.OggStreamAudioData;
 
 /**
  * Raw, compressed audio data
+ * <p>Every packet in a Speex stream holds the same number of frames,
+ *  each of the same number of samples, as given in the
+ *  {@link SpeexInfo}, so the samples can be counted without decoding.
  */
 public class SpeexAudioData extends OggStreamAudioData implements SpeexPacket {
+    private int numSamples = -1;
+
     public SpeexAudioData(OggPacket pkt) {
         super(pkt);
     }
     public SpeexAudioData(byte[] data) {
         super(data);
     }
+
+    /**
+     * Returns the number of samples this packet gives, or -1
+     *  if that isn't known. Packets read by {@link SpeexFile}
+     *  will have this worked out as they are read, otherwise
+     *  you need to call {@link #getNumberOfSamples(SpeexInfo)}
+     */
+    public int getNumberOfSamples() {
+        return numSamples;
+    }
+    /**
+     * Works out the number of samples this packet gives, from
+     *  the frame size and frames per packet of the stream
+     */
+    public int getNumberOfSamples(SpeexInfo info) {
+        numSamples = getSamplesPerPacket(info);
+        return numSamples;
+    }
+
+    /**
+     * Returns the number of samples every audio packet of a
+     *  stream with the given info gives
+     */
+    public static int getSamplesPerPacket(SpeexInfo info) {
+        return info.getFrameSize() * Math.max(1, info.getFramesPerPacket());
+    }
 }
@@ -0,0 +1,229 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.speex;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gagravarr.ogg.OggFile;
+import org.gagravarr.ogg.OggGranuleFinder;
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggPacketReader;
+import org.gagravarr.ogg.OggPacketWriter;
+
+/**
+ * Cuts Speex audio to the sample, by copying the compressed packets
+ *  across without decoding or re-encoding them.
+ * <p>The start of each clip is found by bisecting on the page granules,
+ *  so only a few pages need to be read to find it however long the file
+ *  is. As Speex has no pre-skip, the first page's granule being less
+ *  than the samples of its packets trims off the start, and the granule
+ *  of the last page trims off the end, as for Vorbis.
+ * <p>Each clip is written as its own (chained) Ogg stream. All sample
+ *  positions are in the stream's granule units, so at its sample rate.
+ */
+public class SpeexEditor implements Closeable {
+    private static final int MAX_PACKETS_PER_PAGE = 50;
+
+    private final OggFile ogg;
+    private long samplesWritten;
+
+    /**
+     * Creates an editor which writes its clips to the given stream
+     */
+    public SpeexEditor(OutputStream out) {
+        this.ogg = new OggFile(out);
+    }
+
+    /**
+     * Cuts the audio between the given samples out of the file
+     * @param endSample The sample to stop before, or -1 for the end
+     */
+    public static void cut(File in, OutputStream out, long startSample, long endSample) throws IOException {
+        SpeexEditor editor = new SpeexEditor(out);
+        editor.append(in, startSample, endSample);
+        editor.close();
+    }
+
+    /**
+     * How many samples of audio have been written so far
+     */
+    public long getSamplesWritten() {
+        return samplesWritten;
+    }
+
+    /**
+     * Adds the audio between the given samples as the next clip
+     * @param startSample The first sample to include
+     * @param endSample The sample to stop before, or -1 for the end
+     */
+    public void append(File in, long startSample, long endSample) throws IOException {
+        if (startSample < 0 || (endSample >= 0 && endSample <= startSample)) {
+            throw new IllegalArgumentException("Invalid clip from " + startSample + " to " + endSample);
+        }
+
+        FileInputStream inp = new FileInputStream(in);
+        try {
+            FileChannel channel = inp.getChannel();
+
+            // Read the headers from the start
+            OggPacketReader r = new OggPacketReader(new BufferedInputStream(Channels.newInputStream(channel)));
+            SpeexFile sf = new SpeexFile(r);
+            int sid = sf.getSid();
+            SpeexInfo info = sf.getInfo();
+            List<OggPacket> headers = new ArrayList<OggPacket>();
+            headers.add(info.write());
+            headers.add(sf.getTags().write());
+            for (int i=0; i<info.getExtraHeaders(); i++) {
+                headers.add(new OggPacket(r.getNextPacketWithSid(sid).getData()));
+            }
+
+            // Jump to the page before the start
+            long offset = OggGranuleFinder.findPageBefore(channel, sid, startSample);
+            if (offset >= 0) {
+                channel.position(offset);
+                r = new OggPacketReader(new BufferedInputStream(Channels.newInputStream(channel)));
+            }
+            write(r, sid, info, headers, offset >= 0, startSample, endSample);
+        } finally {
+            inp.close();
+        }
+    }
+
+    private void write(OggPacketReader r, int sid, SpeexInfo info, List<OggPacket> headers,
+                       boolean seeked, long startSample, long endSample) throws IOException {
+        int packetSamples = SpeexAudioData.getSamplesPerPacket(info);
+        if (packetSamples <= 0) {
+            throw new IllegalArgumentException("Invalid Speex frame size of " + info.getFrameSize());
+        }
+
+        // Work out where the first packet starts, from the granule at the
+        //  end of its page, skipping those the page finished off
+        List<OggPacket> pending = new ArrayList<OggPacket>();
+        OggPacket p = r.getNextPacketWithSid(sid);
+        if (p == null) {
+            throw new IllegalArgumentException("No Speex audio found");
+        }
+        long position;
+        if (seeked) {
+            position = p.getGranulePosition();
+            while (p != null && p.getGranulePosition() == position && !p.isEndOfStream()) {
+                p = r.getNextPacketWithSid(sid);
+            }
+            if (p != null && p.getGranulePosition() == position) {
+                // Page before was the last
+                p = null;
+            }
+        } else {
+            long granule = p.getGranulePosition();
+            boolean endOfStream = false;
+            while (p != null && p.getGranulePosition() == granule) {
+                pending.add(p);
+                endOfStream = p.isEndOfStream();
+                p = r.getNextPacketWithSid(sid);
+            }
+            // The last page may trim off the end, so the start is at zero
+            position = endOfStream ? 0 : granule - pending.size()*(long)packetSamples;
+        }
+        if (p != null) {
+            pending.add(p);
+        }
+
+        OggPacketWriter w = null;
+        long written = 0;
+        long inputGranule = -1;
+        int onPage = 0;
+        boolean reachedEnd = true;
+
+        int next = 0;
+        while (true) {
+            if (next < pending.size()) {
+                p = pending.get(next++);
+            } else {
+                pending.clear();
+                next = 0;
+                p = r.getNextPacketWithSid(sid);
+                if (p == null) break;
+            }
+            inputGranule = p.getGranulePosition();
+            long packetStart = position;
+            position += packetSamples;
+
+            // Skip the packets before the clip, and stop after it
+            if (position <= startSample) {
+                if (p.isEndOfStream()) break;
+                continue;
+            }
+            if (endSample >= 0 && packetStart >= endSample) {
+                reachedEnd = false;
+                break;
+            }
+
+            if (w == null) {
+                w = ogg.getPacketWriter();
+                for (int i=0; i<headers.size(); i++) {
+                    w.bufferPacket(headers.get(i), i < 2);
+                }
+                // Granules count from the start of the clip
+                written = packetStart - startSample;
+                w.flush();
+            }
+
+            // Flush the previous page if full, always keeping the latest
+            //  back so that the end trim can be set on it
+            if (onPage >= MAX_PACKETS_PER_PAGE || w.getSizePendingFlush() > 16384) {
+                w.flush();
+                onPage = 0;
+            }
+            written += packetSamples;
+            w.bufferPacket(new OggPacket(p.getData()), written);
+            onPage++;
+            if (p.isEndOfStream()) break;
+        }
+
+        if (w == null) {
+            throw new IllegalArgumentException("Clip starts at " + startSample +
+                    " but the audio ends at " + Math.max(0, position));
+        }
+
+        // The final granule trims off any extra audio at the end,
+        //  including any the input itself was trimming off
+        long finalGranule = written;
+        if (endSample >= 0) {
+            finalGranule = Math.min(finalGranule, endSample - startSample);
+        }
+        if (reachedEnd && inputGranule >= 0) {
+            finalGranule = Math.min(finalGranule, Math.max(0, inputGranule - startSample));
+        }
+        w.setGranulePosition(finalGranule);
+        w.close();
+
+        samplesWritten += finalGranule;
+    }
+
+    /**
+     * Finishes writing, and closes the output
+     */
+    public void close() throws IOException {
+        ogg.close();
+    }
+}
@@ -129,7 +129,9 @@ public class SpeexFile implements OggAudioStream, OggAudioHeaders, Closeable {
         while( (p = r.getNextPacketWithSid(sid)) != null ) {
             sp = SpeexPacketFactory.create(p);
             if(sp instanceof SpeexAudioData) {
-                return (SpeexAudioData)sp;
+                SpeexAudioData sd = (SpeexAudioData)sp;
+                sd.getNumberOfSamples(info);
+                return sd;
             } else {
                 System.err.println("Skipping non audio packet " + sp + " mid audio stream");
             }
@@ -199,10 +201,26 @@ public class SpeexFile implements OggAudioStream, OggAudioHeaders, Closeable {
         }
         if(w != null) {
             w.bufferPacket(info.write(), true);
-            w.bufferPacket(tags.write(), false);
+            w.bufferPacket(tags.write(), true);
 
             long lastGranule = 0;
+            long samples = 0;
             for(SpeexAudioData vd : writtenPackets) {
+                if(vd.getGranulePosition() < 0) {
+                    // Work out the granule from the sample counts,
+                    //  with pages ending on the last packet's samples
+                    samples += SpeexAudioData.getSamplesPerPacket(info);
+                    vd.setGranulePosition(samples);
+
+                    w.bufferPacket(vd.write());
+                    lastGranule = samples;
+                    w.setGranulePosition(lastGranule);
+                    if(w.getSizePendingFlush() > 16384) {
+                        w.flush();
+                    }
+                    continue;
+                }
+
                 // Update the granule position as we go
                 if(vd.getGranulePosition() >= 0 &&
                         lastGranule != vd.getGranulePosition()) {
@@ -210,6 +228,7 @@ public class SpeexFile implements OggAudioStream, OggAudioHeaders, Closeable {
                     lastGranule = vd.getGranulePosition();
                     w.setGranulePosition(lastGranule);
                 }
+                samples = lastGranule;
 
                 // Write the data, flushing if needed
                 w.bufferPacket(vd.write());
@@ -37,11 +37,11 @@ public class TheoraComments extends VorbisStyleComments implements TheoraPacket
    }
 
    /**
-    * 8 bytes - type + theora
+    * 7 bytes - type + theora
     */
    @Override
    protected int getHeaderSize() {
-      return 8;
+      return 7;
    }
    /**
     * We think that Theora follows the Vorbis model, and has
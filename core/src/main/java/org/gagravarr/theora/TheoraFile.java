@@ -30,6 +30,7 @@ import java.util.Set;
 
 import org.gagravarr.ogg.HighLevelOggStreamPacket;
 import org.gagravarr.ogg.OggFile;
+import org.gagravarr.ogg.OggMuxer;
 import org.gagravarr.ogg.OggPacket;
 import org.gagravarr.ogg.OggPacketReader;
 import org.gagravarr.ogg.OggPacketWriter;
@@ -38,6 +39,8 @@ import org.gagravarr.ogg.OggStreamAudioVisualData;
 import org.gagravarr.ogg.OggStreamVideoData;
 import org.gagravarr.ogg.audio.OggAudioHeaders;
 import org.gagravarr.ogg.audio.OggAudioStreamHeaders;
+import org.gagravarr.opus.OpusAudioData;
+import org.gagravarr.opus.OpusInfo;
 import org.gagravarr.skeleton.SkeletonFisbone;
 import org.gagravarr.skeleton.SkeletonKeyFramePacket;
 import org.gagravarr.skeleton.SkeletonPacketFactory;
@@ -173,7 +176,7 @@ public class TheoraFile extends HighLevelOggStreamPacket implements Closeable {
      *  when copying one file to another!
      */
     public TheoraFile(OutputStream out, int sid, TheoraInfo info, TheoraComments comments, TheoraSetup setup) {
-        ogg = new OggFile(out);
+        ogg = new OggMuxer(out);
 
         if(sid > 0) {
             w = ogg.getPacketWriter(sid);
@@ -369,6 +372,24 @@ public class TheoraFile extends HighLevelOggStreamPacket implements Closeable {
             ogg = null;
         }
         if (w != null) {
+            // Have the pages of the video and audio interleaved by time
+            OggMuxer mux = (OggMuxer)ogg;
+            if (info.getFrameRateNumerator() > 0 && info.getFrameRateDenominator() > 0) {
+                mux.setGranuleRate(sid, info.getFrameRateNumerator(), info.getFrameRateDenominator(),
+                                   info.getKeyFrameNumberGranuleShift());
+            }
+            for (OggAudioStreamHeaders audio : soundtrackWriters.keySet()) {
+                OggPacketWriter aw = soundtrackWriters.get(audio);
+                int rate = audio.getInfo().getSampleRate();
+                if (audio.getInfo() instanceof OpusInfo) {
+                    // Opus granules are always at 48kHz
+                    rate = OpusAudioData.OPUS_GRANULE_RATE;
+                }
+                if (rate > 0) {
+                    mux.setGranuleRate(aw.getSid(), rate, 1, 0);
+                }
+            }
+
             // First, write the initial packet of each stream
             // Skeleton (if present) goes first, then video, then audio(s)
             OggPacketWriter sw = null;
@@ -408,21 +429,19 @@ public class TheoraFile extends HighLevelOggStreamPacket implements Closeable {
                 }
             }
 
-            // Write the audio visual data, along with their granules
-            long lastGranule = 0;
+            // Write the audio visual data, along with their granules,
+            //  starting a new page for each stream when its granule changes
             for (AudioVisualDataAndSid avData : writtenPackets) {
                 OggPacketWriter avw = w;
                 if (avData.sid != sid) {
-                    avw = soundtrackWriters.get(avData.sid);
+                    avw = soundtrackWriters.get(soundtracks.get(avData.sid));
                 }
 
                 // Update the granule position as we go
-                // TODO Is this the correct logic for multi-stream writing?
-                if(avData.data.getGranulePosition() >= 0 &&
-                        lastGranule != avData.data.getGranulePosition()) {
+                long granule = avData.data.getGranulePosition();
+                if(granule >= 0 && avw.getCurrentGranulePosition() != granule) {
                     avw.flush();
-                    lastGranule = avData.data.getGranulePosition();
-                    avw.setGranulePosition(lastGranule);
+                    avw.setGranulePosition(granule);
                 }
 
                 // Write the data, flushing if needed
@@ -457,7 +476,7 @@ public class TheoraFile extends HighLevelOggStreamPacket implements Closeable {
         return ogg;
     }
 
-    // TODO Decide if this can be made generic and non-Theora
+    // For reading all the streams of any type, see OggMediaFile
     protected static class AudioVisualDataAndSid {
         protected OggStreamAudioVisualData data;
         protected int sid;
@@ -338,4 +338,57 @@ public class TheoraInfo extends HighLevelOggStreamPacket implements TheoraPacket
     public void setKeyFrameNumberGranuleShift(int keyFrameNumberGranuleShift) {
         this.keyFrameNumberGranuleShift = keyFrameNumberGranuleShift;
     }
+
+    /**
+     * From version 3.2.1, granules count frames from one rather
+     *  than zero, so that the first frame has a granule of 1
+     */
+    private int getGranuleFrameOffset() {
+        if (majorVersion > 3 || (majorVersion == 3 &&
+                (minorVersion > 2 || (minorVersion == 2 && revisionVersion >= 1)))) {
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Works out the frame number, from zero, of the last frame
+     *  finished at the given granule position
+     */
+    public long getFrameNumber(long granulePosition) {
+        long keyFrame = granulePosition >> keyFrameNumberGranuleShift;
+        long sinceKeyFrame = granulePosition - (keyFrame << keyFrameNumberGranuleShift);
+        return keyFrame + sinceKeyFrame - getGranuleFrameOffset();
+    }
+    /**
+     * Works out the frame number, from zero, of the key frame
+     *  before the last frame finished at the given granule position
+     */
+    public long getKeyFrameNumber(long granulePosition) {
+        return (granulePosition >> keyFrameNumberGranuleShift) - getGranuleFrameOffset();
+    }
+    /**
+     * Works out the time, in seconds, at which the last frame
+     *  finished at the given granule position is shown
+     */
+    public double getTimestamp(long granulePosition) {
+        return getFrameTimestamp(getFrameNumber(granulePosition));
+    }
+    /**
+     * Works out the time, in seconds, at which the given frame is shown
+     */
+    public double getFrameTimestamp(long frameNumber) {
+        if (frameRateNumerator == 0) {
+            return 0;
+        }
+        return frameNumber * (double)frameRateDenominator / frameRateNumerator;
+    }
+    /**
+     * Works out the granule position for the given frame,
+     *  which follows on from the given key frame
+     */
+    public long getGranulePosition(long frameNumber, long keyFrameNumber) {
+        long keyFrame = keyFrameNumber + getGranuleFrameOffset();
+        return (keyFrame << keyFrameNumberGranuleShift) + (frameNumber - keyFrameNumber);
+    }
 }
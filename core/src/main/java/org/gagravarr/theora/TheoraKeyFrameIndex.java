@@ -0,0 +1,220 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.theora;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggPacketReader;
+
+/**
+ * Builds an index of where the key frames of a Theora stream are,
+ *  in one pass through the file, looking only at the frame type bit
+ *  at the start of each video packet.
+ * <p>Offsets are of the page on which each key frame's packet starts,
+ *  counting from the start of the stream given. Reading the Theora
+ *  packets from there, and skipping the given number of them, gives
+ *  the key frame.
+ */
+public class TheoraKeyFrameIndex {
+    private int sid = -1;
+    private TheoraInfo info;
+    private final List<KeyFrame> keyFrames = new ArrayList<KeyFrame>();
+    private long numberOfFrames;
+
+    /**
+     * Indexes the first Theora stream in the Ogg data
+     */
+    public TheoraKeyFrameIndex(InputStream inp) throws IOException {
+        this(inp, -1);
+    }
+    /**
+     * Indexes the Theora stream with the given Ogg Stream ID,
+     *  or the first one if -1
+     */
+    public TheoraKeyFrameIndex(InputStream inp, int wantedSid) throws IOException {
+        OggPacketReader r = new OggPacketReader(inp);
+        OggPacket p;
+        while ((p = r.getNextPacket()) != null) {
+            if (p.isBeginningOfStream() && TheoraPacketFactory.isTheoraStream(p) &&
+                    (wantedSid == -1 || p.getSid() == wantedSid)) {
+                sid = p.getSid();
+                info = (TheoraInfo)TheoraPacketFactory.create(p);
+                break;
+            }
+        }
+        if (sid == -1) {
+            throw new IllegalArgumentException("Supplied File is not Theora");
+        }
+
+        // Packets only have the granule of the page they finished on,
+        //  which gives the frame number of the last packet on that page
+        List<long[]> found = new ArrayList<long[]>();
+        long packets = 0;
+        long firstFrame = -1;
+        long pageGranule = -1;
+        long pageLastPacket = -1;
+
+        // Reading from a page gives the end of any packet carried on
+        //  to it, then those started on it, before the key frame
+        long pageOffset = -1;
+        int startedOnPage = 0;
+        boolean carriedOn = false;
+        int previousSequence = -1;
+
+        while ((p = r.getNextPacketWithSid(sid)) != null) {
+            long offset = r.getLastPacketOffset();
+            if (offset != pageOffset) {
+                int startSequence = p.getSequenceNumber() - p.getNumberOfPages() + 1;
+                carriedOn = (previousSequence == startSequence);
+                pageOffset = offset;
+                startedOnPage = 0;
+            }
+            startedOnPage++;
+            previousSequence = p.getSequenceNumber();
+
+            byte[] data = p.getData();
+            if (data.length > 0 && (data[0] & 0x80) != 0) {
+                // Header packet, not a frame
+                continue;
+            }
+
+            TheoraVideoData video = new TheoraVideoData(p);
+            if (video.isKeyFrame()) {
+                int skip = startedOnPage - 1 + (carriedOn ? 1 : 0);
+                found.add(new long[] { packets, offset, skip });
+            }
+
+            if (firstFrame == -1 && p.getGranulePosition() >= 0) {
+                if (pageGranule >= 0 && p.getGranulePosition() != pageGranule) {
+                    firstFrame = info.getFrameNumber(pageGranule) - pageLastPacket;
+                }
+                pageGranule = p.getGranulePosition();
+                pageLastPacket = packets;
+            }
+            packets++;
+        }
+        if (firstFrame == -1) {
+            firstFrame = (pageGranule >= 0) ? info.getFrameNumber(pageGranule) - pageLastPacket : 0;
+        }
+
+        for (long[] kf : found) {
+            keyFrames.add(new KeyFrame(firstFrame + kf[0], kf[1], (int)kf[2]));
+        }
+        numberOfFrames = firstFrame + packets;
+    }
+
+    /**
+     * Returns the Ogg Stream ID of the Theora stream
+     */
+    public int getSid() {
+        return sid;
+    }
+    public TheoraInfo getInfo() {
+        return info;
+    }
+    /**
+     * The key frames, in order
+     */
+    public List<KeyFrame> getKeyFrames() {
+        return Collections.unmodifiableList(keyFrames);
+    }
+    /**
+     * How many frames there are, which is the number of the
+     *  frame after the last one
+     */
+    public long getNumberOfFrames() {
+        return numberOfFrames;
+    }
+
+    /**
+     * Returns the key frame at or before the given frame,
+     *  which decoding needs to start from to show it,
+     *  or null if there is no such key frame
+     */
+    public KeyFrame findKeyFrame(long frameNumber) {
+        int lo = 0;
+        int hi = keyFrames.size() - 1;
+        KeyFrame found = null;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            KeyFrame kf = keyFrames.get(mid);
+            if (kf.frameNumber <= frameNumber) {
+                found = kf;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+    /**
+     * Returns the key frame at or before the given time
+     *  in seconds, or null if there is no such key frame
+     */
+    public KeyFrame findKeyFrameAt(double seconds) {
+        long frameNumber = (long)Math.floor(
+                seconds * info.getFrameRateNumerator() / info.getFrameRateDenominator());
+        return findKeyFrame(frameNumber);
+    }
+
+    /**
+     * A key frame, and where its packet starts
+     */
+    public class KeyFrame {
+        private final long frameNumber;
+        private final long offset;
+        private final int packetsToSkip;
+
+        private KeyFrame(long frameNumber, long offset, int packetsToSkip) {
+            this.frameNumber = frameNumber;
+            this.offset = offset;
+            this.packetsToSkip = packetsToSkip;
+        }
+
+        /**
+         * Which frame this is, from zero
+         */
+        public long getFrameNumber() {
+            return frameNumber;
+        }
+        /**
+         * Where the page holding the start of the key frame begins
+         */
+        public long getOffset() {
+            return offset;
+        }
+        /**
+         * How many Theora packets, read from the offset, come before
+         *  the key frame, including the end of any carried on to it
+         */
+        public int getPacketsToSkip() {
+            return packetsToSkip;
+        }
+        /**
+         * The time, in seconds, at which the key frame is shown
+         */
+        public double getTimestamp() {
+            return info.getFrameTimestamp(frameNumber);
+        }
+
+        public String toString() {
+            return "Key frame " + frameNumber + " at " + offset;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.theora;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+
+import org.gagravarr.ogg.OggGranuleFinder;
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggPacketReader;
+import org.gagravarr.skeleton.SkeletonKeyFramePacket;
+import org.gagravarr.skeleton.SkeletonKeyFramePacket.KeyPoint;
+import org.gagravarr.skeleton.SkeletonPacketFactory;
+import org.gagravarr.skeleton.SkeletonStream;
+
+/**
+ * Seeks within the video of a Theora file, to the key frame needed
+ *  to show a given frame, by bisecting on the page granules. Only a
+ *  few pages need reading to find it, plus those up to the frame,
+ *  however long the video is, which makes it quick to eg pull out
+ *  thumbnails. No index is needed, but {@link TheoraKeyFrameIndex}
+ *  can give the same offsets if many seeks will be done.
+ * <p>As Theora granules hold the number of the last key frame, all
+ *  the pages before a key frame can be told apart from those after.
+ * <p>If the file has a Skeleton 4 key frame index for the video, the
+ *  page to start from is looked up in that instead, so only the pages
+ *  from there up to the frame need reading.
+ */
+public class TheoraSeeker {
+    private final FileChannel channel;
+    private OggPacketReader r;
+    private int sid = -1;
+
+    private TheoraInfo info;
+    private TheoraComments comments;
+    private TheoraSetup setup;
+    private SkeletonStream skeleton;
+
+    /** The frame number of the next video packet */
+    private long nextFrame;
+    private LinkedList<TheoraVideoData> pending = new LinkedList<TheoraVideoData>();
+
+    /**
+     * Reads the Theora headers, and any Skeleton, from the
+     *  start of the file
+     */
+    public TheoraSeeker(FileChannel channel) throws IOException {
+        this.channel = channel;
+        readFrom(0);
+
+        OggPacket p;
+        while ((p = r.getNextPacket()) != null) {
+            if (p.isBeginningOfStream()) {
+                if (sid == -1 && TheoraPacketFactory.isTheoraStream(p)) {
+                    sid = p.getSid();
+                    info = (TheoraInfo)TheoraPacketFactory.create(p);
+                } else if (skeleton == null && SkeletonPacketFactory.isSkeletonStream(p)) {
+                    skeleton = new SkeletonStream(p);
+                }
+            } else if (p.getSid() == sid) {
+                if (comments == null) {
+                    comments = (TheoraComments)TheoraPacketFactory.create(p);
+                } else if (setup == null) {
+                    setup = (TheoraSetup)TheoraPacketFactory.create(p);
+                } else {
+                    // Onto the video
+                    r.unreadPacket(p);
+                    break;
+                }
+            } else if (skeleton != null && p.getSid() == skeleton.getSid()) {
+                skeleton.processPacket(p);
+            }
+
+            if (setup != null && (skeleton == null || skeleton.hasWholeStream())) {
+                break;
+            }
+        }
+        if (sid == -1) {
+            throw new IllegalArgumentException("Supplied File is not Theora");
+        }
+        nextFrame = 0;
+    }
+
+    /**
+     * Returns the Ogg Stream ID of the Theora stream
+     */
+    public int getSid() {
+        return sid;
+    }
+    public TheoraInfo getInfo() {
+        return info;
+    }
+    public TheoraComments getComments() {
+        return comments;
+    }
+    public TheoraSetup getSetup() {
+        return setup;
+    }
+    /**
+     * Returns the Skeleton data describing all the
+     *  streams, or null if the file has no Skeleton stream
+     */
+    public SkeletonStream getSkeleton() {
+        return skeleton;
+    }
+
+    /**
+     * The frame number of the video packet which
+     *  {@link #getNextVideoPacket()} will return
+     */
+    public long getNextFrameNumber() {
+        return nextFrame;
+    }
+
+    /**
+     * Returns the next frame of the video, or null
+     *  if no more remain
+     */
+    public TheoraVideoData getNextVideoPacket() throws IOException {
+        if (! pending.isEmpty()) {
+            nextFrame++;
+            return pending.removeFirst();
+        }
+        OggPacket p;
+        while ((p = r.getNextPacketWithSid(sid)) != null) {
+            byte[] data = p.getData();
+            if (data.length > 0 && (data[0] & 0x80) != 0) {
+                // Header packet, not a frame
+                continue;
+            }
+            nextFrame++;
+            return new TheoraVideoData(p);
+        }
+        return null;
+    }
+
+    /**
+     * Seeks to the key frame at or before the given frame, so that
+     *  it will be the next video packet returned
+     * @return The number of the key frame, or -1 if there is none
+     */
+    public long seekToKeyFrame(long frameNumber) throws IOException {
+        if (frameNumber < 0) {
+            throw new IllegalArgumentException("Invalid frame " + frameNumber);
+        }
+
+        // Try the Skeleton index first, if there is one
+        SkeletonKeyFramePacket index = null;
+        if (skeleton != null && info.getFrameRateNumerator() > 0) {
+            index = skeleton.getIndexForStream(sid);
+        }
+        if (index != null) {
+            long found = seekWithIndex(index, frameNumber);
+            if (found != -1) {
+                return found;
+            }
+        }
+
+        // Find the last page whose key frame is at or before the frame.
+        //  A later key frame could be finished on a page after, along
+        //  with one beyond the frame, so read on to check.
+        long granule = readAfterPage(info.getGranulePosition(frameNumber+1, frameNumber+1) - 1);
+        long keyFrame = Math.max(0, (granule < 0) ? 0 : info.getKeyFrameNumber(granule));
+        readBeforeKeyFrame(keyFrame);
+
+        long found = -1;
+        TheoraVideoData video;
+        while (nextFrame <= frameNumber && (video = getNextVideoPacket()) != null) {
+            if (video.isKeyFrame()) {
+                found = nextFrame - 1;
+            }
+        }
+        if (found == -1) {
+            return -1;
+        }
+
+        // Go back to the key frame
+        readBeforeKeyFrame(found);
+        skipToKeyFrame(found);
+        return found;
+    }
+
+    /**
+     * Seeks to the key frame at or before the given time in
+     *  seconds, so that it will be the next video packet returned
+     * @return The time of the key frame, or -1 if there is none
+     */
+    public double seekToKeyFrameAt(double seconds) throws IOException {
+        long frameNumber = (long)Math.floor(
+                seconds * info.getFrameRateNumerator() / info.getFrameRateDenominator());
+        long keyFrame = seekToKeyFrame(frameNumber);
+        return (keyFrame < 0) ? -1 : info.getFrameTimestamp(keyFrame);
+    }
+
+    /**
+     * Seeks to the key frame at or before the given frame, starting
+     *  from the key point the index gives for it
+     * @return The number of the key frame, or -1 if the index didn't help
+     */
+    private long seekWithIndex(SkeletonKeyFramePacket index, long frameNumber) throws IOException {
+        long fpsNumerator = info.getFrameRateNumerator();
+        long fpsDenominator = info.getFrameRateDenominator();
+        KeyPoint kp = index.findKeyPoint(
+                frameNumber * fpsDenominator * index.getTimestampDenominator() / fpsNumerator);
+        if (kp == null) {
+            return -1;
+        }
+
+        // Anything on the page before the key point's frame, such as
+        //  the end of a packet carried on to it, isn't a key frame
+        long keyPointFrame = Math.round(kp.getTimestamp() * fpsNumerator / fpsDenominator);
+        if (! readFromPage(kp.getOffset())) {
+            return -1;
+        }
+        long found = -1;
+        TheoraVideoData video;
+        while (nextFrame <= frameNumber && (video = getNextVideoPacket()) != null) {
+            if (nextFrame - 1 >= keyPointFrame && video.isKeyFrame()) {
+                found = nextFrame - 1;
+            }
+        }
+        if (found == -1) {
+            return -1;
+        }
+
+        readFromPage(kp.getOffset());
+        skipToKeyFrame(found);
+        return found;
+    }
+    /**
+     * Reads on to the key frame, leaving it as the next video packet
+     */
+    private void skipToKeyFrame(long keyFrame) throws IOException {
+        while (nextFrame < keyFrame) {
+            getNextVideoPacket();
+        }
+        TheoraVideoData video = getNextVideoPacket();
+        if (video != null) {
+            pending.addFirst(video);
+            nextFrame--;
+        }
+    }
+
+    /**
+     * Starts reading with all the packets on the given page, working
+     *  out their frame numbers from the granule of the last of them
+     * @return Whether the page held video frames
+     */
+    private boolean readFromPage(long offset) throws IOException {
+        pending.clear();
+        readFrom(offset);
+
+        OggPacket p = r.getNextPacketWithSid(sid);
+        if (p == null || p.getGranulePosition() < 0) {
+            return false;
+        }
+        long granule = p.getGranulePosition();
+        LinkedList<TheoraVideoData> frames = new LinkedList<TheoraVideoData>();
+        while (p != null && p.getGranulePosition() == granule) {
+            if (TheoraPacketFactory.isTheoraSpecial(p)) {
+                return false;
+            }
+            frames.add(new TheoraVideoData(p));
+            p = r.getNextPacketWithSid(sid);
+        }
+        if (p != null) {
+            r.unreadPacket(p);
+        }
+        nextFrame = info.getFrameNumber(granule) - frames.size() + 1;
+        pending.addAll(frames);
+        return true;
+    }
+
+    /**
+     * Starts reading after the last page of the frames before the key
+     *  frame, which all have granules of a lower key frame number
+     */
+    private void readBeforeKeyFrame(long keyFrame) throws IOException {
+        readAfterPage(info.getGranulePosition(keyFrame, keyFrame) - 1);
+    }
+    /**
+     * Starts reading with the packets after the last page with a
+     *  granule at or before the given one
+     * @return The granule of that page, or -1 if reading from the start
+     */
+    private long readAfterPage(long granulePosition) throws IOException {
+        pending.clear();
+        long offset = OggGranuleFinder.findPageBefore(channel, sid, granulePosition);
+        if (offset < 0) {
+            readFrom(0);
+            nextFrame = 0;
+            return -1;
+        }
+        readFrom(offset);
+
+        // Skip the packets finished on that page, which may include
+        //  the end of one started before it
+        OggPacket p = r.getNextPacketWithSid(sid);
+        long granule = p.getGranulePosition();
+        boolean headers = true;
+        while (p != null && p.getGranulePosition() == granule) {
+            if (! TheoraPacketFactory.isTheoraSpecial(p)) {
+                headers = false;
+            }
+            p = r.getNextPacketWithSid(sid);
+        }
+        if (p != null) {
+            r.unreadPacket(p);
+        }
+        nextFrame = headers ? 0 : info.getFrameNumber(granule) + 1;
+        return granule;
+    }
+    private void readFrom(long offset) throws IOException {
+        channel.position(offset);
+        r = new OggPacketReader(new BufferedInputStream(Channels.newInputStream(channel)));
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.theora;
+
+import org.gagravarr.ogg.IOUtils;
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggStreamHandler;
+import org.gagravarr.ogg.OggStreamIdentifier;
+import org.gagravarr.ogg.OggStreamPacket;
+
+/**
+ * Identifies Theora streams, and creates their packets
+ */
+public class TheoraStreamHandler extends OggStreamHandler {
+    private static final byte[] MAGIC_THEORA = new byte[7];
+    static {
+        MAGIC_THEORA[0] = (byte)TheoraPacket.TYPE_IDENTIFICATION;
+        IOUtils.putUTF8(MAGIC_THEORA, 1, "theora");
+    }
+
+    public TheoraStreamHandler() {
+        super(OggStreamIdentifier.THEORA_VIDEO, MAGIC_THEORA);
+    }
+
+    @Override
+    public boolean isStream(OggPacket firstPacket) {
+        return TheoraPacketFactory.isTheoraStream(firstPacket);
+    }
+    @Override
+    public OggStreamPacket createPacket(OggPacket packet) {
+        return TheoraPacketFactory.create(packet);
+    }
+}
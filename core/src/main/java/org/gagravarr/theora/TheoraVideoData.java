@@ -17,7 +17,7 @@ import org.gagravarr.ogg.OggPacket;
 import org.gagravarr.ogg.OggStreamVideoData;
 
 /**
- * Raw, compressed video data
+ * Raw, compressed video data, one frame per packet
  */
 public class TheoraVideoData extends OggStreamVideoData implements TheoraPacket {
     public TheoraVideoData(OggPacket pkt) {
@@ -26,4 +26,20 @@ public class TheoraVideoData extends OggStreamVideoData implements TheoraPacket
     public TheoraVideoData(byte[] data) {
         super(data);
     }
+
+    /**
+     * Is this a key (intra) frame, which can be decoded without
+     *  any of the frames before it? This is given by the frame
+     *  type bit at the start of the packet.
+     */
+    public boolean isKeyFrame() {
+        byte[] data = getData();
+        return data.length > 0 && (data[0] & 0xc0) == 0;
+    }
+    /**
+     * Is this an empty packet, which repeats the previous frame?
+     */
+    public boolean isDuplicateFrame() {
+        return getData().length == 0;
+    }
 }
@@ -18,8 +18,22 @@ import org.gagravarr.ogg.OggStreamAudioData;
 
 /**
  * Raw, compressed audio data
+ * <p>How many samples a packet gives depends on its own block size
+ *  and that of the packet before it, as the two windows overlap.
+ *  The block size comes from the mode number at the start of the
+ *  packet, so can be found without decoding the audio.
  */
 public class VorbisAudioData extends OggStreamAudioData implements VorbisPacket {
+    private int blockSize = -1;
+    private int numSamples = -1;
+
+    /** The file this was read from, which knows how to count samples */
+    private VorbisFile file;
+    /** First byte of the previous audio packet, or one of the below */
+    private int previousStart = NO_PREVIOUS;
+    static final int NO_PREVIOUS = -1;
+    static final int UNKNOWN_PREVIOUS = -2;
+
     public VorbisAudioData(OggPacket pkt) {
         super(pkt);
     }
@@ -33,4 +47,104 @@ public class VorbisAudioData extends OggStreamAudioData implements VorbisPacket
     public void populateMetadataHeader(byte[] b, int dataLength) {
         throw new IllegalStateException("Audio Data packets don't have Metadata Headers");
     }
+
+    /**
+     * Was this the last packet of the stream, when it was read?
+     */
+    public boolean isEndOfStream() {
+        return getOggPacket() != null && getOggPacket().isEndOfStream();
+    }
+
+    @Override
+    public void setData(byte[] data) {
+        super.setData(data);
+        blockSize = -1;
+        numSamples = -1;
+        file = null;
+    }
+
+    /**
+     * Records where this packet was read from, so that the sample
+     *  count can be worked out if wanted. Only the first byte of
+     *  the previous packet is needed, as that holds the mode number.
+     */
+    void setReadFrom(VorbisFile file, int previousStart) {
+        this.file = file;
+        this.previousStart = previousStart;
+    }
+
+    /**
+     * Returns the block size of this packet, as found by
+     *  {@link #getBlockSize(VorbisInfo, VorbisSetup)}, or -1
+     *  if that hasn't been done yet. Packets read by
+     *  {@link VorbisFile} will have it worked out when first asked.
+     */
+    public int getBlockSize() {
+        if (blockSize == -1 && file != null && file.canCalculateSamples()) {
+            getBlockSize(file.getInfo(), file.getSetup());
+        }
+        return blockSize;
+    }
+    /**
+     * Works out the block size of this packet, from the mode
+     *  number at the start of it. Empty packets, and ones which
+     *  aren't audio, have a block size of zero.
+     * The setup will be parsed if that hasn't already been done.
+     */
+    public int getBlockSize(VorbisInfo info, VorbisSetup setup) {
+        if (blockSize == -1) {
+            blockSize = getBlockSize(getData(), info, setup);
+        }
+        return blockSize;
+    }
+    private static int getBlockSize(byte[] data, VorbisInfo info, VorbisSetup setup) {
+        setup.parse(info);
+
+        VorbisBitsReader r = new VorbisBitsReader(data);
+        int type = r.read(1);
+        int mode = r.read(setup.getModeBits());
+        VorbisSetup.Mode[] modes = setup.getModes();
+        if (r.isEndOfPacket() || type != 0 || mode >= modes.length) {
+            return 0;
+        } else if (modes[mode].getBlockFlag()) {
+            return info.getBlocksize1();
+        } else {
+            return info.getBlocksize0();
+        }
+    }
+
+    /**
+     * Returns the number of samples this packet gives, or -1
+     *  if that isn't known. Packets read by {@link VorbisFile}
+     *  will have this worked out when first asked (unless skipped
+     *  to), otherwise you need to call
+     *  {@link #getNumberOfSamples(VorbisInfo, VorbisSetup, int)}
+     */
+    public int getNumberOfSamples() {
+        if (numSamples == -1 && file != null && previousStart != UNKNOWN_PREVIOUS &&
+                file.canCalculateSamples()) {
+            int previousBlockSize = 0;
+            if (previousStart != NO_PREVIOUS) {
+                previousBlockSize = getBlockSize(new byte[] { (byte)previousStart },
+                                                 file.getInfo(), file.getSetup());
+            }
+            getNumberOfSamples(file.getInfo(), file.getSetup(), previousBlockSize);
+        }
+        return numSamples;
+    }
+    /**
+     * Works out the number of samples this packet gives, from
+     *  its block size and that of the previous audio packet.
+     * The first packet of a stream, which has no previous block
+     *  size (pass zero), gives no samples.
+     */
+    public int getNumberOfSamples(VorbisInfo info, VorbisSetup setup, int previousBlockSize) {
+        int size = getBlockSize(info, setup);
+        if (size == 0 || previousBlockSize <= 0) {
+            numSamples = 0;
+        } else {
+            numSamples = previousBlockSize/4 + size/4;
+        }
+        return numSamples;
+    }
 }
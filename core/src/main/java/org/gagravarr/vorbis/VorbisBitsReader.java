@@ -0,0 +1,151 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.vorbis;
+
+/**
+ * Reads the bits of a Vorbis packet. Unlike most formats (and
+ *  {@link org.gagravarr.ogg.BitsReader}), Vorbis packs its values
+ *  starting from the least significant bit of each byte.
+ * <p>Works directly on the packet's bytes, without copying them.
+ *  Reading past the end of the packet gives zeros, and sets
+ *  the End-Of-Packet flag, as the Vorbis spec requires.
+ */
+public class VorbisBitsReader {
+    private byte[] data;
+    private int end;
+    private int position;
+    private int bit;
+    private boolean endOfPacket;
+
+    public VorbisBitsReader(byte[] data) {
+        this(data, 0, data.length);
+    }
+    public VorbisBitsReader(byte[] data, int offset, int length) {
+        reset(data, offset, length);
+    }
+
+    /**
+     * Starts reading from the start of some new data, so
+     *  that one reader can be used for many packets
+     */
+    public void reset(byte[] data, int offset, int length) {
+        this.data = data;
+        this.position = offset;
+        this.end = offset + length;
+        this.bit = 0;
+        this.endOfPacket = false;
+    }
+
+    /**
+     * Reads the given number of bits, up to 32, as an
+     *  unsigned number (so 32 bits may come back negative)
+     */
+    public int read(int numBits) {
+        int result = 0;
+        int done = 0;
+        while (done < numBits) {
+            if (position >= end) {
+                endOfPacket = true;
+                return 0;
+            }
+            int available = 8 - bit;
+            int take = Math.min(available, numBits - done);
+            int bits = ((data[position] & 0xff) >>> bit) & ((1 << take) - 1);
+            result |= bits << done;
+
+            done += take;
+            bit += take;
+            if (bit == 8) {
+                bit = 0;
+                position++;
+            }
+        }
+        return result;
+    }
+    /**
+     * Returns the next given number of bits, up to 24, without
+     *  moving on. Any past the end of the packet are zero.
+     */
+    public int peek(int numBits) {
+        long bits = 0;
+        int shift = 0;
+        for (int p = position; shift < numBits + bit && p < end; p++) {
+            bits |= (long)(data[p] & 0xff) << shift;
+            shift += 8;
+        }
+        return (int)((bits >>> bit) & ((1L << numBits) - 1));
+    }
+    /**
+     * Moves on by the given number of bits, setting the
+     *  End-Of-Packet flag if that goes beyond the end
+     */
+    public void skip(int numBits) {
+        int bits = bit + numBits;
+        position += bits >> 3;
+        bit = bits & 7;
+        if (position >= end && (position > end || bit > 0)) {
+            endOfPacket = true;
+            position = end;
+            bit = 0;
+        }
+    }
+
+    /**
+     * Reads a single bit as a flag
+     */
+    public boolean readFlag() {
+        return read(1) == 1;
+    }
+
+    /**
+     * Has an attempt been made to read beyond the end of the packet?
+     */
+    public boolean isEndOfPacket() {
+        return endOfPacket;
+    }
+    /**
+     * How many bits have been read so far
+     */
+    public long getBitsRead() {
+        return position * 8L + bit;
+    }
+    /**
+     * How many bits are left to be read before the end of the packet
+     */
+    public long getBitsRemaining() {
+        return (end - position) * 8L - bit;
+    }
+
+    /**
+     * The number of bits needed to hold the given value,
+     *  the Vorbis <em>ilog</em> function
+     */
+    public static int ilog(int value) {
+        if (value <= 0) return 0;
+        return 32 - Integer.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * Unpacks a Vorbis encoded floating point number, the
+     *  Vorbis <em>float32_unpack</em> function
+     */
+    public static float float32Unpack(int value) {
+        long mantissa = value & 0x1fffff;
+        int exponent = (value & 0x7fe00000) >>> 21;
+        if ((value & 0x80000000) != 0) {
+            mantissa = -mantissa;
+        }
+        return (float)(mantissa * Math.pow(2, exponent - 788));
+    }
+}
@@ -0,0 +1,982 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.vorbis;
+
+import java.util.Arrays;
+
+/**
+ * Decodes Vorbis I audio packets into floating point PCM samples,
+ *  in the range -1 to +1.
+ * <p>Feed it the audio packets of a stream in order, then after
+ *  each one get the finished samples with {@link #getPcm()}. The
+ *  first packet gives no samples, as it is only needed to overlap
+ *  with the second one.
+ * <p>Everything needed is set up when the decoder is created, so
+ *  decoding packets doesn't allocate anything. Each decoder is for
+ *  one stream at a time, and isn't thread safe.
+ */
+public class VorbisDecoder {
+    private static final int[] FLOOR1_RANGES = { 256, 128, 86, 64 };
+    private static final float[] FLOOR1_INVERSE_DB = new float[256];
+    static {
+        for (int i=0; i<256; i++) {
+            FLOOR1_INVERSE_DB[i] = (float)Math.pow(10, -7.0 * (255-i) / 256);
+        }
+    }
+
+    private final VorbisInfo info;
+    private final VorbisSetup setup;
+    private final int channels;
+    private final int blocksize0;
+    private final int blocksize1;
+
+    private final Book[] books;
+    private final Object[] floors;
+    private final VorbisSetup.Residue[] residues;
+    private final VorbisSetup.Mapping[] mappings;
+    private final VorbisSetup.Mode[] modes;
+    private final int modeBits;
+
+    private final VorbisMdct mdct0;
+    private final VorbisMdct mdct1;
+    private final float[] window0;
+    private final float[] window1;
+
+    private final VorbisBitsReader r = new VorbisBitsReader(new byte[0]);
+    private final float[][] floorCurves;
+    private final float[][] residueVectors;
+    private final boolean[] floorUsed;
+    private final boolean[] doNotDecode;
+    private final int[] submapChannels;
+    private final int[][] classifications;
+    private final int[] floorY;
+    private final boolean[] floorStep2;
+    private final float[] transformed;
+    private final float[][] overlap;
+    private final float[][] pcm;
+
+    private int previousBlockSize;
+    private long samplePosition;
+    private boolean positionKnown = true;
+
+    /**
+     * Creates a decoder for the audio of the given file
+     */
+    public VorbisDecoder(VorbisFile file) {
+        this(file.getInfo(), file.getSetup());
+    }
+    /**
+     * Creates a decoder for a stream with the given headers. The
+     *  setup will be parsed if that hasn't already been done.
+     * @throws IllegalArgumentException If the setup is invalid
+     */
+    public VorbisDecoder(VorbisInfo info, VorbisSetup setup) {
+        this.info = info;
+        this.setup = setup;
+        setup.parse(info);
+
+        channels = info.getChannels();
+        blocksize0 = info.getBlocksize0();
+        blocksize1 = info.getBlocksize1();
+        if (channels < 1 || blocksize0 < 64 || blocksize1 < blocksize0 || blocksize1 > 8192) {
+            throw new IllegalArgumentException("Invalid Vorbis info - channels " + channels +
+                    ", block sizes " + blocksize0 + " / " + blocksize1);
+        }
+
+        VorbisSetup.Codebook[] codebooks = setup.getCodebooks();
+        books = new Book[codebooks.length];
+        for (int i=0; i<books.length; i++) {
+            books[i] = new Book(codebooks[i]);
+        }
+
+        VorbisSetup.Floor[] setupFloors = setup.getFloors();
+        floors = new Object[setupFloors.length];
+        for (int i=0; i<floors.length; i++) {
+            if (setupFloors[i] instanceof VorbisSetup.Floor1) {
+                floors[i] = new Floor1Tables((VorbisSetup.Floor1)setupFloors[i]);
+            } else {
+                floors[i] = new Floor0Tables((VorbisSetup.Floor0)setupFloors[i],
+                                             blocksize0, blocksize1);
+            }
+        }
+        residues = setup.getResidues();
+        mappings = setup.getMappings();
+        modes = setup.getModes();
+        modeBits = setup.getModeBits();
+
+        mdct0 = new VorbisMdct(blocksize0);
+        mdct1 = (blocksize1 == blocksize0) ? mdct0 : new VorbisMdct(blocksize1);
+        window0 = buildWindow(blocksize0/2);
+        window1 = buildWindow(blocksize1/2);
+
+        int half = blocksize1/2;
+        floorCurves = new float[channels][half];
+        residueVectors = new float[channels][half];
+        floorUsed = new boolean[channels];
+        doNotDecode = new boolean[channels];
+        submapChannels = new int[channels];
+        floorY = new int[65];
+        floorStep2 = new boolean[65];
+        transformed = new float[blocksize1];
+        overlap = new float[channels][half];
+        pcm = new float[channels][half];
+
+        // Work out the most partitions any residue could need to classify
+        int maxClassifications = 0;
+        for (VorbisSetup.Residue residue : residues) {
+            int size = residue.getType() == 2 ? half * channels : half;
+            int end = Math.min(residue.getEnd(), size);
+            int begin = Math.min(residue.getBegin(), end);
+            int partitions = (end - begin) / residue.getPartitionSize();
+            int perWord = books[residue.getClassbook()].dimensions;
+            maxClassifications = Math.max(maxClassifications, partitions + perWord);
+        }
+        classifications = new int[channels][maxClassifications];
+    }
+
+    /**
+     * The slope of the Vorbis window, for overlaps of the given size
+     */
+    private static float[] buildWindow(int size) {
+        float[] window = new float[size];
+        for (int i=0; i<size; i++) {
+            double x = Math.sin((i + 0.5) / size * Math.PI / 2);
+            window[i] = (float)Math.sin(Math.PI / 2 * x * x);
+        }
+        return window;
+    }
+
+    public VorbisInfo getInfo() {
+        return info;
+    }
+    public VorbisSetup getSetup() {
+        return setup;
+    }
+    public int getChannels() {
+        return channels;
+    }
+    /**
+     * The most samples per channel that one packet can give
+     */
+    public int getMaxSamplesPerPacket() {
+        return blocksize1/2;
+    }
+
+    /**
+     * The finished samples, one array per channel, from the last
+     *  call to {@link #decode(VorbisAudioData)}. Only as many samples
+     *  as that returned are valid, and the arrays will be re-used
+     *  for the next packet.
+     */
+    public float[][] getPcm() {
+        return pcm;
+    }
+    /**
+     * How many samples have been returned since the start of the
+     *  stream, or since the last {@link #reset()}
+     */
+    public long getSamplePosition() {
+        return samplePosition;
+    }
+
+    /**
+     * Forgets about the previous packets, ready for decoding from
+     *  somewhere else in the stream, such as after seeking
+     */
+    public void reset() {
+        previousBlockSize = 0;
+        samplePosition = 0;
+        positionKnown = false;
+    }
+
+    /**
+     * Decodes the next audio packet of the stream, and returns how
+     *  many samples per channel are now available from
+     *  {@link #getPcm()}. Empty packets, and those which aren't
+     *  audio, give no samples.
+     * <p>If the packet is the last of the stream, and has a granule
+     *  position, then any extra samples in the final packet will be
+     *  trimmed off, provided decoding started at the beginning.
+     */
+    public int decode(VorbisAudioData packet) {
+        int samples = decode(packet.getData());
+        if (positionKnown && packet.isEndOfStream()) {
+            long granule = packet.getGranulePosition();
+            if (granule >= 0 && samplePosition > granule) {
+                samples -= (int)Math.min(samples, samplePosition - granule);
+                samplePosition = granule;
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Decodes the data of the next audio packet of the stream, and
+     *  returns how many samples per channel are now available from
+     *  {@link #getPcm()}
+     */
+    public int decode(byte[] data) {
+        r.reset(data, 0, data.length);
+        if (data.length == 0 || r.read(1) != 0) {
+            return 0;
+        }
+        int modeNumber = r.read(modeBits);
+        if (r.isEndOfPacket() || modeNumber >= modes.length) {
+            return 0;
+        }
+
+        VorbisSetup.Mode mode = modes[modeNumber];
+        VorbisSetup.Mapping mapping = mappings[mode.getMapping()];
+        boolean longBlock = mode.getBlockFlag();
+        int n = longBlock ? blocksize1 : blocksize0;
+        boolean previousLong = false;
+        boolean nextLong = false;
+        if (longBlock) {
+            previousLong = r.readFlag();
+            nextLong = r.readFlag();
+        }
+        int half = n/2;
+
+        // Floors, with channels of unused floors needing no residue
+        int[] mux = mapping.getMux();
+        int[] submapFloors = mapping.getSubmapFloors();
+        for (int ch=0; ch<channels; ch++) {
+            Object floor = floors[submapFloors[mux[ch]]];
+            if (floor instanceof Floor1Tables) {
+                floorUsed[ch] = decodeFloor1((Floor1Tables)floor, floorCurves[ch], half);
+            } else {
+                floorUsed[ch] = decodeFloor0((Floor0Tables)floor, floorCurves[ch], longBlock, half);
+            }
+            doNotDecode[ch] = !floorUsed[ch];
+        }
+
+        // Coupled channels need the residue of both if either is used
+        int[] magnitudes = mapping.getMagnitudes();
+        int[] angles = mapping.getAngles();
+        for (int i=0; i<magnitudes.length; i++) {
+            if (!doNotDecode[magnitudes[i]] || !doNotDecode[angles[i]]) {
+                doNotDecode[magnitudes[i]] = false;
+                doNotDecode[angles[i]] = false;
+            }
+        }
+
+        // Residues, for each submap's channels in turn
+        for (int ch=0; ch<channels; ch++) {
+            float[] v = residueVectors[ch];
+            for (int i=0; i<half; i++) {
+                v[i] = 0;
+            }
+        }
+        int[] submapResidues = mapping.getSubmapResidues();
+        for (int submap=0; submap<submapResidues.length; submap++) {
+            int count = 0;
+            for (int ch=0; ch<channels; ch++) {
+                if (mux[ch] == submap) {
+                    submapChannels[count++] = ch;
+                }
+            }
+            decodeResidue(residues[submapResidues[submap]], count, half);
+        }
+
+        // Undo the channel coupling, last step first
+        for (int i=magnitudes.length-1; i>=0; i--) {
+            float[] mv = residueVectors[magnitudes[i]];
+            float[] av = residueVectors[angles[i]];
+            for (int j=0; j<half; j++) {
+                float m = mv[j];
+                float a = av[j];
+                if (m > 0) {
+                    if (a > 0) {
+                        av[j] = m - a;
+                    } else {
+                        av[j] = m;
+                        mv[j] = m + a;
+                    }
+                } else {
+                    if (a > 0) {
+                        av[j] = m + a;
+                    } else {
+                        av[j] = m;
+                        mv[j] = m - a;
+                    }
+                }
+            }
+        }
+
+        // Apply the floors, transform, window and overlap-add
+        VorbisMdct mdct = longBlock ? mdct1 : mdct0;
+        int leftSize = (longBlock && previousLong) ? blocksize1/2 : blocksize0/2;
+        int rightSize = (longBlock && nextLong) ? blocksize1/2 : blocksize0/2;
+        int leftStart = n/4 - leftSize/2;
+        int rightStart = 3*n/4 - rightSize/2;
+        float[] leftWindow = (leftSize == blocksize0/2) ? window0 : window1;
+        float[] rightWindow = (rightSize == blocksize0/2) ? window0 : window1;
+
+        int previous = previousBlockSize;
+        int samples = (previous == 0) ? 0 : previous/4 + n/4;
+        int offset = n/4 - previous/4;
+        for (int ch=0; ch<channels; ch++) {
+            float[] spectrum = residueVectors[ch];
+            if (floorUsed[ch]) {
+                float[] curve = floorCurves[ch];
+                for (int i=0; i<half; i++) {
+                    spectrum[i] *= curve[i];
+                }
+            } else {
+                for (int i=0; i<half; i++) {
+                    spectrum[i] = 0;
+                }
+            }
+            mdct.inverse(spectrum, transformed);
+
+            for (int i=0; i<leftStart; i++) {
+                transformed[i] = 0;
+            }
+            for (int i=0; i<leftSize; i++) {
+                transformed[leftStart + i] *= leftWindow[i];
+            }
+            for (int i=0; i<rightSize; i++) {
+                transformed[rightStart + i] *= rightWindow[rightSize-1-i];
+            }
+            for (int i=rightStart+rightSize; i<n; i++) {
+                transformed[i] = 0;
+            }
+
+            // From the centre of the previous block to the centre of this one
+            float[] out = pcm[ch];
+            float[] saved = overlap[ch];
+            int previousHalf = previous/2;
+            for (int i=0; i<samples; i++) {
+                float value = (i < previousHalf) ? saved[i] : 0;
+                int from = offset + i;
+                if (from >= 0) {
+                    value += transformed[from];
+                }
+                out[i] = value;
+            }
+            System.arraycopy(transformed, half, saved, 0, half);
+        }
+
+        previousBlockSize = n;
+        samplePosition += samples;
+        return samples;
+    }
+
+    /**
+     * Reads and renders a Floor 1 curve, returning false if the
+     *  channel is unused
+     */
+    private boolean decodeFloor1(Floor1Tables floor, float[] curve, int half) {
+        VorbisSetup.Floor1 f = floor.floor;
+        if (!r.readFlag()) {
+            return false;
+        }
+
+        int range = FLOOR1_RANGES[f.getMultiplier()-1];
+        int rangeBits = VorbisBitsReader.ilog(range-1);
+        int[] y = floorY;
+        y[0] = r.read(rangeBits);
+        y[1] = r.read(rangeBits);
+
+        int[] partitionClasses = f.getPartitionClasses();
+        int[] classDimensions = f.getClassDimensions();
+        int[] classSubclasses = f.getClassSubclasses();
+        int[] classMasterbooks = f.getClassMasterbooks();
+        int[][] subclassBooks = f.getSubclassBooks();
+        int offset = 2;
+        for (int i=0; i<partitionClasses.length; i++) {
+            int cls = partitionClasses[i];
+            int dimensions = classDimensions[cls];
+            int bits = classSubclasses[cls];
+            int mask = (1 << bits) - 1;
+            int value = 0;
+            if (bits > 0) {
+                value = books[classMasterbooks[cls]].decode(r);
+                if (value < 0) return false;
+            }
+            for (int j=0; j<dimensions; j++) {
+                int book = subclassBooks[cls][value & mask];
+                value >>>= bits;
+                if (book >= 0) {
+                    int entry = books[book].decode(r);
+                    if (entry < 0) return false;
+                    y[offset + j] = entry;
+                } else {
+                    y[offset + j] = 0;
+                }
+            }
+            offset += dimensions;
+        }
+        if (r.isEndOfPacket()) {
+            return false;
+        }
+
+        // Turn the values into positions, based on the
+        //  predictions from their neighbours
+        int[] x = f.getXList();
+        boolean[] step2 = floorStep2;
+        step2[0] = true;
+        step2[1] = true;
+        for (int i=2; i<floor.values; i++) {
+            int low = floor.lowNeighbours[i];
+            int high = floor.highNeighbours[i];
+            int predicted = renderPoint(x[low], y[low], x[high], y[high], x[i]);
+            int value = y[i];
+            int highRoom = range - predicted;
+            int lowRoom = predicted;
+            int room = (highRoom < lowRoom ? highRoom : lowRoom) * 2;
+            if (value != 0) {
+                step2[low] = true;
+                step2[high] = true;
+                step2[i] = true;
+                if (value >= room) {
+                    if (highRoom > lowRoom) {
+                        y[i] = value - lowRoom + predicted;
+                    } else {
+                        y[i] = predicted - value + highRoom - 1;
+                    }
+                } else if ((value & 1) == 1) {
+                    y[i] = predicted - (value+1)/2;
+                } else {
+                    y[i] = predicted + value/2;
+                }
+            } else {
+                step2[i] = false;
+                y[i] = predicted;
+            }
+        }
+
+        // Draw the lines between the used points, in X order
+        int multiplier = f.getMultiplier();
+        int lx = 0;
+        int ly = y[floor.sorted[0]] * multiplier;
+        int hx = 0;
+        int hy = 0;
+        for (int j=1; j<floor.values; j++) {
+            int i = floor.sorted[j];
+            if (step2[i]) {
+                hy = y[i] * multiplier;
+                hx = x[i];
+                renderLine(lx, ly, hx, hy, curve, half);
+                lx = hx;
+                ly = hy;
+            }
+        }
+        if (hx < half) {
+            renderLine(hx, hy, half, hy, curve, half);
+        }
+        return true;
+    }
+    private static int renderPoint(int x0, int y0, int x1, int y1, int x) {
+        int dy = y1 - y0;
+        int adx = x1 - x0;
+        int err = Math.abs(dy) * (x - x0);
+        int off = err / adx;
+        return (dy < 0) ? y0 - off : y0 + off;
+    }
+    private static void renderLine(int x0, int y0, int x1, int y1, float[] v, int limit) {
+        int dy = y1 - y0;
+        int adx = x1 - x0;
+        int ady = Math.abs(dy);
+        int base = dy / adx;
+        int sy = (dy < 0) ? base - 1 : base + 1;
+        ady -= Math.abs(base) * adx;
+
+        int end = Math.min(x1, limit);
+        int y = y0;
+        int err = 0;
+        if (x0 < end) {
+            v[x0] = FLOOR1_INVERSE_DB[y & 0xff];
+        }
+        for (int x=x0+1; x<end; x++) {
+            err += ady;
+            if (err >= adx) {
+                err -= adx;
+                y += sy;
+            } else {
+                y += base;
+            }
+            v[x] = FLOOR1_INVERSE_DB[y & 0xff];
+        }
+    }
+
+    /**
+     * Reads and renders a Floor 0 (LSP) curve, returning false
+     *  if the channel is unused
+     */
+    private boolean decodeFloor0(Floor0Tables floor, float[] curve, boolean longBlock, int half) {
+        VorbisSetup.Floor0 f = floor.floor;
+        int amplitude = r.read(f.getAmplitudeBits());
+        if (amplitude <= 0 || r.isEndOfPacket()) {
+            return false;
+        }
+        int[] floorBooks = f.getBooks();
+        int bookNumber = r.read(VorbisBitsReader.ilog(floorBooks.length));
+        if (bookNumber >= floorBooks.length) {
+            return false;
+        }
+        Book book = books[floorBooks[bookNumber]];
+        if (book.values == null) {
+            return false;
+        }
+
+        // The LSP coefficients, as cosines
+        int order = f.getOrder();
+        float[] coefficients = floor.coefficients;
+        int count = 0;
+        float last = 0;
+        while (count < order) {
+            int entry = book.decode(r);
+            if (entry < 0) return false;
+            int base = entry * book.dimensions;
+            for (int j=0; j<book.dimensions && count < order; j++) {
+                coefficients[count++] = book.values[base + j] + last;
+            }
+            last = book.values[base + book.dimensions - 1] + last;
+        }
+        for (int i=0; i<order; i++) {
+            coefficients[i] = (float)Math.cos(coefficients[i]);
+        }
+
+        int[] map = longBlock ? floor.map1 : floor.map0;
+        double amplitudeScale = (double)amplitude * f.getAmplitudeOffset() /
+                                ((1 << f.getAmplitudeBits()) - 1);
+        int i = 0;
+        while (i < half) {
+            double cosOmega = Math.cos(Math.PI * map[i] / f.getBarkMapSize());
+            double p;
+            double q;
+            if ((order & 1) == 1) {
+                p = 1 - cosOmega*cosOmega;
+                q = 0.25;
+                for (int j=0; j<(order-1)/2; j++) {
+                    double d = coefficients[2*j+1] - cosOmega;
+                    p *= 4*d*d;
+                }
+                for (int j=0; j<=(order-1)/2; j++) {
+                    double d = coefficients[2*j] - cosOmega;
+                    q *= 4*d*d;
+                }
+            } else {
+                p = (1 - cosOmega) / 2;
+                q = (1 + cosOmega) / 2;
+                for (int j=0; j<order/2; j++) {
+                    double dp = coefficients[2*j+1] - cosOmega;
+                    double dq = coefficients[2*j] - cosOmega;
+                    p *= 4*dp*dp;
+                    q *= 4*dq*dq;
+                }
+            }
+            float value = (float)Math.exp(0.11512925 *
+                    (amplitudeScale / Math.sqrt(p + q) - f.getAmplitudeOffset()));
+
+            int bark = map[i];
+            do {
+                curve[i++] = value;
+            } while (i < half && map[i] == bark);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the residue vectors of the channels of one submap
+     */
+    private void decodeResidue(VorbisSetup.Residue residue, int count, int half) {
+        int type = residue.getType();
+        int size = (type == 2) ? half * count : half;
+        int end = Math.min(residue.getEnd(), size);
+        int begin = Math.min(residue.getBegin(), end);
+        int partitionSize = residue.getPartitionSize();
+        int partitions = (end - begin) / partitionSize;
+        if (partitions == 0) {
+            return;
+        }
+
+        // Type 2 interleaves all the channels into one vector
+        int vectors = count;
+        if (type == 2) {
+            boolean any = false;
+            for (int i=0; i<count; i++) {
+                any |= !doNotDecode[submapChannels[i]];
+            }
+            if (!any) return;
+            vectors = 1;
+        }
+
+        Book classbook = books[residue.getClassbook()];
+        int perWord = classbook.dimensions;
+        int numClassifications = residue.getClassifications();
+        int[][] residueBooks = residue.getBooks();
+
+        for (int pass=0; pass<8; pass++) {
+            int partition = 0;
+            while (partition < partitions) {
+                if (pass == 0) {
+                    for (int v=0; v<vectors; v++) {
+                        if (type != 2 && doNotDecode[submapChannels[v]]) continue;
+                        int word = classbook.decode(r);
+                        if (word < 0) return;
+                        int[] classes = classifications[v];
+                        for (int i=perWord-1; i>=0; i--) {
+                            classes[partition + i] = word % numClassifications;
+                            word /= numClassifications;
+                        }
+                    }
+                }
+                for (int i=0; i<perWord && partition<partitions; i++) {
+                    int offset = begin + partition*partitionSize;
+                    for (int v=0; v<vectors; v++) {
+                        if (type != 2 && doNotDecode[submapChannels[v]]) continue;
+                        int bookNumber = residueBooks[classifications[v][partition]][pass];
+                        if (bookNumber < 0) continue;
+                        Book book = books[bookNumber];
+                        if (book.values == null) return;
+
+                        boolean ok;
+                        if (type == 0) {
+                            ok = decodePartitionType0(book, residueVectors[submapChannels[v]],
+                                                      offset, partitionSize);
+                        } else if (type == 1) {
+                            ok = decodePartitionType1(book, residueVectors[submapChannels[v]],
+                                                      offset, partitionSize);
+                        } else {
+                            ok = decodePartitionType2(book, count, offset, partitionSize);
+                        }
+                        if (!ok) return;
+                    }
+                    partition++;
+                }
+            }
+        }
+    }
+    private boolean decodePartitionType0(Book book, float[] v, int offset, int size) {
+        int dimensions = book.dimensions;
+        int step = size / dimensions;
+        float[] values = book.values;
+        for (int i=0; i<step; i++) {
+            int entry = book.decode(r);
+            if (entry < 0) return false;
+            int base = entry * dimensions;
+            for (int j=0; j<dimensions; j++) {
+                v[offset + i + j*step] += values[base + j];
+            }
+        }
+        return true;
+    }
+    private boolean decodePartitionType1(Book book, float[] v, int offset, int size) {
+        int dimensions = book.dimensions;
+        float[] values = book.values;
+        int i = 0;
+        while (i < size) {
+            int entry = book.decode(r);
+            if (entry < 0) return false;
+            int base = entry * dimensions;
+            for (int j=0; j<dimensions && i<size; j++) {
+                v[offset + i++] += values[base + j];
+            }
+        }
+        return true;
+    }
+    private boolean decodePartitionType2(Book book, int count, int offset, int size) {
+        int dimensions = book.dimensions;
+        float[] values = book.values;
+        int channel = offset % count;
+        int position = offset / count;
+        int i = 0;
+        while (i < size) {
+            int entry = book.decode(r);
+            if (entry < 0) return false;
+            int base = entry * dimensions;
+            for (int j=0; j<dimensions && i<size; j++) {
+                residueVectors[submapChannels[channel]][position] += values[base + j];
+                i++;
+                if (++channel == count) {
+                    channel = 0;
+                    position++;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A codebook ready for decoding, with a lookup table for the
+     *  first few bits of the Huffman codewords and a tree for
+     *  the rest, plus the VQ vectors (if any) of each entry
+     */
+    private static class Book {
+        private static final int TABLE_BITS = 10;
+
+        private final int dimensions;
+        private final int tableBits;
+        /** For each table index, the entry and length, or tree node */
+        private final int[] table;
+        /** Pairs of children, positive for nodes, negative for entries */
+        private final int[] tree;
+        /** The VQ values, entries * dimensions, or null if scalar only */
+        private final float[] values;
+
+        private Book(VorbisSetup.Codebook codebook) {
+            dimensions = codebook.getDimensions();
+            byte[] lengths = codebook.getCodewordLengths();
+            int entries = lengths.length;
+
+            // Assign the codewords, shortest available first, and
+            //  build them into a tree as we go
+            int used = 0;
+            int maxLength = 0;
+            int singleEntry = -1;
+            int maxNodes = 1;
+            for (int i=0; i<entries; i++) {
+                if (lengths[i] > 0) {
+                    used++;
+                    singleEntry = i;
+                    maxLength = Math.max(maxLength, lengths[i]);
+                    maxNodes += lengths[i] - 1;
+                }
+            }
+            tree = new int[2*maxNodes];
+            if (used == 1) {
+                // A single entry reads its length of bits whatever they are
+                int node = 0;
+                int nodes = 1;
+                for (int d=1; d<lengths[singleEntry]; d++) {
+                    tree[2*node] = nodes;
+                    tree[2*node+1] = nodes;
+                    node = nodes++;
+                }
+                tree[2*node] = -(singleEntry+1);
+                tree[2*node+1] = -(singleEntry+1);
+            } else if (used > 1) {
+                long[] available = new long[33];
+                int nodes = 1;
+                boolean first = true;
+                for (int i=0; i<entries; i++) {
+                    int length = lengths[i];
+                    if (length == 0) continue;
+
+                    long codeword;
+                    if (first) {
+                        codeword = 0;
+                        for (int j=1; j<=length; j++) {
+                            available[j] = 1L << (32-j);
+                        }
+                        first = false;
+                    } else {
+                        int z = length;
+                        while (z > 0 && available[z] == 0) z--;
+                        if (z == 0) {
+                            throw new IllegalArgumentException("Invalid Vorbis codebook - overspecified Huffman tree");
+                        }
+                        codeword = available[z];
+                        available[z] = 0;
+                        for (int y=length; y>z; y--) {
+                            available[y] = codeword + (1L << (32-y));
+                        }
+                    }
+
+                    // Add to the tree, most significant bit first
+                    int node = 0;
+                    for (int d=0; d<length; d++) {
+                        int bit = (int)((codeword >>> (31-d)) & 1);
+                        int slot = 2*node + bit;
+                        if (d == length-1) {
+                            if (tree[slot] != 0) {
+                                throw new IllegalArgumentException("Invalid Vorbis codebook - overspecified Huffman tree");
+                            }
+                            tree[slot] = -(i+1);
+                        } else {
+                            if (tree[slot] < 0) {
+                                throw new IllegalArgumentException("Invalid Vorbis codebook - overspecified Huffman tree");
+                            }
+                            if (tree[slot] == 0) {
+                                tree[slot] = nodes++;
+                            }
+                            node = tree[slot];
+                        }
+                    }
+                }
+            }
+
+            // Look up the first bits in one go, for the common
+            //  short codewords
+            tableBits = Math.max(1, Math.min(TABLE_BITS, maxLength));
+            table = new int[1 << tableBits];
+            for (int t=0; t<table.length; t++) {
+                int node = 0;
+                int result = 0;
+                for (int d=0; d<tableBits; d++) {
+                    int child = tree[2*node + ((t >> d) & 1)];
+                    if (child < 0) {
+                        // Entry, with the length in the top bits
+                        result = ((d+1) << 24) | (-child - 1);
+                        break;
+                    } else if (child == 0) {
+                        result = -1;
+                        break;
+                    }
+                    node = child;
+                    // Carry on in the tree from here
+                    result = 0x80000000 | node;
+                }
+                table[t] = (used == 0) ? -1 : result;
+            }
+
+            values = buildValues(codebook);
+        }
+
+        private static float[] buildValues(VorbisSetup.Codebook codebook) {
+            int lookupType = codebook.getLookupType();
+            if (lookupType == 0) {
+                return null;
+            }
+            int entries = codebook.getEntries();
+            int dimensions = codebook.getDimensions();
+            int[] multiplicands = codebook.getMultiplicands();
+            float minimum = codebook.getMinimumValue();
+            float delta = codebook.getDeltaValue();
+            boolean sequenceP = codebook.isSequenceP();
+
+            float[] values = new float[entries * dimensions];
+            for (int e=0; e<entries; e++) {
+                float last = 0;
+                int divisor = 1;
+                for (int d=0; d<dimensions; d++) {
+                    int offset;
+                    if (lookupType == 1) {
+                        offset = (e / divisor) % multiplicands.length;
+                        divisor *= multiplicands.length;
+                    } else {
+                        offset = e * dimensions + d;
+                    }
+                    float value = multiplicands[offset] * delta + minimum + last;
+                    values[e * dimensions + d] = value;
+                    if (sequenceP) {
+                        last = value;
+                    }
+                }
+            }
+            return values;
+        }
+
+        /**
+         * Reads the next codeword, returning its entry number, or
+         *  -1 if the packet ended or the codeword isn't valid
+         */
+        private int decode(VorbisBitsReader r) {
+            int found = table[r.peek(tableBits)];
+            if (found == -1) {
+                return -1;
+            }
+            if (found >= 0) {
+                r.skip(found >>> 24);
+                return r.isEndOfPacket() ? -1 : (found & 0xffffff);
+            }
+
+            r.skip(tableBits);
+            int node = found & 0x7fffffff;
+            while (true) {
+                int child = tree[2*node + r.read(1)];
+                if (r.isEndOfPacket() || child == 0) {
+                    return -1;
+                }
+                if (child < 0) {
+                    return -child - 1;
+                }
+                node = child;
+            }
+        }
+    }
+
+    /**
+     * The sort order and neighbours of a Floor 1's points
+     */
+    private static class Floor1Tables {
+        private final VorbisSetup.Floor1 floor;
+        private final int values;
+        private final int[] sorted;
+        private final int[] lowNeighbours;
+        private final int[] highNeighbours;
+
+        private Floor1Tables(VorbisSetup.Floor1 floor) {
+            this.floor = floor;
+            int[] x = floor.getXList();
+            values = x.length;
+
+            Integer[] order = new Integer[values];
+            for (int i=0; i<values; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Integer.compare(x[a], x[b]));
+            sorted = new int[values];
+            for (int i=0; i<values; i++) {
+                sorted[i] = order[i];
+            }
+
+            lowNeighbours = new int[values];
+            highNeighbours = new int[values];
+            for (int i=2; i<values; i++) {
+                int low = -1;
+                int high = -1;
+                for (int j=0; j<i; j++) {
+                    if (x[j] < x[i] && (low == -1 || x[j] > x[low])) {
+                        low = j;
+                    }
+                    if (x[j] > x[i] && (high == -1 || x[j] < x[high])) {
+                        high = j;
+                    }
+                }
+                if (low == -1 || high == -1) {
+                    throw new IllegalArgumentException("Invalid Vorbis floor 1 - repeated X values");
+                }
+                lowNeighbours[i] = low;
+                highNeighbours[i] = high;
+            }
+        }
+    }
+
+    /**
+     * The Bark scale maps of a Floor 0, for the two block sizes
+     */
+    private static class Floor0Tables {
+        private final VorbisSetup.Floor0 floor;
+        private final int[] map0;
+        private final int[] map1;
+        private final float[] coefficients;
+
+        private Floor0Tables(VorbisSetup.Floor0 floor, int blocksize0, int blocksize1) {
+            this.floor = floor;
+            if (floor.getBarkMapSize() == 0 || floor.getOrder() == 0) {
+                throw new IllegalArgumentException("Invalid Vorbis floor 0");
+            }
+            map0 = buildMap(floor, blocksize0/2);
+            map1 = buildMap(floor, blocksize1/2);
+            coefficients = new float[floor.getOrder()];
+        }
+        private static int[] buildMap(VorbisSetup.Floor0 floor, int half) {
+            int barkMapSize = floor.getBarkMapSize();
+            double rate = floor.getRate();
+            double nyquistBark = bark(0.5 * rate);
+            int[] map = new int[half];
+            for (int i=0; i<half; i++) {
+                int value = (int)Math.floor(bark(rate * i / (2.0 * half)) * barkMapSize / nyquistBark);
+                map[i] = Math.min(barkMapSize - 1, value);
+            }
+            return map;
+        }
+        private static double bark(double x) {
+            return 13.1 * Math.atan(0.00074 * x) + 2.24 * Math.atan(0.0000000185 * x * x) + 0.0001 * x;
+        }
+    }
+}
@@ -46,6 +46,12 @@ public class VorbisFile implements OggAudioStream, OggAudioHeaders, Closeable {
     private VorbisSetup setup;
 
     private List<VorbisAudioData> writtenPackets;
+    /**
+     * First byte of the last audio packet read, which gives its mode
+     *  and so block size, or {@link VorbisAudioData#UNKNOWN_PREVIOUS}
+     */
+    private int previousStart = VorbisAudioData.NO_PREVIOUS;
+    private boolean calculateSamples = true;
 
     /**
      * Opens the given file for reading
@@ -131,7 +137,14 @@ public class VorbisFile implements OggAudioStream, OggAudioHeaders, Closeable {
         while( (p = r.getNextPacketWithSid(sid)) != null ) {
             vp = VorbisPacketFactory.create(p);
             if(vp instanceof VorbisAudioData) {
-                return (VorbisAudioData)vp;
+                VorbisAudioData vd = (VorbisAudioData)vp;
+                vd.setReadFrom(this, previousStart);
+                // Empty packets don't change the overlap with the next one
+                byte[] data = vd.getData();
+                if (data.length > 0 && (data[0] & 1) == 0) {
+                    previousStart = data[0] & 0xff;
+                }
+                return vd;
             } else {
                 System.err.println("Skipping non audio packet " + vp + " mid audio stream");
             }
@@ -146,6 +159,29 @@ public class VorbisFile implements OggAudioStream, OggAudioHeaders, Closeable {
      */
     public void skipToGranule(long granulePosition) throws IOException {
         r.skipToGranulePosition(sid, granulePosition);
+        // The next packet's overlap with the one before is unknown
+        previousStart = VorbisAudioData.UNKNOWN_PREVIOUS;
+    }
+
+    /**
+     * Sample counts need the modes from the setup, so are only
+     *  possible if that is there and valid. The setup is only
+     *  parsed the first time they're needed.
+     */
+    boolean canCalculateSamples() {
+        if (calculateSamples && ! setup.isParsed()) {
+            if (setup.getData() == null) {
+                calculateSamples = false;
+            } else {
+                try {
+                    setup.parse(info);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Warning - Unable to work out sample counts - " + e.getMessage());
+                    calculateSamples = false;
+                }
+            }
+        }
+        return calculateSamples;
     }
 
     /**
@@ -205,7 +241,27 @@ public class VorbisFile implements OggAudioStream, OggAudioHeaders, Closeable {
             w.bufferPacket(setup.write(), true);
 
             long lastGranule = 0;
+            long samples = 0;
+            int previousBlockSize = 0;
             for(VorbisAudioData vd : writtenPackets) {
+                if(vd.getGranulePosition() < 0 && canCalculateSamples()) {
+                    // Work out the granule from the sample counts,
+                    //  with pages ending on the last packet's samples
+                    samples += vd.getNumberOfSamples(info, setup, previousBlockSize);
+                    if(vd.getBlockSize() > 0) {
+                        previousBlockSize = vd.getBlockSize();
+                    }
+                    vd.setGranulePosition(samples);
+
+                    w.bufferPacket(vd.write());
+                    lastGranule = samples;
+                    w.setGranulePosition(lastGranule);
+                    if(w.getSizePendingFlush() > 16384) {
+                        w.flush();
+                    }
+                    continue;
+                }
+
                 // Update the granule position as we go
                 if(vd.getGranulePosition() >= 0 &&
                         lastGranule != vd.getGranulePosition()) {
@@ -213,6 +269,10 @@ public class VorbisFile implements OggAudioStream, OggAudioHeaders, Closeable {
                     lastGranule = vd.getGranulePosition();
                     w.setGranulePosition(lastGranule);
                 }
+                samples = lastGranule;
+                if(canCalculateSamples() && vd.getBlockSize(info, setup) > 0) {
+                    previousBlockSize = vd.getBlockSize();
+                }
 
                 // Write the data, flushing if needed
                 w.bufferPacket(vd.write());
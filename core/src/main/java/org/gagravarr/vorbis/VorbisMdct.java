@@ -0,0 +1,139 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.vorbis;
+
+/**
+ * The inverse MDCT for one Vorbis block size, done as a DCT-IV
+ *  of half the size, which in turn is done with a complex FFT of
+ *  a quarter of the block size. All the tables and working space
+ *  are set up front, so transforms don't allocate anything.
+ * <p>Not thread safe, each decoder needs its own.
+ */
+class VorbisMdct {
+    private final int n;
+    private final int half;
+    private final int quarter;
+
+    /** Pre-twiddle, exp(-i.pi.k/half) */
+    private final float[] preCos;
+    private final float[] preSin;
+    /** Post-twiddle, exp(-i.pi.(k+1/4)/half) */
+    private final float[] postCos;
+    private final float[] postSin;
+    /** FFT twiddles, exp(-2.i.pi.k/quarter) */
+    private final float[] fftCos;
+    private final float[] fftSin;
+    private final int[] bitReverse;
+
+    private final float[] re;
+    private final float[] im;
+    private final float[] dct;
+
+    VorbisMdct(int n) {
+        if (n < 8 || Integer.bitCount(n) != 1) {
+            throw new IllegalArgumentException("Invalid MDCT size " + n);
+        }
+        this.n = n;
+        this.half = n/2;
+        this.quarter = n/4;
+
+        preCos = new float[quarter];
+        preSin = new float[quarter];
+        postCos = new float[quarter];
+        postSin = new float[quarter];
+        for (int k=0; k<quarter; k++) {
+            preCos[k] = (float)Math.cos(Math.PI * k / half);
+            preSin[k] = (float)Math.sin(Math.PI * k / half);
+            postCos[k] = (float)Math.cos(Math.PI * (k + 0.25) / half);
+            postSin[k] = (float)Math.sin(Math.PI * (k + 0.25) / half);
+        }
+
+        fftCos = new float[quarter/2];
+        fftSin = new float[quarter/2];
+        for (int k=0; k<quarter/2; k++) {
+            fftCos[k] = (float)Math.cos(2 * Math.PI * k / quarter);
+            fftSin[k] = (float)Math.sin(2 * Math.PI * k / quarter);
+        }
+
+        bitReverse = new int[quarter];
+        int bits = Integer.numberOfTrailingZeros(quarter);
+        for (int k=0; k<quarter; k++) {
+            bitReverse[k] = bits == 0 ? 0 : Integer.reverse(k) >>> (32 - bits);
+        }
+
+        re = new float[quarter];
+        im = new float[quarter];
+        dct = new float[half];
+    }
+
+    int getSize() {
+        return n;
+    }
+
+    /**
+     * Transforms the first n/2 spectral coefficients into n
+     *  (unwindowed) time domain samples
+     */
+    void inverse(float[] in, float[] out) {
+        // Pair up the coefficients as complex numbers and pre-twiddle,
+        //  storing in bit reversed order ready for the FFT
+        for (int k=0; k<quarter; k++) {
+            float vr = in[2*k];
+            float vi = in[half-1-2*k];
+            int to = bitReverse[k];
+            re[to] = vr*preCos[k] + vi*preSin[k];
+            im[to] = vi*preCos[k] - vr*preSin[k];
+        }
+
+        // Forward complex FFT, radix 2 decimation in time
+        for (int size=2; size<=quarter; size<<=1) {
+            int halfSize = size >> 1;
+            int step = quarter / size;
+            for (int start=0; start<quarter; start+=size) {
+                for (int k=0; k<halfSize; k++) {
+                    float wr = fftCos[k*step];
+                    float wi = -fftSin[k*step];
+                    int a = start + k;
+                    int b = a + halfSize;
+                    float tr = re[b]*wr - im[b]*wi;
+                    float ti = re[b]*wi + im[b]*wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+
+        // Post-twiddle to get the DCT-IV
+        for (int k=0; k<quarter; k++) {
+            float sr = re[k]*postCos[k] + im[k]*postSin[k];
+            float si = im[k]*postCos[k] - re[k]*postSin[k];
+            dct[2*k] = sr;
+            dct[half-1-2*k] = -si;
+        }
+
+        // Unfold the DCT-IV into the MDCT's symmetries
+        int h2 = half/2;
+        for (int i=0; i<h2; i++) {
+            out[i] = dct[i + h2];
+        }
+        for (int i=h2; i<half+h2; i++) {
+            out[i] = -dct[half + h2 - 1 - i];
+        }
+        for (int i=half+h2; i<n; i++) {
+            out[i] = -dct[i - half - h2];
+        }
+    }
+}
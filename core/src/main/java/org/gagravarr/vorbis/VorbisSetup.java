@@ -21,8 +21,21 @@ import org.gagravarr.ogg.audio.OggAudioSetupHeader;
 /**
  * Includes extensive CODEC setup information as well as the 
  *  complete VQ and Huffman codebooks needed for decode
+ * <p>The setup is only decoded when first asked for, as doing so
+ *  needs the number of channels from the {@link VorbisInfo}, see
+ *  {@link #parse(VorbisInfo)}. Once decoded, the Modes give the
+ *  block size of each audio packet, and the rest what is needed to
+ *  decode the audio.
  */
 public class VorbisSetup extends HighLevelOggStreamPacket implements VorbisPacket, OggAudioSetupHeader {
+    private static final int CODEBOOK_SYNC = 0x564342;
+
+    private Codebook[] codebooks;
+    private Floor[] floors;
+    private Residue[] residues;
+    private Mapping[] mappings;
+    private Mode[] modes;
+
     public VorbisSetup(OggPacket pkt) {
         super(pkt);
 
@@ -45,13 +58,643 @@ public class VorbisSetup extends HighLevelOggStreamPacket implements VorbisPacke
         VorbisPacketFactory.populateMetadataHeader(b, TYPE_SETUP, dataLength);
     }
 
-    // Example first bit of decoding
+    @Override
+    public void setData(byte[] data) {
+        super.setData(data);
+        codebooks = null;
+        floors = null;
+        residues = null;
+        mappings = null;
+        modes = null;
+    }
+
     public int getNumberOfCodebooks() {
+        if (codebooks != null) {
+            return codebooks.length;
+        }
         byte[] data = getData();
         int number = -1;
-        if(data != null && data.length >= 10) {
-            number = IOUtils.toInt(data[8]);
+        if(data != null && data.length > HEADER_LENGTH_METADATA) {
+            number = IOUtils.toInt(data[HEADER_LENGTH_METADATA]);
         }
         return (number+1);
     }
+
+    /**
+     * Decodes the whole of the setup, if not already done.
+     * The number of channels is needed to decode the Mappings.
+     * @throws IllegalArgumentException If the setup is invalid
+     */
+    public void parse(VorbisInfo info) {
+        parse(info.getChannels());
+    }
+    /**
+     * Decodes the whole of the setup, for a stream with the given
+     *  number of channels, if not already done.
+     * @throws IllegalArgumentException If the setup is invalid
+     */
+    public void parse(int channels) {
+        if (modes != null) return;
+
+        byte[] data = getData();
+        VorbisBitsReader r = new VorbisBitsReader(data, HEADER_LENGTH_METADATA,
+                                                  data.length - HEADER_LENGTH_METADATA);
+
+        Codebook[] codebooks = new Codebook[r.read(8)+1];
+        for (int i=0; i<codebooks.length; i++) {
+            codebooks[i] = new Codebook(r);
+        }
+
+        // Time domain transforms are placeholders, always zero
+        int transforms = r.read(6)+1;
+        for (int i=0; i<transforms; i++) {
+            if (r.read(16) != 0) {
+                throw invalid("non-zero time domain transform");
+            }
+        }
+
+        Floor[] floors = new Floor[r.read(6)+1];
+        for (int i=0; i<floors.length; i++) {
+            int type = r.read(16);
+            if (type == 0) {
+                floors[i] = new Floor0(r, codebooks.length);
+            } else if (type == 1) {
+                floors[i] = new Floor1(r, codebooks.length);
+            } else {
+                throw invalid("unsupported floor type " + type);
+            }
+        }
+
+        Residue[] residues = new Residue[r.read(6)+1];
+        for (int i=0; i<residues.length; i++) {
+            residues[i] = new Residue(r, codebooks.length);
+        }
+
+        Mapping[] mappings = new Mapping[r.read(6)+1];
+        for (int i=0; i<mappings.length; i++) {
+            mappings[i] = new Mapping(r, channels, floors.length, residues.length);
+        }
+
+        Mode[] modes = new Mode[r.read(6)+1];
+        for (int i=0; i<modes.length; i++) {
+            modes[i] = new Mode(r, mappings.length);
+        }
+
+        if (! r.readFlag()) {
+            throw invalid("framing bit not set");
+        }
+        if (r.isEndOfPacket()) {
+            throw invalid("packet too short");
+        }
+
+        this.codebooks = codebooks;
+        this.floors = floors;
+        this.residues = residues;
+        this.mappings = mappings;
+        this.modes = modes;
+    }
+    /**
+     * Has the setup been decoded yet?
+     */
+    public boolean isParsed() {
+        return modes != null;
+    }
+    private void checkParsed() {
+        if (modes == null) {
+            throw new IllegalStateException("Setup not yet parsed, call parse(VorbisInfo) first");
+        }
+    }
+
+    public Codebook[] getCodebooks() {
+        checkParsed();
+        return codebooks;
+    }
+    public Floor[] getFloors() {
+        checkParsed();
+        return floors;
+    }
+    public Residue[] getResidues() {
+        checkParsed();
+        return residues;
+    }
+    public Mapping[] getMappings() {
+        checkParsed();
+        return mappings;
+    }
+    public Mode[] getModes() {
+        checkParsed();
+        return modes;
+    }
+    /**
+     * How many bits at the start of each audio packet (after the
+     *  packet type bit) give the mode number
+     */
+    public int getModeBits() {
+        checkParsed();
+        return VorbisBitsReader.ilog(modes.length - 1);
+    }
+
+    private static IllegalArgumentException invalid(String why) {
+        return new IllegalArgumentException("Invalid Vorbis setup - " + why);
+    }
+
+    /**
+     * A codebook, of the Huffman codeword lengths of the entries, and
+     *  (for VQ lookup) the vector values they stand for
+     */
+    public static class Codebook {
+        private final int dimensions;
+        private final int entries;
+        /** Codeword length of each entry, 0 for unused entries */
+        private final byte[] codewordLengths;
+        private final int lookupType;
+        private float minimumValue;
+        private float deltaValue;
+        private int valueBits;
+        private boolean sequenceP;
+        private int[] multiplicands;
+
+        private Codebook(VorbisBitsReader r) {
+            if (r.read(24) != CODEBOOK_SYNC) {
+                throw invalid("codebook sync pattern not found");
+            }
+            dimensions = r.read(16);
+            entries = r.read(24);
+            if (dimensions == 0) {
+                throw invalid("codebook with no dimensions");
+            }
+            codewordLengths = new byte[entries];
+
+            boolean ordered = r.readFlag();
+            if (! ordered) {
+                boolean sparse = r.readFlag();
+                for (int i=0; i<entries; i++) {
+                    if (!sparse || r.readFlag()) {
+                        codewordLengths[i] = (byte)(r.read(5)+1);
+                    }
+                }
+            } else {
+                int current = 0;
+                int length = r.read(5)+1;
+                while (current < entries) {
+                    int number = r.read(VorbisBitsReader.ilog(entries - current));
+                    if (current + number > entries) {
+                        throw invalid("too many ordered codebook entries");
+                    }
+                    for (int i=current; i<current+number; i++) {
+                        codewordLengths[i] = (byte)length;
+                    }
+                    current += number;
+                    length++;
+                    if (r.isEndOfPacket()) {
+                        throw invalid("packet too short");
+                    }
+                }
+            }
+
+            lookupType = r.read(4);
+            if (lookupType == 1 || lookupType == 2) {
+                minimumValue = VorbisBitsReader.float32Unpack(r.read(32));
+                deltaValue = VorbisBitsReader.float32Unpack(r.read(32));
+                valueBits = r.read(4)+1;
+                sequenceP = r.readFlag();
+
+                long lookupValues;
+                if (lookupType == 1) {
+                    lookupValues = lookup1Values(entries, dimensions);
+                } else {
+                    lookupValues = (long)entries * dimensions;
+                }
+                // Check the values are all there before allocating for them
+                if (lookupValues * valueBits > r.getBitsRemaining()) {
+                    throw invalid("codebook lookup values beyond the end of the packet");
+                }
+                multiplicands = new int[(int)lookupValues];
+                for (int i=0; i<lookupValues; i++) {
+                    multiplicands[i] = r.read(valueBits);
+                }
+            } else if (lookupType != 0) {
+                throw invalid("unsupported codebook lookup type " + lookupType);
+            }
+            if (r.isEndOfPacket()) {
+                throw invalid("packet too short");
+            }
+        }
+
+        /**
+         * The largest whole number which, raised to the power of the
+         *  dimensions, is no more than the number of entries
+         */
+        public static int lookup1Values(int entries, int dimensions) {
+            int r = (int)Math.floor(Math.pow(entries, 1.0 / dimensions));
+            // Correct for any floating point error
+            while (Math.pow(r+1, dimensions) <= entries) r++;
+            while (r > 0 && Math.pow(r, dimensions) > entries) r--;
+            return r;
+        }
+
+        public int getDimensions() {
+            return dimensions;
+        }
+        public int getEntries() {
+            return entries;
+        }
+        /**
+         * The length in bits of the codeword of each entry,
+         *  or zero if the entry isn't used
+         */
+        public byte[] getCodewordLengths() {
+            return codewordLengths;
+        }
+        /**
+         * 0 for no VQ lookup (scalar only), 1 for lattice,
+         *  2 for each entry's values being given
+         */
+        public int getLookupType() {
+            return lookupType;
+        }
+        public float getMinimumValue() {
+            return minimumValue;
+        }
+        public float getDeltaValue() {
+            return deltaValue;
+        }
+        public int getValueBits() {
+            return valueBits;
+        }
+        public boolean isSequenceP() {
+            return sequenceP;
+        }
+        /**
+         * The VQ multiplicands, or null if there is no lookup
+         */
+        public int[] getMultiplicands() {
+            return multiplicands;
+        }
+    }
+
+    /**
+     * The spectral envelope configuration, either a
+     *  {@link Floor0} or a {@link Floor1}
+     */
+    public static abstract class Floor {
+        public abstract int getType();
+    }
+    /**
+     * A (rarely used) LSP based floor
+     */
+    public static class Floor0 extends Floor {
+        private final int order;
+        private final int rate;
+        private final int barkMapSize;
+        private final int amplitudeBits;
+        private final int amplitudeOffset;
+        private final int[] books;
+
+        private Floor0(VorbisBitsReader r, int numCodebooks) {
+            order = r.read(8);
+            rate = r.read(16);
+            barkMapSize = r.read(16);
+            amplitudeBits = r.read(6);
+            amplitudeOffset = r.read(8);
+            books = new int[r.read(4)+1];
+            for (int i=0; i<books.length; i++) {
+                books[i] = r.read(8);
+                if (books[i] >= numCodebooks) {
+                    throw invalid("floor 0 book " + books[i] + " not found");
+                }
+            }
+        }
+
+        public int getType() {
+            return 0;
+        }
+        public int getOrder() {
+            return order;
+        }
+        public int getRate() {
+            return rate;
+        }
+        public int getBarkMapSize() {
+            return barkMapSize;
+        }
+        public int getAmplitudeBits() {
+            return amplitudeBits;
+        }
+        public int getAmplitudeOffset() {
+            return amplitudeOffset;
+        }
+        public int[] getBooks() {
+            return books;
+        }
+    }
+    /**
+     * A piecewise linear floor, as used by almost all encoders
+     */
+    public static class Floor1 extends Floor {
+        private final int[] partitionClasses;
+        private final int[] classDimensions;
+        private final int[] classSubclasses;
+        private final int[] classMasterbooks;
+        /** Per class, the book of each subclass, or -1 for none */
+        private final int[][] subclassBooks;
+        private final int multiplier;
+        private final int rangeBits;
+        private final int[] xList;
+
+        private Floor1(VorbisBitsReader r, int numCodebooks) {
+            partitionClasses = new int[r.read(5)];
+            int maximumClass = -1;
+            for (int i=0; i<partitionClasses.length; i++) {
+                partitionClasses[i] = r.read(4);
+                maximumClass = Math.max(maximumClass, partitionClasses[i]);
+            }
+
+            int classes = maximumClass+1;
+            classDimensions = new int[classes];
+            classSubclasses = new int[classes];
+            classMasterbooks = new int[classes];
+            subclassBooks = new int[classes][];
+            for (int i=0; i<classes; i++) {
+                classDimensions[i] = r.read(3)+1;
+                classSubclasses[i] = r.read(2);
+                if (classSubclasses[i] != 0) {
+                    classMasterbooks[i] = checkBook(r.read(8), numCodebooks);
+                }
+                subclassBooks[i] = new int[1 << classSubclasses[i]];
+                for (int j=0; j<subclassBooks[i].length; j++) {
+                    subclassBooks[i][j] = r.read(8)-1;
+                    if (subclassBooks[i][j] >= 0) {
+                        checkBook(subclassBooks[i][j], numCodebooks);
+                    }
+                }
+            }
+
+            multiplier = r.read(2)+1;
+            rangeBits = r.read(4);
+
+            int values = 2;
+            for (int i=0; i<partitionClasses.length; i++) {
+                values += classDimensions[partitionClasses[i]];
+            }
+            xList = new int[values];
+            xList[0] = 0;
+            xList[1] = 1 << rangeBits;
+            int x = 2;
+            for (int i=0; i<partitionClasses.length; i++) {
+                for (int j=0; j<classDimensions[partitionClasses[i]]; j++) {
+                    xList[x++] = r.read(rangeBits);
+                }
+            }
+            if (values > 65) {
+                throw invalid("too many floor 1 values " + values);
+            }
+        }
+        private static int checkBook(int book, int numCodebooks) {
+            if (book >= numCodebooks) {
+                throw invalid("floor 1 book " + book + " not found");
+            }
+            return book;
+        }
+
+        public int getType() {
+            return 1;
+        }
+        public int[] getPartitionClasses() {
+            return partitionClasses;
+        }
+        public int[] getClassDimensions() {
+            return classDimensions;
+        }
+        public int[] getClassSubclasses() {
+            return classSubclasses;
+        }
+        public int[] getClassMasterbooks() {
+            return classMasterbooks;
+        }
+        /**
+         * For each class, the codebook of each subclass,
+         *  or -1 if the subclass has none
+         */
+        public int[][] getSubclassBooks() {
+            return subclassBooks;
+        }
+        public int getMultiplier() {
+            return multiplier;
+        }
+        public int getRangeBits() {
+            return rangeBits;
+        }
+        /**
+         * The X positions of the floor points, in the
+         *  order they are given in the setup (not sorted)
+         */
+        public int[] getXList() {
+            return xList;
+        }
+    }
+
+    /**
+     * The configuration of how the fine detail (residue) of
+     *  the audio is packed, of type 0, 1 or 2
+     */
+    public static class Residue {
+        private final int type;
+        private final int begin;
+        private final int end;
+        private final int partitionSize;
+        private final int classifications;
+        private final int classbook;
+        private final int[] cascade;
+        /** Per classification, the book for each of 8 passes, or -1 for none */
+        private final int[][] books;
+
+        private Residue(VorbisBitsReader r, int numCodebooks) {
+            type = r.read(16);
+            if (type > 2) {
+                throw invalid("unsupported residue type " + type);
+            }
+            begin = r.read(24);
+            end = r.read(24);
+            partitionSize = r.read(24)+1;
+            classifications = r.read(6)+1;
+            classbook = r.read(8);
+            if (classbook >= numCodebooks) {
+                throw invalid("residue classbook " + classbook + " not found");
+            }
+
+            cascade = new int[classifications];
+            for (int i=0; i<classifications; i++) {
+                int lowBits = r.read(3);
+                int highBits = 0;
+                if (r.readFlag()) {
+                    highBits = r.read(5);
+                }
+                cascade[i] = (highBits << 3) | lowBits;
+            }
+
+            books = new int[classifications][8];
+            for (int i=0; i<classifications; i++) {
+                for (int j=0; j<8; j++) {
+                    if ((cascade[i] & (1 << j)) != 0) {
+                        books[i][j] = r.read(8);
+                        if (books[i][j] >= numCodebooks) {
+                            throw invalid("residue book " + books[i][j] + " not found");
+                        }
+                    } else {
+                        books[i][j] = -1;
+                    }
+                }
+            }
+        }
+
+        public int getType() {
+            return type;
+        }
+        public int getBegin() {
+            return begin;
+        }
+        public int getEnd() {
+            return end;
+        }
+        public int getPartitionSize() {
+            return partitionSize;
+        }
+        public int getClassifications() {
+            return classifications;
+        }
+        public int getClassbook() {
+            return classbook;
+        }
+        public int[] getCascade() {
+            return cascade;
+        }
+        /**
+         * For each classification, the codebook used in each of the
+         *  8 passes, or -1 if that pass isn't used
+         */
+        public int[][] getBooks() {
+            return books;
+        }
+    }
+
+    /**
+     * How the channels are coupled, and which floor and residue
+     *  each channel uses (via its submap)
+     */
+    public static class Mapping {
+        private final int[] magnitudes;
+        private final int[] angles;
+        private final int[] mux;
+        private final int[] submapFloors;
+        private final int[] submapResidues;
+
+        private Mapping(VorbisBitsReader r, int channels, int numFloors, int numResidues) {
+            if (r.read(16) != 0) {
+                throw invalid("unsupported mapping type");
+            }
+            int submaps = 1;
+            if (r.readFlag()) {
+                submaps = r.read(4)+1;
+            }
+
+            int couplingSteps = 0;
+            if (r.readFlag()) {
+                couplingSteps = r.read(8)+1;
+            }
+            magnitudes = new int[couplingSteps];
+            angles = new int[couplingSteps];
+            int channelBits = VorbisBitsReader.ilog(channels-1);
+            for (int i=0; i<couplingSteps; i++) {
+                magnitudes[i] = r.read(channelBits);
+                angles[i] = r.read(channelBits);
+                if (magnitudes[i] == angles[i] || magnitudes[i] >= channels || angles[i] >= channels) {
+                    throw invalid("bad channel coupling");
+                }
+            }
+
+            if (r.read(2) != 0) {
+                throw invalid("mapping reserved bits set");
+            }
+
+            mux = new int[channels];
+            if (submaps > 1) {
+                for (int i=0; i<channels; i++) {
+                    mux[i] = r.read(4);
+                    if (mux[i] >= submaps) {
+                        throw invalid("mapping mux " + mux[i] + " out of range");
+                    }
+                }
+            }
+
+            submapFloors = new int[submaps];
+            submapResidues = new int[submaps];
+            for (int i=0; i<submaps; i++) {
+                // Unused time configuration
+                r.read(8);
+                submapFloors[i] = r.read(8);
+                submapResidues[i] = r.read(8);
+                if (submapFloors[i] >= numFloors || submapResidues[i] >= numResidues) {
+                    throw invalid("mapping submap floor or residue not found");
+                }
+            }
+        }
+
+        public int getSubmaps() {
+            return submapFloors.length;
+        }
+        public int getCouplingSteps() {
+            return magnitudes.length;
+        }
+        public int[] getMagnitudes() {
+            return magnitudes;
+        }
+        public int[] getAngles() {
+            return angles;
+        }
+        /**
+         * The submap used by each channel
+         */
+        public int[] getMux() {
+            return mux;
+        }
+        public int[] getSubmapFloors() {
+            return submapFloors;
+        }
+        public int[] getSubmapResidues() {
+            return submapResidues;
+        }
+    }
+
+    /**
+     * Whether an audio packet uses the short or long block
+     *  size, and which mapping it uses
+     */
+    public static class Mode {
+        private final boolean blockFlag;
+        private final int mapping;
+
+        private Mode(VorbisBitsReader r, int numMappings) {
+            blockFlag = r.readFlag();
+            int windowType = r.read(16);
+            int transformType = r.read(16);
+            mapping = r.read(8);
+            if (windowType != 0 || transformType != 0) {
+                throw invalid("unsupported window or transform type");
+            }
+            if (mapping >= numMappings) {
+                throw invalid("mode mapping " + mapping + " not found");
+            }
+        }
+
+        /**
+         * True for the long block size, false for the short one
+         */
+        public boolean getBlockFlag() {
+            return blockFlag;
+        }
+        public int getMapping() {
+            return mapping;
+        }
+    }
 }
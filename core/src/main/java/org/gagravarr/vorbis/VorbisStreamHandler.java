@@ -0,0 +1,38 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.vorbis;
+
+import org.gagravarr.ogg.IOUtils;
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggStreamHandler;
+import org.gagravarr.ogg.OggStreamIdentifier;
+import org.gagravarr.ogg.OggStreamPacket;
+
+/**
+ * Identifies Vorbis streams, and creates their packets
+ */
+public class VorbisStreamHandler extends OggStreamHandler {
+    public VorbisStreamHandler() {
+        super(OggStreamIdentifier.OGG_VORBIS, IOUtils.toUTF8Bytes("\1vorbis"));
+    }
+
+    @Override
+    public boolean isStream(OggPacket firstPacket) {
+        return VorbisPacketFactory.isVorbisStream(firstPacket);
+    }
+    @Override
+    public OggStreamPacket createPacket(OggPacket packet) {
+        return VorbisPacketFactory.create(packet);
+    }
+}
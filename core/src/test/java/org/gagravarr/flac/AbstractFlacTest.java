@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.flac;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.gagravarr.ogg.CRCUtils;
+import org.gagravarr.ogg.IOUtils;
+
+/**
+ * Parent class of FLAC tests which need more audio than the
+ *  single frame in the test files
+ */
+public abstract class AbstractFlacTest extends TestCase {
+   /** Where the audio starts in testFLAC.flac */
+   protected static final int AUDIO_OFFSET = 8478;
+   /** Where the Info (STREAMINFO) block ends in testFLAC.flac */
+   protected static final int INFO_END = 42;
+   /** Samples in each frame of the test files */
+   protected static final int FRAME_SAMPLES = 960;
+
+   protected InputStream getTestOggFile() throws IOException {
+      return this.getClass().getResourceAsStream("/testFLAC.oga");
+   }
+   protected InputStream getTestFlacFile() throws IOException {
+      return this.getClass().getResourceAsStream("/testFLAC.flac");
+   }
+
+   protected byte[] getTestFlacBytes() throws IOException {
+      InputStream inp = getTestFlacFile();
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      byte[] buf = new byte[4096];
+      int read;
+      while ((read = inp.read(buf)) != -1) {
+         baos.write(buf, 0, read);
+      }
+      inp.close();
+      return baos.toByteArray();
+   }
+   /**
+    * Returns the one audio frame from testFLAC.flac
+    */
+   protected byte[] getTestFlacFrame() throws IOException {
+      byte[] file = getTestFlacBytes();
+      return Arrays.copyOfRange(file, AUDIO_OFFSET, file.length);
+   }
+
+   /**
+    * Builds native FLAC audio with the given number of frames,
+    *  by repeating the test frame with new frame numbers
+    */
+   protected byte[] buildFrames(int numFrames) throws IOException {
+      byte[] frame = getTestFlacFrame();
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      for (int i=0; i<numFrames; i++) {
+         baos.write(renumberFrame(frame, i));
+      }
+      return baos.toByteArray();
+   }
+   /**
+    * Builds a native FLAC file with the test Info, the given
+    *  (possibly none) other metadata blocks, and the given
+    *  number of audio frames
+    */
+   protected byte[] buildFile(int numFrames, FlacMetadataBlock... metadata) throws IOException {
+      byte[] file = getTestFlacBytes();
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      // Info block sizes are set to the frame size we use
+      IOUtils.putInt2BE(file, 8, FRAME_SAMPLES);
+      IOUtils.putInt2BE(file, 10, FRAME_SAMPLES);
+      baos.write(file, 0, INFO_END);
+      for (FlacMetadataBlock m : metadata) {
+         baos.write(m.getData());
+      }
+
+      // Mark the last metadata block as such
+      byte[] header = baos.toByteArray();
+      int last = 4;
+      while (last + 4 + IOUtils.getInt3BE(header, last+1) < header.length) {
+         last += 4 + (int)IOUtils.getInt3BE(header, last+1);
+      }
+      header[last] |= (byte)FlacMetadataBlock.MASK_LASTBLOCK;
+
+      baos = new ByteArrayOutputStream();
+      baos.write(header);
+      baos.write(buildFrames(numFrames));
+      return baos.toByteArray();
+   }
+
+   /**
+    * Changes the (single byte) frame number of a frame,
+    *  and updates the header and footer CRCs to match
+    */
+   protected static byte[] renumberFrame(byte[] frame, int number) {
+      if (number > 127) {
+         throw new IllegalArgumentException("Only single byte frame numbers supported");
+      }
+      byte[] data = frame.clone();
+      // Sync(2), settings(2), number(1), 16 bit block size (2), CRC-8
+      data[4] = (byte)number;
+      data[7] = (byte)CRCUtils.getCRC8(data, 0, 7);
+      int crc = CRCUtils.getCRC16(data, 0, data.length-2);
+      IOUtils.putInt2BE(data, data.length-2, crc);
+      assertTrue(FlacFrameScanner.isFrameHeader(data, 0, data.length));
+      return data;
+   }
+
+   /**
+    * Adds the decoded audio to the digest, in the same way as
+    *  the encoder does for the Info signature
+    */
+   protected static void addToDigest(MessageDigest md5, FlacAudioFrame frame) {
+      int[][] samples = frame.getSamples();
+      int bytes = (frame.getBitsPerSample()+7) / 8;
+      byte[] buf = new byte[bytes];
+      for (int i=0; i<frame.getBlockSize(); i++) {
+         for (int c=0; c<samples.length; c++) {
+            int s = samples[c][i];
+            for (int b=0; b<bytes; b++) {
+               buf[b] = (byte)(s >> (8*b));
+            }
+            md5.update(buf);
+         }
+      }
+   }
+}
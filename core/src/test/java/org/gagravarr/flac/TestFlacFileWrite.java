@@ -0,0 +1,275 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.flac;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.gagravarr.flac.FlacSeekTable.SeekPoint;
+import org.gagravarr.ogg.OggFile;
+
+/**
+ * Tests for writing FLAC files, both Flac-Native
+ *  and Flac-in-Ogg
+ */
+public class TestFlacFileWrite extends AbstractFlacTest {
+   private static final int NUM_FRAMES = 120;
+
+   private File tmp;
+
+   @Override
+   protected void tearDown() throws IOException {
+      if (tmp != null) {
+         tmp.delete();
+      }
+   }
+
+   public void testSeekTableSpacing() throws IOException {
+      // One point a second, 960 sample frames at 44.1khz
+      FlacSeekTableBuilder builder = new FlacSeekTableBuilder(44100);
+      for (int i=0; i<NUM_FRAMES; i++) {
+         builder.addFrame(i*FRAME_SAMPLES, FRAME_SAMPLES, i*1000);
+      }
+      assertEquals(3, builder.getNumberOfPoints());
+      assertEquals(3, builder.getNumberOfPointsFor(NUM_FRAMES*FRAME_SAMPLES));
+
+      // Points are the frames holding samples 0, 44100 and 88200
+      FlacSeekTable table = builder.build();
+      assertEquals(3, table.getSeekPoints().size());
+      assertEquals(0, table.getSeekPoints().get(0).getSampleNumber());
+      assertEquals(45*FRAME_SAMPLES, table.getSeekPoints().get(1).getSampleNumber());
+      assertEquals(45000, table.getSeekPoints().get(1).getByteOffset());
+      assertEquals(91*FRAME_SAMPLES, table.getSeekPoints().get(2).getSampleNumber());
+
+      // Padded out with placeholders
+      table = builder.build(5);
+      assertEquals(5, table.getSeekPoints().size());
+      assertFalse(table.getSeekPoints().get(2).isPlaceholder());
+      assertTrue(table.getSeekPoints().get(3).isPlaceholder());
+      assertTrue(table.getSeekPoints().get(4).isPlaceholder());
+
+      // Or thinned out
+      table = builder.build(2);
+      assertEquals(2, table.getSeekPoints().size());
+      assertEquals(0, table.getSeekPoints().get(0).getSampleNumber());
+      assertEquals(45*FRAME_SAMPLES, table.getSeekPoints().get(1).getSampleNumber());
+   }
+
+   /**
+    * Native file, with a placeholder Seek Table written before
+    *  the audio and filled in afterwards
+    */
+   public void testNativeSeekTablePlaceholder() throws IOException {
+      byte[] file = buildFile(0);
+      FlacNativeFile in = new FlacNativeFile(new ByteArrayInputStream(file));
+      FlacInfo info = in.getInfo();
+      in.close();
+
+      FlacSeekTableBuilder builder = new FlacSeekTableBuilder(info, 0.5);
+      int numPoints = builder.getNumberOfPointsFor(NUM_FRAMES*FRAME_SAMPLES);
+      assertEquals(6, numPoints);
+      FlacSeekTable placeholder = FlacSeekTableBuilder.createPlaceholder(numPoints);
+      placeholder.setLastMetadataBlock(true);
+
+      // Write the header, reserving the space
+      tmp = File.createTempFile("vorbis-java-flac", ".flac");
+      FileOutputStream out = new FileOutputStream(tmp);
+      out.write(file, 0, 4);
+      info.setLastMetadataBlock(false);
+      out.write(info.getData());
+      long tablePosition = out.getChannel().position();
+      out.write(placeholder.getData());
+
+      // Stream the audio through
+      byte[] frame = getTestFlacFrame();
+      long offset = 0;
+      for (int i=0; i<NUM_FRAMES; i++) {
+         builder.addFrame(i*FRAME_SAMPLES, FRAME_SAMPLES, offset);
+         byte[] data = renumberFrame(frame, i);
+         out.write(data);
+         offset += data.length;
+      }
+
+      // Fill in the table
+      builder.writeOver(out.getChannel(), tablePosition, placeholder);
+      out.close();
+
+      // Check
+      FlacNativeFile flac = new FlacNativeFile(tmp);
+      FlacSeekTable table = flac.getSeekTable();
+      assertNotNull(table);
+      assertTrue(table.isLastMetadataBlock());
+      assertEquals(6, table.getSeekPoints().size());
+      for (SeekPoint p : table.getSeekPoints()) {
+         assertFalse(p.isPlaceholder());
+         assertEquals(0, p.getSampleNumber() % FRAME_SAMPLES);
+         assertEquals(p.getSampleNumber() / FRAME_SAMPLES * frame.length, p.getByteOffset());
+      }
+      assertEquals(22*FRAME_SAMPLES, table.getSeekPoints().get(1).getSampleNumber());
+
+      flac.skipToGranule(70*FRAME_SAMPLES + 12);
+      assertEquals(70, flac.getNextAudioPacket().getCodedNumber());
+      flac.close();
+   }
+
+   /**
+    * Native file written by streaming the frames through, without
+    *  decoding them, with the Info and Seek Table updated at the end
+    */
+   public void testNativeStreamingWrite() throws IOException {
+      FlacNativeFile in = new FlacNativeFile(new ByteArrayInputStream(buildFile(0)));
+      FlacInfo info = in.getInfo();
+      FlacTags tags = in.getTags();
+      in.close();
+      // Pretend the Info isn't yet known
+      info.setMinimumFrameSize(0);
+      info.setMaximumFrameSize(0);
+      info.setNumberOfSamples(0);
+
+      tmp = File.createTempFile("vorbis-java-flac", ".flac");
+      FlacNativeFile out = new FlacNativeFile(new FileOutputStream(tmp), info, tags);
+      out.setSeekTableSpacing(0.5, 8);
+      byte[] frame = getTestFlacFrame();
+      for (int i=0; i<NUM_FRAMES; i++) {
+         out.writeAudioData(renumberFrame(frame, i));
+      }
+      out.close();
+
+      FlacNativeFile flac = new FlacNativeFile(tmp);
+      info = flac.getInfo();
+      assertEquals(44100, info.getSampleRate());
+      assertEquals(NUM_FRAMES*FRAME_SAMPLES, info.getNumberOfSamples());
+      assertEquals(frame.length, info.getMinimumFrameSize());
+      assertEquals(frame.length, info.getMaximumFrameSize());
+      assertEquals(FRAME_SAMPLES, info.getMinimumBlockSize());
+      assertEquals(FRAME_SAMPLES, info.getMaximumBlockSize());
+      assertNotNull(flac.getTags());
+
+      // Only 6 points needed, so the rest stay as placeholders
+      FlacSeekTable table = flac.getSeekTable();
+      assertNotNull(table);
+      assertFalse(table.isLastMetadataBlock());
+      assertEquals(8, table.getSeekPoints().size());
+      assertEquals(22*FRAME_SAMPLES, table.getSeekPoints().get(1).getSampleNumber());
+      assertEquals(22*frame.length, table.getSeekPoints().get(1).getByteOffset());
+      assertFalse(table.getSeekPoints().get(5).isPlaceholder());
+      assertTrue(table.getSeekPoints().get(6).isPlaceholder());
+
+      // Audio comes back as written
+      FlacAudioFrame audio;
+      int count = 0;
+      while ((audio = flac.getNextAudioPacket()) != null) {
+         assertEquals(count, audio.getCodedNumber());
+         count++;
+      }
+      assertEquals(NUM_FRAMES, count);
+
+      flac.skipToGranule(70*FRAME_SAMPLES + 12);
+      assertEquals(70, flac.getNextAudioPacket().getCodedNumber());
+      flac.close();
+   }
+
+   /**
+    * Flac-in-Ogg to native, copying the frames across as-is
+    */
+   public void testOggToNative() throws IOException {
+      FlacOggFile in = new FlacOggFile(new OggFile(getTestOggFile()));
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      FlacNativeFile out = new FlacNativeFile(baos, in.getInfo(), in.getTags());
+      byte[] frame;
+      while ((frame = in.getNextAudioFrameData()) != null) {
+         out.writeAudioData(frame);
+      }
+      out.close();
+      in.close();
+
+      FlacNativeFile flac = new FlacNativeFile(new ByteArrayInputStream(baos.toByteArray()));
+      assertEquals(44100, flac.getInfo().getSampleRate());
+      assertEquals("Test Album", flac.getTags().getAlbum());
+      assertNull(flac.getSeekTable());
+      FlacAudioFrame audio = flac.getNextAudioPacket();
+      assertNotNull(audio);
+      assertTrue(Arrays.equals(getTestFlacFrame(), audio.getData()));
+      assertNull(flac.getNextAudioPacket());
+      flac.close();
+   }
+
+   /**
+    * Flac-in-Ogg, with and without generating a Seek Table
+    */
+   public void testOggWrite() throws IOException {
+      byte[] noTable = writeOgg(-1);
+      byte[] withTable = writeOgg(FlacSeekTableBuilder.DEFAULT_SPACING_SECONDS);
+
+      FlacOggFile flac = new FlacOggFile(new OggFile(new ByteArrayInputStream(noTable)));
+      assertEquals(44100, flac.getInfo().getSampleRate());
+      assertEquals(2, flac.getInfo().getNumChannels());
+      assertEquals(16, flac.getInfo().getBitsPerSample());
+      assertEquals(NUM_FRAMES*FRAME_SAMPLES, flac.getInfo().getNumberOfSamples());
+      assertEquals("Test Album", flac.getTags().getAlbum());
+      assertEquals(1, flac.getFirstPacket().getNumberOfHeaderBlocks());
+      assertNull(flac.getSeekTable());
+      assertFrames(flac);
+      flac.close();
+
+      flac = new FlacOggFile(new OggFile(new ByteArrayInputStream(withTable)));
+      assertEquals("Test Album", flac.getTags().getAlbum());
+      assertEquals(2, flac.getFirstPacket().getNumberOfHeaderBlocks());
+      FlacSeekTable table = flac.getSeekTable();
+      assertNotNull(table);
+      assertTrue(table.isLastMetadataBlock());
+      assertEquals(1, table.getSeekPoints().size());
+      assertEquals(0, table.getSeekPoints().get(0).getSampleNumber());
+      assertFrames(flac);
+      flac.close();
+   }
+
+   private byte[] writeOgg(double seekTableSpacing) throws IOException {
+      FlacOggFile in = new FlacOggFile(new OggFile(getTestOggFile()));
+      FlacOggInfo info = in.getInfo();
+      info.setMinimumBlockSize(FRAME_SAMPLES);
+      info.setMaximumBlockSize(FRAME_SAMPLES);
+      info.setNumberOfSamples(NUM_FRAMES*FRAME_SAMPLES);
+
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      FlacOggFile out = new FlacOggFile(baos, info, in.getTags());
+      out.setSeekTableSpacing(seekTableSpacing);
+
+      byte[] frame = in.getNextAudioFrameData();
+      for (int i=0; i<NUM_FRAMES; i++) {
+         out.writeAudioData(new FlacAudioFrame(renumberFrame(frame, i), info));
+      }
+      out.close();
+      in.close();
+      return baos.toByteArray();
+   }
+
+   private void assertFrames(FlacOggFile flac) throws IOException {
+      byte[] expected = renumberFrame(getTestFlacFrame(), 0);
+      FlacAudioFrame audio;
+      int count = 0;
+      while ((audio = flac.getNextAudioPacket()) != null) {
+         assertEquals(count, audio.getCodedNumber());
+         if (count == 0) {
+            assertTrue(Arrays.equals(expected, audio.getData()));
+         }
+         count++;
+      }
+      assertEquals(NUM_FRAMES, count);
+   }
+}
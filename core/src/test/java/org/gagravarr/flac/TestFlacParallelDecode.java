@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.flac;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.gagravarr.ogg.OggFile;
+
+/**
+ * Tests for decoding the FLAC audio, both in order and
+ *  in parallel
+ */
+public class TestFlacParallelDecode extends AbstractFlacTest {
+   /**
+    * The decoded audio should match the MD5 the encoder
+    *  stored in the Info block
+    */
+   public void testDecodedMatchesSignature() throws Exception {
+      FlacFile flac = new FlacNativeFile(getTestFlacFile());
+      assertDecodedSignature(flac);
+      flac.close();
+
+      flac = new FlacOggFile(new OggFile(getTestOggFile()));
+      assertDecodedSignature(flac);
+      flac.close();
+   }
+   protected void assertDecodedSignature(FlacFile flac) throws Exception {
+      MessageDigest md5 = MessageDigest.getInstance("MD5");
+      FlacParallelDecoder decoder = new FlacParallelDecoder(flac);
+      FlacAudioFrame frame;
+      int frames = 0;
+      while ((frame = decoder.getNextFrame()) != null) {
+         addToDigest(md5, frame);
+         frames++;
+      }
+      decoder.close();
+
+      assertEquals(1, frames);
+      assertTrue(Arrays.equals(flac.getInfo().getSignature(), md5.digest()));
+   }
+
+   /**
+    * Builds a longer stream by repeating the one audio frame
+    *  with new frame numbers, and checks the frames are split
+    *  correctly and come back in order
+    */
+   public void testMultipleFramesInOrder() throws Exception {
+      byte[] file = getTestFlacBytes();
+      byte[] frame = getTestFlacFrame();
+
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      baos.write(file, 0, AUDIO_OFFSET);
+      int numFrames = 25;
+      baos.write(buildFrames(numFrames));
+      byte[] stream = baos.toByteArray();
+
+      // Split sequentially
+      FlacNativeFile flac = new FlacNativeFile(new ByteArrayInputStream(stream));
+      MessageDigest seqMD5 = MessageDigest.getInstance("MD5");
+      FlacAudioFrame audio;
+      int count = 0;
+      while ((audio = flac.getNextAudioPacket()) != null) {
+         assertEquals(count, audio.getCodedNumber());
+         assertEquals(960, audio.getBlockSize());
+         assertEquals(frame.length, audio.getCompresedSize());
+         addToDigest(seqMD5, audio);
+         count++;
+      }
+      assertEquals(numFrames, count);
+      flac.close();
+
+      // Decode in parallel with a small window
+      ExecutorService pool = Executors.newFixedThreadPool(4);
+      try {
+         flac = new FlacNativeFile(new ByteArrayInputStream(stream));
+         FlacParallelDecoder decoder = new FlacParallelDecoder(flac, pool, 3);
+         MessageDigest parMD5 = MessageDigest.getInstance("MD5");
+         count = 0;
+         while ((audio = decoder.getNextFrame()) != null) {
+            assertEquals(count, audio.getCodedNumber());
+            addToDigest(parMD5, audio);
+            count++;
+         }
+         decoder.close();
+         flac.close();
+
+         assertEquals(numFrames, count);
+         assertTrue(Arrays.equals(seqMD5.digest(), parMD5.digest()));
+      } finally {
+         pool.shutdown();
+      }
+   }
+}
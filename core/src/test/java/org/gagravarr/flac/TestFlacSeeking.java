@@ -0,0 +1,208 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.flac;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.gagravarr.flac.FlacSeekTable.SeekPoint;
+
+/**
+ * Tests for reading Seek Tables, and seeking within
+ *  native FLAC files
+ */
+public class TestFlacSeeking extends AbstractFlacTest {
+   private static final int NUM_FRAMES = 120;
+
+   private File tmp;
+   private FlacFile flac;
+
+   @Override
+   protected void tearDown() throws IOException {
+      if (flac != null) {
+         flac.close();
+      }
+      if (tmp != null) {
+         tmp.delete();
+      }
+   }
+
+   public void testReadSeekTable() throws IOException {
+      flac = new FlacNativeFile(getTestFlacFile());
+      FlacSeekTable table = flac.getSeekTable();
+      assertNotNull(table);
+      assertEquals(1, table.getSeekPoints().size());
+
+      SeekPoint p = table.getSeekPoints().get(0);
+      assertEquals(0, p.getSampleNumber());
+      assertEquals(0, p.getByteOffset());
+      assertEquals(FRAME_SAMPLES, p.getNumSamples());
+      assertFalse(p.isPlaceholder());
+      flac.close();
+
+      // A bigger one
+      InputStream inp = getClass().getResourceAsStream("/testFLACWithoutPadding.flac");
+      flac = new FlacNativeFile(inp);
+      table = flac.getSeekTable();
+      assertNotNull(table);
+      assertEquals(28, table.getSeekPoints().size());
+
+      p = table.getSeekPoints().get(1);
+      assertEquals(0x6b000, p.getSampleNumber());
+      assertEquals(0xb66ce, p.getByteOffset());
+      assertEquals(4096, p.getNumSamples());
+
+      assertEquals(p, table.getSeekPoint(0x6b000));
+      assertEquals(p, table.getSeekPoint(0x6b000 + 100));
+      assertEquals(table.getSeekPoints().get(0), table.getSeekPoint(0x6afff));
+
+      // Should survive being written and read back
+      byte[] data = table.getData();
+      assertEquals(4 + 28*FlacSeekTable.SEEK_POINT_SIZE, data.length);
+      FlacMetadataBlock read = FlacMetadataBlock.create(new ByteArrayInputStream(data));
+      assertEquals(FlacSeekTable.class, read.getClass());
+      assertEquals(p.getByteOffset(), ((FlacSeekTable)read).getSeekPoints().get(1).getByteOffset());
+   }
+
+   public void testPlaceholders() throws IOException {
+      FlacSeekTable table = new FlacSeekTable();
+      table.addSeekPoint(SeekPoint.placeholder());
+      table.addSeekPoint(new SeekPoint(0, 0, FRAME_SAMPLES));
+
+      FlacSeekTable read = (FlacSeekTable)FlacMetadataBlock.create(
+              new ByteArrayInputStream(table.getData()));
+      assertEquals(2, read.getSeekPoints().size());
+      assertTrue(read.getSeekPoints().get(0).isPlaceholder());
+      assertFalse(read.getSeekPoints().get(1).isPlaceholder());
+      assertEquals(0, read.getSeekPoint(1234).getSampleNumber());
+   }
+
+   /**
+    * With no seek table, seeking is done by bisection
+    */
+   public void testSeekByBisection() throws IOException {
+      flac = new FlacNativeFile(writeTemp(buildFile(NUM_FRAMES)));
+      assertNull(flac.getSeekTable());
+      assertSeeks(flac);
+   }
+
+   /**
+    * With a seek table, seeking goes via the seek points
+    */
+   public void testSeekBySeekTable() throws IOException {
+      int frameSize = getTestFlacFrame().length;
+      FlacSeekTable table = new FlacSeekTable();
+      for (int i=0; i<NUM_FRAMES; i+=10) {
+         table.addSeekPoint(new SeekPoint(i*FRAME_SAMPLES, i*frameSize, FRAME_SAMPLES));
+      }
+      table.addSeekPoint(SeekPoint.placeholder());
+
+      flac = FlacFile.open(writeTemp(buildFile(NUM_FRAMES, table)));
+      assertEquals(FlacNativeFile.class, flac.getClass());
+      assertNotNull(flac.getSeekTable());
+      assertEquals(13, flac.getSeekTable().getSeekPoints().size());
+      assertSeeks(flac);
+   }
+
+   /**
+    * From a plain stream, only forward seeking is possible
+    */
+   public void testSeekForwardOnlyStream() throws IOException {
+      byte[] file = buildFile(NUM_FRAMES);
+      flac = new FlacNativeFile(new ByteArrayInputStream(file));
+
+      flac.skipToGranule(10*FRAME_SAMPLES + 1);
+      assertEquals(10, flac.getNextAudioPacket().getCodedNumber());
+      assertEquals(11, flac.getNextAudioPacket().getCodedNumber());
+
+      flac.skipToGranule(100*FRAME_SAMPLES);
+      assertEquals(100, flac.getNextAudioPacket().getCodedNumber());
+
+      // Backwards just carries on
+      flac.skipToGranule(5*FRAME_SAMPLES);
+      assertEquals(101, flac.getNextAudioPacket().getCodedNumber());
+
+      // Past the end
+      flac.skipToGranule(NUM_FRAMES*FRAME_SAMPLES);
+      assertNull(flac.getNextAudioPacket());
+   }
+
+   private void assertSeeks(FlacFile flac) throws IOException {
+      // Forwards
+      flac.skipToGranule(57*FRAME_SAMPLES + 5);
+      assertEquals(57, flac.getNextAudioPacket().getCodedNumber());
+      assertEquals(58, flac.getNextAudioPacket().getCodedNumber());
+
+      // Exactly on a frame boundary
+      flac.skipToGranule(100*FRAME_SAMPLES);
+      assertEquals(100, flac.getNextAudioPacket().getCodedNumber());
+
+      // Backwards
+      flac.skipToGranule(3*FRAME_SAMPLES - 1);
+      assertEquals(2, flac.getNextAudioPacket().getCodedNumber());
+      flac.skipToGranule(0);
+      assertEquals(0, flac.getNextAudioPacket().getCodedNumber());
+
+      // Last frame
+      flac.skipToGranule(NUM_FRAMES*FRAME_SAMPLES - 1);
+      assertEquals(NUM_FRAMES-1, flac.getNextAudioPacket().getCodedNumber());
+      assertNull(flac.getNextAudioPacket());
+
+      // Past the end
+      flac.skipToGranule(NUM_FRAMES*FRAME_SAMPLES + 10);
+      assertNull(flac.getNextAudioPacket());
+
+      // And back to the middle again
+      flac.skipToGranule(64*FRAME_SAMPLES + 959);
+      assertEquals(64, flac.getNextAudioPacket().getCodedNumber());
+   }
+
+   /**
+    * Frames bigger than the maximum aren't buffered up, whether
+    *  reading in order or re-syncing
+    */
+   public void testFrameSizeLimit() throws IOException {
+      byte[] frames = buildFrames(2);
+      int frameSize = getTestFlacFrame().length;
+
+      // Within the limit, read as normal
+      FlacFrameScanner scanner = new FlacFrameScanner(
+            new ByteArrayInputStream(frames), 0, frameSize);
+      assertEquals(frameSize, scanner.getNextFrame().length);
+      assertEquals(frameSize, scanner.getNextFrame().length);
+      assertNull(scanner.getNextFrame());
+
+      // Past the limit, it's an error when reading in order
+      scanner = new FlacFrameScanner(new ByteArrayInputStream(frames), 0, frameSize/2);
+      try {
+         scanner.getNextFrame();
+         fail("Frame is bigger than the maximum");
+      } catch (IllegalArgumentException e) {}
+
+      // And no frame is found when re-syncing
+      scanner = new FlacFrameScanner(new ByteArrayInputStream(frames), 0, frameSize/2);
+      assertNull(scanner.findNextFrame());
+   }
+
+   private File writeTemp(byte[] data) throws IOException {
+      tmp = File.createTempFile("vorbis-java-flac", ".flac");
+      FileOutputStream out = new FileOutputStream(tmp);
+      out.write(data);
+      out.close();
+      return tmp;
+   }
+}
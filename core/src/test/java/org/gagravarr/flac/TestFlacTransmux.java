@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.flac;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.gagravarr.flac.FlacSeekTable.SeekPoint;
+import org.gagravarr.ogg.OggFile;
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggPacketReader;
+
+/**
+ * Tests for converting between native FLAC and Flac-in-Ogg,
+ *  without decoding the audio
+ */
+public class TestFlacTransmux extends AbstractFlacTest {
+   private static final int NUM_FRAMES = 100;
+
+   public void testOggToNative() throws IOException {
+      FlacOggFile ogg = new FlacOggFile(new OggFile(getTestOggFile()));
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      FlacTransmuxer.transmux(ogg, baos);
+      ogg.close();
+
+      FlacFile flac = FlacFile.open(new ByteArrayInputStream(baos.toByteArray()));
+      assertEquals(FlacNativeFile.class, flac.getClass());
+      FlacNativeFile expected = new FlacNativeFile(getTestFlacFile());
+      assertEquals(expected.getInfo().getSampleRate(), flac.getInfo().getSampleRate());
+      assertEquals(expected.getInfo().getNumChannels(), flac.getInfo().getNumChannels());
+      assertEquals(expected.getInfo().getBitsPerSample(), flac.getInfo().getBitsPerSample());
+      assertEquals(expected.getInfo().getNumberOfSamples(), flac.getInfo().getNumberOfSamples());
+      assertTrue(Arrays.equals(expected.getInfo().getSignature(), flac.getInfo().getSignature()));
+      assertEquals("Test Album", flac.getTags().getAlbum());
+
+      assertTrue(Arrays.equals(getTestFlacFrame(), flac.getNextAudioFrameData()));
+      assertNull(flac.getNextAudioFrameData());
+      flac.close();
+      expected.close();
+   }
+
+   /**
+    * Native to Ogg and back again should give the same audio,
+    *  with the granules coming from the frame sample numbers
+    */
+   public void testRoundTrip() throws IOException {
+      FlacSeekTable table = new FlacSeekTable();
+      table.addSeekPoint(new SeekPoint(0, 0, FRAME_SAMPLES));
+      byte[] original = buildFile(NUM_FRAMES, table);
+
+      FlacNativeFile in = new FlacNativeFile(new ByteArrayInputStream(original));
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      FlacTransmuxer.toOgg(in, baos);
+      in.close();
+      byte[] ogg = baos.toByteArray();
+
+      // Check the Ogg granules
+      OggPacketReader r = new OggFile(new ByteArrayInputStream(ogg)).getPacketReader();
+      OggPacket p;
+      int audioPackets = 0;
+      long lastGranule = -1;
+      while ((p = r.getNextPacket()) != null) {
+         if (p.getGranulePosition() > 0 && p.getData().length > 0) {
+            audioPackets++;
+            assertTrue(p.getGranulePosition() >= lastGranule);
+            assertEquals(0, p.getGranulePosition() % FRAME_SAMPLES);
+            lastGranule = p.getGranulePosition();
+         }
+      }
+      assertEquals(NUM_FRAMES, audioPackets);
+      assertEquals(NUM_FRAMES*FRAME_SAMPLES, lastGranule);
+
+      // Check the metadata came across
+      FlacOggFile oggFlac = new FlacOggFile(new OggFile(new ByteArrayInputStream(ogg)));
+      assertEquals(2, oggFlac.getFirstPacket().getNumberOfHeaderBlocks());
+      assertEquals(FRAME_SAMPLES, oggFlac.getInfo().getMinimumBlockSize());
+      assertNotNull(oggFlac.getSeekTable());
+      assertEquals(1, oggFlac.getSeekTable().getSeekPoints().size());
+
+      // And back to native
+      baos = new ByteArrayOutputStream();
+      FlacTransmuxer.toNative(oggFlac, baos);
+      oggFlac.close();
+
+      byte[] back = baos.toByteArray();
+      FlacNativeFile flac = new FlacNativeFile(new ByteArrayInputStream(back));
+      assertNotNull(flac.getSeekTable());
+      assertEquals(FRAME_SAMPLES, flac.getInfo().getMaximumBlockSize());
+      flac.close();
+
+      // The audio is byte-for-byte the same
+      byte[] frames = buildFrames(NUM_FRAMES);
+      assertTrue(Arrays.equals(frames,
+              Arrays.copyOfRange(back, back.length-frames.length, back.length)));
+   }
+}
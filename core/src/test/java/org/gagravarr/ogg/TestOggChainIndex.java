@@ -0,0 +1,166 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.gagravarr.ogg.OggChainIndex.Link;
+import org.gagravarr.ogg.audio.OggAudioLiveWriter;
+import org.gagravarr.opus.OpusAudioData;
+import org.gagravarr.opus.OpusInfo;
+import org.gagravarr.opus.OpusTags;
+
+/**
+ * Tests for finding the links of chained Ogg files
+ */
+public class TestOggChainIndex extends TestCase {
+    private File tmp;
+    private FileInputStream in;
+
+    @Override
+    protected void tearDown() throws IOException {
+        if (in != null) {
+            in.close();
+        }
+        if (tmp != null) {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Writes a chain of Opus links, each of 20ms packets
+     *  with 5 to a page
+     */
+    private File createChain(int links, int packets, int packetSize) throws IOException {
+        tmp = File.createTempFile("vorbis-java-chain", ".opus");
+        FileOutputStream out = new FileOutputStream(tmp);
+        OggAudioLiveWriter live = new OggAudioLiveWriter(out);
+        live.setLatency(100);
+        for (int l=0; l<links; l++) {
+            OpusInfo info = new OpusInfo();
+            info.setNumChannels(2);
+            info.setSampleRate(48000);
+            OpusTags tags = new OpusTags();
+            tags.addComment(OpusTags.KEY_TITLE, "Track " + l);
+            live.startStream(info, tags, null);
+
+            // Vary the length of each link
+            for (int i=0; i<packets+l; i++) {
+                byte[] data = new byte[packetSize];
+                data[0] = (byte)0xfc;
+                data[1] = (byte)l;
+                live.writeAudio(new OpusAudioData(data));
+            }
+            live.endStream();
+        }
+        live.close();
+        out.close();
+        return tmp;
+    }
+    private OggChainIndex index(File file) throws IOException {
+        in = new FileInputStream(file);
+        return new OggChainIndex(in.getChannel());
+    }
+
+    public void testSingle() throws IOException {
+        tmp = File.createTempFile("vorbis-java-chain", ".ogg");
+        InputStream vorbis = this.getClass().getResourceAsStream("/testVORBIS.ogg");
+        FileOutputStream out = new FileOutputStream(tmp);
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = vorbis.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        vorbis.close();
+        out.close();
+
+        OggChainIndex index = index(tmp);
+        assertEquals(1, index.getLinks().size());
+        Link link = index.getLinks().get(0);
+        assertEquals(0, link.getNumber());
+        assertEquals(0, link.getStartOffset());
+        assertEquals(tmp.length(), link.getEndOffset());
+
+        // Last granule matches reading it all
+        OggPacketReader r = new OggFile(new FileInputStream(tmp)).getPacketReader();
+        OggPacket p;
+        long granule = -1;
+        while ((p = r.getNextPacket()) != null) {
+            assertEquals(link.getSid(), p.getSid());
+            if (p.getGranulePosition() >= 0) {
+                granule = p.getGranulePosition();
+            }
+        }
+        assertEquals(granule, link.getLastGranule());
+    }
+
+    public void testChain() throws IOException {
+        OggChainIndex index = index(createChain(3, 12, 10));
+        List<Link> links = index.getLinks();
+        assertEquals(3, links.size());
+
+        long offset = 0;
+        for (int l=0; l<3; l++) {
+            Link link = links.get(l);
+            assertEquals(l, link.getNumber());
+            assertEquals(offset, link.getStartOffset());
+            assertEquals((12+l)*960, link.getLastGranule());
+            assertSame(link, index.findLink(link.getStartOffset()));
+            assertSame(link, index.findLink(link.getEndOffset()-1));
+            offset = link.getEndOffset();
+
+            // Reading a link gives just its packets
+            OggPacketReader r = link.getPacketReader();
+            OggPacket p = r.getNextPacket();
+            assertTrue(p.isBeginningOfStream());
+            assertEquals(link.getSid(), p.getSid());
+            assertEquals("Track " + l, new OpusTags(r.getNextPacket()).getTitle());
+            int audio = 0;
+            while ((p = r.getNextPacket()) != null) {
+                assertEquals(link.getSid(), p.getSid());
+                if (p.getData().length > 0) {
+                    assertEquals(l, p.getData()[1]);
+                    audio++;
+                }
+            }
+            assertEquals(12+l, audio);
+        }
+        assertEquals(tmp.length(), offset);
+        assertNull(index.findLink(offset));
+        assertTrue(links.get(0).getSid() != links.get(1).getSid());
+        assertTrue(links.get(1).getSid() != links.get(2).getSid());
+    }
+
+    public void testBisection() throws IOException {
+        // 30 links of over 200 pages each
+        OggChainIndex index = index(createChain(30, 1000, 200));
+        List<Link> links = index.getLinks();
+        assertEquals(30, links.size());
+        for (int l=0; l<30; l++) {
+            assertEquals((1000+l)*960, links.get(l).getLastGranule());
+        }
+        assertEquals(tmp.length(), links.get(29).getEndOffset());
+
+        // Only a small fraction of the pages needed reading
+        assertTrue("Read " + index.getPagesRead() + " pages",
+                   index.getPagesRead() < 30*40);
+    }
+}
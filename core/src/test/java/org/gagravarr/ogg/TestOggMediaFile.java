@@ -0,0 +1,214 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.gagravarr.flac.FlacFirstOggPacket;
+import org.gagravarr.flac.FlacTags;
+import org.gagravarr.ogg.OggMediaFile.MediaPacket;
+import org.gagravarr.ogg.OggMediaFile.MediaStream;
+import org.gagravarr.opus.OpusAudioData;
+import org.gagravarr.opus.OpusInfo;
+import org.gagravarr.speex.SpeexAudioData;
+import org.gagravarr.theora.TheoraInfo;
+import org.gagravarr.theora.TheoraSetup;
+import org.gagravarr.theora.TheoraVideoData;
+import org.gagravarr.vorbis.VorbisAudioData;
+import org.gagravarr.vorbis.VorbisFile;
+
+/**
+ * Tests for reading all the streams of a file in one pass
+ */
+public class TestOggMediaFile extends TestCase {
+    private InputStream getTestFile(String name) throws IOException {
+        return this.getClass().getResourceAsStream("/" + name);
+    }
+    private OggMediaFile open(String name) throws IOException {
+        return new OggMediaFile(new OggFile(getTestFile(name)));
+    }
+    private Map<Integer,Integer> countPackets(OggMediaFile media) throws IOException {
+        Map<Integer,Integer> counts = new HashMap<Integer, Integer>();
+        MediaPacket p;
+        while ((p = media.getNextPacket()) != null) {
+            Integer count = counts.get(p.getSid());
+            counts.put(p.getSid(), (count == null) ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    public void testVideosAudioAndSkeleton() throws IOException {
+        OggMediaFile media = open("testTheora2VORBISSkeleton.ogg");
+        assertTrue(media.hasAllHeaders());
+        assertEquals(4, media.getStreams().size());
+
+        List<MediaStream> videos = new ArrayList<MediaStream>();
+        MediaStream audio = null, skeleton = null;
+        for (MediaStream stream : media.getStreams()) {
+            assertTrue(stream.isSupported());
+            assertTrue(stream.hasAllHeaders());
+            if (stream.getType() == OggStreamIdentifier.THEORA_VIDEO) {
+                videos.add(stream);
+                assertEquals(3, stream.getHeaders().size());
+                assertTrue(stream.getHeaders().get(0) instanceof TheoraInfo);
+                assertTrue(stream.getHeaders().get(2) instanceof TheoraSetup);
+            } else if (stream.getType() == OggStreamIdentifier.OGG_VORBIS) {
+                audio = stream;
+            } else {
+                assertEquals(OggStreamIdentifier.SKELETON, stream.getType());
+                skeleton = stream;
+            }
+        }
+        assertEquals(OggStreamIdentifier.SKELETON, media.getStreams().iterator().next().getType());
+        assertEquals(2, videos.size());
+
+        // The Skeleton is all headers
+        assertNotNull(skeleton.getSkeleton());
+        assertTrue(skeleton.getSkeleton().hasWholeStream());
+        assertTrue(skeleton.isEnded());
+        assertEquals(3, skeleton.getSkeleton().getFisbones().size());
+        assertEquals(1 + 3 + skeleton.getSkeleton().getKeyFrames().size(),
+                     skeleton.getHeaders().size());
+        assertNull(skeleton.getAudioHeaders());
+
+        // The audio headers are all there
+        assertEquals(3, audio.getHeaders().size());
+        assertNotNull(audio.getAudioHeaders());
+        assertEquals(44100, audio.getAudioHeaders().getInfo().getSampleRate());
+        assertNotNull(audio.getAudioHeaders().getTags());
+        assertNotNull(audio.getAudioHeaders().getSetup());
+
+        // Data from all the streams comes back, with the right types
+        Map<Integer,Integer> counts = new HashMap<Integer, Integer>();
+        MediaPacket p;
+        while ((p = media.getNextPacket()) != null) {
+            if (p.getStream() == audio) {
+                assertTrue(p.getData() instanceof VorbisAudioData);
+            } else {
+                assertTrue(videos.contains(p.getStream()));
+                assertTrue(p.getData() instanceof TheoraVideoData);
+            }
+            assertEquals(p.getOggPacket().getGranulePosition(), p.getGranulePosition());
+            Integer count = counts.get(p.getSid());
+            counts.put(p.getSid(), (count == null) ? 1 : count + 1);
+        }
+        assertEquals(3, counts.size());
+        assertFalse(counts.containsKey(skeleton.getSid()));
+        for (MediaStream stream : media.getStreams()) {
+            assertTrue(stream.isEnded());
+        }
+
+        // Same audio as read by itself
+        VorbisFile vf = new VorbisFile(new OggFile(getTestFile("testTheora2VORBISSkeleton.ogg")));
+        int audioPackets = 0;
+        while (vf.getNextAudioPacket() != null) {
+            audioPackets++;
+        }
+        assertEquals(audioPackets, (int)counts.get(audio.getSid()));
+        media.close();
+    }
+
+    public void testSubscribe() throws IOException {
+        Map<Integer,Integer> all = countPackets(open("testTheoraVORBIS.ogg"));
+        assertEquals(2, all.size());
+
+        // Only the streams subscribed to are returned
+        for (int sid : all.keySet()) {
+            OggMediaFile media = open("testTheoraVORBIS.ogg");
+            media.subscribe(sid);
+            assertTrue(media.isSubscribed(sid));
+            Map<Integer,Integer> counts = countPackets(media);
+            assertEquals(1, counts.size());
+            assertEquals(all.get(sid), counts.get(sid));
+
+            media = open("testTheoraVORBIS.ogg");
+            media.unsubscribe(sid);
+            assertFalse(media.isSubscribed(sid));
+            counts = countPackets(media);
+            assertEquals(1, counts.size());
+            assertFalse(counts.containsKey(sid));
+        }
+
+        OggMediaFile media = open("testTheoraVORBIS.ogg");
+        media.subscribe(12345);
+        media.subscribeAll();
+        assertEquals(all, countPackets(media));
+    }
+
+    public void testUnknownPassedThrough() throws IOException {
+        OggMediaFile media = open("testTheoraSkeletonCMML.ogg");
+        MediaStream cmml = null;
+        for (MediaStream stream : media.getStreams()) {
+            if (stream.getType() == OggStreamIdentifier.CMML) {
+                cmml = stream;
+            }
+        }
+        assertNotNull(cmml);
+        assertFalse(cmml.isSupported());
+        assertTrue(cmml.hasAllHeaders());
+        assertEquals(0, cmml.getHeaders().size());
+
+        // All its packets come back raw, including the first one
+        media.subscribe(cmml.getSid());
+        MediaPacket p = media.getNextPacket();
+        assertNotNull(p);
+        assertTrue(p.getOggPacket().isBeginningOfStream());
+        int packets = 0;
+        for (; p != null; p = media.getNextPacket()) {
+            assertEquals(cmml, p.getStream());
+            assertNull(p.getData());
+            assertNotNull(p.getOggPacket().getData());
+            packets++;
+        }
+        assertTrue(packets > 1);
+    }
+
+    public void testAudioOnly() throws IOException {
+        // Opus
+        OggMediaFile media = open("testOPUS_11.opus");
+        assertEquals(1, media.getStreams().size());
+        MediaStream stream = media.getStreams().iterator().next();
+        assertEquals(OggStreamIdentifier.OPUS_AUDIO, stream.getType());
+        assertEquals(2, stream.getHeaders().size());
+        assertTrue(stream.getAudioHeaders().getInfo() instanceof OpusInfo);
+        MediaPacket p = media.getNextPacket();
+        assertTrue(p.getData() instanceof OpusAudioData);
+
+        // Speex
+        media = open("testSPEEX.spx");
+        stream = media.getStreams().iterator().next();
+        assertEquals(OggStreamIdentifier.SPEEX_AUDIO, stream.getType());
+        assertEquals(2, stream.getHeaders().size());
+        assertTrue(media.getNextPacket().getData() instanceof SpeexAudioData);
+
+        // FLAC, with only the first and tags headers
+        media = open("testFLAC.oga");
+        stream = media.getStreams().iterator().next();
+        assertEquals(OggStreamIdentifier.OGG_FLAC, stream.getType());
+        assertTrue(stream.hasAllHeaders());
+        assertTrue(stream.getHeaders().get(0) instanceof FlacFirstOggPacket);
+        assertTrue(stream.getHeaders().get(1) instanceof FlacTags);
+        assertNotNull(stream.getAudioHeaders().getTags());
+        p = media.getNextPacket();
+        assertTrue(p.getData() instanceof OggStreamAudioData);
+        assertTrue(p.getData().getData().length > 0);
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.gagravarr.ogg.audio.OggAudioHeaders;
+import org.gagravarr.theora.TheoraFile;
+import org.gagravarr.theora.TheoraVideoData;
+
+/**
+ * Tests for interleaving the pages of several streams by time
+ */
+@SuppressWarnings("resource")
+public class TestOggMuxer extends TestCase {
+    private static final int SID_A = 1234;
+    private static final int SID_B = 5678;
+
+    private List<OggPacket> readAll(byte[] data) throws IOException {
+        OggPacketReader r = new OggPacketReader(new ByteArrayInputStream(data));
+        List<OggPacket> packets = new ArrayList<OggPacket>();
+        OggPacket p;
+        while ((p = r.getNextPacket()) != null) {
+            packets.add(p);
+        }
+        return packets;
+    }
+    private static double getTime(OggPacket p) {
+        // Stream A is in milliseconds, stream B at 48kHz
+        if (p.getSid() == SID_A) {
+            return p.getGranulePosition() / 1000.0;
+        }
+        return p.getGranulePosition() / 48000.0;
+    }
+
+    public void testInterleave() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OggMuxer mux = new OggMuxer(out);
+        mux.setGranuleRate(SID_A, 1000, 1, 0);
+        mux.setGranuleRate(SID_B, 48000, 1, 0);
+        OggPacketWriter a = mux.getPacketWriter(SID_A);
+        OggPacketWriter b = mux.getPacketWriter(SID_B);
+
+        a.bufferPacket(new OggPacket(new byte[] { 'A' }), true);
+        b.bufferPacket(new OggPacket(new byte[] { 'B' }), true);
+
+        // Stream A gets written half a second ahead of B, one
+        //  packet per page, every 100ms for A and 250ms for B
+        long nextB = 250;
+        for (long ms=100; ms<=5000; ms+=100) {
+            a.bufferPacket(new OggPacket(new byte[] { 1, 2, 3 }), ms);
+            a.flush();
+            while (nextB <= ms - 500) {
+                b.bufferPacket(new OggPacket(new byte[] { 4, 5 }), nextB*48);
+                b.flush();
+                nextB += 250;
+            }
+        }
+        while (nextB <= 5000) {
+            b.bufferPacket(new OggPacket(new byte[] { 4, 5 }), nextB*48);
+            b.flush();
+            nextB += 250;
+        }
+        a.close();
+        b.close();
+        mux.close();
+
+        // Headers first, then everything in time order
+        List<OggPacket> packets = readAll(out.toByteArray());
+        assertEquals(2 + 50 + 20 + 2, packets.size());
+        assertEquals(SID_A, packets.get(0).getSid());
+        assertTrue(packets.get(0).isBeginningOfStream());
+        assertEquals(SID_B, packets.get(1).getSid());
+        assertTrue(packets.get(1).isBeginningOfStream());
+
+        double lastTime = 0;
+        int countA = 0, countB = 0;
+        for (OggPacket p : packets.subList(2, packets.size())) {
+            if (p.getData().length == 0) {
+                // End of stream marker
+                assertTrue(p.isEndOfStream());
+                continue;
+            }
+            double time = getTime(p);
+            assertTrue("Out of order at " + time, time >= lastTime);
+            lastTime = time;
+            if (p.getSid() == SID_A) countA++; else countB++;
+        }
+        assertEquals(50, countA);
+        assertEquals(20, countB);
+    }
+
+    public void testSkew() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OggMuxer mux = new OggMuxer(out);
+        assertEquals(OggMuxer.DEFAULT_MAX_SKEW_MS, mux.getMaxSkew());
+        mux.setGranuleRate(SID_A, 1000, 1, 0);
+        mux.setGranuleRate(SID_B, 48000, 1, 0);
+        OggPacketWriter a = mux.getPacketWriter(SID_A);
+        OggPacketWriter b = mux.getPacketWriter(SID_B);
+        a.bufferPacket(new OggPacket(new byte[] { 'A' }), true);
+        b.bufferPacket(new OggPacket(new byte[] { 'B' }), true);
+        int headersSize = out.size();
+
+        // While A is within the skew of B, it's held back
+        for (long ms=100; ms<=1000; ms+=100) {
+            a.bufferPacket(new OggPacket(new byte[] { 1, 2, 3 }), ms);
+            a.flush();
+        }
+        assertEquals(headersSize, out.size());
+
+        // Once it gets too far ahead, it goes out without waiting for B
+        for (long ms=1100; ms<=10000; ms+=100) {
+            a.bufferPacket(new OggPacket(new byte[] { 1, 2, 3 }), ms);
+            a.flush();
+        }
+        assertTrue(out.size() > headersSize);
+        List<OggPacket> written = readAll(out.toByteArray());
+        assertTrue(written.size() > 80);
+        assertEquals(10.0, getTime(written.get(written.size()-1)), 0.001);
+
+        // What B has buffered but not flushed gets pushed out
+        //  to keep up, when it is behind
+        b.bufferPacket(new OggPacket(new byte[] { 4, 5 }), 100*48);
+        a.bufferPacket(new OggPacket(new byte[] { 1, 2, 3 }), 10100);
+        a.flush();
+        a.close();
+        b.close();
+        mux.close();
+
+        List<OggPacket> packets = readAll(out.toByteArray());
+        int foundB = 0;
+        for (OggPacket p : packets) {
+            if (p.getSid() == SID_B && p.getData().length == 2) {
+                foundB++;
+                assertEquals(100*48, p.getGranulePosition());
+            }
+        }
+        assertEquals(1, foundB);
+        assertTrue(packets.get(packets.size()-1).isEndOfStream());
+    }
+
+    public void testNoRate() throws IOException {
+        // Streams without a rate, like Skeleton, aren't held back
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OggMuxer mux = new OggMuxer(out);
+        mux.setGranuleRate(SID_A, 1000, 1, 0);
+        OggPacketWriter a = mux.getPacketWriter(SID_A);
+        OggPacketWriter s = mux.getPacketWriter(SID_B);
+        s.bufferPacket(new OggPacket(new byte[] { 'S' }), true);
+        a.bufferPacket(new OggPacket(new byte[] { 'A' }), true);
+        int size = out.size();
+        assertTrue(size > 0);
+        s.bufferPacket(new OggPacket(new byte[] { 1 }), true);
+        assertTrue(out.size() > size);
+
+        try {
+            mux.setGranuleRate(SID_B, 0, 1, 0);
+            fail("Invalid rate");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    public void testTheoraWithSoundtrack() throws IOException {
+        OggFile in = new OggFile(getClass().getResourceAsStream("/testTheoraVORBIS.ogg"));
+        TheoraFile tfIn = new TheoraFile(in);
+        int audioSid = tfIn.getSoundtrackStreams().keySet().iterator().next();
+        OggAudioHeaders audio = tfIn.getSoundtrackStreams().get(audioSid);
+
+        // Copy everything, with the video first and then the audio,
+        //  as it'd be if the streams were encoded one after the other
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TheoraFile tfOut = new TheoraFile(out, tfIn.getInfo(), tfIn.getComments(), tfIn.getSetup());
+        int outAudioSid = tfOut.addSoundtrack(audio);
+        List<OggStreamAudioVisualData> audioData = new ArrayList<OggStreamAudioVisualData>();
+        Map<Integer,Integer> counts = new HashMap<Integer, Integer>();
+        int videoPackets = 0;
+        OggStreamAudioVisualData data;
+        while ((data = tfIn.getNextAudioVisualPacket()) != null) {
+            if (data instanceof TheoraVideoData) {
+                tfOut.writeVideoData((TheoraVideoData)data);
+                if (! ((TheoraVideoData)data).isDuplicateFrame()) videoPackets++;
+            } else {
+                audioData.add(data);
+            }
+        }
+        for (OggStreamAudioVisualData ad : audioData) {
+            tfOut.writeAudioData((OggStreamAudioData)ad, outAudioSid);
+        }
+        tfOut.close();
+
+        // All the packets are there, with the headers before any data
+        TheoraFile tf = new TheoraFile(new OggPacketReader(new ByteArrayInputStream(out.toByteArray())));
+        assertEquals(1, tf.getSoundtrackStreams().size());
+        while ((data = tf.getNextAudioVisualPacket()) != null) {
+            // The end of stream marker comes back as a repeated frame
+            if (data instanceof TheoraVideoData &&
+                    ((TheoraVideoData)data).isDuplicateFrame()) continue;
+            int sid = (data instanceof TheoraVideoData) ? tf.getSid() : outAudioSid;
+            Integer count = counts.get(sid);
+            counts.put(sid, (count == null) ? 1 : count + 1);
+        }
+        assertEquals(audioData.size(), (int)counts.get(outAudioSid));
+        assertEquals(videoPackets, (int)counts.get(tf.getSid()));
+
+        // The audio, which only lasts a fraction of a second,
+        //  gets written before most of the video
+        List<OggPacket> packets = readAll(out.toByteArray());
+        int lastAudio = -1, lastVideo = -1;
+        for (int i=0; i<packets.size(); i++) {
+            if (packets.get(i).getData().length == 0) continue;
+            if (packets.get(i).getSid() == outAudioSid) lastAudio = i;
+            if (packets.get(i).getSid() == tf.getSid()) lastVideo = i;
+        }
+        assertTrue("Audio should be interleaved, not last", lastAudio < lastVideo);
+    }
+}
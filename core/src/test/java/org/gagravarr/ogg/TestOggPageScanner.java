@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for finding and reading pages without their packets
+ */
+public class TestOggPageScanner extends TestCase {
+    private static final int SID = 1234;
+    private static final byte[] JUNK = { 'O', 'g', 'g', 'S', 0, 1, 2, 'O', 'g' };
+
+    /**
+     * A header page, then a big packet over two pages
+     *  with a small one after it, after some junk
+     */
+    private byte[] createFile() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(JUNK);
+        OggFile ogg = new OggFile(out);
+        OggPacketWriter w = ogg.getPacketWriter(SID);
+        w.bufferPacket(new OggPacket(new byte[] { 'H' }), true);
+        w.bufferPacket(new OggPacket(new byte[70000]), 1000);
+        w.bufferPacket(new OggPacket(new byte[10]), 2000);
+        w.close();
+        ogg.close();
+        return out.toByteArray();
+    }
+
+    public void testFindPage() throws IOException {
+        byte[] data = createFile();
+        List<OggPageHeader> pages = new ArrayList<OggPageHeader>();
+        int from = 0;
+        OggPageHeader page;
+        while ((page = OggPageScanner.findPage(data, data.length, 100, from, data.length)) != null) {
+            pages.add(page);
+            from = (int)(page.getOffset() - 100) + page.getPageSize();
+        }
+        assertEquals(3, pages.size());
+
+        // The junk is skipped, and offsets include the buffer's
+        OggPageHeader first = pages.get(0);
+        assertEquals(100 + JUNK.length, first.getOffset());
+        assertEquals(SID, first.getSid());
+        assertEquals(0, first.getSequenceNumber());
+        assertTrue(first.isBeginningOfStream());
+        assertFalse(first.isContinuation());
+        assertFalse(first.hasContinuation());
+        assertEquals(1, first.getNumPacketsEnded());
+
+        // The big packet is carried on to the next page
+        OggPageHeader second = pages.get(1);
+        assertEquals(first.getOffset() + first.getPageSize(), second.getOffset());
+        assertEquals(1, second.getSequenceNumber());
+        assertFalse(second.isBeginningOfStream());
+        assertTrue(second.hasContinuation());
+        assertEquals(0, second.getNumPacketsEnded());
+
+        OggPageHeader third = pages.get(2);
+        assertTrue(third.isContinuation());
+        assertFalse(third.hasContinuation());
+        assertTrue(third.isEndOfStream());
+        assertEquals(2, third.getNumPacketsEnded());
+        assertEquals(2000, third.getGranulePosition());
+        assertEquals(data.length + 100, third.getOffset() + third.getPageSize());
+
+        // Only pages starting in the range are found
+        assertEquals(second.getOffset(), OggPageScanner.findPage(
+                data, data.length, 100, JUNK.length + 1, data.length).getOffset());
+        assertNull(OggPageScanner.findPage(data, data.length, 100, 0, JUNK.length));
+
+        // Pages cut short, or with a bad checksum, are skipped
+        int thirdStart = (int)(third.getOffset() - 100);
+        assertNull(OggPageScanner.findPage(data, data.length - 1, 100, thirdStart, data.length));
+        byte[] corrupt = data.clone();
+        corrupt[corrupt.length - 1]++;
+        assertNull(OggPageScanner.findPage(corrupt, corrupt.length, 100, thirdStart, corrupt.length));
+    }
+
+    public void testReadPage() throws IOException {
+        byte[] data = createFile();
+        byte[] pages = Arrays.copyOfRange(data, JUNK.length, data.length);
+
+        // Pages are read in turn, and copied unchanged
+        ByteArrayInputStream in = new ByteArrayInputStream(pages);
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        long offset = 0;
+        int count = 0;
+        OggPageHeader page;
+        while ((page = OggPageScanner.readPage(in, offset, copy)) != null) {
+            assertEquals(offset, page.getOffset());
+            assertEquals(SID, page.getSid());
+            assertEquals(offset + page.getPageSize(), copy.size());
+            offset += page.getPageSize();
+            count++;
+        }
+        assertEquals(3, count);
+        assertTrue(Arrays.equals(pages, copy.toByteArray()));
+
+        // Anything other than a page is an error
+        try {
+            OggPageScanner.readPage(new ByteArrayInputStream(data, 1, data.length-1), 1, null);
+            fail("Junk isn't a page");
+        } catch (IllegalArgumentException e) {}
+    }
+}
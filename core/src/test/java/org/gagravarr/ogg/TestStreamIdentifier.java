@@ -13,11 +13,31 @@
  */
 package org.gagravarr.ogg;
 
+import org.gagravarr.ogg.OggMediaFile.MediaPacket;
+import org.gagravarr.ogg.OggMediaFile.MediaStream;
+import org.gagravarr.ogg.OggStreamIdentifier.OggStreamType;
+import org.gagravarr.ogg.OggStreamIdentifier.OggStreamType.Kind;
+import org.gagravarr.opus.OpusFile;
+import org.gagravarr.opus.OpusStatistics;
+import org.gagravarr.theora.TheoraStreamHandler;
+import org.gagravarr.vorbis.VorbisInfo;
+import org.gagravarr.vorbis.VorbisStreamHandler;
 
 /**
  * Tests that we can correctly identify the types of valid streams
  */
 public class TestStreamIdentifier extends AbstractIdentificationTest {
+    private OggStreamHandler registered;
+
+    @Override
+    protected void tearDown() {
+        // Don't leave test handlers around for later tests
+        if (registered != null) {
+            OggStreamIdentifier.unregister(registered);
+            registered = null;
+        }
+    }
+
     public void testIdentifyInvalidFiles() throws Exception {
         // Can't work on FLAC native, no packets
         OggFile flac = new OggFile(getTestFlacNativeFile());
@@ -104,4 +124,92 @@ public class TestStreamIdentifier extends AbstractIdentificationTest {
             fail("Can't detect mid stream");
         } catch (IllegalArgumentException e) {}
     }
+
+    public void testHandlers() throws Exception {
+        OggFile vorbis = new OggFile(getTestVorbisFile());
+        OggPacket p = vorbis.getPacketReader().getNextPacket();
+        OggStreamHandler handler = OggStreamIdentifier.findHandler(p);
+        assertTrue(handler instanceof VorbisStreamHandler);
+        assertEquals(handler, OggStreamIdentifier.getHandler(OggStreamIdentifier.OGG_VORBIS));
+        assertTrue(handler.createPacket(p) instanceof VorbisInfo);
+
+        // Types only identified have handlers too, which create nothing
+        OggStreamHandler daala = OggStreamIdentifier.getHandler(OggStreamIdentifier.DAALA_VIDEO);
+        assertNotNull(daala);
+        assertNull(daala.createPacket(p));
+        assertNull(OggStreamIdentifier.getHandler(OggStreamIdentifier.UNKNOWN));
+
+        // Statistics come from the handler, if it's audio
+        OpusFile opus = new OpusFile(new OggFile(getTestOpusFile()));
+        assertTrue(OggStreamIdentifier.getHandler(OggStreamIdentifier.OPUS_AUDIO)
+                   .createStatistics(opus, opus) instanceof OpusStatistics);
+        assertNull(new TheoraStreamHandler().createStatistics(opus, opus));
+    }
+
+    public void testServiceLoaderHandlers() throws Exception {
+        // Found from the services file, and tried before the built in one
+        OggFile kate = new OggFile(getTestKateFile());
+        OggPacket p = kate.getPacketReader().getNextPacket();
+        OggStreamHandler handler = OggStreamIdentifier.findHandler(p);
+        assertTrue(handler instanceof KateHandler);
+        assertEquals(OggStreamIdentifier.KATE, OggStreamIdentifier.identifyType(p));
+
+        int found = -1, builtIn = -1;
+        for (int i=0; i<OggStreamIdentifier.getHandlers().size(); i++) {
+            OggStreamHandler h = OggStreamIdentifier.getHandlers().get(i);
+            if (h.getType() != OggStreamIdentifier.KATE) continue;
+            if (h instanceof KateHandler) found = i; else builtIn = i;
+        }
+        assertTrue(found >= 0);
+        assertTrue(builtIn > found);
+
+        // Its packets are used when reading all the streams
+        OggMediaFile media = new OggMediaFile(new OggFile(getTestKateFile()));
+        MediaStream stream = media.getStreams().iterator().next();
+        assertEquals(OggStreamIdentifier.KATE, stream.getType());
+        assertFalse(stream.isSupported());
+        MediaPacket mp = media.getNextPacket();
+        assertEquals(stream, mp.getStream());
+        assertNotNull(mp.getData());
+    }
+
+    public void testRegister() throws Exception {
+        OggStreamType testType = new OggStreamType("application/x-test", "Test", Kind.GENERAL);
+        registered = new OggStreamHandler(testType, IOUtils.toUTF8Bytes("\1XTST"));
+        OggStreamIdentifier.register(registered);
+        assertEquals(testType, OggStreamIdentifier.getHandlers().get(0).getType());
+
+        // Shares its first byte with Vorbis, but both are still found
+        byte[] data = new byte[20];
+        IOUtils.putUTF8(data, 0, "\1XTST");
+        OggPacket p = new OggPacket(data);
+        p.setIsBOS();
+        assertEquals(testType, OggStreamIdentifier.identifyType(p));
+
+        OggFile vorbis = new OggFile(getTestVorbisFile());
+        p = vorbis.getPacketReader().getNextPacket();
+        assertEquals(OggStreamIdentifier.OGG_VORBIS, OggStreamIdentifier.identifyType(p));
+
+        // Once removed, it's no longer found
+        assertTrue(OggStreamIdentifier.unregister(registered));
+        assertFalse(OggStreamIdentifier.unregister(registered));
+        p = new OggPacket(data);
+        p.setIsBOS();
+        assertEquals(OggStreamIdentifier.UNKNOWN, OggStreamIdentifier.identifyType(p));
+        assertNull(OggStreamIdentifier.getHandler(testType));
+    }
+
+    /**
+     * Kate handler, listed in the test services file, which
+     *  creates generic packets for all of the stream
+     */
+    public static class KateHandler extends OggStreamHandler {
+        public KateHandler() {
+            super(OggStreamIdentifier.KATE, OggStreamIdentifier.MAGIC_KATE);
+        }
+        @Override
+        public OggStreamPacket createPacket(OggPacket packet) {
+            return new OggStreamAudioVisualData(packet);
+        }
+    }
 }
@@ -0,0 +1,151 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg.audio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.gagravarr.ogg.OggChainIndex;
+import org.gagravarr.ogg.OggFile;
+import org.gagravarr.ogg.OggStreamAudioData;
+import org.gagravarr.opus.OpusAudioData;
+import org.gagravarr.opus.OpusInfo;
+import org.gagravarr.opus.OpusTags;
+import org.gagravarr.vorbis.VorbisAudioData;
+import org.gagravarr.vorbis.VorbisFile;
+import org.gagravarr.vorbis.VorbisInfo;
+
+/**
+ * Tests for reading chained Ogg audio, with mixed types of links
+ */
+public class TestOggAudioChainReader extends TestCase {
+    private static final int OPUS_PACKETS = 50;
+    private long vorbisGranule;
+
+    /**
+     * Writes a chain of an Opus link, the Vorbis test file,
+     *  then another Opus link
+     */
+    private byte[] createChain() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OggAudioLiveWriter live = new OggAudioLiveWriter(out);
+        writeOpus(live, "Opus 1");
+
+        VorbisFile vf = new VorbisFile(new OggFile(
+                this.getClass().getResourceAsStream("/testVORBIS.ogg")));
+        live.startStream(vf);
+        VorbisAudioData audio;
+        while ((audio = vf.getNextAudioPacket()) != null) {
+            live.writeAudio(audio);
+            vorbisGranule = audio.getGranulePosition();
+        }
+        vf.close();
+        live.endStream();
+
+        writeOpus(live, "Opus 2");
+        live.close();
+        return out.toByteArray();
+    }
+    private static void writeOpus(OggAudioLiveWriter live, String title) throws IOException {
+        OpusInfo info = new OpusInfo();
+        info.setNumChannels(2);
+        info.setSampleRate(48000);
+        OpusTags tags = new OpusTags();
+        tags.addComment(OpusTags.KEY_TITLE, title);
+        live.startStream(info, tags, null);
+        for (int i=0; i<OPUS_PACKETS; i++) {
+            live.writeAudio(new OpusAudioData(new byte[] { (byte)0xfc, (byte)i, 1, 2 }));
+        }
+        live.endStream();
+    }
+
+    private static int countAudio(OggAudioChainReader reader) throws IOException {
+        int count = 0;
+        OggStreamAudioData audio;
+        while ((audio = reader.getNextAudioPacket()) != null) {
+            if (audio.getData().length > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void testReadChain() throws IOException {
+        OggAudioChainReader reader = new OggAudioChainReader(
+                new OggFile(new ByteArrayInputStream(createChain())).getPacketReader());
+        assertEquals(-1, reader.getLinkNumber());
+        assertNull(reader.getNextAudioPacket());
+
+        OggAudioHeaders headers = reader.nextLink();
+        assertEquals(0, reader.getLinkNumber());
+        assertTrue(headers.getInfo() instanceof OpusInfo);
+        assertEquals("Opus 1", headers.getTags().getTitle());
+        assertEquals(OPUS_PACKETS, countAudio(reader));
+        assertEquals(OPUS_PACKETS*960, reader.getLastGranule());
+        assertEquals(1.0, reader.getDurationSeconds(), 0.001);
+        assertNull(reader.getNextAudioPacket());
+
+        headers = reader.nextLink();
+        assertEquals(1, reader.getLinkNumber());
+        assertTrue(headers.getInfo() instanceof VorbisInfo);
+        assertNotNull(headers.getSetup());
+        assertEquals(9, countAudio(reader));
+        assertEquals(vorbisGranule, reader.getLastGranule());
+
+        // Skipping part way through the link is fine
+        headers = reader.nextLink();
+        assertEquals(2, reader.getLinkNumber());
+        assertEquals("Opus 2", headers.getTags().getTitle());
+        reader.getNextAudioPacket();
+        assertNull(reader.nextLink());
+        assertNull(reader.getHeaders());
+        assertNull(reader.getNextAudioPacket());
+    }
+
+    public void testReadIndexedLink() throws IOException {
+        File tmp = File.createTempFile("vorbis-java-chain", ".ogg");
+        FileOutputStream out = new FileOutputStream(tmp);
+        out.write(createChain());
+        out.close();
+
+        FileInputStream in = new FileInputStream(tmp);
+        try {
+            OggChainIndex index = new OggChainIndex(in.getChannel());
+            assertEquals(3, index.getLinks().size());
+
+            // Jump straight to the last link
+            OggChainIndex.Link link = index.getLinks().get(2);
+            OggAudioChainReader reader = new OggAudioChainReader(link);
+            OggAudioHeaders headers = reader.nextLink();
+            assertEquals(2, reader.getLinkNumber());
+            assertEquals(link.getSid(), headers.getSid());
+            assertEquals("Opus 2", headers.getTags().getTitle());
+            assertEquals(OPUS_PACKETS, countAudio(reader));
+            assertNull(reader.nextLink());
+
+            // Durations come from the index without reading the audio
+            assertEquals(1.0, OggAudioChainReader.getDurationSeconds(
+                    headers, link.getLastGranule()), 0.001);
+        } finally {
+            in.close();
+            tmp.delete();
+        }
+    }
+}
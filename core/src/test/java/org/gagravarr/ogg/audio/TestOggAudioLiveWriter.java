@@ -0,0 +1,208 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg.audio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.gagravarr.ogg.OggFile;
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggPacketReader;
+import org.gagravarr.opus.OpusAudioData;
+import org.gagravarr.opus.OpusFile;
+import org.gagravarr.opus.OpusInfo;
+import org.gagravarr.opus.OpusTags;
+import org.gagravarr.vorbis.VorbisAudioData;
+import org.gagravarr.vorbis.VorbisFile;
+
+/**
+ * Tests for writing Ogg audio live
+ */
+public class TestOggAudioLiveWriter extends TestCase {
+    /**
+     * Records where in the output each flush happened
+     */
+    private static class FlushRecordingOutputStream extends ByteArrayOutputStream {
+        private List<Integer> flushes = new ArrayList<Integer>();
+        @Override
+        public void flush() {
+            if (flushes.isEmpty() || flushes.get(flushes.size()-1) != size()) {
+                flushes.add(size());
+            }
+        }
+    }
+
+    private static OpusInfo createInfo() {
+        OpusInfo info = new OpusInfo();
+        info.setNumChannels(2);
+        info.setSampleRate(48000);
+        info.setPreSkip(312);
+        return info;
+    }
+    private static OpusTags createTags(String title) {
+        OpusTags tags = new OpusTags();
+        tags.addComment(OpusTags.KEY_TITLE, title);
+        return tags;
+    }
+    /** A 20ms CELT packet, not real audio but nothing decodes it */
+    private static OpusAudioData createAudio(int number) {
+        return new OpusAudioData(new byte[] { (byte)0xfc, (byte)number, 1, 2 });
+    }
+
+    private static List<OggPacket> readPackets(byte[] data) throws IOException {
+        List<OggPacket> packets = new ArrayList<OggPacket>();
+        OggPacketReader r = new OggFile(new ByteArrayInputStream(data)).getPacketReader();
+        OggPacket p;
+        while ((p = r.getNextPacket()) != null) {
+            packets.add(p);
+        }
+        return packets;
+    }
+
+    public void testLatency() throws IOException {
+        FlushRecordingOutputStream out = new FlushRecordingOutputStream();
+        OggAudioLiveWriter live = new OggAudioLiveWriter(out);
+        assertEquals(OggAudioLiveWriter.DEFAULT_LATENCY_MS, live.getLatency());
+        assertNull(live.getHeaderPages());
+
+        // Headers are written straight away
+        live.startStream(createInfo(), createTags("Track 1"), null);
+        assertEquals(2, out.flushes.size());
+        int headerSize = out.size();
+        assertEquals(headerSize, live.getHeaderPages().remaining());
+
+        // With the default 40ms, every other 20ms packet gives a page
+        for (int i=0; i<10; i++) {
+            live.writeAudio(createAudio(i));
+            assertEquals(2 + (i+1)/2, out.flushes.size());
+        }
+        assertEquals(9600, live.getGranulePosition());
+
+        // Shorter latency gives a page per packet
+        live.setLatency(20);
+        live.writeAudio(createAudio(10));
+        assertEquals(8, out.flushes.size());
+        live.close();
+
+        // Check the pages, with everything already written the
+        //  end of stream gets an empty packet of its own
+        List<OggPacket> packets = readPackets(out.toByteArray());
+        assertEquals(2 + 11 + 1, packets.size());
+        assertEquals(1920, packets.get(3).getGranulePosition());
+        assertEquals(9600, packets.get(11).getGranulePosition());
+        assertEquals(10560, packets.get(12).getGranulePosition());
+        assertEquals(0, packets.get(13).getData().length);
+        assertEquals(10560, packets.get(13).getGranulePosition());
+        assertTrue(packets.get(13).isEndOfStream());
+    }
+
+    public void testJoinMidStream() throws IOException {
+        FlushRecordingOutputStream out = new FlushRecordingOutputStream();
+        OggAudioLiveWriter live = new OggAudioLiveWriter(out);
+        live.startStream(createInfo(), createTags("Track 1"), null);
+        for (int i=0; i<6; i++) {
+            live.writeAudio(createAudio(i));
+        }
+        live.close();
+
+        // Join after the 2nd page of audio, with the cached headers
+        int joinAt = out.flushes.get(3);
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        joined.write(toArray(live.getHeaderPages()));
+        joined.write(out.toByteArray(), joinAt, out.size() - joinAt);
+
+        OpusFile of = new OpusFile(new OggFile(new ByteArrayInputStream(joined.toByteArray())));
+        assertEquals(312, of.getInfo().getPreSkip());
+        assertEquals("Track 1", of.getTags().getTitle());
+        OpusAudioData audio = of.getNextAudioPacket();
+        assertEquals(4, audio.getData()[1]);
+        assertEquals(5760, audio.getGranulePosition());
+        assertEquals(5, of.getNextAudioPacket().getData()[1]);
+        assertEquals(0, of.getNextAudioPacket().getData().length);
+        assertNull(of.getNextAudioPacket());
+        of.close();
+    }
+
+    public void testChainedStreams() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OggAudioLiveWriter live = new OggAudioLiveWriter(out);
+        live.startStream(createInfo(), createTags("Track 1"), null);
+        int sid1 = live.getSid();
+        ByteBuffer headers1 = live.getHeaderPages();
+        live.writeAudio(createAudio(1));
+
+        // New track, new stream, new tags, granules start again
+        live.startStream(createInfo(), createTags("Track 2"), null);
+        assertTrue(sid1 != live.getSid());
+        assertFalse(headers1.equals(live.getHeaderPages()));
+        live.writeAudio(createAudio(2));
+        live.close();
+        assertEquals(-1, live.getSid());
+
+        List<OggPacket> packets = readPackets(out.toByteArray());
+        assertEquals(6, packets.size());
+        assertTrue(packets.get(0).isBeginningOfStream());
+        assertEquals(sid1, packets.get(0).getSid());
+        assertTrue(packets.get(2).isEndOfStream());
+        assertEquals(960, packets.get(2).getGranulePosition());
+
+        assertTrue(packets.get(3).isBeginningOfStream());
+        assertEquals("Track 2", new OpusTags(packets.get(4)).getTitle());
+        assertEquals(960, packets.get(5).getGranulePosition());
+        assertTrue(packets.get(5).isEndOfStream());
+    }
+
+    public void testVorbis() throws IOException {
+        VorbisFile vf = new VorbisFile(new OggFile(
+                this.getClass().getResourceAsStream("/testVORBIS.ogg")));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OggAudioLiveWriter live = new OggAudioLiveWriter(out);
+        live.startStream(vf);
+
+        // Vorbis audio needs a granule to be given
+        try {
+            live.writeAudio(new VorbisAudioData(new byte[] { 0 }));
+            fail("Granule should be required");
+        } catch (IllegalArgumentException e) {}
+
+        VorbisAudioData audio;
+        while ((audio = vf.getNextAudioPacket()) != null) {
+            live.writeAudio(audio);
+        }
+        vf.close();
+        live.close();
+
+        // Headers on 2 pages, with the audio after
+        VorbisFile copy = new VorbisFile(new OggFile(new ByteArrayInputStream(out.toByteArray())));
+        assertNotNull(copy.getSetup());
+        int count = 0;
+        while ((audio = copy.getNextAudioPacket()) != null) {
+            count++;
+        }
+        copy.close();
+        assertEquals(9, count);
+        assertEquals(3, readPackets(toArray(live.getHeaderPages())).size());
+    }
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+}
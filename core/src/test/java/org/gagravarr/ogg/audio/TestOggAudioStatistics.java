@@ -13,14 +13,19 @@
  */
 package org.gagravarr.ogg.audio;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 import junit.framework.TestCase;
 
 import org.gagravarr.ogg.OggFile;
+import org.gagravarr.ogg.audio.OggAudioStatistics.BitrateMode;
 import org.gagravarr.opus.OpusFile;
+import org.gagravarr.vorbis.VorbisAudioData;
 import org.gagravarr.vorbis.VorbisFile;
 
 /**
@@ -131,4 +136,157 @@ public class TestOggAudioStatistics extends TestCase {
         assertEquals(389.1, stats.getAverageOverallBitrate() / 1000, 0.1);
         assertEquals(299.5, stats.getAverageAudioBitrate() / 1000, 0.1);
     }
+
+    public void testVorbisDetailedStats() throws IOException {
+        VorbisFile vf = new VorbisFile(new OggFile(getTestVorbisFile()));
+        af = vf;
+        OggAudioStatistics stats = new OggAudioStatistics(vf, vf);
+        stats.calculate();
+
+        assertEquals(9, stats.getAudioPacketsCount());
+        assertEquals(1, stats.getAudioPagesCount());
+        assertEquals(0, stats.getLostPagesCount());
+        assertEquals(0, stats.getSequenceGapsCount());
+        assertEquals(0, stats.getGranuleDiscontinuitiesCount());
+
+        assertTrue(stats.getMinPacketSize() > 0);
+        assertTrue(stats.getMinPacketSize() <= stats.getPacketSizePercentile(50));
+        assertTrue(stats.getPacketSizePercentile(50) <= stats.getMaxPacketSize());
+        assertEquals(stats.getMinPacketSize(), stats.getPacketSizePercentile(0));
+        assertEquals(stats.getMaxPacketSize(), stats.getPacketSizePercentile(100));
+        assertEquals(402/9.0, stats.getAveragePacketSize(), 0.01);
+
+        // Too short to have whole seconds, so only the one part second
+        assertEquals(1, stats.getBitrateSecondsCount());
+        assertEquals(stats.getAverageAudioBitrate(), stats.getMinSecondBitrate(), 2000);
+        assertEquals(BitrateMode.UNKNOWN, stats.getBitrateMode());
+    }
+
+    /**
+     * Packets which vary in size, but not over a whole second
+     */
+    public void testConstantBitrate() throws IOException {
+        byte[] file = buildVorbis(new int[] { 100, 150 }, 0);
+        OggAudioStatistics stats = calculate(file);
+
+        assertEquals(100, stats.getAudioPacketsCount());
+        assertEquals(100, stats.getAudioPagesCount());
+        assertEquals(100, stats.getMinPacketSize());
+        assertEquals(150, stats.getMaxPacketSize());
+        assertEquals(100, stats.getPacketSizePercentile(50));
+        assertEquals(150, stats.getPacketSizePercentile(51));
+        assertEquals(10.0, stats.getDurationSeconds(), 0.001);
+
+        assertEquals(10, stats.getBitrateSecondsCount());
+        assertEquals(BitrateMode.CBR, stats.getBitrateMode());
+        assertEquals(10000, stats.getMinSecondBitrate());
+        assertEquals(10000, stats.getMaxSecondBitrate());
+        assertEquals(10, stats.getBitrateHistogram()[1]);
+
+        assertEquals(0, stats.getLostPagesCount());
+        assertEquals(0, stats.getGranuleDiscontinuitiesCount());
+    }
+
+    public void testVariableBitrate() throws IOException {
+        int[] sizes = new int[100];
+        for (int i=0; i<sizes.length; i++) {
+            sizes[i] = 100 + 50*(i/10);
+        }
+        OggAudioStatistics stats = calculate(buildVorbis(sizes, 0));
+
+        assertEquals(100, stats.getMinPacketSize());
+        assertEquals(550, stats.getMaxPacketSize());
+        assertEquals(BitrateMode.VBR, stats.getBitrateMode());
+        assertTrue(stats.getMaxSecondBitrate() > stats.getMinSecondBitrate() * 4);
+    }
+
+    public void testPacketsOverSeveralPages() throws IOException {
+        OggAudioStatistics stats = calculate(buildVorbis(new int[] { 150000, 100 }, 0));
+        assertEquals(100, stats.getAudioPacketsCount());
+        assertEquals(150000, stats.getMaxPacketSize());
+        assertTrue(stats.getAudioPagesCount() > 100);
+        assertEquals(0, stats.getLostPagesCount());
+        assertEquals(0, stats.getSequenceGapsCount());
+        // Evens out over each second
+        assertEquals(BitrateMode.CBR, stats.getBitrateMode());
+    }
+
+    public void testLostPages() throws IOException {
+        byte[] file = buildVorbis(new int[] { 100 }, 0);
+        // Headers are in 2 pages, then lose 2 audio ones
+        file = dropPage(file, 12);
+        file = dropPage(file, 12);
+        file = dropPage(file, 20);
+
+        OggAudioStatistics stats = calculate(file);
+        assertEquals(97, stats.getAudioPacketsCount());
+        assertEquals(3, stats.getLostPagesCount());
+        assertEquals(2, stats.getSequenceGapsCount());
+        assertEquals(0, stats.getGranuleDiscontinuitiesCount());
+        assertEquals(BitrateMode.CBR, stats.getBitrateMode());
+    }
+
+    public void testGranuleDiscontinuities() throws IOException {
+        OggAudioStatistics stats = calculate(buildVorbis(new int[] { 100 }, 30));
+        assertEquals(1, stats.getGranuleDiscontinuitiesCount());
+        assertEquals(0, stats.getLostPagesCount());
+    }
+
+    private OggAudioStatistics calculate(byte[] file) throws IOException {
+        VorbisFile vf = new VorbisFile(new OggFile(new ByteArrayInputStream(file)));
+        af = vf;
+        OggAudioStatistics stats = new OggAudioStatistics(vf, vf);
+        stats.calculate();
+        return stats;
+    }
+
+    /**
+     * Writes 10 seconds of (fake) Vorbis audio, in pages of one
+     *  packet every tenth of a second, with the packet sizes cycling
+     *  through those given. If a packet number to jump back at is
+     *  given, it has its granule back a second.
+     */
+    private byte[] buildVorbis(int[] sizes, int jumpBackAt) throws IOException {
+        VorbisFile in = new VorbisFile(new OggFile(getTestVorbisFile()));
+        int rate = (int)in.getInfo().getRate();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        VorbisFile out = new VorbisFile(baos, in.getInfo(), in.getComment(), in.getSetup());
+        for (int i=0; i<100; i++) {
+            VorbisAudioData vad = new VorbisAudioData(new byte[sizes[i % sizes.length]]);
+            long granule = (i+1) * (rate/10);
+            if (jumpBackAt > 0 && i == jumpBackAt) {
+                granule -= rate;
+            }
+            vad.setGranulePosition(granule);
+            out.writeAudioData(vad);
+        }
+        out.close();
+        in.close();
+        return baos.toByteArray();
+    }
+
+    /**
+     * Removes the given (zero based) page from the file
+     */
+    private static byte[] dropPage(byte[] file, int page) {
+        int start = -1;
+        int end = file.length;
+        int found = -1;
+        for (int i=0; i+4<=file.length; i++) {
+            if (file[i]=='O' && file[i+1]=='g' && file[i+2]=='g' && file[i+3]=='S') {
+                found++;
+                if (found == page) {
+                    start = i;
+                } else if (found == page+1) {
+                    end = i;
+                    break;
+                }
+            }
+        }
+        assertTrue(start >= 0);
+        byte[] out = Arrays.copyOf(file, file.length - (end-start));
+        System.arraycopy(file, end, out, start, file.length-end);
+        return out;
+    }
 }
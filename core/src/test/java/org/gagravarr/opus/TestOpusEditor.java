@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.opus;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.gagravarr.ogg.OggFile;
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggPacketReader;
+
+/**
+ * Tests for cutting and joining Opus files
+ */
+public class TestOpusEditor extends AbstractOpusTest {
+    /**
+     * Creates a 4 second file of 20ms CELT packets, with a pre-skip
+     *  of 312. The packets aren't real audio, but they don't need
+     *  to be as nothing decodes them
+     */
+    private static byte[] createFile() throws IOException {
+        OpusInfo info = new OpusInfo();
+        info.setNumChannels(2);
+        info.setSampleRate(48000);
+        info.setPreSkip(312);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        OpusFile out = new OpusFile(baos, info, new OpusTags());
+        out.setMaxPacketsPerPage(-1);
+        for (int i=0; i<200; i++) {
+            OpusAudioData audio = new OpusAudioData(new byte[] { (byte)0xfc, (byte)i, 1, 2 });
+            audio.setGranulePosition((i+1) * 960);
+            out.writeAudioData(audio);
+        }
+        out.close();
+        return baos.toByteArray();
+    }
+    private static OpusFile open(byte[] data) throws IOException {
+        return new OpusFile(new OggFile(new ByteArrayInputStream(data)));
+    }
+
+    /**
+     * Reads all the packets of all the chained streams
+     */
+    private static List<List<OggPacket>> readStreams(byte[] data) throws IOException {
+        List<List<OggPacket>> streams = new ArrayList<List<OggPacket>>();
+        OggPacketReader r = new OggFile(new ByteArrayInputStream(data)).getPacketReader();
+        OggPacket p;
+        while ((p = r.getNextPacket()) != null) {
+            if (p.isBeginningOfStream()) {
+                streams.add(new ArrayList<OggPacket>());
+            }
+            List<OggPacket> stream = streams.get(streams.size()-1);
+            assertEquals(stream.isEmpty() ? p.getSid() : stream.get(0).getSid(), p.getSid());
+            stream.add(p);
+        }
+        return streams;
+    }
+
+    public void testCut() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        OpusEditor.cut(open(createFile()), baos, 48000, 96000);
+
+        List<List<OggPacket>> streams = readStreams(baos.toByteArray());
+        assertEquals(1, streams.size());
+        List<OggPacket> packets = streams.get(0);
+
+        // Starts 80ms before the cut, rounded down to a whole packet,
+        //  with the pre-skip trimming off the extra
+        OpusInfo info = new OpusInfo(packets.get(0));
+        assertEquals(2, info.getNumChannels());
+        assertEquals(48312 - 46*960, info.getPreSkip());
+
+        // Runs to the packet holding the end, with the granule trimming it
+        assertEquals(2 + 55, packets.size());
+        OggPacket last = packets.get(packets.size()-1);
+        assertTrue(last.isEndOfStream());
+        assertEquals(96312 - 46*960, last.getGranulePosition());
+        assertEquals(48000, last.getGranulePosition() - info.getPreSkip());
+
+        // Packets are copied across as they were
+        assertEquals(46, packets.get(2).getData()[1]);
+        assertEquals(100, packets.get(packets.size()-1).getData()[1]);
+    }
+
+    public void testCutToEnd() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        OpusEditor editor = new OpusEditor(baos);
+        editor.append(open(createFile()), 100000, -1);
+        editor.close();
+        assertEquals(192000 - 312 - 100000, editor.getSamplesWritten());
+
+        // Trimmed by the input's own final granule
+        of = open(baos.toByteArray());
+        int preSkip = of.getInfo().getPreSkip();
+        long granule = -1;
+        OpusAudioData audio;
+        while ((audio = of.getNextAudioPacket()) != null) {
+            granule = audio.getGranulePosition();
+        }
+        of.close();
+        assertEquals(192000 - 312 - 100000, granule - preSkip);
+    }
+
+    public void testCutFromStart() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        OpusEditor.cut(open(createFile()), baos, 0, 1000);
+
+        // No pre-roll needed at the start, so the pre-skip is kept
+        List<OggPacket> packets = readStreams(baos.toByteArray()).get(0);
+        assertEquals(312, new OpusInfo(packets.get(0)).getPreSkip());
+        assertEquals(2 + 2, packets.size());
+        assertEquals(1312, packets.get(3).getGranulePosition());
+    }
+
+    public void testConcatenate() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        OpusEditor.concatenate(Arrays.asList(
+                new OpusFile(new OggFile(getTest09File())),
+                new OpusFile(new OggFile(getTest11File()))), baos);
+
+        // One chained stream per file, with the same headers
+        List<List<OggPacket>> streams = readStreams(baos.toByteArray());
+        assertEquals(2, streams.size());
+        assertTrue(streams.get(0).get(0).getSid() != streams.get(1).get(0).getSid());
+
+        OpusFile[] originals = new OpusFile[] {
+                new OpusFile(new OggFile(getTest09File())),
+                new OpusFile(new OggFile(getTest11File()))
+        };
+        for (int i=0; i<2; i++) {
+            List<OggPacket> packets = streams.get(i);
+            OpusInfo info = new OpusInfo(packets.get(0));
+            assertEquals(originals[i].getInfo().getPreSkip(), info.getPreSkip());
+            assertEquals(originals[i].getInfo().getNumChannels(), info.getNumChannels());
+            assertEquals("Test Title", new OpusTags(packets.get(1)).getTitle());
+
+            int audioPackets = 0;
+            long granule = -1;
+            OpusAudioData audio;
+            while ((audio = originals[i].getNextAudioPacket()) != null) {
+                audioPackets++;
+                granule = audio.getGranulePosition();
+            }
+            originals[i].close();
+            assertEquals(2 + audioPackets, packets.size());
+            assertEquals(granule, packets.get(packets.size()-1).getGranulePosition());
+            assertTrue(packets.get(packets.size()-1).isEndOfStream());
+        }
+    }
+
+    public void testInvalidClips() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        OpusEditor editor = new OpusEditor(baos);
+        try {
+            editor.append(open(createFile()), 1000, 1000);
+            fail("Empty clip shouldn't be allowed");
+        } catch (IllegalArgumentException e) {}
+        try {
+            editor.append(open(createFile()), 500000, -1);
+            fail("Clip after the end shouldn't be allowed");
+        } catch (IllegalArgumentException e) {}
+        editor.close();
+    }
+}
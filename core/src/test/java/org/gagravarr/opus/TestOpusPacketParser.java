@@ -0,0 +1,165 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.opus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.gagravarr.ogg.OggFile;
+import org.gagravarr.opus.OpusPacketParser.Bandwidth;
+import org.gagravarr.opus.OpusPacketParser.Mode;
+
+/**
+ * Tests for parsing the structure of Opus packets
+ */
+public class TestOpusPacketParser extends AbstractOpusTest {
+    private OpusPacketParser parser = new OpusPacketParser();
+
+    public void testConfigs() {
+        // SILK narrowband 10ms, mono, one frame
+        assertTrue(parser.parse(new byte[] { 0x00, 1, 2, 3 }));
+        assertEquals(0, parser.getConfig());
+        assertEquals(Mode.SILK, parser.getMode());
+        assertEquals(Bandwidth.NARROWBAND, parser.getBandwidth());
+        assertFalse(parser.isStereo());
+        assertEquals(480, parser.getSamplesPerFrame());
+
+        // SILK wideband 60ms
+        assertTrue(parser.parse(new byte[] { (byte)(11 << 3) }));
+        assertEquals(Mode.SILK, parser.getMode());
+        assertEquals(Bandwidth.WIDEBAND, parser.getBandwidth());
+        assertEquals(2880, parser.getSamplesPerFrame());
+
+        // Hybrid fullband 20ms, stereo
+        assertTrue(parser.parse(new byte[] { (byte)((15 << 3) | 0x4) }));
+        assertEquals(Mode.HYBRID, parser.getMode());
+        assertEquals(Bandwidth.FULLBAND, parser.getBandwidth());
+        assertTrue(parser.isStereo());
+        assertEquals(960, parser.getSamplesPerFrame());
+
+        // CELT wideband 2.5ms, and superwideband 20ms
+        assertTrue(parser.parse(new byte[] { (byte)(20 << 3) }));
+        assertEquals(Mode.CELT, parser.getMode());
+        assertEquals(Bandwidth.WIDEBAND, parser.getBandwidth());
+        assertEquals(120, parser.getSamplesPerFrame());
+        assertTrue(parser.parse(new byte[] { (byte)(27 << 3) }));
+        assertEquals(Bandwidth.SUPERWIDEBAND, parser.getBandwidth());
+        assertEquals(960, parser.getSamplesPerFrame());
+    }
+
+    public void testFrameCodes() {
+        // Code 0, a single frame of everything after the TOC
+        assertTrue(parser.parse(new byte[] { (byte)0xf8, 1, 2, 3 }));
+        assertEquals(0, parser.getFrameCountCode());
+        assertEquals(1, parser.getNumberOfFrames());
+        assertEquals(1, parser.getFrameOffset(0));
+        assertEquals(3, parser.getFrameLength(0));
+        assertEquals(960, parser.getNumberOfSamples());
+
+        // Code 1, two equal frames
+        assertTrue(parser.parse(new byte[] { (byte)0xf9, 1, 2, 3, 4 }));
+        assertEquals(2, parser.getNumberOfFrames());
+        assertEquals(1, parser.getFrameOffset(0));
+        assertEquals(2, parser.getFrameLength(0));
+        assertEquals(3, parser.getFrameOffset(1));
+        assertEquals(2, parser.getFrameLength(1));
+        assertEquals(1920, parser.getNumberOfSamples());
+        assertFalse(parser.parse(new byte[] { (byte)0xf9, 1, 2, 3 }));
+        assertNotNull(parser.getError());
+
+        // Code 2, first frame's length given
+        assertTrue(parser.parse(new byte[] { (byte)0xfa, 1, 9, 8, 7 }));
+        assertEquals(2, parser.getNumberOfFrames());
+        assertEquals(2, parser.getFrameOffset(0));
+        assertEquals(1, parser.getFrameLength(0));
+        assertEquals(3, parser.getFrameOffset(1));
+        assertEquals(2, parser.getFrameLength(1));
+        assertFalse(parser.parse(new byte[] { (byte)0xfa, 5, 1 }));
+
+        // Code 2, with a two byte length of 252 + 4*1
+        byte[] data = new byte[1 + 2 + 256 + 10];
+        data[0] = (byte)0xfa;
+        data[1] = (byte)252;
+        data[2] = 1;
+        assertTrue(parser.parse(data));
+        assertEquals(3, parser.getFrameOffset(0));
+        assertEquals(256, parser.getFrameLength(0));
+        assertEquals(10, parser.getFrameLength(1));
+    }
+
+    public void testCode3() {
+        // CBR, 3 frames of 2 bytes
+        assertTrue(parser.parse(new byte[] { (byte)0xfb, 3, 1, 1, 2, 2, 3, 3 }));
+        assertEquals(3, parser.getFrameCountCode());
+        assertFalse(parser.isVbr());
+        assertEquals(3, parser.getNumberOfFrames());
+        assertEquals(2, parser.getFrameOffset(0));
+        assertEquals(6, parser.getFrameOffset(2));
+        assertEquals(2, parser.getFrameLength(2));
+        assertEquals(0, parser.getPaddingLength());
+        assertFalse(parser.parse(new byte[] { (byte)0xfb, 3, 1, 1, 2, 2, 3 }));
+
+        // VBR with padding: 2 frames of 1 and 3 bytes, 2 bytes padding
+        assertTrue(parser.parse(new byte[] { (byte)0xfb, (byte)0xc2, 2, 1, 9, 8, 8, 8, 0, 0 }));
+        assertTrue(parser.isVbr());
+        assertEquals(2, parser.getPaddingLength());
+        assertEquals(4, parser.getFrameOffset(0));
+        assertEquals(1, parser.getFrameLength(0));
+        assertEquals(5, parser.getFrameOffset(1));
+        assertEquals(3, parser.getFrameLength(1));
+
+        // No frames, too many frames, or padding beyond the end
+        assertFalse(parser.parse(new byte[] { (byte)0xfb, 0 }));
+        assertFalse(parser.parse(new byte[] { (byte)0xfb, 7 }));
+        assertTrue(parser.parse(new byte[] { (byte)0x83, 48 }));
+        assertFalse(parser.parse(new byte[] { (byte)0xfb, 0x41, 10 }));
+        assertFalse(parser.parse(new byte[0]));
+        assertEquals(0, parser.getNumberOfFrames());
+        try {
+            parser.getFrameLength(0);
+            fail("No frames in an invalid packet");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    public void testByteBuffer() {
+        // A code 1 packet in the middle of a buffer
+        byte[] data = new byte[] { 9, 9, (byte)0xf9, 1, 2, 3, 4, 9 };
+        ByteBuffer buffer = ByteBuffer.wrap(data, 2, 5).slice();
+        assertTrue(parser.parse(buffer));
+        assertEquals(2, parser.getNumberOfFrames());
+        assertEquals(3, parser.getFrameOffset(1));
+        assertEquals(3, buffer.get(parser.getFrameOffset(1)));
+        assertEquals(0, buffer.position());
+
+        buffer = ByteBuffer.wrap(data);
+        buffer.position(2).limit(7);
+        assertTrue(parser.parse(buffer));
+        assertEquals(5, parser.getFrameOffset(1));
+        assertEquals(2, buffer.position());
+    }
+
+    public void testFilePackets() throws IOException {
+        of = new OpusFile(new OggFile(getTest11File()));
+        OpusAudioData ad;
+        int packets = 0;
+        while ((ad = of.getNextAudioPacket()) != null) {
+            assertTrue(parser.parse(ad));
+            assertEquals(Mode.CELT, parser.getMode());
+            assertEquals(ad.getNumberOfFrames(), parser.getNumberOfFrames());
+            assertEquals(ad.getNumberOfSamples(), parser.getNumberOfSamples());
+            packets++;
+        }
+        assertEquals(2, packets);
+    }
+}
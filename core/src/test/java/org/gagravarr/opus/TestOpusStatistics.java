@@ -46,6 +46,13 @@ public class TestOpusStatistics extends AbstractOpusTest {
 
         assertEquals(0.021, stats.getDurationSeconds(), 0.001);
         assertEquals("00:00:00.02", stats.getDuration());
+
+        // Packet structure
+        assertEquals(2, stats.getModePacketsCount(OpusPacketParser.Mode.CELT));
+        assertEquals(0, stats.getModePacketsCount(OpusPacketParser.Mode.SILK));
+        assertEquals(2, stats.getBandwidthPacketsCount(OpusPacketParser.Bandwidth.FULLBAND));
+        assertEquals(2, stats.getStereoPacketsCount());
+        assertEquals(0, stats.getMalformedPacketsCount());
     }
 
     public void testReadInfo09() throws IOException {
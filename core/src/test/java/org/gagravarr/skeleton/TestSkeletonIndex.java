@@ -0,0 +1,234 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.skeleton;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.gagravarr.ogg.IOUtils;
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggPacketReader;
+import org.gagravarr.skeleton.SkeletonKeyFramePacket.KeyPoint;
+import org.gagravarr.theora.TheoraFile;
+import org.gagravarr.theora.TheoraKeyFrameIndex;
+import org.gagravarr.theora.TheoraKeyFrameIndex.KeyFrame;
+
+/**
+ * Tests for reading and writing Skeleton 4 key frame indexes
+ */
+public class TestSkeletonIndex extends TestCase {
+    private File tmp;
+
+    @Override
+    protected void tearDown() throws IOException {
+        if (tmp != null) {
+            tmp.delete();
+        }
+    }
+
+    private InputStream getTestFile(String name) throws IOException {
+        return this.getClass().getResourceAsStream("/" + name);
+    }
+    private File copyTestFile(String name) throws IOException {
+        tmp = File.createTempFile("vorbis-java-skeleton", ".ogg");
+        InputStream inp = getTestFile(name);
+        FileOutputStream out = new FileOutputStream(tmp);
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = inp.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        inp.close();
+        out.close();
+        return tmp;
+    }
+
+    public void testReadV4() throws IOException {
+        TheoraFile tf = new TheoraFile(new OggPacketReader(getTestFile("testTheoraVORBISSkeleton.ogg")));
+        SkeletonStream skel = tf.getSkeleton();
+        assertEquals("4.0", skel.getFishead().getVersion());
+        assertEquals(7707, skel.getFishead().getContentOffset());
+        assertEquals(33989, skel.getFishead().getSegmentLength());
+        assertTrue(skel.hasWholeStream());
+
+        // One index per stream, with the empty last packet skipped
+        assertEquals(2, skel.getKeyFrames().size());
+
+        SkeletonKeyFramePacket video = skel.getIndexForStream(tf.getSid());
+        assertNotNull(video);
+        assertEquals(tf.getSid(), video.getSerialNumber());
+        assertEquals(1000, video.getTimestampDenominator());
+        assertEquals(0, video.getFirstSampleTime());
+        assertEquals(1000, video.getLastSampleEndTime());
+        assertEquals(1, video.getKeyPoints().size());
+        assertEquals(8128, video.getKeyPoints().get(0).getOffset());
+        assertEquals(0, video.getKeyPoints().get(0).getTimestampNumerator());
+
+        int audioSid = tf.getSoundtrackStreams().keySet().iterator().next();
+        SkeletonKeyFramePacket audio = skel.getIndexForStream(audioSid);
+        assertNotNull(audio);
+        assertEquals(33, audio.getLastSampleEndTime());
+        assertEquals(1, audio.getKeyPoints().size());
+        assertEquals(7707, audio.getKeyPoints().get(0).getOffset());
+
+        assertNull(skel.getIndexForStream(12345));
+    }
+
+    public void testWriteRead() throws IOException {
+        SkeletonKeyFramePacket index = new SkeletonKeyFramePacket();
+        index.setSerialNumber(0x12345678);
+        index.setFirstSampleTime(5);
+        index.setLastSampleEndTime(1234567);
+        index.addKeyPoint(4000, 5);
+        index.addKeyPoint(4001, 2000);
+        index.addKeyPoint(0x7fffffffffL, 1000000);
+
+        // Padding after the key points is allowed
+        byte[] data = index.write().getData();
+        data = Arrays.copyOf(data, data.length + 10);
+        SkeletonKeyFramePacket read = (SkeletonKeyFramePacket)SkeletonPacketFactory.create(new OggPacket(data));
+
+        assertEquals(0x12345678, read.getSerialNumber());
+        assertEquals(1000, read.getTimestampDenominator());
+        assertEquals(5, read.getFirstSampleTime());
+        assertEquals(1234567, read.getLastSampleEndTime());
+        List<KeyPoint> kps = read.getKeyPoints();
+        assertEquals(3, kps.size());
+        assertEquals(4000, kps.get(0).getOffset());
+        assertEquals(4001, kps.get(1).getOffset());
+        assertEquals(0x7fffffffffL, kps.get(2).getOffset());
+        assertEquals(1000000, kps.get(2).getTimestampNumerator());
+        assertEquals(1000.0, kps.get(2).getTimestamp(), 0.0001);
+
+        assertNull(read.findKeyPoint(4));
+        assertEquals(4000, read.findKeyPoint(5).getOffset());
+        assertEquals(4001, read.findKeyPoint(999999).getOffset());
+        assertEquals(4001, read.findKeyPointAt(2.5).getOffset());
+        assertEquals(0x7fffffffffL, read.findKeyPointAt(5000).getOffset());
+    }
+
+    public void testIndexVideo() throws IOException {
+        File in = copyTestFile("testTheoraSkeleton.ogg");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SkeletonIndexer.index(in, out);
+        byte[] indexed = out.toByteArray();
+
+        // Was Skeleton 3, now 4 with an index for the video
+        TheoraFile tf = new TheoraFile(new OggPacketReader(new ByteArrayInputStream(indexed)));
+        SkeletonStream skel = tf.getSkeleton();
+        assertEquals("4.0", skel.getFishead().getVersion());
+        assertEquals(indexed.length, skel.getFishead().getSegmentLength());
+        assertTrue(IOUtils.byteRangeMatches(
+                IOUtils.toUTF8Bytes("OggS"), indexed, (int)skel.getFishead().getContentOffset()));
+
+        SkeletonKeyFramePacket index = skel.getIndexForStream(tf.getSid());
+        assertNotNull(index);
+        assertEquals(4366, index.getLastSampleEndTime());
+
+        // Key points are at each key frame, as found in the new file
+        TheoraKeyFrameIndex frames = new TheoraKeyFrameIndex(new ByteArrayInputStream(indexed));
+        assertEquals(3, frames.getKeyFrames().size());
+        assertEquals(3, index.getKeyPoints().size());
+        for (int i=0; i<3; i++) {
+            KeyFrame kf = frames.getKeyFrames().get(i);
+            KeyPoint kp = index.getKeyPoints().get(i);
+            assertEquals(kf.getOffset(), kp.getOffset());
+            assertEquals((long)Math.floor(kf.getTimestamp()*1000), kp.getTimestampNumerator());
+        }
+        assertEquals(2133, index.getKeyPoints().get(1).getTimestampNumerator());
+
+        // The rest is copied across, moved along
+        long shift = index.getKeyPoints().get(0).getOffset() - 3032;
+        assertEquals(in.length() + shift, indexed.length);
+
+        // Indexing again gives the same file
+        File again = File.createTempFile("vorbis-java-skeleton", ".ogg");
+        try {
+            FileOutputStream fout = new FileOutputStream(again);
+            fout.write(indexed);
+            fout.close();
+            out = new ByteArrayOutputStream();
+            SkeletonIndexer.index(again, out);
+            assertTrue(Arrays.equals(indexed, out.toByteArray()));
+        } finally {
+            again.delete();
+        }
+    }
+
+    public void testIndexAudioAndVideos() throws IOException {
+        File in = copyTestFile("testTheora2VORBISSkeleton.ogg");
+        SkeletonIndexer indexer = new SkeletonIndexer(in);
+        indexer.setKeyPointSpacing(0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        indexer.write(out);
+        byte[] indexed = out.toByteArray();
+
+        TheoraFile tf = new TheoraFile(new OggPacketReader(new ByteArrayInputStream(indexed)));
+        SkeletonStream skel = tf.getSkeleton();
+        assertEquals(indexed.length, skel.getFishead().getSegmentLength());
+        assertEquals(3, skel.getFisbones().size());
+        assertEquals(3, skel.getKeyFrames().size());
+
+        // Both videos have their own key frames indexed
+        for (SkeletonFisbone bone : skel.getFisbones()) {
+            int sid = bone.getSerialNumber();
+            SkeletonKeyFramePacket index = skel.getIndexForStream(sid);
+            assertNotNull(index);
+            if (tf.getSoundtrackStreams().containsKey(sid)) {
+                assertEquals(21, index.getLastSampleEndTime());
+                continue;
+            }
+            assertEquals(2000, index.getLastSampleEndTime());
+
+            TheoraKeyFrameIndex frames = new TheoraKeyFrameIndex(new ByteArrayInputStream(indexed), sid);
+            assertEquals(frames.getKeyFrames().size(), index.getKeyPoints().size());
+            for (int i=0; i<index.getKeyPoints().size(); i++) {
+                assertEquals(frames.getKeyFrames().get(i).getOffset(), index.getKeyPoints().get(i).getOffset());
+            }
+        }
+
+        // The audio has a key point at each of its pages
+        int audioSid = tf.getSoundtrackStreams().keySet().iterator().next();
+        SkeletonKeyFramePacket audio = skel.getIndexForStream(audioSid);
+        List<KeyPoint> kps = audio.getKeyPoints();
+        assertTrue(kps.size() > 0);
+        assertEquals(0, kps.get(0).getTimestampNumerator());
+        long lastOffset = -1;
+        for (KeyPoint kp : kps) {
+            int offset = (int)kp.getOffset();
+            assertTrue(IOUtils.byteRangeMatches(IOUtils.toUTF8Bytes("OggS"), indexed, offset));
+            assertEquals(audioSid, (int)IOUtils.getInt4(indexed, offset+14));
+            assertTrue(kp.getOffset() > lastOffset);
+            lastOffset = kp.getOffset();
+        }
+    }
+
+    public void testNoSkeleton() throws IOException {
+        File in = copyTestFile("testTheora.ogg");
+        try {
+            new SkeletonIndexer(in);
+            fail("No Skeleton to index");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
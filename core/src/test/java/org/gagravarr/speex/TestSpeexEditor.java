@@ -0,0 +1,150 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.speex;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.gagravarr.ogg.OggFile;
+import org.gagravarr.ogg.OggGranuleFinder;
+
+/**
+ * Tests for cutting Speex audio
+ */
+public class TestSpeexEditor extends TestCase {
+    private static final int PACKETS = 5000;
+    private static final int SAMPLES = 0x280;
+
+    private File tmp;
+
+    @Override
+    protected void setUp() throws IOException {
+        // Long enough for lots of pages, with each packet numbered
+        SpeexFile orig = new SpeexFile(new OggFile(
+                this.getClass().getResourceAsStream("/testSPEEX.spx")));
+        tmp = File.createTempFile("vorbis-java-speex", ".spx");
+        FileOutputStream out = new FileOutputStream(tmp);
+        SpeexFile sf = new SpeexFile(out, orig.getInfo(), orig.getTags());
+        orig.close();
+        for (int i=0; i<PACKETS; i++) {
+            byte[] data = new byte[20];
+            data[0] = (byte)(i >> 8);
+            data[1] = (byte)i;
+            sf.writeAudioData(new SpeexAudioData(data));
+        }
+        sf.close();
+        out.close();
+    }
+    @Override
+    protected void tearDown() {
+        tmp.delete();
+    }
+
+    private static List<SpeexAudioData> readAudio(byte[] data) throws IOException {
+        SpeexFile sf = new SpeexFile(new OggFile(new ByteArrayInputStream(data)));
+        assertEquals("Test Title", sf.getTags().getTitle());
+        List<SpeexAudioData> audio = new ArrayList<SpeexAudioData>();
+        SpeexAudioData ad;
+        while ((ad = sf.getNextAudioPacket()) != null) {
+            audio.add(ad);
+        }
+        sf.close();
+        return audio;
+    }
+    private static int getNumber(SpeexAudioData ad) {
+        return ((ad.getData()[0] & 0xff) << 8) | (ad.getData()[1] & 0xff);
+    }
+
+    public void testFindPage() throws IOException {
+        SpeexFile sf = new SpeexFile(tmp);
+        int sid = sf.getSid();
+        sf.close();
+
+        FileInputStream in = new FileInputStream(tmp);
+        try {
+            assertEquals(-1, OggGranuleFinder.findPageBefore(in.getChannel(), sid+1, 100));
+
+            // Before the first audio page is the Tags page, with a granule of zero
+            long tagsOffset = OggGranuleFinder.findPageBefore(in.getChannel(), sid, 100);
+            assertTrue(tagsOffset > 0);
+            long offset = OggGranuleFinder.findPageBefore(in.getChannel(), sid, 3000*SAMPLES);
+            assertTrue(offset > tagsOffset);
+            assertTrue(offset < tmp.length());
+            assertTrue(OggGranuleFinder.findPageBefore(in.getChannel(), sid, Long.MAX_VALUE) > offset);
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testCut() throws IOException {
+        // Start and end part way through packets, deep into the file
+        long start = 3000*SAMPLES + 100;
+        long end = 4000*SAMPLES + 50;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SpeexEditor.cut(tmp, out, start, end);
+
+        List<SpeexAudioData> audio = readAudio(out.toByteArray());
+        assertEquals(1001, audio.size());
+        assertEquals(3000, getNumber(audio.get(0)));
+        assertEquals(4000, getNumber(audio.get(1000)));
+
+        // The first page's granule trims off the start, and
+        //  the last one the end
+        assertEquals(end - start, audio.get(1000).getGranulePosition());
+        long firstGranule = audio.get(0).getGranulePosition();
+        long packetsOnFirstPage = 0;
+        for (SpeexAudioData ad : audio) {
+            if (ad.getGranulePosition() == firstGranule) {
+                packetsOnFirstPage++;
+            }
+        }
+        assertEquals(packetsOnFirstPage*SAMPLES - 100, firstGranule);
+    }
+
+    public void testCutEnds() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SpeexEditor editor = new SpeexEditor(out);
+        editor.append(tmp, 0, 10*SAMPLES);
+        assertEquals(10*SAMPLES, editor.getSamplesWritten());
+        editor.close();
+        List<SpeexAudioData> audio = readAudio(out.toByteArray());
+        assertEquals(10, audio.size());
+        assertEquals(0, getNumber(audio.get(0)));
+        assertEquals(10*SAMPLES, audio.get(9).getGranulePosition());
+
+        out = new ByteArrayOutputStream();
+        SpeexEditor.cut(tmp, out, (PACKETS-3)*SAMPLES, -1);
+        audio = readAudio(out.toByteArray());
+        assertEquals(3, audio.size());
+        assertEquals(PACKETS-3, getNumber(audio.get(0)));
+        assertEquals(3*SAMPLES, audio.get(2).getGranulePosition());
+
+        try {
+            SpeexEditor.cut(tmp, new ByteArrayOutputStream(), PACKETS*SAMPLES, -1);
+            fail("Clip is after the end");
+        } catch (IllegalArgumentException e) {}
+        try {
+            SpeexEditor.cut(tmp, new ByteArrayOutputStream(), 100, 50);
+            fail("Clip ends before it starts");
+        } catch (IllegalArgumentException e) {}
+    }
+}
@@ -77,4 +77,26 @@ public class TestSpeexFileRead extends TestCase {
         ad = sf.getNextAudioPacket();
         assertNull( ad );
     }
+
+    public void testSampleCounts() throws IOException {
+        OggFile ogg = new OggFile(getTestFile());
+        sf = new SpeexFile(ogg);
+
+        // One frame of 640 samples per packet, though the
+        //  final granule trims the last page's audio down
+        SpeexAudioData ad;
+        int count = 0;
+        while ((ad = sf.getNextAudioPacket()) != null) {
+            assertEquals(0x280, ad.getNumberOfSamples());
+            count++;
+        }
+        assertEquals(3, count);
+
+        ad = new SpeexAudioData(new byte[] { 1, 2, 3 });
+        assertEquals(-1, ad.getNumberOfSamples());
+        sf.getInfo().setFramesPerPacket(2);
+        assertEquals(2*0x280, ad.getNumberOfSamples(sf.getInfo()));
+        assertEquals(2*0x280, SpeexAudioData.getSamplesPerPacket(sf.getInfo()));
+        assertEquals(2*0x280, ad.getNumberOfSamples());
+    }
 }
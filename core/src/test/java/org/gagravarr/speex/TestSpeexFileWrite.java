@@ -121,4 +121,35 @@ public class TestSpeexFileWrite extends TestCase {
         // Tidy up
         spIN.close();
     }
+
+    public void testCalculateGranules() throws IOException {
+        SpeexFile spOrig = new SpeexFile(new OggFile(getTestFile()));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        SpeexFile spOut = new SpeexFile(baos, spOrig.getInfo(), spOrig.getTags());
+        spOrig.close();
+
+        // Packets without granules get them from the frame size,
+        //  with big packets to spread them over a few pages
+        for (int i=0; i<20; i++) {
+            spOut.writeAudioData(new SpeexAudioData(new byte[2000]));
+        }
+        spOut.close();
+
+        SpeexFile spIN = new SpeexFile(new OggFile(
+                new ByteArrayInputStream(baos.toByteArray())
+        ));
+        SpeexAudioData ad;
+        long samples = 0;
+        long lastGranule = 0;
+        while ((ad = spIN.getNextAudioPacket()) != null) {
+            samples += ad.getNumberOfSamples();
+            assertTrue(ad.getGranulePosition() >= samples);
+            assertTrue(ad.getGranulePosition() >= lastGranule);
+            lastGranule = ad.getGranulePosition();
+        }
+        assertEquals(20*0x280, samples);
+        assertEquals(20*0x280, lastGranule);
+        spIN.close();
+    }
 }
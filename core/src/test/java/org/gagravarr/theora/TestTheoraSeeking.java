@@ -0,0 +1,211 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.theora;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggPacketReader;
+import org.gagravarr.skeleton.SkeletonIndexer;
+import org.gagravarr.theora.TheoraKeyFrameIndex.KeyFrame;
+
+/**
+ * Tests for Theora granules, key frames and seeking
+ */
+public class TestTheoraSeeking extends TestCase {
+    private File tmp;
+    private FileInputStream in;
+
+    @Override
+    protected void tearDown() throws IOException {
+        if (in != null) {
+            in.close();
+        }
+        if (tmp != null) {
+            tmp.delete();
+        }
+    }
+
+    private InputStream getTestFile(String name) throws IOException {
+        return new BufferedInputStream(this.getClass().getResourceAsStream("/" + name));
+    }
+    private TheoraSeeker openSeeker(String name) throws IOException {
+        tmp = File.createTempFile("vorbis-java-theora", ".ogg");
+        InputStream inp = getTestFile(name);
+        FileOutputStream out = new FileOutputStream(tmp);
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = inp.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        inp.close();
+        out.close();
+
+        in = new FileInputStream(tmp);
+        return new TheoraSeeker(in.getChannel());
+    }
+
+    /**
+     * Reads all the frames in one go
+     */
+    private List<TheoraVideoData> readFrames(String name) throws IOException {
+        TheoraFile tf = new TheoraFile(new OggPacketReader(getTestFile(name)));
+        List<TheoraVideoData> frames = new ArrayList<TheoraVideoData>();
+        TheoraVideoData video;
+        while ((video = (TheoraVideoData)tf.getNextAudioVisualPacket(
+                java.util.Collections.singleton(tf.getSid()))) != null) {
+            frames.add(video);
+        }
+        return frames;
+    }
+
+    public void testGranules() throws IOException {
+        // From 3.2.1, frames are counted from one in the granule
+        TheoraInfo info = new TheoraInfo();
+        info.setKeyFrameNumberGranuleShift(6);
+        info.setFrameRateNumerator(30);
+        info.setFrameRateDenominator(1);
+        assertEquals(-1, info.getFrameNumber(0));
+        assertEquals(0, info.getFrameNumber(1 << 6));
+        assertEquals(65, info.getFrameNumber((65 << 6) + 1));
+        assertEquals(64, info.getKeyFrameNumber((65 << 6) + 1));
+        assertEquals((65 << 6) + 1, info.getGranulePosition(65, 64));
+        assertEquals(65/30.0, info.getTimestamp((65 << 6) + 1), 0.0001);
+
+        // Before then, they were counted from zero
+        TheoraFile tf = new TheoraFile(new OggPacketReader(getTestFile("testTheora.ogg")));
+        info = tf.getInfo();
+        assertEquals("3.2.0", info.getVersion());
+        assertEquals(0, info.getFrameNumber(0));
+        assertEquals(64, info.getFrameNumber(64 << 6));
+        assertEquals(64, info.getKeyFrameNumber(64 << 6));
+        assertEquals(66, info.getFrameNumber((64 << 6) + 2));
+        assertEquals((64 << 6) + 2, info.getGranulePosition(66, 64));
+
+        assertTrue(new TheoraVideoData(new byte[] { 0x00, 1 }).isKeyFrame());
+        assertFalse(new TheoraVideoData(new byte[] { 0x40, 1 }).isKeyFrame());
+        assertFalse(new TheoraVideoData(new byte[0]).isKeyFrame());
+        assertTrue(new TheoraVideoData(new byte[0]).isDuplicateFrame());
+    }
+
+    public void testIndex() throws IOException {
+        TheoraKeyFrameIndex index = new TheoraKeyFrameIndex(getTestFile("testTheoraSkeleton.ogg"));
+        assertEquals(131, index.getNumberOfFrames());
+        List<KeyFrame> keyFrames = index.getKeyFrames();
+        assertEquals(3, keyFrames.size());
+        assertEquals(0, keyFrames.get(0).getFrameNumber());
+        assertEquals(64, keyFrames.get(1).getFrameNumber());
+        assertEquals(128, keyFrames.get(2).getFrameNumber());
+        assertEquals(64/30.0, keyFrames.get(1).getTimestamp(), 0.0001);
+        assertEquals(0, keyFrames.get(0).getPacketsToSkip());
+        assertEquals(1, keyFrames.get(1).getPacketsToSkip());
+
+        // Reading from the offset gives the key frame
+        List<TheoraVideoData> frames = readFrames("testTheoraSkeleton.ogg");
+        for (KeyFrame kf : keyFrames) {
+            InputStream inp = getTestFile("testTheoraSkeleton.ogg");
+            assertEquals(kf.getOffset(), inp.skip(kf.getOffset()));
+            OggPacketReader r = new OggPacketReader(inp);
+            OggPacket p = r.getNextPacketWithSid(index.getSid());
+            for (int i=0; i<kf.getPacketsToSkip(); i++) {
+                p = r.getNextPacketWithSid(index.getSid());
+            }
+            assertTrue(Arrays.equals(frames.get((int)kf.getFrameNumber()).getData(), p.getData()));
+            inp.close();
+        }
+
+        assertNull(index.findKeyFrame(-1));
+        assertEquals(0, index.findKeyFrame(63).getFrameNumber());
+        assertEquals(64, index.findKeyFrame(64).getFrameNumber());
+        assertEquals(64, index.findKeyFrame(100).getFrameNumber());
+        assertEquals(128, index.findKeyFrame(1000).getFrameNumber());
+        assertEquals(128, index.findKeyFrameAt(4.5).getFrameNumber());
+
+        // Older style granules
+        index = new TheoraKeyFrameIndex(getTestFile("testTheora.ogg"));
+        assertEquals(120, index.getNumberOfFrames());
+        assertEquals(2, index.getKeyFrames().size());
+        assertEquals(64, index.getKeyFrames().get(1).getFrameNumber());
+    }
+
+    public void testSeek() throws IOException {
+        List<TheoraVideoData> frames = readFrames("testTheoraSkeleton.ogg");
+        TheoraSeeker seeker = openSeeker("testTheoraSkeleton.ogg");
+        assertEquals(0, seeker.getNextFrameNumber());
+        assertEquals("3.2.1", seeker.getInfo().getVersion());
+        assertNull(seeker.getSkeleton().getIndexForStream(seeker.getSid()));
+        checkSeeks(seeker, frames);
+    }
+
+    public void testSeekWithIndex() throws IOException {
+        List<TheoraVideoData> frames = readFrames("testTheoraSkeleton.ogg");
+        openSeeker("testTheoraSkeleton.ogg");
+        in.close();
+
+        // Add a Skeleton index to the file, and seek with that
+        File indexed = File.createTempFile("vorbis-java-theora", ".ogg");
+        FileOutputStream out = new FileOutputStream(indexed);
+        SkeletonIndexer.index(tmp, out);
+        out.close();
+        tmp.delete();
+        tmp = indexed;
+
+        in = new FileInputStream(tmp);
+        TheoraSeeker seeker = new TheoraSeeker(in.getChannel());
+        assertEquals(0, seeker.getNextFrameNumber());
+        assertNotNull(seeker.getSkeleton().getIndexForStream(seeker.getSid()));
+        assertTrue(Arrays.equals(frames.get(0).getData(), seeker.getNextVideoPacket().getData()));
+        checkSeeks(seeker, frames);
+    }
+
+    private void checkSeeks(TheoraSeeker seeker, List<TheoraVideoData> frames) throws IOException {
+        for (long[] seek : new long[][] {
+                { 100, 64 }, { 10, 0 }, { 64, 64 }, { 130, 128 }, { 5000, 128 }, { 0, 0 }, { 127, 64 } }) {
+            assertEquals(seek[1], seeker.seekToKeyFrame(seek[0]));
+            assertEquals(seek[1], seeker.getNextFrameNumber());
+
+            // Carries on through the frames from the key frame
+            for (int i=0; i<3 && seek[1]+i < frames.size(); i++) {
+                TheoraVideoData video = seeker.getNextVideoPacket();
+                if (i == 0) {
+                    assertTrue(video.isKeyFrame());
+                }
+                assertTrue(Arrays.equals(frames.get((int)seek[1]+i).getData(), video.getData()));
+            }
+        }
+
+        assertEquals(64/30.0, seeker.seekToKeyFrameAt(3.0), 0.0001);
+        assertEquals(64, seeker.getNextFrameNumber());
+    }
+
+    public void testSeekOlderGranules() throws IOException {
+        List<TheoraVideoData> frames = readFrames("testTheora.ogg");
+        TheoraSeeker seeker = openSeeker("testTheora.ogg");
+        assertEquals(64, seeker.seekToKeyFrame(70));
+        assertTrue(Arrays.equals(frames.get(64).getData(), seeker.getNextVideoPacket().getData()));
+        assertEquals(0, seeker.seekToKeyFrame(63));
+        assertTrue(Arrays.equals(frames.get(0).getData(), seeker.getNextVideoPacket().getData()));
+        assertEquals(1, seeker.getNextFrameNumber());
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.vorbis;
+
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.gagravarr.ogg.OggFile;
+
+/**
+ * Tests for decoding Vorbis audio to PCM
+ */
+public class TestVorbisDecoder extends TestCase {
+    private VorbisFile open(String name) throws IOException {
+        return new VorbisFile(new OggFile(this.getClass().getResourceAsStream(name)));
+    }
+
+    /**
+     * Decodes the whole file, returning the samples of each channel
+     */
+    private float[][] decode(String name) throws IOException {
+        VorbisFile vf = open(name);
+        VorbisDecoder decoder = new VorbisDecoder(vf);
+        float[][] samples = new float[decoder.getChannels()][4096];
+        int position = 0;
+        VorbisAudioData ad;
+        while ((ad = vf.getNextAudioPacket()) != null) {
+            int count = decoder.decode(ad);
+            for (int ch=0; ch<samples.length; ch++) {
+                System.arraycopy(decoder.getPcm()[ch], 0, samples[ch], position, count);
+            }
+            position += count;
+        }
+        vf.close();
+        assertEquals(position, decoder.getSamplePosition());
+
+        float[][] trimmed = new float[samples.length][position];
+        for (int ch=0; ch<samples.length; ch++) {
+            System.arraycopy(samples[ch], 0, trimmed[ch], 0, position);
+        }
+        return trimmed;
+    }
+
+    public void testMdct() {
+        Random random = new Random(42);
+        for (int n : new int[] { 64, 256, 2048 }) {
+            float[] in = new float[n/2];
+            for (int i=0; i<in.length; i++) {
+                in[i] = random.nextFloat() - 0.5f;
+            }
+            float[] out = new float[n];
+            new VorbisMdct(n).inverse(in, out);
+
+            // Check against doing the sums directly
+            for (int i=0; i<n; i++) {
+                double expected = 0;
+                for (int k=0; k<n/2; k++) {
+                    expected += in[k] * Math.cos(2 * Math.PI / n * (i + 0.5 + n/4.0) * (k + 0.5));
+                }
+                assertEquals(expected, out[i], 1e-4);
+            }
+        }
+    }
+
+    public void testDecode() throws IOException {
+        VorbisFile vf = open("/testVORBIS.ogg");
+        VorbisDecoder decoder = new VorbisDecoder(vf);
+        assertEquals(2, decoder.getChannels());
+        assertEquals(1024, decoder.getMaxSamplesPerPacket());
+
+        // Non-audio and empty packets give nothing
+        assertEquals(0, decoder.decode(vf.getInfo().getData()));
+        assertEquals(0, decoder.decode(new byte[0]));
+
+        // First packet only primes the overlap
+        assertEquals(0, decoder.decode(vf.getNextAudioPacket()));
+        for (int i=0; i<7; i++) {
+            assertEquals(128, decoder.decode(vf.getNextAudioPacket()));
+        }
+        // The final long block is trimmed down to the granule
+        assertEquals(64, decoder.decode(vf.getNextAudioPacket()));
+        assertNull(vf.getNextAudioPacket());
+        assertEquals(960, decoder.getSamplePosition());
+        vf.close();
+
+        // Left channel is silent, right has a short burst
+        float[][] pcm = decode("/testVORBIS.ogg");
+        assertEquals(960, pcm[0].length);
+        float leftPeak = 0;
+        float rightPeak = 0;
+        for (int i=0; i<pcm[0].length; i++) {
+            assertFalse(Float.isNaN(pcm[0][i]));
+            assertFalse(Float.isNaN(pcm[1][i]));
+            leftPeak = Math.max(leftPeak, Math.abs(pcm[0][i]));
+            rightPeak = Math.max(rightPeak, Math.abs(pcm[1][i]));
+        }
+        assertTrue(leftPeak < 0.001);
+        assertTrue(rightPeak > 0.5);
+        assertTrue(rightPeak < 2);
+    }
+
+    /**
+     * Two different encodings of the same audio should
+     *  decode to (almost) the same thing
+     */
+    public void testDifferentEncodings() throws IOException {
+        float[][] a = decode("/testVORBIS.ogg");
+        // Not trimmed, so has extra silence at the end
+        float[][] b = decode("/testTheoraVORBIS.ogg");
+        assertEquals(1472, b[1].length);
+
+        double ab = 0;
+        double aa = 0;
+        double bb = 0;
+        for (int i=0; i<a[1].length; i++) {
+            ab += a[1][i] * b[1][i];
+            aa += a[1][i] * a[1][i];
+            bb += b[1][i] * b[1][i];
+        }
+        double correlation = ab / Math.sqrt(aa * bb);
+        assertTrue("Correlation was " + correlation, correlation > 0.95);
+    }
+
+    public void testReset() throws IOException {
+        VorbisFile vf = open("/testVORBIS.ogg");
+        VorbisDecoder decoder = new VorbisDecoder(vf);
+        decoder.decode(vf.getNextAudioPacket());
+        decoder.decode(vf.getNextAudioPacket());
+        assertEquals(128, decoder.getSamplePosition());
+
+        // After a reset, the next packet only primes again
+        decoder.reset();
+        assertEquals(0, decoder.getSamplePosition());
+        assertEquals(0, decoder.decode(vf.getNextAudioPacket()));
+        assertEquals(128, decoder.decode(vf.getNextAudioPacket()));
+        vf.close();
+    }
+}
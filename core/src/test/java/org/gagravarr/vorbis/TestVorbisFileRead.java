@@ -50,8 +50,8 @@ public class TestVorbisFileRead extends TestCase {
         assertEquals("Test Title", vf.getComment().getTitle());
         assertEquals("Test Artist", vf.getComment().getArtist());
 
-        // TODO - proper setup packet checking
         assertEquals(255*13+0xa9, vf.getSetup().getData().length);
+        assertEquals(34, vf.getSetup().getNumberOfCodebooks());
 
         // Has audio data
         assertNotNull( vf.getNextAudioPacket() );
@@ -62,4 +62,167 @@ public class TestVorbisFileRead extends TestCase {
         VorbisAudioData ad = vf.getNextAudioPacket();
         assertEquals(0x3c0, ad.getGranulePosition());
     }
+
+    public void testSetup() throws IOException {
+        OggFile ogg = new OggFile(getTestFile());
+        vf = new VorbisFile(ogg);
+
+        VorbisSetup setup = vf.getSetup();
+        assertFalse(setup.isParsed());
+        try {
+            setup.getModes();
+            fail("Not parsed yet");
+        } catch (IllegalStateException e) {}
+
+        setup.parse(vf.getInfo());
+        assertTrue(setup.isParsed());
+
+        assertEquals(34, setup.getCodebooks().length);
+        assertEquals(34, setup.getNumberOfCodebooks());
+        VorbisSetup.Codebook book = setup.getCodebooks()[0];
+        assertEquals(1, book.getDimensions());
+        assertEquals(256, book.getEntries());
+        assertEquals(256, book.getCodewordLengths().length);
+        for (VorbisSetup.Codebook cb : setup.getCodebooks()) {
+            if (cb.getLookupType() == 1) {
+                assertEquals(VorbisSetup.Codebook.lookup1Values(cb.getEntries(), cb.getDimensions()),
+                             cb.getMultiplicands().length);
+            } else if (cb.getLookupType() == 2) {
+                assertEquals(cb.getEntries() * cb.getDimensions(), cb.getMultiplicands().length);
+            } else {
+                assertNull(cb.getMultiplicands());
+            }
+        }
+
+        // libvorbis uses Floor 1 and Residue 2, and a
+        //  short and long block mode
+        assertEquals(2, setup.getFloors().length);
+        assertEquals(1, setup.getFloors()[0].getType());
+        VorbisSetup.Floor1 floor = (VorbisSetup.Floor1)setup.getFloors()[0];
+        assertEquals(0, floor.getXList()[0]);
+        assertEquals(1 << floor.getRangeBits(), floor.getXList()[1]);
+
+        assertEquals(2, setup.getResidues().length);
+        assertEquals(2, setup.getResidues()[0].getType());
+
+        assertEquals(2, setup.getMappings().length);
+        assertEquals(1, setup.getMappings()[0].getCouplingSteps());
+        assertEquals(1, setup.getMappings()[0].getSubmaps());
+        assertEquals(2, setup.getMappings()[0].getMux().length);
+
+        assertEquals(2, setup.getModes().length);
+        assertEquals(1, setup.getModeBits());
+        assertFalse(setup.getModes()[0].getBlockFlag());
+        assertTrue(setup.getModes()[1].getBlockFlag());
+    }
+
+    public void testNumberOfSamples() throws IOException {
+        OggFile ogg = new OggFile(getTestFile());
+        vf = new VorbisFile(ogg);
+
+        // First packet overlaps nothing, so gives no samples, then
+        //  it's short blocks until a final long one
+        VorbisAudioData ad = vf.getNextAudioPacket();
+        // The setup is only decoded once sample counts are wanted
+        assertFalse(vf.getSetup().isParsed());
+        assertEquals(256, ad.getBlockSize());
+        assertTrue(vf.getSetup().isParsed());
+        assertEquals(0, ad.getNumberOfSamples());
+
+        long samples = 0;
+        for (int i=0; i<7; i++) {
+            ad = vf.getNextAudioPacket();
+            assertEquals(256, ad.getBlockSize());
+            assertEquals(128, ad.getNumberOfSamples());
+            samples += ad.getNumberOfSamples();
+        }
+        ad = vf.getNextAudioPacket();
+        assertEquals(2048, ad.getBlockSize());
+        assertEquals(64+512, ad.getNumberOfSamples());
+        samples += ad.getNumberOfSamples();
+        assertNull(vf.getNextAudioPacket());
+
+        // The final granule trims off some of the last packet
+        assertEquals(1472, samples);
+        assertEquals(960, ad.getGranulePosition());
+    }
+
+    public void testBitsReader() {
+        // Vorbis packs from the least significant bit
+        VorbisBitsReader r = new VorbisBitsReader(new byte[] { (byte)0xb5, 0x0f });
+        assertEquals(1, r.read(1));
+        assertEquals(2, r.read(2));
+        assertEquals(0x16, r.read(5));
+        assertEquals(0xf, r.read(6));
+        assertFalse(r.isEndOfPacket());
+        assertEquals(0, r.read(4));
+        assertTrue(r.isEndOfPacket());
+
+        assertEquals(0, VorbisBitsReader.ilog(0));
+        assertEquals(1, VorbisBitsReader.ilog(1));
+        assertEquals(3, VorbisBitsReader.ilog(7));
+        assertEquals(4, VorbisBitsReader.ilog(8));
+
+        assertEquals(1.0f, VorbisBitsReader.float32Unpack((788 << 21) | 1));
+        assertEquals(-2.0f, VorbisBitsReader.float32Unpack(0x80000000 | (789 << 21) | 1));
+        assertEquals(4, VorbisSetup.Codebook.lookup1Values(16, 2));
+        assertEquals(4, VorbisSetup.Codebook.lookup1Values(24, 2));
+    }
+
+    public void testInvalidCodebooks() {
+        // No dimensions
+        assertInvalidSetup(codebookStart(0, 16).build());
+
+        // A huge lookup table, too big for an int, which isn't there
+        Bits b = codebookStart(0xffff, 0xffffff);
+        b.add(2, 4).add(0, 32).add(0, 32).add(15, 4).add(0, 1);
+        assertInvalidSetup(b.build());
+
+        // A small lookup table, longer than the packet
+        b = codebookStart(1000, 16);
+        b.add(2, 4).add(0, 32).add(0, 32).add(7, 4).add(0, 1);
+        assertInvalidSetup(b.build());
+    }
+    private static void assertInvalidSetup(byte[] data) {
+        VorbisSetup setup = new VorbisSetup();
+        setup.setData(data);
+        try {
+            setup.parse(2);
+            fail("Codebook is invalid");
+        } catch (IllegalArgumentException e) {}
+        assertFalse(setup.isParsed());
+    }
+    /**
+     * The start of a setup with one ordered codebook, with all its
+     *  entries the same length, up to the lookup type
+     */
+    private static Bits codebookStart(int dimensions, int entries) {
+        Bits b = new Bits();
+        b.add(0, 8).add(0x564342, 24).add(dimensions, 16).add(entries, 24);
+        b.add(1, 1).add(4, 5).add(entries, VorbisBitsReader.ilog(entries));
+        return b;
+    }
+    /**
+     * Packs bits the Vorbis way, least significant first, after
+     *  a setup packet header
+     */
+    private static class Bits {
+        private final byte[] data = new byte[64];
+        private int bits = VorbisPacket.HEADER_LENGTH_METADATA * 8;
+
+        private Bits add(long value, int numBits) {
+            for (int i=0; i<numBits; i++, bits++) {
+                if (((value >> i) & 1) == 1) {
+                    data[bits >> 3] |= 1 << (bits & 7);
+                }
+            }
+            return this;
+        }
+        private byte[] build() {
+            byte[] b = new byte[(bits+7) >> 3];
+            System.arraycopy(data, 0, b, 0, b.length);
+            b[0] = (byte)VorbisPacket.TYPE_SETUP;
+            return b;
+        }
+    }
 }
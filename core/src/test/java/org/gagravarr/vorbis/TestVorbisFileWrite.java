@@ -123,4 +123,83 @@ public class TestVorbisFileWrite extends TestCase {
         // All done
         vfIN.close();
     }
+
+    public void testCalculateGranules() throws IOException {
+        OggFile in = new OggFile(getTestFile());
+        VorbisFile vfOrig = new VorbisFile(in);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        VorbisFile vfOUT = new VorbisFile(
+                baos,
+                vfOrig.getInfo(),
+                vfOrig.getComment(),
+                vfOrig.getSetup()
+        );
+
+        // Packets without granules get them worked out from
+        //  the mode bits, giving short then long blocks here
+        byte[][] packets = new byte[][] {
+                { 0x00 }, { 0x02 }, { 0x02 }, { 0x00 }, {}, { 0x00 }
+        };
+        for (byte[] data : packets) {
+            vfOUT.writeAudioData(new VorbisAudioData(data));
+        }
+        vfOrig.close();
+        vfOUT.close();
+
+        VorbisFile vfIN = new VorbisFile(new OggFile(
+                new ByteArrayInputStream(baos.toByteArray())
+        ));
+        int[] expected = new int[] { 0, 64+512, 1024, 512+64, 0, 128 };
+        long samples = 0;
+        for (int i=0; i<expected.length; i++) {
+            VorbisAudioData vad = vfIN.getNextAudioPacket();
+            assertEquals(expected[i], vad.getNumberOfSamples());
+            // All fit on one page, which ends with all the samples
+            assertEquals(2304, vad.getGranulePosition());
+            samples += vad.getNumberOfSamples();
+        }
+        assertNull(vfIN.getNextAudioPacket());
+        assertEquals(2304, samples);
+        vfIN.close();
+
+        // The packets were given their granules as they went
+        VorbisAudioData last = new VorbisAudioData(new byte[] { 0x02 });
+        assertEquals(-1, last.getGranulePosition());
+        assertEquals(-1, last.getNumberOfSamples());
+        assertEquals(2048, last.getBlockSize(vfIN.getInfo(), vfIN.getSetup()));
+        assertEquals(576, last.getNumberOfSamples(vfIN.getInfo(), vfIN.getSetup(), 256));
+    }
+
+    public void testCalculateGranulesAfterKnown() throws IOException {
+        OggFile in = new OggFile(getTestFile());
+        VorbisFile vfOrig = new VorbisFile(in);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        VorbisFile vfOUT = new VorbisFile(
+                baos,
+                vfOrig.getInfo(),
+                vfOrig.getComment(),
+                vfOrig.getSetup()
+        );
+
+        // A long block with a granule, then a short one without,
+        //  which overlaps the long one before it
+        VorbisAudioData known = new VorbisAudioData(new byte[] { 0x02 });
+        known.setGranulePosition(1000);
+        vfOUT.writeAudioData(known);
+        vfOUT.writeAudioData(new VorbisAudioData(new byte[] { 0x00 }));
+        vfOrig.close();
+        vfOUT.close();
+
+        VorbisFile vfIN = new VorbisFile(new OggFile(
+                new ByteArrayInputStream(baos.toByteArray())
+        ));
+        assertNotNull(vfIN.getNextAudioPacket());
+        VorbisAudioData vad = vfIN.getNextAudioPacket();
+        assertEquals(512+64, vad.getNumberOfSamples());
+        assertEquals(1000+512+64, vad.getGranulePosition());
+        assertNull(vfIN.getNextAudioPacket());
+        vfIN.close();
+    }
 }
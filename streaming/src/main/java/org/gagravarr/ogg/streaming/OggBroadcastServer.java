@@ -0,0 +1,438 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg.streaming;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Broadcasts a live Ogg stream to many HTTP listeners, using
+ *  non-blocking NIO from a single thread.
+ * <p>Pages are given to the server as they are written, eg by having
+ *  an {@link org.gagravarr.ogg.audio.OggAudioLiveWriter} write to
+ *  {@link #getOutputStream()}, and are kept in a {@link OggPageRing}.
+ *  Each new listener is sent the header pages of the current stream,
+ *  and then the pages from the next one written on.
+ * <p>The writer is never held up by listeners. Those who fall so far
+ *  behind that their next page has left the ring are either
+ *  disconnected, or skipped ahead to the latest page, depending on
+ *  the {@link SlowClientPolicy}.
+ */
+public class OggBroadcastServer implements OggPageSink, Closeable {
+    /** The default number of pages to keep for slow listeners */
+    public static final int DEFAULT_RING_CAPACITY = 256;
+    private static final int MAX_REQUEST_SIZE = 8192;
+
+    /**
+     * What to do with listeners who can't keep up
+     */
+    public static enum SlowClientPolicy {
+        /** Disconnect them */
+        DISCONNECT,
+        /** Skip over the pages they missed, to the latest one */
+        SKIP_AHEAD
+    }
+
+    private final InetSocketAddress address;
+    private final OggPageRing ring;
+    private volatile SlowClientPolicy slowClientPolicy = SlowClientPolicy.SKIP_AHEAD;
+    private String contentType = "audio/ogg";
+
+    private Selector selector;
+    private ServerSocketChannel server;
+    private Thread thread;
+    private volatile boolean running;
+    private final List<Client> clients = new ArrayList<Client>();
+
+    private final AtomicInteger clientsCount = new AtomicInteger();
+    private final AtomicLong droppedClientsCount = new AtomicLong();
+    private final AtomicLong skippedPagesCount = new AtomicLong();
+
+    /**
+     * Creates a server for the given address, which can use port
+     *  zero to have a free port picked
+     */
+    public OggBroadcastServer(InetSocketAddress address) {
+        this(address, new OggPageRing(DEFAULT_RING_CAPACITY));
+    }
+    public OggBroadcastServer(InetSocketAddress address, OggPageRing ring) {
+        this.address = address;
+        this.ring = ring;
+    }
+
+    public SlowClientPolicy getSlowClientPolicy() {
+        return slowClientPolicy;
+    }
+    public void setSlowClientPolicy(SlowClientPolicy policy) {
+        this.slowClientPolicy = policy;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+    /**
+     * Sets the Content Type sent to listeners, must be done
+     *  before starting the server
+     */
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public OggPageRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Returns a stream that the Ogg pages to broadcast can be
+     *  written to
+     */
+    public OutputStream getOutputStream() {
+        return new OggPageOutputStream(this);
+    }
+
+    /**
+     * Starts listening for listeners, on a new (daemon) thread
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException("Already started");
+        }
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                serve();
+            }
+        }, "OggBroadcastServer-" + getLocalAddress().getPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * The address being listened on, once started
+     */
+    public InetSocketAddress getLocalAddress() {
+        try {
+            return (InetSocketAddress)server.getLocalAddress();
+        } catch (IOException e) {
+            throw new IllegalStateException("Server not listening", e);
+        }
+    }
+
+    /**
+     * Adds the page to the ring, and lets the listeners know.
+     *  Doesn't block on the listeners.
+     */
+    public void pageWritten(ByteBuffer page) {
+        ring.add(page);
+        Selector s = selector;
+        if (s != null) {
+            s.wakeup();
+        }
+    }
+
+    /**
+     * How many listeners are currently being sent the stream
+     */
+    public int getClientsCount() {
+        return clientsCount.get();
+    }
+    /**
+     * How many listeners have been disconnected for being too slow
+     */
+    public long getDroppedClientsCount() {
+        return droppedClientsCount.get();
+    }
+    /**
+     * How many pages in total listeners have skipped for being too slow
+     */
+    public long getSkippedPagesCount() {
+        return skippedPagesCount.get();
+    }
+
+    private void serve() {
+        try {
+            while (running) {
+                selector.select();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Client client = (Client)key.attachment();
+                        if (key.isReadable()) {
+                            read(client);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            send(client);
+                        }
+                    }
+                }
+
+                // Send any new pages
+                for (int i=0; i<clients.size(); i++) {
+                    Client client = clients.get(i);
+                    if (client.streaming && client.channel.isOpen()) {
+                        send(client);
+                    }
+                }
+                for (Iterator<Client> it = clients.iterator(); it.hasNext(); ) {
+                    if (! it.next().channel.isOpen()) {
+                        it.remove();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Warning - broadcast server stopped by " + e);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Client client = new Client(channel);
+        client.key = channel.register(selector, SelectionKey.OP_READ, client);
+        clients.add(client);
+    }
+
+    private void read(Client client) {
+        try {
+            ByteBuffer request = client.request;
+            int read = client.channel.read(request);
+            if (read < 0) {
+                close(client);
+                return;
+            }
+            if (client.streaming) {
+                // Nothing more is expected, ignore it. Cleared as a
+                //  Buffer, as ByteBuffer.clear() is only there from 9
+                ((Buffer)request).clear();
+                return;
+            }
+
+            // Wait for the end of the request headers
+            byte[] data = request.array();
+            for (int i=3; i<request.position(); i++) {
+                if (data[i-3] == '\r' && data[i-2] == '\n' &&
+                        data[i-1] == '\r' && data[i] == '\n') {
+                    startStreaming(client);
+                    return;
+                }
+            }
+            if (! request.hasRemaining()) {
+                close(client);
+            }
+        } catch (IOException e) {
+            close(client);
+        }
+    }
+
+    private void startStreaming(Client client) {
+        String response = "HTTP/1.0 200 OK\r\n" +
+                "Content-Type: " + contentType + "\r\n" +
+                "Cache-Control: no-cache, no-store\r\n" +
+                "Connection: close\r\n\r\n";
+        client.queue.add(ByteBuffer.wrap(response.getBytes(StandardCharsets.US_ASCII)));
+        ((Buffer)client.request).clear();
+
+        synchronized (ring) {
+            client.next = queueHeaders(client);
+        }
+        client.streaming = true;
+        clientsCount.incrementAndGet();
+        send(client);
+    }
+    private long queueHeaders(Client client) {
+        List<ByteBuffer> headers = new ArrayList<ByteBuffer>();
+        long next = ring.getHeaderPages(headers);
+        for (ByteBuffer header : headers) {
+            client.queue.add(header.duplicate());
+        }
+        client.headerGeneration = ring.getHeaderGeneration();
+        return next;
+    }
+
+    /**
+     * Sends as much as the listener will take without blocking
+     */
+    private void send(Client client) {
+        try {
+            while (true) {
+                if (client.current == null || !client.current.hasRemaining()) {
+                    client.current = nextBuffer(client);
+                    if (client.current == null) {
+                        setInterest(client, SelectionKey.OP_READ);
+                        return;
+                    }
+                }
+                client.channel.write(client.current);
+                if (client.current.hasRemaining()) {
+                    // Try again once they've caught up
+                    setInterest(client, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            close(client);
+        }
+    }
+
+    /**
+     * Returns the next thing to send to the listener, which will
+     *  always start on a page boundary, or null if there's nothing
+     */
+    private ByteBuffer nextBuffer(Client client) {
+        if (! client.queue.isEmpty()) {
+            return client.queue.poll();
+        }
+        if (! client.channel.isOpen()) {
+            return null;
+        }
+
+        ByteBuffer page = nextPage(client);
+        if (page != null) {
+            return page;
+        }
+        if (client.next >= ring.getOldestSequence()) {
+            // Up to date, wait for the next page
+            return null;
+        }
+
+        // They've fallen too far behind
+        if (slowClientPolicy == SlowClientPolicy.DISCONNECT) {
+            droppedClientsCount.incrementAndGet();
+            close(client);
+            return null;
+        }
+        long resumeAt;
+        synchronized (ring) {
+            if (ring.getHeaderGeneration() == client.headerGeneration) {
+                resumeAt = Math.max(ring.getOldestSequence(), ring.getNextSequence() - 1);
+            } else {
+                // Missed the start of a new stream, so need its headers
+                resumeAt = queueHeaders(client);
+            }
+        }
+        skippedPagesCount.addAndGet(resumeAt - client.next);
+        client.next = resumeAt;
+        if (! client.queue.isEmpty()) {
+            return client.queue.poll();
+        }
+        // Same stream, so carry on from the page resumed at
+        return nextPage(client);
+    }
+    /**
+     * Returns the client's next page from the ring, if it's
+     *  still there, moving them on to the one after
+     */
+    private ByteBuffer nextPage(Client client) {
+        ByteBuffer page = ring.get(client.next);
+        if (page == null) {
+            return null;
+        }
+        client.headerGeneration = ring.getHeaderGeneration(client.next);
+        client.next++;
+        return page.duplicate();
+    }
+
+    private void setInterest(Client client, int ops) {
+        if (client.key.isValid() && client.key.interestOps() != ops) {
+            client.key.interestOps(ops);
+        }
+    }
+
+    private void close(Client client) {
+        if (client.streaming) {
+            client.streaming = false;
+            clientsCount.decrementAndGet();
+        }
+        client.key.cancel();
+        try {
+            client.channel.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+    }
+
+    /**
+     * Stops listening, and disconnects all the listeners
+     */
+    public synchronized void close() throws IOException {
+        if (! running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Client client : clients) {
+            close(client);
+        }
+        clients.clear();
+        server.close();
+        selector.close();
+    }
+
+    private static class Client {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private final ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_SIZE);
+        private boolean streaming;
+
+        /** The response and headers, to go before the pages */
+        private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<ByteBuffer>();
+        private ByteBuffer current;
+        private long next;
+        private long headerGeneration;
+
+        private Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
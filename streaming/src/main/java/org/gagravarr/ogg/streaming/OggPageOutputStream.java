@@ -0,0 +1,108 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg.streaming;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An output stream which an Ogg writer (eg an
+ *  {@link org.gagravarr.ogg.audio.OggAudioLiveWriter}) can write to,
+ *  which splits what's written into whole pages, and passes each one
+ *  on to a {@link OggPageSink} as soon as it is complete.
+ */
+public class OggPageOutputStream extends OutputStream {
+    private static final int HEADER_SIZE = 27;
+
+    private final OggPageSink sink;
+    private byte[] buffer = new byte[8192];
+    private int length;
+    private boolean closed;
+
+    public OggPageOutputStream(OggPageSink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte)b }, 0, 1);
+    }
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (length + len > buffer.length) {
+            byte[] bigger = new byte[Math.max(buffer.length*2, length + len)];
+            System.arraycopy(buffer, 0, bigger, 0, length);
+            buffer = bigger;
+        }
+        System.arraycopy(b, off, buffer, length, len);
+        length += len;
+
+        // Pass on all the whole pages we now have
+        int start = 0;
+        int pageSize;
+        while ((pageSize = getPageSize(start)) > 0) {
+            byte[] page = new byte[pageSize];
+            System.arraycopy(buffer, start, page, 0, pageSize);
+            sink.pageWritten(ByteBuffer.wrap(page));
+            start += pageSize;
+        }
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, length - start);
+            length -= start;
+        }
+    }
+
+    /**
+     * Returns the size of the page starting at the given point in
+     *  the buffer, or zero if it isn't all there yet
+     */
+    private int getPageSize(int start) throws IOException {
+        int available = length - start;
+        if (available < HEADER_SIZE) {
+            return 0;
+        }
+        if (buffer[start] != 'O' || buffer[start+1] != 'g' ||
+                buffer[start+2] != 'g' || buffer[start+3] != 'S') {
+            throw new IOException("Not an Ogg page, found " + buffer[start] +
+                    "," + buffer[start+1] + "," + buffer[start+2] + "," + buffer[start+3]);
+        }
+        int numLVs = buffer[start+26] & 0xff;
+        if (available < HEADER_SIZE + numLVs) {
+            return 0;
+        }
+        int size = HEADER_SIZE + numLVs;
+        for (int i=0; i<numLVs; i++) {
+            size += buffer[start + HEADER_SIZE + i] & 0xff;
+        }
+        return (available < size) ? 0 : size;
+    }
+
+    /**
+     * Closes the stream, which must not be part way through a page
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (length > 0) {
+            throw new IOException("Closed part way through a page, " + length + " bytes left over");
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg.streaming;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fixed size ring of the most recent encoded Ogg pages, each
+ *  numbered with an ever increasing sequence. Readers follow along
+ *  by sequence, and if they fall so far behind that their next page
+ *  has been overwritten, they can find out and skip ahead.
+ * <p>The header pages of the current stream (or chained stream) are
+ *  kept separately, so new readers can be sent those first. These
+ *  are the Beginning Of Stream pages, and the pages after them
+ *  without a granule position, up until the first audio or video.
+ * <p>Thread safe, so pages can be added by one thread while read
+ *  by others. The pages are shared read-only buffers, so readers
+ *  should {@link ByteBuffer#duplicate()} them before use.
+ */
+public class OggPageRing {
+    private final ByteBuffer[] pages;
+    private final long[] headerGenerations;
+    private long nextSequence;
+
+    private final List<ByteBuffer> headerPages = new ArrayList<ByteBuffer>();
+    private long headerGeneration;
+    private boolean inHeaders;
+
+    public OggPageRing(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least one page");
+        }
+        this.pages = new ByteBuffer[capacity];
+        this.headerGenerations = new long[capacity];
+    }
+
+    /**
+     * Adds the next page, which should be a single whole encoded page
+     * @return The sequence number given to the page
+     */
+    public synchronized long add(ByteBuffer page) {
+        ByteBuffer stored = page.asReadOnlyBuffer();
+
+        ByteBuffer header = stored.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int start = header.position();
+        boolean bos = (header.get(start + 5) & 0x02) != 0;
+        long granule = header.getLong(start + 6);
+        if (bos) {
+            if (!inHeaders) {
+                // New stream (or chained stream), new headers
+                headerPages.clear();
+                headerGeneration++;
+                inHeaders = true;
+            }
+            headerPages.add(stored);
+        } else if (inHeaders && (granule == 0 || granule == -1)) {
+            headerPages.add(stored);
+        } else {
+            inHeaders = false;
+        }
+
+        long sequence = nextSequence++;
+        int slot = (int)(sequence % pages.length);
+        pages[slot] = stored;
+        headerGenerations[slot] = headerGeneration;
+        return sequence;
+    }
+
+    /**
+     * Returns the page with the given sequence, or null if that
+     *  page hasn't been added yet or has already been overwritten
+     */
+    public synchronized ByteBuffer get(long sequence) {
+        if (sequence < getOldestSequence() || sequence >= nextSequence) {
+            return null;
+        }
+        return pages[(int)(sequence % pages.length)];
+    }
+
+    /**
+     * Which set of headers the page with the given sequence belongs
+     *  to, or -1 if the page isn't held. This changes each time a
+     *  new stream (or chained stream) starts.
+     */
+    public synchronized long getHeaderGeneration(long sequence) {
+        if (sequence < getOldestSequence() || sequence >= nextSequence) {
+            return -1;
+        }
+        return headerGenerations[(int)(sequence % pages.length)];
+    }
+    /**
+     * Which set of headers the current header pages are
+     */
+    public synchronized long getHeaderGeneration() {
+        return headerGeneration;
+    }
+
+    /**
+     * The sequence the next page added will get
+     */
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+    /**
+     * The sequence of the oldest page still held
+     */
+    public synchronized long getOldestSequence() {
+        return Math.max(0, nextSequence - pages.length);
+    }
+    public int getCapacity() {
+        return pages.length;
+    }
+
+    /**
+     * Returns the header pages of the current stream
+     */
+    public synchronized List<ByteBuffer> getHeaderPages() {
+        return new ArrayList<ByteBuffer>(headerPages);
+    }
+    /**
+     * Adds the current header pages to the list, and returns the
+     *  sequence of the next page to follow them with. Done in one
+     *  go, so that no pages are missed or repeated.
+     */
+    public synchronized long getHeaderPages(List<ByteBuffer> headers) {
+        headers.addAll(headerPages);
+        return nextSequence;
+    }
+}
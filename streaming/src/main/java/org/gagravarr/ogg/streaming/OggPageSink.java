@@ -0,0 +1,28 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg.streaming;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Implement this to be passed encoded Ogg pages as they are written,
+ *  eg by an {@link OggPageOutputStream}
+ */
+public interface OggPageSink {
+    /**
+     * Called with each whole page, header and data, as it is written.
+     * Shouldn't block, as the writer is waiting.
+     */
+    public void pageWritten(ByteBuffer page);
+}
@@ -0,0 +1,254 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg.streaming;
+
+import static org.gagravarr.ogg.streaming.TestOggPageRing.createAudio;
+import static org.gagravarr.ogg.streaming.TestOggPageRing.startStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.gagravarr.ogg.OggFile;
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggPacketReader;
+import org.gagravarr.ogg.OggPacketWriter;
+import org.gagravarr.ogg.audio.OggAudioLiveWriter;
+import org.gagravarr.ogg.streaming.OggBroadcastServer.SlowClientPolicy;
+import org.gagravarr.opus.OpusTags;
+
+/**
+ * Tests for broadcasting Ogg pages to listeners, over loopback
+ */
+public class TestOggBroadcastServer extends TestCase {
+    private OggBroadcastServer server;
+    private List<Socket> sockets = new ArrayList<Socket>();
+
+    @Override
+    protected void setUp() throws IOException {
+        server = new OggBroadcastServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+    @Override
+    protected void tearDown() throws IOException {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        server.close();
+    }
+
+    /**
+     * Connects a new listener, checks the response, and waits for
+     *  the server to start sending to it
+     */
+    private InputStream listen(int receiveBufferSize) throws Exception {
+        int listening = server.getClientsCount();
+        Socket socket = new Socket();
+        sockets.add(socket);
+        if (receiveBufferSize > 0) {
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+        socket.connect(server.getLocalAddress());
+        socket.setSoTimeout(10000);
+        socket.getOutputStream().write(
+                "GET /live.opus HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+
+        for (int i=0; i<1000 && server.getClientsCount() == listening; i++) {
+            Thread.sleep(5);
+        }
+        assertEquals(listening + 1, server.getClientsCount());
+        return socket.getInputStream();
+    }
+
+    private static String readResponse(InputStream in) throws IOException {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            response.write(b);
+            String soFar = response.toString("US-ASCII");
+            if (soFar.endsWith("\r\n\r\n")) {
+                return soFar;
+            }
+        }
+        fail("Response ended early");
+        return null;
+    }
+
+    /**
+     * Reads packets until the end of the (first) stream
+     */
+    private static List<OggPacket> readStream(InputStream in) throws IOException {
+        List<OggPacket> packets = new ArrayList<OggPacket>();
+        OggPacketReader r = new OggFile(in).getPacketReader();
+        OggPacket p;
+        while ((p = r.getNextPacket()) != null) {
+            packets.add(p);
+            if (p.isEndOfStream()) {
+                break;
+            }
+        }
+        return packets;
+    }
+
+    public void testBroadcast() throws Exception {
+        server.start();
+        InputStream first = listen(0);
+
+        OggAudioLiveWriter live = new OggAudioLiveWriter(server.getOutputStream());
+        live.setLatency(20);
+        startStream(live, "Live");
+        for (int i=0; i<5; i++) {
+            live.writeAudio(createAudio(i));
+        }
+
+        // Join part way through, after the first five pages of audio
+        InputStream second = listen(0);
+        for (int i=5; i<10; i++) {
+            live.writeAudio(createAudio(i));
+        }
+        live.endStream();
+
+        String response = readResponse(first);
+        assertTrue(response, response.startsWith("HTTP/1.0 200 OK\r\n"));
+        assertTrue(response, response.contains("Content-Type: audio/ogg\r\n"));
+        List<OggPacket> packets = readStream(first);
+        assertEquals(2 + 10 + 1, packets.size());
+        assertTrue(packets.get(0).isBeginningOfStream());
+        assertEquals("Live", new OpusTags(packets.get(1)).getTitle());
+        assertEquals(960, packets.get(2).getGranulePosition());
+
+        // Joiners get the headers, then start on the next page
+        readResponse(second);
+        packets = readStream(second);
+        assertEquals(2 + 5 + 1, packets.size());
+        assertTrue(packets.get(0).isBeginningOfStream());
+        assertEquals("Live", new OpusTags(packets.get(1)).getTitle());
+        assertEquals(5, packets.get(2).getData()[1]);
+        assertEquals(6*960, packets.get(2).getGranulePosition());
+        assertTrue(packets.get(7).isEndOfStream());
+
+        // Both follow on to the next track
+        startStream(live, "Next");
+        live.writeAudio(createAudio(0));
+        live.close();
+        for (InputStream in : new InputStream[] { first, second }) {
+            packets = readStream(in);
+            assertEquals(2 + 1 + 1, packets.size());
+            assertEquals("Next", new OpusTags(packets.get(1)).getTitle());
+        }
+        assertEquals(0, server.getDroppedClientsCount());
+        assertEquals(0, server.getSkippedPagesCount());
+    }
+
+    /**
+     * Writes lots of big pages, many more than the ring or
+     *  the socket buffers could hold, optionally ending the stream
+     */
+    private static void flood(OutputStream out, int pages, boolean end) throws IOException {
+        OggFile ogg = new OggFile(out);
+        OggPacketWriter w = ogg.getPacketWriter();
+        w.bufferPacket(new OggPacket(new byte[] { 'H', 'e', 'a', 'd' }), true);
+        byte[] data = new byte[32*1024];
+        for (int i=0; i<pages; i++) {
+            data[0] = (byte)i;
+            w.bufferPacket(new OggPacket(data), i+1);
+            w.flush();
+        }
+        if (end) {
+            w.close();
+        }
+    }
+
+    public void testSlowDisconnected() throws Exception {
+        server = new OggBroadcastServer(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), new OggPageRing(8));
+        server.setSlowClientPolicy(SlowClientPolicy.DISCONNECT);
+        server.start();
+        InputStream slow = listen(4096);
+
+        // Writing isn't held up by the listener who isn't reading
+        flood(server.getOutputStream(), 1000, true);
+        for (int i=0; i<1000 && server.getDroppedClientsCount() == 0; i++) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, server.getDroppedClientsCount());
+        assertEquals(0, server.getClientsCount());
+
+        // They get what was sent before, then nothing
+        readResponse(slow);
+        byte[] buffer = new byte[65536];
+        while (slow.read(buffer) != -1) {}
+    }
+
+    public void testSlowSkipAhead() throws Exception {
+        server = new OggBroadcastServer(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), new OggPageRing(8));
+        assertEquals(SlowClientPolicy.SKIP_AHEAD, server.getSlowClientPolicy());
+        server.start();
+        InputStream slow = listen(4096);
+
+        flood(server.getOutputStream(), 1000, true);
+
+        // Skips some pages, but stays connected, and all the
+        //  pages it does get are whole
+        readResponse(slow);
+        List<OggPacket> packets = readStream(slow);
+        assertTrue(packets.get(0).isBeginningOfStream());
+        assertTrue(packets.get(packets.size()-1).isEndOfStream());
+        assertTrue(packets.size() < 1000);
+        for (OggPacket packet : packets.subList(1, packets.size()-1)) {
+            assertEquals(32*1024, packet.getData().length);
+        }
+        assertTrue(server.getSkippedPagesCount() > 0);
+        assertEquals(1, server.getClientsCount());
+        assertEquals(0, server.getDroppedClientsCount());
+    }
+
+    public void testSlowSkipAheadResumes() throws Exception {
+        server = new OggBroadcastServer(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), new OggPageRing(8));
+        server.start();
+        InputStream slow = listen(4096);
+
+        // Nothing more is broadcast after these, which are more
+        //  than the socket buffers can hold, so it falls behind
+        flood(server.getOutputStream(), 1000, false);
+        Thread.sleep(100);
+
+        // Having skipped ahead, the page resumed at is still sent
+        readResponse(slow);
+        OggPacketReader r = new OggFile(slow).getPacketReader();
+        OggPacket p = r.getNextPacket();
+        assertTrue(p.isBeginningOfStream());
+        // Each page holds one packet, so the granule gives the page
+        while ((p = r.getNextPacket()) != null) {
+            assertEquals(32*1024, p.getData().length);
+            if (p.getGranulePosition() == 1000) {
+                break;
+            }
+        }
+        assertNotNull(p);
+        assertEquals((byte)999, p.getData()[0]);
+        assertTrue(server.getSkippedPagesCount() > 0);
+        assertEquals(1, server.getClientsCount());
+    }
+}
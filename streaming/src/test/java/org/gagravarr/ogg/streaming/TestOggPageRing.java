@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg.streaming;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.gagravarr.ogg.audio.OggAudioLiveWriter;
+import org.gagravarr.opus.OpusAudioData;
+import org.gagravarr.opus.OpusInfo;
+import org.gagravarr.opus.OpusTags;
+
+/**
+ * Tests for splitting written Ogg data into pages, and
+ *  keeping them in a ring
+ */
+public class TestOggPageRing extends TestCase {
+    /**
+     * Starts a new Opus stream, which has 2 header pages
+     */
+    static void startStream(OggAudioLiveWriter live, String title) throws IOException {
+        OpusInfo info = new OpusInfo();
+        info.setNumChannels(2);
+        info.setSampleRate(48000);
+        OpusTags tags = new OpusTags();
+        tags.addComment(OpusTags.KEY_TITLE, title);
+        live.startStream(info, tags, null);
+    }
+    /** A 20ms CELT packet, not real audio but nothing decodes it */
+    static OpusAudioData createAudio(int number) {
+        return new OpusAudioData(new byte[] { (byte)0xfc, (byte)number, 1, 2 });
+    }
+
+    public void testSplitPages() throws IOException {
+        final List<ByteBuffer> pages = new ArrayList<ByteBuffer>();
+        OutputStream out = new OggPageOutputStream(new OggPageSink() {
+            public void pageWritten(ByteBuffer page) {
+                pages.add(page);
+            }
+        });
+        OggAudioLiveWriter live = new OggAudioLiveWriter(out);
+        live.setLatency(20);
+        startStream(live, "Test");
+        assertEquals(2, pages.size());
+        live.writeAudio(createAudio(0));
+        live.writeAudio(createAudio(1));
+        live.close();
+        assertEquals(5, pages.size());
+
+        // Each is a whole page
+        for (ByteBuffer page : pages) {
+            assertEquals('O', page.get(0));
+            assertEquals('S', page.get(3));
+            int numLVs = page.get(26) & 0xff;
+            int size = 27 + numLVs;
+            for (int i=0; i<numLVs; i++) {
+                size += page.get(27+i) & 0xff;
+            }
+            assertEquals(size, page.remaining());
+        }
+
+        // Partial pages are held back until complete
+        pages.clear();
+        out = new OggPageOutputStream(new OggPageSink() {
+            public void pageWritten(ByteBuffer page) {
+                pages.add(page);
+            }
+        });
+        out.write(new byte[] { 'O', 'g', 'g', 'S', 0, 2 });
+        out.write(new byte[20]);
+        assertEquals(0, pages.size());
+        out.write(new byte[] { 1, 3 });
+        assertEquals(0, pages.size());
+        out.write(new byte[] { 1, 2 });
+        assertEquals(0, pages.size());
+        out.write(new byte[] { 3, 'O', 'g' });
+        assertEquals(1, pages.size());
+        assertEquals(31, pages.get(0).remaining());
+        try {
+            out.close();
+            fail("Can't close part way through a page");
+        } catch (IOException e) {}
+
+        // Anything else isn't allowed
+        out = new OggPageOutputStream(new OggPageSink() {
+            public void pageWritten(ByteBuffer page) {}
+        });
+        try {
+            out.write(new byte[30]);
+            fail("Not an Ogg page");
+        } catch (IOException e) {}
+    }
+
+    public void testRing() throws IOException {
+        OggPageRing ring = new OggPageRing(4);
+        assertEquals(4, ring.getCapacity());
+        assertEquals(0, ring.getNextSequence());
+        assertNull(ring.get(0));
+        assertEquals(0, ring.getHeaderPages().size());
+
+        OggAudioLiveWriter live = new OggAudioLiveWriter(new OggPageOutputStream(new RingSink(ring)));
+        live.setLatency(20);
+        startStream(live, "Track 1");
+        assertEquals(2, ring.getNextSequence());
+        assertEquals(2, ring.getHeaderPages().size());
+        long generation = ring.getHeaderGeneration();
+        assertEquals(generation, ring.getHeaderGeneration(0));
+
+        // Audio pages aren't headers
+        for (int i=0; i<4; i++) {
+            live.writeAudio(createAudio(i));
+        }
+        assertEquals(6, ring.getNextSequence());
+        assertEquals(2, ring.getOldestSequence());
+        assertEquals(2, ring.getHeaderPages().size());
+
+        // Old pages are overwritten, but the headers are kept
+        assertNull(ring.get(1));
+        assertEquals(-1, ring.getHeaderGeneration(1));
+        assertNotNull(ring.get(5));
+        assertNull(ring.get(6));
+        List<ByteBuffer> headers = new ArrayList<ByteBuffer>();
+        assertEquals(6, ring.getHeaderPages(headers));
+        assertEquals(2, headers.size());
+        assertEquals(0x02, headers.get(0).get(5));
+
+        // Pages are read only
+        try {
+            ring.get(5).put(0, (byte)0);
+            fail("Shouldn't be able to change pages");
+        } catch (RuntimeException e) {}
+
+        // New chained stream gives new headers
+        startStream(live, "Track 2");
+        assertEquals(9, ring.getNextSequence());
+        assertTrue(ring.getHeaderGeneration() != generation);
+        assertEquals(2, ring.getHeaderPages().size());
+        assertEquals(generation, ring.getHeaderGeneration(6));
+        assertEquals(ring.getHeaderGeneration(), ring.getHeaderGeneration(7));
+        live.close();
+    }
+
+    private static class RingSink implements OggPageSink {
+        private final OggPageRing ring;
+        private RingSink(OggPageRing ring) {
+            this.ring = ring;
+        }
+        public void pageWritten(ByteBuffer page) {
+            ring.add(page);
+        }
+    }
+}
@@ -15,6 +15,7 @@ package org.gagravarr.tika;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -27,8 +28,10 @@ import org.apache.tika.mime.MediaType;
 import org.apache.tika.parser.AbstractParser;
 import org.apache.tika.parser.ParseContext;
 import org.apache.tika.sax.XHTMLContentHandler;
+import org.gagravarr.flac.FlacAudioFrame;
 import org.gagravarr.flac.FlacAudioStatistics;
 import org.gagravarr.flac.FlacFile;
+import org.gagravarr.flac.FlacFrameScanner;
 import org.gagravarr.flac.FlacInfo;
 import org.gagravarr.flac.FlacOggFile;
 import org.gagravarr.ogg.OggStreamIdentifier;
@@ -57,8 +60,13 @@ public class FlacParser extends AbstractParser {
          throws IOException, TikaException, SAXException {
       metadata.set(XMPDM.AUDIO_COMPRESSOR, "FLAC");
 
-      // Open the FLAC file
-      FlacFile flac = FlacFile.open(stream);
+      // Open the FLAC file, re-using any Ogg headers the detector read
+      FlacFile flac;
+      if (OggParseSession.get(stream, context) != null) {
+         flac = FlacFile.open(OggParseSession.open(stream, context));
+      } else {
+         flac = FlacFile.open(stream);
+      }
       
       // Start
       XHTMLContentHandler xhtml = new XHTMLContentHandler(handler, metadata);
@@ -80,9 +88,16 @@ public class FlacParser extends AbstractParser {
       
       // Does the file know how long it is?
       double duration = 0;
+      OggParserConfig config = context.get(OggParserConfig.class, new OggParserConfig());
       if (flac.getInfo().getNumberOfSamples() > 0) {
          // Trust the duration from the header
          duration = flac.getInfo().getDurationSeconds();
+      } else if (config.isFastMode()) {
+         // Only look at the end, not all the audio
+         long samples = findNumberOfSamples(flac, stream, config);
+         if (samples > 0) {
+            duration = ((double)samples) / flac.getInfo().getSampleRate();
+         }
       } else {
          // Process all the audio frames and have it calculated
          FlacAudioStatistics stats = new FlacAudioStatistics(flac);
@@ -96,6 +111,42 @@ public class FlacParser extends AbstractParser {
       flac.close();
    }
    
+   /**
+    * Works out the number of samples from the last granule or
+    *  frame, without processing all the audio. Returns -1 if
+    *  it couldn't be found within the configured limit.
+    */
+   protected long findNumberOfSamples(FlacFile flac, InputStream stream,
+         OggParserConfig config) throws IOException {
+      if (flac instanceof FlacOggFile) {
+         return OggAudioParser.findLastGranule(stream, ((FlacOggFile)flac).getSid(), config);
+      }
+
+      // For native files, use the sample numbers of the last frame
+      byte[] last = null;
+      FileChannel channel = OggAudioParser.getTailChannel(stream);
+      if (channel != null) {
+         last = FlacFrameScanner.findLastFrame(channel, config.getMaxBytes());
+      } else {
+         // Skim the frames, without decoding, up to the limit
+         long read = 0;
+         byte[] frame;
+         while ((frame = flac.getNextAudioFrameData()) != null) {
+            read += frame.length;
+            if (read > config.getMaxBytes()) {
+               return -1;
+            }
+            last = frame;
+         }
+      }
+      if (last == null) {
+         return -1;
+      }
+
+      FlacAudioFrame frame = new FlacAudioFrame(last, flac.getInfo());
+      return frame.getFirstSampleNumber() + frame.getBlockSize();
+   }
+
    protected void extractInfo(Metadata metadata, FlacInfo info) throws TikaException {
       metadata.set(XMPDM.AUDIO_SAMPLE_RATE, (int)info.getSampleRate());
       //metadata.set(XMPDM.AUDIO_SAMPLE_TYPE, info.getBitsPerSample()+"int"); // TODO
@@ -14,6 +14,8 @@
 package org.gagravarr.tika;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.Arrays;
@@ -21,12 +23,15 @@ import java.util.List;
 import java.util.Locale;
 
 import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.metadata.TikaCoreProperties;
 import org.apache.tika.metadata.XMP;
 import org.apache.tika.metadata.XMPDM;
 import org.apache.tika.parser.AbstractParser;
+import org.apache.tika.parser.ParseContext;
 import org.apache.tika.sax.XHTMLContentHandler;
+import org.gagravarr.ogg.OggGranuleFinder;
 import org.gagravarr.ogg.audio.OggAudioHeaders;
 import org.gagravarr.ogg.audio.OggAudioInfoHeader;
 import org.gagravarr.ogg.audio.OggAudioStatistics;
@@ -112,6 +117,58 @@ public abstract class OggAudioParser extends AbstractParser {
         xhtml.element("p", comments.getGenre());
     }
 
+    protected static void extractDuration(Metadata metadata, XHTMLContentHandler xhtml,
+            OggAudioHeaders headers, OggAudioStream audio,
+            InputStream stream, ParseContext context) throws IOException, SAXException {
+        OggParserConfig config = context.get(OggParserConfig.class, new OggParserConfig());
+        if (config.isFastMode()) {
+            // Only look at the last granule, not all the audio
+            long granule = findLastGranule(stream, headers.getSid(), config);
+            if (granule > 0) {
+                extractDuration(metadata, xhtml,
+                        OggAudioStatistics.getDurationSeconds(headers.getInfo(), granule));
+            }
+        } else {
+            extractDuration(metadata, xhtml, headers, audio);
+        }
+    }
+
+    /**
+     * Finds the last granule of the given stream, without processing
+     *  the audio packets. Uses the end of the file if there is one,
+     *  otherwise skims the pages of the rest of the stream, up to
+     *  the configured limit.
+     * Returns -1 if it couldn't be found.
+     */
+    protected static long findLastGranule(InputStream stream, int sid,
+            OggParserConfig config) throws IOException {
+        FileChannel channel = getTailChannel(stream);
+        if (channel != null) {
+            return OggGranuleFinder.findLastGranule(channel, sid, config.getMaxBytes());
+        }
+        return OggGranuleFinder.findLastGranule(stream, sid, config.getMaxBytes());
+    }
+
+    /**
+     * Returns a channel to read the end of the file from, if the
+     *  stream has a file behind it, or was given a {@link FileChannel}
+     *  as its open container, otherwise null. The channel belongs
+     *  to the stream, so mustn't be closed.
+     */
+    protected static FileChannel getTailChannel(InputStream stream) throws IOException {
+        TikaInputStream tis = TikaInputStream.cast(stream);
+        if (tis == null) {
+            return null;
+        }
+        if (tis.hasFile()) {
+            return tis.getFileChannel();
+        }
+        if (tis.getOpenContainer() instanceof FileChannel) {
+            return (FileChannel)tis.getOpenContainer();
+        }
+        return null;
+    }
+
     protected static void extractDuration(Metadata metadata, XHTMLContentHandler xhtml,
             OggAudioHeaders headers, OggAudioStream audio) throws IOException, SAXException {
         // Have the statistics calculated
@@ -120,6 +177,37 @@ public abstract class OggAudioParser extends AbstractParser {
 
         // Record the duration, if available
         extractDuration(metadata, xhtml, stats.getDurationSeconds());
+
+        // Record what else was found about the audio
+        extractStatistics(metadata, stats);
+    }
+
+    /**
+     * Records the bitrates, packet sizes and any problems found
+     *  with the audio, such as lost pages
+     */
+    protected static void extractStatistics(Metadata metadata, OggAudioStatistics stats) {
+        if (stats.getAudioPacketsCount() == 0) return;
+
+        metadata.set("audio-packets", Integer.toString(stats.getAudioPacketsCount()));
+        metadata.set("audio-pages", Integer.toString(stats.getAudioPagesCount()));
+        metadata.set("audio-packet-size-min", Integer.toString(stats.getMinPacketSize()));
+        metadata.set("audio-packet-size-median", Integer.toString(stats.getPacketSizePercentile(50)));
+        metadata.set("audio-packet-size-95", Integer.toString(stats.getPacketSizePercentile(95)));
+        metadata.set("audio-packet-size-max", Integer.toString(stats.getMaxPacketSize()));
+
+        if (stats.getDurationSeconds() > 0) {
+            metadata.set("audio-bitrate", Long.toString((long)stats.getAverageAudioBitrate()));
+        }
+        if (stats.getBitrateSecondsCount() > 0) {
+            metadata.set("audio-bitrate-min", Long.toString(stats.getMinSecondBitrate()));
+            metadata.set("audio-bitrate-max", Long.toString(stats.getMaxSecondBitrate()));
+        }
+        metadata.set("audio-bitrate-mode", stats.getBitrateMode().toString());
+
+        metadata.set("ogg-overhead-percent", DURATION_FORMAT.format(stats.getOggOverheadPercentage()));
+        metadata.set("ogg-lost-pages", Integer.toString(stats.getLostPagesCount()));
+        metadata.set("ogg-granule-discontinuities", Integer.toString(stats.getGranuleDiscontinuitiesCount()));
     }
 
     protected static void extractDuration(Metadata metadata, XHTMLContentHandler xhtml,
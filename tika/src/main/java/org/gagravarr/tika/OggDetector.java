@@ -15,10 +15,7 @@ package org.gagravarr.tika;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -26,13 +23,8 @@ import org.apache.tika.detect.Detector;
 import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.mime.MediaType;
-import org.gagravarr.ogg.OggFile;
-import org.gagravarr.ogg.OggPacket;
-import org.gagravarr.ogg.OggPacketReader;
 import org.gagravarr.ogg.OggStreamIdentifier;
 import org.gagravarr.ogg.OggStreamIdentifier.OggStreamType;
-import org.gagravarr.skeleton.SkeletonPacket;
-import org.gagravarr.skeleton.SkeletonPacketFactory;
 
 /**
  * Detector for identifying specific file types stored
@@ -41,6 +33,10 @@ import org.gagravarr.skeleton.SkeletonPacketFactory;
  *  https://wiki.xiph.org/index.php/MIME_Types_and_File_Extensions
  *  but we try to use more specific ones, as given by the Tika
  *  mimetypes xml file.
+ * As Ogg requires the Beginning-Of-Stream pages of all the
+ *  streams to come before any other pages, detection only needs
+ *  to read those (plus any Skeleton stream), and stops as soon as
+ *  it sees audio or video data, or hits a limit on the bytes read.
  */
 public class OggDetector implements Detector {
    private static final long serialVersionUID = 591382028699008553L;
@@ -49,6 +45,26 @@ public class OggDetector implements Detector {
    protected static final MediaType OGG_AUDIO = MediaType.audio("ogg");
    protected static final MediaType OGG_VIDEO = MediaType.video("ogg");
 
+   /** By default, read no more than 128kb when detecting */
+   public static final int DEFAULT_MAX_BYTES = 128*1024;
+
+   private final int maxBytes;
+
+   public OggDetector() {
+      this(DEFAULT_MAX_BYTES);
+   }
+   /**
+    * Creates a detector which reads at most the given
+    *  number of bytes, when looking for the stream headers
+    */
+   public OggDetector(int maxBytes) {
+      this.maxBytes = maxBytes;
+   }
+
+   public int getMaxBytes() {
+      return maxBytes;
+   }
+
    public MediaType detect(InputStream input, Metadata metadata)
          throws IOException {
       // Check if we have access to the document
@@ -76,69 +92,25 @@ public class OggDetector implements Detector {
       // We can only detect the exact type when given a TikaInputStream
       TikaInputStream tis = TikaInputStream.cast(input);
       if (tis != null) {
-         // We could potentially need to go a long way through the
-         //  file in order to figure out what it is
-         tis.mark((int)tis.getLength()+1);
-
-         // Open the Ogg file - underlying stream stays open as detecting only
-         @SuppressWarnings("resource")
-         OggFile ogg = new OggFile(tis);
-
-         // The things we'll want to keep track of
-         int totalStreams = 0;
-         List<Integer> sids = new ArrayList<Integer>();
-         Map<OggStreamType, Integer> streams = 
-                 new HashMap<OggStreamType, Integer>();
-         Map<Integer, List<SkeletonPacket>> skeletonStreams =
-                 new HashMap<Integer, List<SkeletonPacket>>();
-
-         // Check the streams in turn
-         OggPacketReader r = ogg.getPacketReader();
-         OggPacket p;
-         Integer sid;
+         // Only the headers are needed, so only look that far ahead
+         tis.mark(maxBytes);
+         OggParseSession session;
          try {
-             while( (p = r.getNextPacket()) != null ) {
-                if(p.isBeginningOfStream()) {
-                   totalStreams++;
-                   sids.add(p.getSid());
-
-                   OggStreamType type = OggStreamIdentifier.identifyType(p);
-
-                   // If it's a Skeleton stream, start tracking
-                   if (type == OggStreamIdentifier.SKELETON) {
-                       List<SkeletonPacket> sp = new ArrayList<SkeletonPacket>();
-                       sp.add(SkeletonPacketFactory.create(p));
-                       skeletonStreams.put(p.getSid(), sp);
-                   }
-
-                   // Increment the per-type count
-                   Integer num = streams.get(type);
-                   if (num == null) {
-                       num = 1;
-                   } else {
-                       num = num + 1;
-                   }
-                   streams.put(type, num);
-                } else {
-                    sid = p.getSid();
-
-                    // Is it a skeleton stream?
-                    if (skeletonStreams.containsKey(sid)) {
-                        skeletonStreams.get(sid).add(SkeletonPacketFactory.create(p));
-                    } else {
-                        // We don't worry about later packets in non-skeleton
-                        // streams at this stage, only parsers mind about them
-                    }
-                }
-             }
+             session = OggParseSession.read(tis, maxBytes);
          } catch (UnsupportedOperationException e) {
              // Silently swallow this problem with the file,
              //  and just say "not ours"
              return MediaType.OCTET_STREAM;
+         } finally {
+             // Tidy up - reset the stream, but leave it open
+             tis.reset();
          }
 
-         // Tidy up - reset the stream, but leave it open
-         tis.reset();
+         // Save what we found for the parser
+         session.store(null);
+
+         int totalStreams = session.getTotalStreams();
+         Map<OggStreamType, Integer> streams = session.getStreamCounts();
 
          // TODO See if we found any of the Ogg Metadata streams,
          //  eg Ogg Skeleton / Annodex or CMML, and if so use them
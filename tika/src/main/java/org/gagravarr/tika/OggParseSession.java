@@ -0,0 +1,368 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.tika;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.parser.ParseContext;
+import org.gagravarr.ogg.OggFile;
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggPacketReader;
+import org.gagravarr.ogg.OggStreamIdentifier;
+import org.gagravarr.ogg.OggStreamIdentifier.OggStreamType;
+import org.gagravarr.skeleton.SkeletonPacket;
+import org.gagravarr.skeleton.SkeletonPacketFactory;
+
+/**
+ * What was found in the headers of an Ogg document, ie the streams
+ *  from their Beginning-Of-Stream packets, plus any Skeleton packets.
+ * <p>This is worked out once per document, normally by the
+ *  {@link OggDetector}, and then shared with the parsers via the
+ *  {@link TikaInputStream} and {@link ParseContext}, so that they
+ *  don't need to re-read the stream to find the same things.
+ * <p>Parsers can also use {@link #open(InputStream, ParseContext)}
+ *  to read the file, which gives them the packets already read from
+ *  here, and only reads the stream from where the session stopped.
+ */
+public class OggParseSession {
+   private final Object source;
+   private final Map<Integer, OggPacket> firstPackets;
+   private final Map<Integer, OggStreamType> types;
+   private final Map<Integer, List<SkeletonPacket>> skeletonStreams;
+   private boolean complete;
+
+   /** All the packets read, in order, to be given again to parsers */
+   private final List<OggPacket> packets;
+   /** Where in the source stream reading started */
+   private long startPosition = -1;
+   /** How far on from the start the packets read go, or -1 if unknown */
+   private long endPosition = -1;
+
+   private OggParseSession(Object source) {
+      this.source = source;
+      this.firstPackets = new LinkedHashMap<Integer, OggPacket>();
+      this.types = new LinkedHashMap<Integer, OggStreamType>();
+      this.skeletonStreams = new HashMap<Integer, List<SkeletonPacket>>();
+      this.packets = new ArrayList<OggPacket>();
+   }
+
+   /**
+    * Reads the headers from the stream, stopping at the first audio
+    *  or video data packet, or once the given number of bytes (if
+    *  positive) have been read.
+    * The stream isn't reset afterwards, that's up to the caller.
+    */
+   public static OggParseSession read(InputStream input, int maxBytes) throws IOException {
+      TikaInputStream tis = TikaInputStream.cast(input);
+      OggParseSession session = new OggParseSession(tis);
+      if (tis != null) {
+         session.startPosition = tis.getPosition();
+      }
+
+      InputStream inp = input;
+      if (maxBytes > 0) {
+         inp = new LimitedInputStream(input, maxBytes);
+      }
+
+      // Underlying stream stays open, as only the headers are wanted
+      @SuppressWarnings("resource")
+      OggFile ogg = new OggFile(inp);
+      OggPacketReader r = ogg.getPacketReader();
+      OggPacket p;
+      while( (p = r.getNextPacket()) != null ) {
+         session.packets.add(p);
+         int sid = p.getSid();
+         if (p.isBeginningOfStream()) {
+            OggStreamType type = OggStreamIdentifier.identifyType(p);
+            session.firstPackets.put(sid, p);
+            session.types.put(sid, type);
+
+            // If it's a Skeleton stream, start tracking
+            if (type == OggStreamIdentifier.SKELETON) {
+               List<SkeletonPacket> sp = new ArrayList<SkeletonPacket>();
+               sp.add(SkeletonPacketFactory.create(p));
+               session.skeletonStreams.put(sid, sp);
+            }
+         } else if (session.skeletonStreams.containsKey(sid)) {
+            session.skeletonStreams.get(sid).add(SkeletonPacketFactory.create(p));
+            if (p.isEndOfStream()) {
+               // Skeleton is done, so all the headers are too
+               session.complete = true;
+               break;
+            }
+         } else {
+            // All the streams have now started, and we don't worry
+            //  about later packets in non-skeleton streams here
+            session.complete = true;
+            break;
+         }
+      }
+
+      // Finish off the page we stopped on, so that a parser can
+      //  carry on reading from the next one
+      if (session.complete) {
+         while (r.getPageBoundaryPosition() == -1 &&
+               (p = r.getNextPacket()) != null) {
+            session.packets.add(p);
+         }
+         session.endPosition = r.getPageBoundaryPosition();
+      }
+      return session;
+   }
+
+   /**
+    * Opens the stream as an Ogg file. If there's a session for
+    *  it, and the stream is still where the session started from,
+    *  the packets the session read come from that, and the stream
+    *  is skipped on to where the session stopped. Otherwise,
+    *  all the packets are read from the stream.
+    */
+   public static OggFile open(InputStream stream, ParseContext context) throws IOException {
+      OggParseSession session = get(stream, context);
+      if (session != null && session.endPosition >= 0 &&
+            session.startPosition == ((TikaInputStream)stream).getPosition()) {
+         skipFully(stream, session.endPosition);
+         return new SessionOggFile(stream, session.packets);
+      }
+      return new OggFile(stream);
+   }
+   private static void skipFully(InputStream stream, long length) throws IOException {
+      while (length > 0) {
+         long skipped = stream.skip(length);
+         if (skipped <= 0) {
+            if (stream.read() == -1) {
+               throw new EOFException("Stream ended before the end of the session");
+            }
+            skipped = 1;
+         }
+         length -= skipped;
+      }
+   }
+
+   /**
+    * Returns the session previously found for this stream, either
+    *  from the Parse Context or from the detector via the
+    *  {@link TikaInputStream}, or null if there isn't one
+    */
+   public static OggParseSession get(InputStream stream, ParseContext context) {
+      TikaInputStream tis = TikaInputStream.cast(stream);
+      if (tis == null) return null;
+
+      OggParseSession session = context.get(OggParseSession.class);
+      if (session != null && session.source == tis) {
+         return session;
+      }
+      if (tis.getOpenContainer() instanceof OggParseSession) {
+         session = (OggParseSession)tis.getOpenContainer();
+         if (session.source == tis) {
+            context.set(OggParseSession.class, session);
+            return session;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Records this session against its stream, for
+    *  later detectors and parsers to use
+    */
+   public void store(ParseContext context) {
+      if (source instanceof TikaInputStream) {
+         TikaInputStream tis = (TikaInputStream)source;
+         if (tis.getOpenContainer() == null) {
+            tis.setOpenContainer(this);
+         }
+      }
+      if (context != null && source != null) {
+         context.set(OggParseSession.class, this);
+      }
+   }
+
+   /**
+    * Were all the headers read, or did the data or
+    *  the byte limit run out first?
+    */
+   public boolean isComplete() {
+      return complete;
+   }
+
+   /**
+    * The Stream IDs of all the streams found, in order
+    */
+   public List<Integer> getSids() {
+      return new ArrayList<Integer>(types.keySet());
+   }
+   public int getTotalStreams() {
+      return types.size();
+   }
+   public OggStreamType getType(int sid) {
+      return types.get(sid);
+   }
+   /**
+    * The Beginning-Of-Stream packet of the given stream
+    */
+   public OggPacket getFirstPacket(int sid) {
+      return firstPackets.get(sid);
+   }
+   /**
+    * How many streams there are of each type
+    */
+   public Map<OggStreamType, Integer> getStreamCounts() {
+      Map<OggStreamType, Integer> counts = new LinkedHashMap<OggStreamType, Integer>();
+      for (OggStreamType type : types.values()) {
+         Integer num = counts.get(type);
+         counts.put(type, (num == null ? 1 : num+1));
+      }
+      return counts;
+   }
+   /**
+    * The packets of each Skeleton stream, by Stream ID
+    */
+   public Map<Integer, List<SkeletonPacket>> getSkeletonStreams() {
+      return Collections.unmodifiableMap(skeletonStreams);
+   }
+
+   /**
+    * An Ogg file where the first packets come from the session,
+    *  and the rest from the stream
+    */
+   private static class SessionOggFile extends OggFile {
+      private final InputStream stream;
+      private List<OggPacket> packets;
+
+      private SessionOggFile(InputStream stream, List<OggPacket> packets) {
+         super(stream);
+         this.stream = stream;
+         this.packets = packets;
+      }
+
+      /**
+       * The first reader gets the session packets, any later
+       *  ones only what's left in the stream
+       */
+      @Override
+      public OggPacketReader getPacketReader() {
+         if (packets == null) {
+            return super.getPacketReader();
+         }
+         OggPacketReader r = new SessionPacketReader(stream, packets.iterator());
+         packets = null;
+         return r;
+      }
+   }
+   /**
+    * Gives the session packets, and then carries on from the stream.
+    * Offsets into the stream are from where the session stopped.
+    */
+   private static class SessionPacketReader extends OggPacketReader {
+      private final Iterator<OggPacket> replay;
+      private OggPacket unread;
+
+      private SessionPacketReader(InputStream stream, Iterator<OggPacket> replay) {
+         super(stream);
+         this.replay = replay;
+      }
+
+      @Override
+      public OggPacket getNextPacket() throws IOException {
+         if (unread != null) {
+            OggPacket p = unread;
+            unread = null;
+            return p;
+         }
+         if (replay.hasNext()) {
+            return replay.next();
+         }
+         return super.getNextPacket();
+      }
+      @Override
+      public void unreadPacket(OggPacket packet) {
+         if (unread != null) {
+            throw new IllegalStateException("Can't un-read twice");
+         }
+         unread = packet;
+      }
+
+      // The base class would keep the packet skipped to behind
+      //  any session ones left, so keep it here instead
+      @Override
+      public void skipToSequenceNumber(int sid, int sequenceNumber) throws IOException {
+         OggPacket p;
+         while ((p = getNextPacket()) != null) {
+            if (p.getSid() == sid && p.getSequenceNumber() >= sequenceNumber) {
+               unread = p;
+               break;
+            }
+         }
+      }
+      @Override
+      public void skipToGranulePosition(int sid, long granulePosition) throws IOException {
+         OggPacket p;
+         while ((p = getNextPacket()) != null) {
+            if (p.getSid() == sid && p.getGranulePosition() >= granulePosition) {
+               unread = p;
+               break;
+            }
+         }
+      }
+   }
+
+   /**
+    * Stops reading once the given number of bytes have been read,
+    *  so we never go beyond where the stream can be reset to
+    */
+   private static class LimitedInputStream extends FilterInputStream {
+      private long remaining;
+      private LimitedInputStream(InputStream in, long limit) {
+         super(in);
+         this.remaining = limit;
+      }
+
+      @Override
+      public int read() throws IOException {
+         if (remaining <= 0) return -1;
+         int r = super.read();
+         if (r != -1) remaining--;
+         return r;
+      }
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+         if (remaining <= 0) return -1;
+         int r = super.read(b, off, (int)Math.min(len, remaining));
+         if (r > 0) remaining -= r;
+         return r;
+      }
+      @Override
+      public long skip(long n) throws IOException {
+         long s = super.skip(Math.min(n, remaining));
+         remaining -= s;
+         return s;
+      }
+      @Override
+      public boolean markSupported() {
+         return false;
+      }
+   }
+}
@@ -15,7 +15,6 @@ package org.gagravarr.tika;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -91,28 +90,28 @@ public class OggParser extends AbstractParser {
          InputStream stream, ContentHandler handler,
          Metadata metadata, ParseContext context)
          throws IOException, TikaException, SAXException {
-      // Process the file straight through once
-      OggFile ogg = new OggFile(stream);
+      // Process the file straight through once, using the
+      //  headers found by the detector if we can
+      OggFile ogg = OggParseSession.open(stream, context);
       
       // To track the streams we find
       Map<OggStreamType, Integer> streams = 
               new HashMap<OggStreamType, Integer>();
       Map<OggStreamType.Kind, Integer> streamKinds =
               new HashMap<OggStreamType.Kind, Integer>();
-      List<Integer> sids = new ArrayList<Integer>();
       int totalStreams = 0;
       
       // Start
       XHTMLContentHandler xhtml = new XHTMLContentHandler(handler, metadata);
       xhtml.startDocument();
 
-      // Check the streams in turn
+      // Check the streams in turn, including those of any
+      //  later links if the file is chained
       OggPacketReader r = ogg.getPacketReader();
       OggPacket p;
       while( (p = r.getNextPacket()) != null ) {
          if (p.isBeginningOfStream()) {
             totalStreams++;
-            sids.add(p.getSid());
 
             OggStreamType type = OggStreamIdentifier.identifyType(p);
             Integer prevValue = streams.get(type);
@@ -0,0 +1,64 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.tika;
+
+import java.io.Serializable;
+
+import org.apache.tika.parser.ParseContext;
+
+/**
+ * Configuration for the Ogg and FLAC parsers, supplied by
+ *  setting it on the {@link ParseContext}.
+ * <p>By default, the parsers process all of the audio to get
+ *  accurate statistics such as the duration. In fast mode,
+ *  only the metadata is read, plus (for the duration) either the
+ *  end of the file if available, or a limited amount of the stream,
+ *  skimmed a page at a time.
+ */
+public class OggParserConfig implements Serializable {
+    private static final long serialVersionUID = -3102542176637409174L;
+
+    /** Enough for at least the last whole Ogg page */
+    public static final int DEFAULT_MAX_BYTES = 128*1024;
+
+    private boolean fastMode = false;
+    private int maxBytes = DEFAULT_MAX_BYTES;
+
+    public OggParserConfig() {}
+    public OggParserConfig(boolean fastMode) {
+        this.fastMode = fastMode;
+    }
+
+    /**
+     * Should only the metadata be extracted, with the duration
+     *  worked out from the last granule without processing the audio?
+     */
+    public boolean isFastMode() {
+        return fastMode;
+    }
+    public void setFastMode(boolean fastMode) {
+        this.fastMode = fastMode;
+    }
+
+    /**
+     * In fast mode, the most bytes to read when looking for the
+     *  duration, from the end of the file or of the stream
+     */
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+    public void setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+}
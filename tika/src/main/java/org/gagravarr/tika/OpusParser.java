@@ -59,8 +59,8 @@ public class OpusParser extends OggAudioParser {
       metadata.set(Metadata.CONTENT_TYPE, OPUS_AUDIO.toString());
       metadata.set(XMPDM.AUDIO_COMPRESSOR, "Opus");
 
-      // Open the process the files
-      OggFile ogg = new OggFile(stream);
+      // Open the file, re-using any headers the detector read
+      OggFile ogg = OggParseSession.open(stream, context);
       OpusFile opus = new OpusFile(ogg);
 
       // Start
@@ -74,7 +74,7 @@ public class OpusParser extends OggAudioParser {
       extractComments(metadata, xhtml, opus.getTags());
 
       // Extract the audio length
-      extractDuration(metadata, xhtml, opus, opus);
+      extractDuration(metadata, xhtml, opus, opus, stream, context);
 
       // Finish
       xhtml.endDocument();
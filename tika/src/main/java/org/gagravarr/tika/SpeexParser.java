@@ -59,8 +59,8 @@ public class SpeexParser extends OggAudioParser {
       metadata.set(Metadata.CONTENT_TYPE, SPEEX_AUDIO.toString());
       metadata.set(XMPDM.AUDIO_COMPRESSOR, "Speex");
 
-      // Open the process the files
-      OggFile ogg = new OggFile(stream);
+      // Open the file, re-using any headers the detector read
+      OggFile ogg = OggParseSession.open(stream, context);
       SpeexFile speex = new SpeexFile(ogg);
 
       // Start
@@ -74,7 +74,7 @@ public class SpeexParser extends OggAudioParser {
       extractComments(metadata, xhtml, speex.getTags());
 
       // Extract the audio length
-      extractDuration(metadata, xhtml, speex, speex);
+      extractDuration(metadata, xhtml, speex, speex, stream, context);
 
       // Finish
       xhtml.endDocument();
@@ -62,8 +62,8 @@ public class TheoraParser extends AbstractParser {
        metadata.set(Metadata.CONTENT_TYPE, THEORA_VIDEO.toString());
        metadata.set(XMPDM.VIDEO_COMPRESSOR, "Theora");
 
-       // Open the process the files
-       OggFile ogg = new OggFile(stream);
+       // Open the file, re-using any headers the detector read
+       OggFile ogg = OggParseSession.open(stream, context);
        TheoraFile theora = new TheoraFile(ogg);
 
        // Start
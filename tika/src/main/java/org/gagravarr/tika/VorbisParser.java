@@ -57,8 +57,8 @@ public class VorbisParser extends OggAudioParser {
       metadata.set(Metadata.CONTENT_TYPE, OGG_VORBIS.toString());
       metadata.set(XMPDM.AUDIO_COMPRESSOR, "Vorbis");
 
-      // Open the process the files
-      OggFile ogg = new OggFile(stream);
+      // Open the file, re-using any headers the detector read
+      OggFile ogg = OggParseSession.open(stream, context);
       VorbisFile vorbis = new VorbisFile(ogg);
 
       // Start
@@ -75,7 +75,7 @@ public class VorbisParser extends OggAudioParser {
       //  return the lyrics etc from within there
 
       // Extract the audio length
-      extractDuration(metadata, xhtml, vorbis, vorbis);
+      extractDuration(metadata, xhtml, vorbis, vorbis, stream, context);
 
       // Finish
       xhtml.endDocument();
@@ -13,8 +13,14 @@
  */
 package org.gagravarr.tika;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Locale;
 
 import junit.framework.TestCase;
@@ -111,4 +117,66 @@ public class TestFlacParser extends TestCase {
 
         assertEquals("Beirut", metadata.get(XMPDM.ARTIST));
     }
+
+    /**
+     * In fast mode, if the Info lacks the number of samples, it's
+     *  found from the last frame or granule
+     */
+    public void testFastMode() throws Exception {
+        FlacParser parser = new FlacParser();
+        ParseContext context = new ParseContext();
+        context.set(OggParserConfig.class, new OggParserConfig(true));
+
+        // Native, with the number of samples removed from the Info
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        InputStream inp = getTestFlacFile();
+        byte[] buf = new byte[4096];
+        int read;
+        while ((read = inp.read(buf)) != -1) {
+            baos.write(buf, 0, read);
+        }
+        byte[] flac = baos.toByteArray();
+        flac[21] &= (byte)0xf0;
+        flac[22] = flac[23] = flac[24] = flac[25] = 0;
+
+        Metadata metadata = new Metadata();
+        parser.parse(TikaInputStream.get(new ByteArrayInputStream(flac)),
+                new BodyContentHandler(), metadata, context);
+        assertEquals("Test Title", metadata.get(TikaCoreProperties.TITLE));
+        assertEquals("0.02", metadata.get(XMPDM.DURATION));
+
+        File tmp = File.createTempFile("vorbis-java-tika", ".flac");
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            out.write(flac);
+            out.close();
+
+            metadata = new Metadata();
+            TikaInputStream tis = TikaInputStream.get(tmp.toPath());
+            parser.parse(tis, new BodyContentHandler(), metadata, context);
+            tis.close();
+            assertEquals("0.02", metadata.get(XMPDM.DURATION));
+
+            // A channel given as the open container is used for the
+            //  end of the file, when there's no file behind the stream
+            FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.READ);
+            try {
+                metadata = new Metadata();
+                tis = TikaInputStream.get(new ByteArrayInputStream(flac));
+                tis.setOpenContainer(channel);
+                parser.parse(tis, new BodyContentHandler(), metadata, context);
+                assertEquals("0.02", metadata.get(XMPDM.DURATION));
+            } finally {
+                channel.close();
+            }
+        } finally {
+            tmp.delete();
+        }
+
+        // Ogg is unchanged, as the Info has the number of samples
+        metadata = new Metadata();
+        parser.parse(TikaInputStream.get(getTestOggFile()),
+                new BodyContentHandler(), metadata, context);
+        assertEquals("0.02", metadata.get(XMPDM.DURATION));
+    }
 }
@@ -197,6 +197,54 @@ public class TestOggDetector extends AbstractIdentificationTest {
         );
     }
 
+    /**
+     * Only the stream headers should be read, not the whole file
+     */
+    public void testDetectReadsHeadersOnly() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OggFile ogg = new OggFile(out);
+        OggPacketWriter w = ogg.getPacketWriter();
+        w.bufferPacket(new VorbisInfo().write(), true);
+        for (int i=0; i<256; i++) {
+            w.bufferPacket(new OggPacket(new byte[4000]), true);
+        }
+        w.close();
+        ogg.close();
+        byte[] data = out.toByteArray();
+        assertTrue(data.length > 1000000);
+
+        final int[] read = new int[1];
+        InputStream counting = new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                int r = super.read(b, off, len);
+                if (r > 0) read[0] += r;
+                return r;
+            }
+            @Override
+            public synchronized int read() {
+                int r = super.read();
+                if (r != -1) read[0]++;
+                return r;
+            }
+        };
+
+        OggDetector d = new OggDetector();
+        assertEquals(
+                VorbisParser.OGG_VORBIS,
+                d.detect(TikaInputStream.get(counting), new Metadata())
+        );
+        // Should stop on the first audio page
+        assertTrue("Read " + read[0], read[0] < 10000);
+
+        // With a tiny limit, we only get as far as knowing it's Ogg
+        d = new OggDetector(20);
+        assertEquals(
+                OggDetector.OGG_GENERAL,
+                d.detect(TikaInputStream.get(data), new Metadata())
+        );
+    }
+
     // These fake up mixed streams
     protected InputStream getDoubleVorbis() throws IOException {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
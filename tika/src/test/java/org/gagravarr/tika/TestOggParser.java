@@ -13,6 +13,10 @@
  */
 package org.gagravarr.tika;
 
+import java.io.ByteArrayOutputStream;
+
+import org.apache.tika.io.IOUtils;
+import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.parser.ParseContext;
 import org.apache.tika.sax.BodyContentHandler;
@@ -70,6 +74,60 @@ public class TestOggParser extends AbstractIdentificationTest {
         assertEquals(null, m.get("streams-vorbis"));
     }
     
+    /**
+     * When the detector has already been run, the parser
+     *  can use what it found without re-reading
+     */
+    public void testSharedSession() throws Exception {
+        TikaInputStream tis = TikaInputStream.get(getTestTheoraSkeletonCMMLFile());
+        assertEquals(TheoraParser.THEORA_VIDEO, new OggDetector().detect(tis, new Metadata()));
+        assertEquals(0, tis.getPosition());
+        assertTrue(tis.getOpenContainer() instanceof OggParseSession);
+
+        OggParseSession session = (OggParseSession)tis.getOpenContainer();
+        assertTrue(session.isComplete());
+        assertEquals(3, session.getTotalStreams());
+        assertEquals(1, session.getSkeletonStreams().size());
+
+        m = new Metadata();
+        parser.parse(tis, handler, m, context);
+        assertEquals("3", m.get("streams-total"));
+        assertEquals("1", m.get("streams-theora"));
+        assertSame(session, context.get(OggParseSession.class));
+        tis.close();
+
+        // A different stream doesn't get that session
+        m = new Metadata();
+        parser.parse(TikaInputStream.get(getTestVorbisFile()), handler, m, context);
+        assertEquals("1", m.get("streams-total"));
+        assertEquals("1", m.get("streams-vorbis"));
+    }
+
+    /**
+     * The streams of all the links of a chained file are counted
+     */
+    public void testChainedFile() throws Exception {
+        ByteArrayOutputStream chain = new ByteArrayOutputStream();
+        IOUtils.copy(getTestVorbisFile(), chain);
+        IOUtils.copy(getTestOpusFile(), chain);
+        IOUtils.copy(getTestVorbisFile(), chain);
+
+        // Both with and without the detector having been run first
+        for (boolean detect : new boolean[] { false, true }) {
+            TikaInputStream tis = TikaInputStream.get(chain.toByteArray());
+            if (detect) {
+                new OggDetector().detect(tis, new Metadata());
+                assertTrue(tis.getOpenContainer() instanceof OggParseSession);
+            }
+            m = new Metadata();
+            parser.parse(tis, handler, m, new ParseContext());
+            assertEquals("3", m.get("streams-total"));
+            assertEquals("3", m.get("streams-audio"));
+            assertEquals("2", m.get("streams-vorbis"));
+            assertEquals("1", m.get("streams-opus"));
+        }
+    }
+
     public void testOtherFiles() throws Exception {
         // Non-standard stream
         m = new Metadata();
@@ -15,6 +15,9 @@ package org.gagravarr.tika;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -26,6 +29,9 @@ import org.apache.tika.metadata.XMP;
 import org.apache.tika.metadata.XMPDM;
 import org.apache.tika.parser.ParseContext;
 import org.apache.tika.sax.BodyContentHandler;
+import org.gagravarr.ogg.OggFile;
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggPacketReader;
 import org.xml.sax.ContentHandler;
 
 public class TestVorbisParser extends TestCase {
@@ -70,6 +76,15 @@ public class TestVorbisParser extends TestCase {
         assertEquals("Vorbis 0", metadata.get("version"));
         assertEquals("Vorbis", metadata.get(XMPDM.AUDIO_COMPRESSOR));
 
+        // Check the audio statistics
+        assertEquals("9", metadata.get("audio-packets"));
+        assertEquals("1", metadata.get("audio-pages"));
+        assertEquals("147735", metadata.get("audio-bitrate"));
+        assertEquals("UNKNOWN", metadata.get("audio-bitrate-mode"));
+        assertEquals("2.52", metadata.get("ogg-overhead-percent"));
+        assertEquals("0", metadata.get("ogg-lost-pages"));
+        assertEquals("0", metadata.get("ogg-granule-discontinuities"));
+
         // Check text
         String content = handler.toString();
         assertTrue(content.contains("Test Title"));
@@ -80,4 +95,105 @@ public class TestVorbisParser extends TestCase {
         assertTrue(content.contains("Test Genre"));
         assertTrue(content.contains("00:00:00.02"));
     }
+
+    /**
+     * In fast mode, the duration comes from the last granule
+     *  only, from the end of the file or by skimming the pages
+     */
+    public void testFastMode() throws Exception {
+        VorbisParser parser = new VorbisParser();
+        ParseContext context = new ParseContext();
+        context.set(OggParserConfig.class, new OggParserConfig(true));
+
+        // From a stream
+        Metadata metadata = new Metadata();
+        parser.parse(
+                TikaInputStream.get(getTestFile()), new BodyContentHandler(),
+                metadata, context
+        );
+        assertEquals("Test Title", metadata.get(TikaCoreProperties.TITLE));
+        assertEquals("0.02", metadata.get(XMPDM.DURATION));
+        assertEquals(null, metadata.get("audio-packets"));
+
+        // From a file
+        metadata = new Metadata();
+        parser.parse(
+                TikaInputStream.get(getClass().getResource("/testVORBIS.ogg")),
+                new BodyContentHandler(), metadata, context
+        );
+        assertEquals("Test Title", metadata.get(TikaCoreProperties.TITLE));
+        assertEquals("0.02", metadata.get(XMPDM.DURATION));
+
+        // Too little allowed to be read from the stream for the duration
+        OggParserConfig config = new OggParserConfig(true);
+        config.setMaxBytes(100);
+        context.set(OggParserConfig.class, config);
+        metadata = new Metadata();
+        parser.parse(
+                TikaInputStream.get(getTestFile()), new BodyContentHandler(),
+                metadata, context
+        );
+        assertEquals("Test Title", metadata.get(TikaCoreProperties.TITLE));
+        assertEquals(null, metadata.get(XMPDM.DURATION));
+    }
+
+    /**
+     * When the detector has been run first, the parser carries on
+     *  from the headers it read, and gets the same results
+     */
+    public void testAfterDetection() throws Exception {
+        TikaInputStream tis = TikaInputStream.get(getTestFile());
+        assertEquals(VorbisParser.OGG_VORBIS, new OggDetector().detect(tis, new Metadata()));
+        assertTrue(tis.getOpenContainer() instanceof OggParseSession);
+
+        ParseContext context = new ParseContext();
+        Metadata metadata = new Metadata();
+        new VorbisParser().parse(tis, new BodyContentHandler(), metadata, context);
+        assertSame(tis.getOpenContainer(), context.get(OggParseSession.class));
+
+        assertEquals("Test Title", metadata.get(TikaCoreProperties.TITLE));
+        assertEquals("44100", metadata.get(XMPDM.AUDIO_SAMPLE_RATE));
+        assertEquals("0.02", metadata.get(XMPDM.DURATION));
+        assertEquals("9", metadata.get("audio-packets"));
+        assertEquals("1", metadata.get("audio-pages"));
+        assertEquals("2.52", metadata.get("ogg-overhead-percent"));
+    }
+
+    /**
+     * Skipping on a reader which replays the detection packets
+     *  gives the same packets, in the same order, as a plain one
+     */
+    public void testSkipAfterDetection() throws Exception {
+        List<OggPacket> expected = new ArrayList<OggPacket>();
+        OggPacketReader plain = new OggFile(getTestFile()).getPacketReader();
+        OggPacket p;
+        while ((p = plain.getNextPacket()) != null) {
+            expected.add(p);
+        }
+        int sid = expected.get(0).getSid();
+
+        // The headers are over two pages, and audio on a third
+        for (int seq = 1; seq <= 2; seq++) {
+            TikaInputStream tis = TikaInputStream.get(getTestFile());
+            new OggDetector().detect(tis, new Metadata());
+            OggPacketReader r = OggParseSession.open(tis, new ParseContext()).getPacketReader();
+            r.skipToSequenceNumber(sid, seq);
+            assertPacketsFrom(expected, r, (seq == 1) ? 1 : 3);
+        }
+
+        TikaInputStream tis = TikaInputStream.get(getTestFile());
+        new OggDetector().detect(tis, new Metadata());
+        OggPacketReader r = OggParseSession.open(tis, new ParseContext()).getPacketReader();
+        r.skipToGranulePosition(sid, 1);
+        assertPacketsFrom(expected, r, 3);
+    }
+    private static void assertPacketsFrom(List<OggPacket> expected, OggPacketReader r,
+                                          int from) throws IOException {
+        for (OggPacket e : expected.subList(from, expected.size())) {
+            OggPacket p = r.getNextPacket();
+            assertNotNull(p);
+            assertTrue(Arrays.equals(e.getData(), p.getData()));
+        }
+        assertNull(r.getNextPacket());
+    }
 }
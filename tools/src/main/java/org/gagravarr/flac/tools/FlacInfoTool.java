@@ -16,6 +16,7 @@ package org.gagravarr.flac.tools;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintStream;
 
 import org.gagravarr.flac.FlacAudioFrame;
 import org.gagravarr.flac.FlacAudioFrame.ChannelType;
@@ -49,13 +50,41 @@ public class FlacInfoTool {
         }
     }
 
+    /**
+     * Prints the metadata of the given file, but not the details of
+     *  all its frames, eg when looking at lots of files
+     */
+    public static void printInfo(File f) throws IOException {
+        printInfo(f, System.out);
+    }
+    /**
+     * Prints the metadata of the given file to the given stream
+     */
+    public static void printInfo(File f, PrintStream out) throws IOException {
+        FlacInfoTool info = new FlacInfoTool(f, out);
+        try {
+            out.println("Processing file \"" + f + "\"");
+            info.printMetadataInfo();
+        } finally {
+            info.flac.close();
+        }
+    }
+
     private FlacFile flac;
+    private PrintStream out;
     public FlacInfoTool(File f) throws FileNotFoundException, IOException {
+        this(f, System.out);
+    }
+    /**
+     * Prints the information on the given file to the given stream
+     */
+    public FlacInfoTool(File f, PrintStream out) throws FileNotFoundException, IOException {
         if(! f.exists()) {
             throw new FileNotFoundException(f.toString());
         }
 
         flac = FlacFile.open(f);
+        this.out = out;
     }
 
     /**
@@ -85,33 +114,33 @@ public class FlacInfoTool {
     public void printMetadataInfo() throws IOException {
         if (flac instanceof FlacOggFile) {
             FlacOggFile ogg = (FlacOggFile)flac;
-            System.out.println("FLAC-in-Ogg, in stream " + ogg.getSid());
+            out.println("FLAC-in-Ogg, in stream " + ogg.getSid());
         } else {
-            System.out.println("FLAC Native");
+            out.println("FLAC Native");
         }
 
         // Output the information block data
         FlacInfo info = flac.getInfo();
-        System.out.println(INDENT1 + "Min Block Size=" + info.getMinimumBlockSize());
-        System.out.println(INDENT1 + "Max Block Size=" + info.getMaximumBlockSize());
-        System.out.println(INDENT1 + "Min Frame Size=" + info.getMinimumFrameSize());
-        System.out.println(INDENT1 + "Max Frame Size=" + info.getMaximumFrameSize());
-        System.out.println(INDENT1 + "Num Channels=" + info.getNumChannels());
-        System.out.println(INDENT1 + "Bits Per Sample=" + info.getBitsPerSample());
-        System.out.println(INDENT1 + "Sample Rate=" + info.getSampleRate());
-        System.out.println(INDENT1 + "Num Samples=" + info.getNumberOfSamples());
-        System.out.println(INDENT1 + "Pre Skip=" + info.getPreSkip());
+        out.println(INDENT1 + "Min Block Size=" + info.getMinimumBlockSize());
+        out.println(INDENT1 + "Max Block Size=" + info.getMaximumBlockSize());
+        out.println(INDENT1 + "Min Frame Size=" + info.getMinimumFrameSize());
+        out.println(INDENT1 + "Max Frame Size=" + info.getMaximumFrameSize());
+        out.println(INDENT1 + "Num Channels=" + info.getNumChannels());
+        out.println(INDENT1 + "Bits Per Sample=" + info.getBitsPerSample());
+        out.println(INDENT1 + "Sample Rate=" + info.getSampleRate());
+        out.println(INDENT1 + "Num Samples=" + info.getNumberOfSamples());
+        out.println(INDENT1 + "Pre Skip=" + info.getPreSkip());
 
         // Output a comments summary
         FlacTags tags = flac.getTags();
-        System.out.println(tags.getAllComments().size() + " Comments:");
+        out.println(tags.getAllComments().size() + " Comments:");
         for (String tag : tags.getAllComments().keySet()) {
-            System.out.println(INDENT1 + tag);
+            out.println(INDENT1 + tag);
             for (String value : tags.getAllComments().get(tag)) {
-                System.out.println(INDENT2 + value);
+                out.println(INDENT2 + value);
             }
         }
-        System.out.println();
+        out.println();
     }
 
     public void printFrameInfo() throws IOException {
@@ -124,68 +153,68 @@ public class FlacInfoTool {
             int thisOffset = offset;
             offset += audio.getCompresedSize();
 
-            System.out.print("frame="+fn);
-            System.out.print(SPACER);
-            System.out.print("offset="+thisOffset);
-            System.out.print(SPACER);
-            System.out.print("bits="+(audio.getData().length*8));
-            System.out.print(SPACER);
-            System.out.print("blocksize="+audio.getBlockSize());
-            System.out.print(SPACER);
-            System.out.print("sample_rate="+audio.getSampleRate());
-            System.out.print(SPACER);
-            System.out.print("channels="+audio.getNumChannels());
-            System.out.print(SPACER);
-            System.out.print("channel_assignment="+getChannelAssignment(audio.getChannelType()));
-            System.out.println();
+            out.print("frame="+fn);
+            out.print(SPACER);
+            out.print("offset="+thisOffset);
+            out.print(SPACER);
+            out.print("bits="+(audio.getData().length*8));
+            out.print(SPACER);
+            out.print("blocksize="+audio.getBlockSize());
+            out.print(SPACER);
+            out.print("sample_rate="+audio.getSampleRate());
+            out.print(SPACER);
+            out.print("channels="+audio.getNumChannels());
+            out.print(SPACER);
+            out.print("channel_assignment="+getChannelAssignment(audio.getChannelType()));
+            out.println();
 
             for (int sfn=0; sfn<audio.getSubFrames().length; sfn++) {
                 FlacAudioSubFrame sf = audio.getSubFrames()[sfn];
-                System.out.print(INDENT1);
-                System.out.print("subframe="+sfn);
-                System.out.print(SPACER);
-                System.out.print("wasted_bits="+sf.getWastedBits());
-                System.out.print(SPACER);
-                System.out.print("type="+sf.getType());
-                System.out.print(SPACER);
-                System.out.print("order="+sf.getPredictorOrder());
+                out.print(INDENT1);
+                out.print("subframe="+sfn);
+                out.print(SPACER);
+                out.print("wasted_bits="+sf.getWastedBits());
+                out.print(SPACER);
+                out.print("type="+sf.getType());
+                out.print(SPACER);
+                out.print("order="+sf.getPredictorOrder());
 
                 if (sf instanceof SubFrameLPC) {
                     SubFrameLPC sflpc = (SubFrameLPC)sf;
-                    System.out.print(SPACER);
-                    System.out.print("qlp_coeff_precision="+sflpc.getLinearPredictorCoefficientPrecision());
-                    System.out.print(SPACER);
-                    System.out.print("quantization_level="+sflpc.getLinearPredictorCoefficientShift());
+                    out.print(SPACER);
+                    out.print("qlp_coeff_precision="+sflpc.getLinearPredictorCoefficientPrecision());
+                    out.print(SPACER);
+                    out.print("quantization_level="+sflpc.getLinearPredictorCoefficientShift());
                 }
                 if (sf instanceof SubFrameWithResidual) {
                     SubFrameWithResidual sfr = (SubFrameWithResidual)sf;
-                    System.out.print(SPACER);
-                    System.out.print("residual_type="+sfr.getResidual().getType());
-                    System.out.print(SPACER);
-                    System.out.print("partition_order="+sfr.getResidual().getPartitionOrder());
-                    System.out.println();
+                    out.print(SPACER);
+                    out.print("residual_type="+sfr.getResidual().getType());
+                    out.print(SPACER);
+                    out.print("partition_order="+sfr.getResidual().getPartitionOrder());
+                    out.println();
 
                     if (sf instanceof SubFrameLPC) {
                         SubFrameLPC sflpc = (SubFrameLPC)sf;
                         for (int qc=0; qc<sflpc.getCoefficients().length; qc++) {
-                            System.out.print(INDENT2);
-                            System.out.print("qlp_coeff["+qc+"]="+sflpc.getCoefficients()[qc]);
-                            System.out.println();
+                            out.print(INDENT2);
+                            out.print("qlp_coeff["+qc+"]="+sflpc.getCoefficients()[qc]);
+                            out.println();
                         }
                     }
                     for (int wn=0; wn<sfr.getWarmUpSamples().length; wn++) {
-                        System.out.print(INDENT2);
-                        System.out.print("warmup["+wn+"]="+sfr.getWarmUpSamples()[wn]);
-                        System.out.println();
+                        out.print(INDENT2);
+                        out.print("warmup["+wn+"]="+sfr.getWarmUpSamples()[wn]);
+                        out.println();
                     }
                     for (int pn=0; pn<sfr.getResidual().getNumPartitions(); pn++) {
-                        System.out.print(INDENT2);
-                        System.out.print("parameter["+pn+"]="+sfr.getResidual().getRiceParams()[pn]);
-                        System.out.println();
+                        out.print(INDENT2);
+                        out.print("parameter["+pn+"]="+sfr.getResidual().getRiceParams()[pn]);
+                        out.println();
                     }
                 } else {
                     // Rest TODO
-                    System.out.println();
+                    out.println();
                 }
             }
         }
@@ -0,0 +1,437 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg.tools;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gagravarr.flac.tools.FlacInfoTool;
+import org.gagravarr.ogg.IOUtils;
+import org.gagravarr.ogg.OggFile;
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggStreamIdentifier;
+import org.gagravarr.ogg.OggStreamIdentifier.OggStreamType;
+import org.gagravarr.opus.tools.OpusInfoTool;
+import org.gagravarr.vorbis.tools.VorbisInfoTool;
+
+/**
+ * Runs the Info Tools over lots of files at once, such as whole
+ *  directories of them, processing the files in parallel but
+ *  outputting the results in order.
+ * <p>The right tool is picked for each file based on its first
+ *  stream: Vorbis, Opus or FLAC get their own tool, anything else
+ *  Ogg gets the {@link OggInfoTool}.
+ * <p>As well as the text output of the tools, the results may be
+ *  output as JSON Lines or CSV {@link InfoRecord}s instead.
+ * <p>If a journal file is given, the files done are recorded in it,
+ *  and any listed there already are skipped, so that an interrupted
+ *  run can be carried on with.
+ */
+public class BatchInfoTool {
+    /** The file extensions looked for when searching directories */
+    public static final List<String> EXTENSIONS = Collections.unmodifiableList(Arrays.asList(
+            "ogg", "oga", "ogv", "ogx", "opus", "spx", "flac"
+    ));
+    /** How often, in milliseconds, to report progress */
+    private static final long PROGRESS_INTERVAL = 5000;
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        File journal = null;
+        String format = "text";
+        List<String> paths = new ArrayList<String>();
+
+        for (int i=0; i<args.length; i++) {
+            if (args[i].equals("-t") && i < args.length-1) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-r") && i < args.length-1) {
+                journal = new File(args[++i]);
+            } else if (args[i].equals("-f") && i < args.length-1) {
+                format = args[++i];
+            } else if (args[i].equals("-l") && i < args.length-1) {
+                paths.addAll(readList(new File(args[++i])));
+            } else {
+                paths.add(args[i]);
+            }
+        }
+        if (paths.isEmpty() || threads < 1) {
+            System.err.println("Use:");
+            System.err.println("   BatchInfoTool [-t threads] [-r journal] [-f format] [-l filelist] <file|dir> [file|dir]");
+            System.err.println("");
+            System.err.println("  -t  Number of files to process at once (default one per CPU)");
+            System.err.println("  -r  Records the files done, and skips ones already done in it");
+            System.err.println("  -f  Output format - text (the Info Tools' output), json (JSON Lines) or csv");
+            System.err.println("  -l  Reads the files or directories to process from a file, one per line");
+            System.exit(1);
+        }
+
+        BatchInfoTool tool = new BatchInfoTool(threads, journal);
+        if (! format.equals("text")) {
+            tool.setRecordWriter(InfoRecordWriter.create(format, System.out));
+        }
+        tool.process(paths);
+    }
+
+    private final int threads;
+    private final File journal;
+    private final PrintStream out;
+    private final PrintStream err;
+    private InfoRecordWriter recordWriter;
+
+    private long processed;
+    private long failed;
+    private long skipped;
+    private long bytes;
+    private long startTime;
+    private long lastProgress;
+
+    public BatchInfoTool(int threads, File journal) {
+        this(threads, journal, System.out, System.err);
+    }
+    /**
+     * Sends the results to the given output, and the
+     *  progress reports to the given error stream
+     */
+    public BatchInfoTool(int threads, File journal, PrintStream out, PrintStream err) {
+        this.threads = threads;
+        this.journal = journal;
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Have structured {@link InfoRecord}s written for each file,
+     *  rather than the text output of the Info Tools
+     */
+    public void setRecordWriter(InfoRecordWriter recordWriter) {
+        this.recordWriter = recordWriter;
+    }
+
+    /**
+     * Processes all the given files, and all the Ogg and FLAC
+     *  files in the given directories
+     */
+    public void process(List<String> paths) throws IOException, InterruptedException {
+        Set<String> done = readJournal();
+        Writer journalOut = null;
+        if (journal != null) {
+            journalOut = new OutputStreamWriter(
+                    new FileOutputStream(journal, true), StandardCharsets.UTF_8);
+        }
+
+        // Only a few files per thread are queued at once, so a huge
+        //  number of files doesn't need a huge amount of memory
+        ExecutorService pool = Executors.newWorkStealingPool(threads);
+        Deque<Future<Result>> pending = new ArrayDeque<Future<Result>>();
+        startTime = lastProgress = System.currentTimeMillis();
+        try {
+            for (String path : paths) {
+                Iterator<Path> it = findFiles(new File(path));
+                while (it.hasNext()) {
+                    File file = it.next().toFile();
+                    if (done.contains(file.getPath())) {
+                        skipped++;
+                        continue;
+                    }
+
+                    pending.add(pool.submit(new FileTask(file, recordWriter != null)));
+                    if (pending.size() >= threads*4) {
+                        complete(pending.poll(), journalOut);
+                    }
+                }
+            }
+            while (!pending.isEmpty()) {
+                complete(pending.poll(), journalOut);
+            }
+        } finally {
+            pool.shutdownNow();
+            if (journalOut != null) {
+                journalOut.close();
+            }
+            if (recordWriter != null) {
+                recordWriter.close();
+            }
+        }
+
+        printProgress("Finished");
+    }
+
+    private void complete(Future<Result> future, Writer journalOut) throws IOException, InterruptedException {
+        Result result;
+        try {
+            result = future.get();
+        } catch (ExecutionException e) {
+            // Tasks catch their own problems, so this shouldn't happen
+            throw new IllegalStateException(e.getCause());
+        }
+
+        if (result.record != null) {
+            recordWriter.write(result.record);
+        } else {
+            out.write(result.output);
+            out.println();
+            out.flush();
+        }
+
+        processed++;
+        bytes += result.file.length();
+        if (result.failed) {
+            failed++;
+        } else if (journalOut != null) {
+            // Failures get tried again on the next run
+            journalOut.write(result.file.getPath());
+            journalOut.write('\n');
+            journalOut.flush();
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastProgress >= PROGRESS_INTERVAL) {
+            lastProgress = now;
+            printProgress("Progress");
+        }
+    }
+
+    private void printProgress(String what) {
+        double secs = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+        err.println(String.format(Locale.ROOT,
+                "%s - %d files processed (%d failed, %d already done), %.1f files/s, %.2f MB/s",
+                what, processed, failed, skipped, processed / secs, bytes / secs / 1024 / 1024));
+    }
+
+    private Set<String> readJournal() throws IOException {
+        if (journal == null || !journal.exists()) {
+            return Collections.emptySet();
+        }
+        return new HashSet<String>(readList(journal));
+    }
+
+    private static List<String> readList(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader r = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        } finally {
+            r.close();
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the file, or the Ogg and FLAC files within the
+     *  directory (in a consistent order) as they are found
+     */
+    protected static Iterator<Path> findFiles(File path) throws IOException {
+        if (! path.isDirectory()) {
+            return Collections.singletonList(path.toPath()).iterator();
+        }
+        return new FileFinder(path.toPath());
+    }
+    private static boolean hasExtension(Path p) {
+        String name = p.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && EXTENSIONS.contains(name.substring(dot+1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Runs the right Info Tool for the file, printing to the given stream
+     */
+    protected static void processFile(File file, PrintStream out) throws IOException {
+        byte[] start = new byte[4];
+        InputStream inp = new FileInputStream(file);
+        try {
+            IOUtils.readFully(inp, start);
+        } finally {
+            inp.close();
+        }
+
+        if (start[0] == 'f' && start[1] == 'L' && start[2] == 'a' && start[3] == 'C') {
+            FlacInfoTool.printInfo(file, out);
+            return;
+        }
+        if (start[0] != 'O' || start[1] != 'g' || start[2] != 'g' || start[3] != 'S') {
+            throw new IllegalArgumentException("Not an Ogg or FLAC file");
+        }
+
+        OggStreamType type;
+        OggFile ogg = new OggFile(new FileInputStream(file));
+        try {
+            OggPacket p = ogg.getPacketReader().getNextPacket();
+            type = OggStreamIdentifier.identifyType(p);
+        } finally {
+            ogg.close();
+        }
+
+        OggAudioInfoTool tool = null;
+        if (type == OggStreamIdentifier.OGG_VORBIS) {
+            tool = new VorbisInfoTool();
+        } else if (type == OggStreamIdentifier.OPUS_AUDIO) {
+            tool = new OpusInfoTool();
+        }
+        if (tool != null) {
+            tool.setOutput(out);
+            tool.process(file, false);
+        } else if (type == OggStreamIdentifier.OGG_FLAC) {
+            FlacInfoTool.printInfo(file, out);
+        } else {
+            OggInfoTool info = new OggInfoTool(file, out);
+            try {
+                info.printStreamInfo();
+            } finally {
+                info.close();
+            }
+        }
+    }
+
+    private static class Result {
+        private final File file;
+        private final byte[] output;
+        private final InfoRecord record;
+        private final boolean failed;
+        private Result(File file, byte[] output, InfoRecord record, boolean failed) {
+            this.file = file;
+            this.output = output;
+            this.record = record;
+            this.failed = failed;
+        }
+    }
+
+    private static class FileTask implements Callable<Result> {
+        private final File file;
+        private final boolean asRecord;
+        private FileTask(File file, boolean asRecord) {
+            this.file = file;
+            this.asRecord = asRecord;
+        }
+
+        public Result call() throws IOException {
+            // Each file's output is buffered, to be written in order
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(buffer, false, "UTF-8");
+            InfoRecord record = null;
+            boolean failed = false;
+            try {
+                if (asRecord) {
+                    record = InfoRecord.forFile(file);
+                } else {
+                    processFile(file, out);
+                }
+            } catch (Exception e) {
+                if (asRecord) {
+                    record = new InfoRecord(file);
+                    record.put("error", e.toString());
+                } else {
+                    out.println("Error - unable to process \"" + file + "\": " + e);
+                }
+                failed = true;
+            }
+            out.flush();
+            return new Result(file, buffer.toByteArray(), record, failed);
+        }
+    }
+
+    /**
+     * Finds the Ogg and FLAC files within a directory, and the ones
+     *  below it, as they're needed. The entries of each directory are
+     *  sorted, for a consistent order, but only the listings of the
+     *  directories currently being gone through are held.
+     */
+    private static class FileFinder implements Iterator<Path> {
+        private final Deque<Iterator<Path>> directories = new ArrayDeque<Iterator<Path>>();
+        private Path next;
+
+        private FileFinder(Path dir) throws IOException {
+            directories.push(list(dir));
+        }
+        private static Iterator<Path> list(Path dir) throws IOException {
+            List<Path> entries = new ArrayList<Path>();
+            DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+            try {
+                for (Path p : stream) {
+                    entries.add(p);
+                }
+            } finally {
+                stream.close();
+            }
+            Collections.sort(entries);
+            return entries.iterator();
+        }
+
+        public boolean hasNext() {
+            while (next == null && !directories.isEmpty()) {
+                Iterator<Path> it = directories.peek();
+                if (! it.hasNext()) {
+                    directories.pop();
+                    continue;
+                }
+
+                Path p = it.next();
+                if (Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
+                    try {
+                        directories.push(list(p));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                } else if (Files.isRegularFile(p) && hasExtension(p)) {
+                    next = p;
+                }
+            }
+            return next != null;
+        }
+        public Path next() {
+            if (! hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Path p = next;
+            next = null;
+            return p;
+        }
+    }
+}
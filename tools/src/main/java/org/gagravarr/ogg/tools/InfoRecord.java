@@ -0,0 +1,276 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gagravarr.flac.FlacFile;
+import org.gagravarr.flac.FlacInfo;
+import org.gagravarr.ogg.IOUtils;
+import org.gagravarr.ogg.OggFile;
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.ogg.OggPacketReader;
+import org.gagravarr.ogg.OggStreamIdentifier;
+import org.gagravarr.ogg.OggStreamIdentifier.OggStreamType;
+import org.gagravarr.ogg.audio.OggAudioHeaders;
+import org.gagravarr.ogg.audio.OggAudioInfoHeader;
+import org.gagravarr.ogg.audio.OggAudioStatistics;
+import org.gagravarr.ogg.audio.OggAudioStream;
+import org.gagravarr.ogg.audio.OggAudioTagsHeader;
+import org.gagravarr.opus.OpusFile;
+import org.gagravarr.speex.SpeexFile;
+import org.gagravarr.vorbis.VorbisFile;
+
+/**
+ * The information on one file, as found by the Info Tools, in a
+ *  structured form for writing out by an {@link InfoRecordWriter}.
+ * <p>The fields are (with the nested ones as dotted names):
+ * <ul>
+ *  <li>schema_version, file, size, container (ogg or flac), error</li>
+ *  <li>streams - list of sid, type, mimetype, kind</li>
+ *  <li>audio.codec, audio.version, audio.vendor, audio.channels,
+ *      audio.sample_rate, audio.bits_per_sample, audio.pre_skip,
+ *      audio.duration_seconds</li>
+ *  <li>tags - tag name to list of values</li>
+ *  <li>statistics.audio_packets, .audio_pages, .audio_bytes, .header_bytes,
+ *      .ogg_overhead_bytes, .ogg_overhead_percent, .bitrate_average,
+ *      .bitrate_min, .bitrate_max, .bitrate_mode, .packet_size_min,
+ *      .packet_size_median, .packet_size_95, .packet_size_max,
+ *      .lost_pages, .sequence_gaps, .granule_discontinuities</li>
+ *  <li>warnings - list of any problems found with the audio, such as lost pages</li>
+ * </ul>
+ * Fields which don't apply to a file are left out. Fields may be
+ *  added in later versions, but existing ones won't be changed
+ *  without the schema version changing.
+ */
+public class InfoRecord {
+    /** The version of the fields, which changes if existing ones do */
+    public static final int SCHEMA_VERSION = 1;
+
+    private final Map<String, Object> fields = new LinkedHashMap<String, Object>();
+
+    /**
+     * Creates a record for the file, with only the basic details
+     *  such as the name and size filled in
+     */
+    public InfoRecord(File file) {
+        fields.put("schema_version", SCHEMA_VERSION);
+        fields.put("file", file.getPath());
+        fields.put("size", file.length());
+    }
+
+    /**
+     * Sets the value of a field, which may be a String, Number,
+     *  Boolean, List or Map of these, or null to remove it
+     */
+    public void put(String field, Object value) {
+        if (value == null) {
+            fields.remove(field);
+        } else {
+            fields.put(field, value);
+        }
+    }
+    public Object get(String field) {
+        return fields.get(field);
+    }
+    /**
+     * Gets a possibly nested field, by its dotted name,
+     *  eg audio.sample_rate
+     */
+    @SuppressWarnings("unchecked")
+    public Object getPath(String path) {
+        Object value = fields;
+        for (String part : path.split("\\.")) {
+            if (! (value instanceof Map)) {
+                return null;
+            }
+            value = ((Map<String, Object>)value).get(part);
+        }
+        return value;
+    }
+    /**
+     * The fields, in the order they were added
+     */
+    public Map<String, Object> getFields() {
+        return fields;
+    }
+
+    /**
+     * Works out all the information on the file, which must
+     *  be an Ogg or native FLAC one
+     */
+    public static InfoRecord forFile(File file) throws IOException {
+        InfoRecord record = new InfoRecord(file);
+
+        byte[] start = new byte[4];
+        InputStream inp = new FileInputStream(file);
+        try {
+            IOUtils.readFully(inp, start);
+        } finally {
+            inp.close();
+        }
+
+        if (start[0] == 'f' && start[1] == 'L' && start[2] == 'a' && start[3] == 'C') {
+            record.put("container", "flac");
+            record.put("streams", new ArrayList<Object>());
+            record.addFlac(file, OggStreamIdentifier.NATIVE_FLAC);
+            return record;
+        }
+        if (start[0] != 'O' || start[1] != 'g' || start[2] != 'g' || start[3] != 'S') {
+            throw new IllegalArgumentException("Not an Ogg or FLAC file");
+        }
+        record.put("container", "ogg");
+
+        // Find the streams from their first packets
+        List<Object> streams = new ArrayList<Object>();
+        OggStreamType audioType = null;
+        OggFile ogg = new OggFile(new FileInputStream(file));
+        try {
+            OggPacketReader r = ogg.getPacketReader();
+            OggPacket p;
+            while ((p = r.getNextPacket()) != null && p.isBeginningOfStream()) {
+                OggStreamType type = OggStreamIdentifier.identifyType(p);
+                Map<String, Object> stream = new LinkedHashMap<String, Object>();
+                stream.put("sid", p.getSid());
+                stream.put("type", type.description);
+                stream.put("mimetype", type.mimetype);
+                stream.put("kind", type.kind.toString());
+                streams.add(stream);
+
+                if (audioType == null && isSupportedAudio(type)) {
+                    audioType = type;
+                }
+            }
+        } finally {
+            ogg.close();
+        }
+        record.put("streams", streams);
+
+        // Add the details of the first audio stream we can handle
+        if (audioType == OggStreamIdentifier.OGG_FLAC) {
+            record.addFlac(file, audioType);
+        } else if (audioType != null) {
+            record.addOggAudio(file, audioType);
+        }
+        return record;
+    }
+
+    private static boolean isSupportedAudio(OggStreamType type) {
+        return type == OggStreamIdentifier.OGG_VORBIS ||
+               type == OggStreamIdentifier.OPUS_AUDIO ||
+               type == OggStreamIdentifier.SPEEX_AUDIO ||
+               type == OggStreamIdentifier.OGG_FLAC;
+    }
+
+    private void addOggAudio(File file, OggStreamType type) throws IOException {
+        OggFile ogg = new OggFile(new FileInputStream(file));
+        try {
+            Object audioFile;
+            if (type == OggStreamIdentifier.OGG_VORBIS) {
+                audioFile = new VorbisFile(ogg);
+            } else if (type == OggStreamIdentifier.OPUS_AUDIO) {
+                audioFile = new OpusFile(ogg);
+            } else {
+                audioFile = new SpeexFile(ogg);
+            }
+            OggAudioHeaders headers = (OggAudioHeaders)audioFile;
+            OggAudioStatistics stats = OggStreamIdentifier.getHandler(type).createStatistics(
+                    headers, (OggAudioStream)audioFile);
+            stats.calculate();
+
+            OggAudioInfoHeader info = headers.getInfo();
+            Map<String, Object> audio = new LinkedHashMap<String, Object>();
+            audio.put("codec", type.description);
+            audio.put("version", info.getVersionString());
+            if (headers.getTags() != null) {
+                audio.put("vendor", headers.getTags().getVendor());
+            }
+            audio.put("channels", info.getNumChannels());
+            audio.put("sample_rate", info.getSampleRate());
+            audio.put("pre_skip", info.getPreSkip());
+            audio.put("duration_seconds", stats.getDurationSeconds());
+            put("audio", audio);
+
+            addTags(headers.getTags());
+            addStatistics(stats);
+            List<String> warnings = OggAudioInfoTool.getWarnings(stats);
+            if (! warnings.isEmpty()) {
+                put("warnings", warnings);
+            }
+        } finally {
+            ogg.close();
+        }
+    }
+
+    private void addFlac(File file, OggStreamType type) throws IOException {
+        FlacFile flac = FlacFile.open(file);
+        try {
+            FlacInfo info = flac.getInfo();
+            Map<String, Object> audio = new LinkedHashMap<String, Object>();
+            audio.put("codec", type.description);
+            if (flac.getTags() != null) {
+                audio.put("vendor", flac.getTags().getVendor());
+            }
+            audio.put("channels", info.getNumChannels());
+            audio.put("sample_rate", info.getSampleRate());
+            audio.put("bits_per_sample", info.getBitsPerSample());
+            audio.put("duration_seconds", info.getDurationSeconds());
+            put("audio", audio);
+
+            addTags(flac.getTags());
+        } finally {
+            flac.close();
+        }
+    }
+
+    private void addTags(OggAudioTagsHeader tags) {
+        if (tags == null) return;
+        put("tags", new LinkedHashMap<String, Object>(tags.getAllComments()));
+    }
+
+    private void addStatistics(OggAudioStatistics stats) {
+        Map<String, Object> s = new LinkedHashMap<String, Object>();
+        s.put("audio_packets", stats.getAudioPacketsCount());
+        s.put("audio_pages", stats.getAudioPagesCount());
+        s.put("audio_bytes", stats.getAudioDataSize());
+        s.put("header_bytes", stats.getHeaderOverheadSize());
+        s.put("ogg_overhead_bytes", stats.getOggOverheadSize());
+        s.put("ogg_overhead_percent", stats.getOggOverheadPercentage());
+        if (stats.getDurationSeconds() > 0) {
+            s.put("bitrate_average", (long)stats.getAverageAudioBitrate());
+        }
+        if (stats.getBitrateSecondsCount() > 0) {
+            s.put("bitrate_min", stats.getMinSecondBitrate());
+            s.put("bitrate_max", stats.getMaxSecondBitrate());
+        }
+        s.put("bitrate_mode", stats.getBitrateMode().toString());
+        if (stats.getAudioPacketsCount() > 0) {
+            s.put("packet_size_min", stats.getMinPacketSize());
+            s.put("packet_size_median", stats.getPacketSizePercentile(50));
+            s.put("packet_size_95", stats.getPacketSizePercentile(95));
+            s.put("packet_size_max", stats.getMaxPacketSize());
+        }
+        s.put("lost_pages", stats.getLostPagesCount());
+        s.put("sequence_gaps", stats.getSequenceGapsCount());
+        s.put("granule_discontinuities", stats.getGranuleDiscontinuitiesCount());
+        put("statistics", s);
+    }
+}
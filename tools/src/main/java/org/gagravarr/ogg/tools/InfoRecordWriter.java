@@ -0,0 +1,252 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg.tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes out {@link InfoRecord}s one at a time as they are produced,
+ *  so that nothing builds up in memory however many files there are.
+ * Available as JSON Lines (one JSON object per file, per line), or
+ *  as CSV (one row per file, with a fixed set of columns).
+ */
+public abstract class InfoRecordWriter implements Closeable {
+    protected final Writer out;
+
+    protected InfoRecordWriter(OutputStream out) {
+        this.out = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a writer for the given format, json or csv
+     */
+    public static InfoRecordWriter create(String format, OutputStream out) {
+        if ("json".equalsIgnoreCase(format) || "jsonl".equalsIgnoreCase(format)) {
+            return new JsonLinesWriter(out);
+        }
+        if ("csv".equalsIgnoreCase(format)) {
+            return new CsvWriter(out);
+        }
+        throw new IllegalArgumentException("Unsupported output format " + format);
+    }
+
+    /**
+     * Writes out the record, and flushes it
+     */
+    public abstract void write(InfoRecord record) throws IOException;
+
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * One JSON object per line, with all the fields
+     *  of the record, nested as they are there
+     */
+    public static class JsonLinesWriter extends InfoRecordWriter {
+        public JsonLinesWriter(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(InfoRecord record) throws IOException {
+            writeValue(record.getFields());
+            out.write('\n');
+            out.flush();
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.write("null");
+            } else if (value instanceof Map) {
+                out.write('{');
+                Iterator<? extends Map.Entry<?, ?>> it = ((Map<?, ?>)value).entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<?, ?> e = it.next();
+                    writeString(e.getKey().toString());
+                    out.write(':');
+                    writeValue(e.getValue());
+                    if (it.hasNext()) out.write(',');
+                }
+                out.write('}');
+            } else if (value instanceof List) {
+                out.write('[');
+                Iterator<?> it = ((List<?>)value).iterator();
+                while (it.hasNext()) {
+                    writeValue(it.next());
+                    if (it.hasNext()) out.write(',');
+                }
+                out.write(']');
+            } else if (value instanceof Double || value instanceof Float) {
+                double d = ((Number)value).doubleValue();
+                if (Double.isNaN(d) || Double.isInfinite(d)) {
+                    out.write("null");
+                } else {
+                    out.write(formatNumber(d));
+                }
+            } else if (value instanceof Number || value instanceof Boolean) {
+                out.write(value.toString());
+            } else {
+                writeString(value.toString());
+            }
+        }
+
+        private void writeString(String s) throws IOException {
+            out.write('"');
+            for (int i=0; i<s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                case '"':  out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format(Locale.ROOT, "\\u%04x", (int)c));
+                    } else {
+                        out.write(c);
+                    }
+                }
+            }
+            out.write('"');
+        }
+    }
+
+    /**
+     * One row per file, with a header row of the fixed
+     *  {@link #COLUMNS}. Lists have their values separated by
+     *  semicolons, and streams are given as sid:type
+     */
+    public static class CsvWriter extends InfoRecordWriter {
+        /** The columns, as the dotted names of the record fields */
+        public static final List<String> COLUMNS = Collections.unmodifiableList(Arrays.asList(
+                "file", "size", "container", "streams", "audio.codec", "audio.version",
+                "audio.vendor", "audio.channels", "audio.sample_rate", "audio.bits_per_sample",
+                "audio.pre_skip", "audio.duration_seconds",
+                "tags.title", "tags.artist", "tags.album", "tags.date",
+                "statistics.audio_packets", "statistics.audio_pages", "statistics.audio_bytes",
+                "statistics.header_bytes", "statistics.ogg_overhead_bytes",
+                "statistics.ogg_overhead_percent", "statistics.bitrate_average",
+                "statistics.bitrate_min", "statistics.bitrate_max", "statistics.bitrate_mode",
+                "statistics.packet_size_min", "statistics.packet_size_median",
+                "statistics.packet_size_95", "statistics.packet_size_max",
+                "statistics.lost_pages", "statistics.sequence_gaps",
+                "statistics.granule_discontinuities", "warnings", "error"
+        ));
+        private boolean headerWritten;
+
+        public CsvWriter(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(InfoRecord record) throws IOException {
+            if (! headerWritten) {
+                writeRow(COLUMNS);
+                headerWritten = true;
+            }
+
+            String[] row = new String[COLUMNS.size()];
+            for (int i=0; i<row.length; i++) {
+                String column = COLUMNS.get(i);
+                if (column.equals("streams")) {
+                    row[i] = formatStreams(record.get("streams"));
+                } else if (column.startsWith("tags.")) {
+                    // Tag names are case insensitive
+                    row[i] = formatTag(record.get("tags"), column.substring(5));
+                } else {
+                    row[i] = format(record.getPath(column));
+                }
+            }
+            writeRow(Arrays.asList(row));
+            out.flush();
+        }
+
+        private static String format(Object value) {
+            if (value == null) {
+                return "";
+            }
+            if (value instanceof List) {
+                StringBuilder sb = new StringBuilder();
+                for (Object v : (List<?>)value) {
+                    if (sb.length() > 0) sb.append(';');
+                    sb.append(format(v));
+                }
+                return sb.toString();
+            }
+            if (value instanceof Double || value instanceof Float) {
+                double d = ((Number)value).doubleValue();
+                if (Double.isNaN(d) || Double.isInfinite(d)) {
+                    return "";
+                }
+                return formatNumber(d);
+            }
+            return value.toString();
+        }
+        private static String formatStreams(Object streams) {
+            if (! (streams instanceof List)) return "";
+            StringBuilder sb = new StringBuilder();
+            for (Object s : (List<?>)streams) {
+                Map<?, ?> stream = (Map<?, ?>)s;
+                if (sb.length() > 0) sb.append(';');
+                sb.append(stream.get("sid")).append(':').append(stream.get("type"));
+            }
+            return sb.toString();
+        }
+        private static String formatTag(Object tags, String name) {
+            if (! (tags instanceof Map)) return "";
+            for (Map.Entry<?, ?> e : ((Map<?, ?>)tags).entrySet()) {
+                if (name.equalsIgnoreCase(e.getKey().toString())) {
+                    return format(e.getValue());
+                }
+            }
+            return "";
+        }
+
+        private void writeRow(List<String> values) throws IOException {
+            for (int i=0; i<values.size(); i++) {
+                if (i > 0) out.write(',');
+                String v = values.get(i);
+                if (v.indexOf(',') >= 0 || v.indexOf('"') >= 0 ||
+                        v.indexOf('\n') >= 0 || v.indexOf('\r') >= 0) {
+                    out.write('"');
+                    out.write(v.replace("\"", "\"\""));
+                    out.write('"');
+                } else {
+                    out.write(v);
+                }
+            }
+            out.write("\r\n");
+        }
+    }
+
+    private static String formatNumber(double d) {
+        if (d == Math.rint(d) && Math.abs(d) < 1e15) {
+            return Long.toString((long)d);
+        }
+        return String.format(Locale.ROOT, "%.4f", d).replaceAll("0+$", "");
+    }
+}
@@ -16,6 +16,8 @@ package org.gagravarr.ogg.tools;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -56,6 +58,16 @@ public abstract class OggAudioInfoTool {
 
     public abstract void process(File file, boolean debugging) throws IOException;
 
+    /** Where the information is printed to */
+    protected PrintStream out = System.out;
+    /**
+     * Has the information printed to the given stream,
+     *  rather than to {@link System#out}
+     */
+    public void setOutput(PrintStream out) {
+        this.out = out;
+    }
+
     public abstract String getToolName();
     public abstract String getDefaultExtension();
 
@@ -72,11 +84,14 @@ public abstract class OggAudioInfoTool {
     }
 
     public static void listTags(OggAudioHeaders oa) {
+        listTags(oa, System.out);
+    }
+    public static void listTags(OggAudioHeaders oa, PrintStream out) {
         Map<String, List<String>> comments =
                 oa.getTags().getAllComments();
         for(String tag : comments.keySet()) {
             for(String value : comments.get(tag)) {
-                System.out.println("  " + tag + "=" + value);
+                out.println("  " + tag + "=" + value);
             }
         }
     }
@@ -97,15 +112,66 @@ public abstract class OggAudioInfoTool {
         }
     }
 
+    /**
+     * Prints the packet sizes, bitrates and any problems
+     *  found in the audio
+     */
+    public static void printStatistics(OggAudioStatistics stats) {
+        printStatistics(stats, System.out);
+    }
+    public static void printStatistics(OggAudioStatistics stats, PrintStream out) {
+        if (stats.getAudioPacketsCount() == 0) return;
+
+        out.println("  Packet sizes: " + stats.getMinPacketSize() + " (min), "
+                           + stats.getPacketSizePercentile(50) + " (median), "
+                           + stats.getPacketSizePercentile(95) + " (95%), "
+                           + stats.getMaxPacketSize() + " (max) bytes");
+        out.println("  Audio pages: " + stats.getAudioPagesCount()
+                           + " (overhead: " + format1(stats.getOggOverheadPercentage()) + "%)");
+        if (stats.getBitrateSecondsCount() > 0) {
+            out.println("  Bitrate per second: "
+                               + formatBitrate(stats.getMinSecondBitrate()) + " (min), "
+                               + formatBitrate(stats.getMaxSecondBitrate()) + " (max), over "
+                               + stats.getBitrateSecondsCount() + " seconds");
+        }
+        out.println("  Bitrate mode: " + stats.getBitrateMode());
+
+        for (String warning : getWarnings(stats)) {
+            out.println("  WARNING: " + warning);
+        }
+    }
+
+    /**
+     * Describes the problems found in the audio, if any
+     */
+    public static List<String> getWarnings(OggAudioStatistics stats) {
+        List<String> warnings = new ArrayList<String>();
+        if (stats.getLostPagesCount() > 0 || stats.getSequenceGapsCount() > 0) {
+            warnings.add(stats.getLostPagesCount() + " lost pages, in "
+                         + stats.getSequenceGapsCount() + " page sequence gaps");
+        }
+        if (stats.getGranuleDiscontinuitiesCount() > 0) {
+            warnings.add("granule went backwards "
+                         + stats.getGranuleDiscontinuitiesCount() + " times");
+        }
+        return warnings;
+    }
+
     protected static class InfoAudioStats extends OggAudioStatistics {
         private boolean debugging;
         private int lastSeqNum;
+        private PrintStream out;
 
         public InfoAudioStats(OggAudioHeaders headers, OggAudioStream audio, 
                    int lastSeqNum, boolean debugging) throws IOException {
+            this(headers, audio, lastSeqNum, debugging, System.out);
+        }
+        public InfoAudioStats(OggAudioHeaders headers, OggAudioStream audio, 
+                   int lastSeqNum, boolean debugging, PrintStream out) throws IOException {
             super(headers, audio);
             this.debugging = debugging;
             this.lastSeqNum = lastSeqNum;
+            this.out = out;
         }
 
         @Override
@@ -113,7 +179,7 @@ public abstract class OggAudioInfoTool {
             super.handleAudioData(audioData);
 
             if(debugging) {
-                System.out.println(
+                out.println(
                         lastSeqNum + " - " +
                         audioData.getGranulePosition() + " - " +
                         audioData.getData().length + " bytes"
@@ -125,9 +191,14 @@ public abstract class OggAudioInfoTool {
     protected static class InfoPacketReader extends OggPacketReader {
         private boolean inProgress = false;
         private int lastSeqNum = 0;
+        private PrintStream out;
 
         public InfoPacketReader(InputStream inp) {
+            this(inp, System.out);
+        }
+        public InfoPacketReader(InputStream inp, PrintStream out) {
             super(inp);
+            this.out = out;
         }
 
         public int getLastSeqNum() {
@@ -150,14 +221,14 @@ public abstract class OggAudioInfoTool {
                 lastSeqNum = p.getSequenceNumber();
 
                 if(p.isBeginningOfStream()) {
-                    System.out.println(
+                    out.println(
                             "New logical stream " + 
                             Integer.toHexString(p.getSid()) +
                             " (" + p.getSid() + ") found"
                     );
                 }
                 if(p.isEndOfStream()) {
-                    System.out.println(
+                    out.println(
                             "Logical stream " + 
                             Integer.toHexString(p.getSid()) +
                             " (" + p.getSid() + ") completed"
@@ -172,7 +243,7 @@ public abstract class OggAudioInfoTool {
             OggPacket p;
             while( (p = getNextPacket()) != null ) {
                 if(p.getSid() != sid) {
-                    System.out.println("Ignoring packet from stream " +
+                    out.println("Ignoring packet from stream " +
                             Integer.toHexString(p.getSid()));
                 } else {
                     return p;
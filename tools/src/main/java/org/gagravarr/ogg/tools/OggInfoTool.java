@@ -17,6 +17,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -42,24 +43,33 @@ public class OggInfoTool {
         for(String f : args) {
             OggInfoTool info = new OggInfoTool(new File(f));
             info.printStreamInfo();
+            info.close();
         }
     }
 
     private File file;
     private OggFile ogg;
+    private PrintStream out;
     public OggInfoTool(File f) throws FileNotFoundException {
+        this(f, System.out);
+    }
+    /**
+     * Prints the information on the given file to the given stream
+     */
+    public OggInfoTool(File f, PrintStream out) throws FileNotFoundException {
         if(! f.exists()) {
             throw new FileNotFoundException(f.toString());
         }
 
         file = f;
         ogg = new OggFile( new FileInputStream(f) );
+        this.out = out;
     }
 
     public void printStreamInfo() throws IOException {
         OggPacketReader r = ogg.getPacketReader();
 
-        System.out.println("Processing file \"" + file.toString() + "\"");
+        out.println("Processing file \"" + file.toString() + "\"");
 
         int pc = 0;
         int streams = 0;
@@ -73,25 +83,25 @@ public class OggInfoTool {
                 streams++;
                 lastSid = p.getSid();
 
-                System.out.println("");
-                System.out.println("New logical stream #"+streams + ", serial: " +
+                out.println("");
+                out.println("New logical stream #"+streams + ", serial: " +
                                    Integer.toHexString(p.getSid()) + " (" + p.getSid() + ")");
 
                 OggStreamType type = OggStreamIdentifier.identifyType(p);
                 streamTypes.put(lastSid, type.description);
 
-                System.out.println("\t"+type.description+" detected ("+type.mimetype+")");
+                out.println("\t"+type.description+" detected ("+type.mimetype+")");
             } else if(p.isEndOfStream()) {
                 if (pc > 0) {
-                    System.out.println("(" + pc + " mid-stream packets of " +
+                    out.println("(" + pc + " mid-stream packets of " +
                                        Integer.toHexString(p.getSid()) + ")");
                 }
-                System.out.println("Stream " + Integer.toHexString(p.getSid()) + 
+                out.println("Stream " + Integer.toHexString(p.getSid()) + 
                                    " of " + streamTypes.get(p.getSid()) + " ended");
                 pc = 0;
             } else {
                 if(p.getSid() != lastSid) {
-                    System.out.println("(" + pc + " packets of stream " +
+                    out.println("(" + pc + " packets of stream " +
                                        Integer.toHexString(p.getSid()) + ")");
 
                     lastSid = p.getSid();
@@ -102,4 +112,8 @@ public class OggInfoTool {
             }
         }
     }
+
+    public void close() throws IOException {
+        ogg.close();
+    }
 }
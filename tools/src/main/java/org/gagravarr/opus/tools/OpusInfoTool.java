@@ -19,6 +19,7 @@ import java.io.IOException;
 
 import org.gagravarr.ogg.tools.OggAudioInfoTool;
 import org.gagravarr.opus.OpusFile;
+import org.gagravarr.opus.OpusPacketParser;
 import org.gagravarr.opus.OpusStatistics;
 
 /**
@@ -40,51 +41,77 @@ public class OpusInfoTool extends OggAudioInfoTool {
 
     @Override
     public void process(File file, boolean debugging) throws IOException {
-        InfoPacketReader r = new InfoPacketReader(
-                new FileInputStream(file));
-        OpusFile of = new OpusFile(r);
+        FileInputStream inp = new FileInputStream(file);
+        try {
+            InfoPacketReader r = new InfoPacketReader(inp, out);
+            OpusFile of = new OpusFile(r);
 
-        System.out.println("Processing file \"" + file + "\"");
+            out.println("Processing file \"" + file + "\"");
 
-        System.out.println("");
-        System.out.println("Opus Headers:");
-        System.out.println("  Version: " + of.getInfo().getVersion());
-        System.out.println("  Vendor: " + of.getTags().getVendor());
-        System.out.println("  Channels: " + of.getInfo().getNumChannels());
-        System.out.println("  Rate: " + of.getInfo().getRate() + "Hz");
-        System.out.println("  Pre-Skip: " + of.getInfo().getPreSkip());
-        System.out.println("  Playback Gain: " + of.getInfo().getOutputGain() + "dB");
-        System.out.println("");
+            out.println("");
+            out.println("Opus Headers:");
+            out.println("  Version: " + of.getInfo().getVersion());
+            out.println("  Vendor: " + of.getTags().getVendor());
+            out.println("  Channels: " + of.getInfo().getNumChannels());
+            out.println("  Rate: " + of.getInfo().getRate() + "Hz");
+            out.println("  Pre-Skip: " + of.getInfo().getPreSkip());
+            out.println("  Playback Gain: " + of.getInfo().getOutputGain() + "dB");
+            out.println("");
 
-        System.out.println("User Comments:");
-        listTags(of);
-        System.out.println("");
+            out.println("User Comments:");
+            listTags(of, out);
+            out.println("");
 
-        OpusStatistics stats = new OpusStatistics(of);
-        stats.calculate();
-        System.out.println("");
-        System.out.println("Opus Audio:");
-        System.out.println("  Total Data Packets: " + stats.getAudioPacketsCount());
-        System.out.println("  Total Data Length: " + stats.getAudioDataSize());
-        System.out.println("  Audio Length Seconds: " + stats.getDurationSeconds());
-        System.out.println("  Audio Length: " + stats.getDuration());
-        System.out.println("  Packet duration: "+ format2(stats.getMaxPacketDuration())+"ms (max), "
-                           +format2(stats.getAvgPacketDuration())+"ms (avg), "
-                           +format2(stats.getMinPacketDuration())+"ms (min)");
-        System.out.println("  Page duration:   "+ format2(stats.getMaxPageDuration())+"ms (max), "
-                           +format2(stats.getAvgPageDuration())+"ms (avg), "
-                           +format2(stats.getMinPageDuration())+"ms (min)");
-        System.out.println("  Total data length: "+ stats.getAudioDataSize() + 
-                           " (overhead: " + format1(stats.getOggOverheadPercentage())+"%)");
-        System.out.println("  Playback length: "+ stats.getDuration());
-        String cbr = "";
-        if (stats.getMinPacketDuration() == stats.getMaxPacketDuration()
-                && stats.getMinPacketBytes() == stats.getMaxPacketBytes()) {
-            cbr= " (hard-CBR)";
+            OpusStatistics stats = new OpusStatistics(of);
+            stats.calculate();
+            out.println("");
+            out.println("Opus Audio:");
+            out.println("  Total Data Packets: " + stats.getAudioPacketsCount());
+            out.println("  Total Data Length: " + stats.getAudioDataSize());
+            out.println("  Audio Length Seconds: " + stats.getDurationSeconds());
+            out.println("  Audio Length: " + stats.getDuration());
+            out.println("  Packet duration: "+ format2(stats.getMaxPacketDuration())+"ms (max), "
+                               +format2(stats.getAvgPacketDuration())+"ms (avg), "
+                               +format2(stats.getMinPacketDuration())+"ms (min)");
+            out.println("  Page duration:   "+ format2(stats.getMaxPageDuration())+"ms (max), "
+                               +format2(stats.getAvgPageDuration())+"ms (avg), "
+                               +format2(stats.getMinPageDuration())+"ms (min)");
+            out.println("  Total data length: "+ stats.getAudioDataSize() + 
+                               " (overhead: " + format1(stats.getOggOverheadPercentage())+"%)");
+            out.println("  Playback length: "+ stats.getDuration());
+            String cbr = "";
+            if (stats.getMinPacketDuration() == stats.getMaxPacketDuration()
+                    && stats.getMinPacketBytes() == stats.getMaxPacketBytes()) {
+                cbr= " (hard-CBR)";
+            }
+            out.println("  Average bitrate: "
+                               +formatBitrate(stats.getAverageOverallBitrate())
+                               +", w/o overhead: "
+                               +formatBitrate(stats.getAverageAudioBitrate())+cbr);
+            StringBuilder modes = new StringBuilder();
+            for (OpusPacketParser.Mode mode : OpusPacketParser.Mode.values()) {
+                appendCount(modes, mode, stats.getModePacketsCount(mode));
+            }
+            StringBuilder bandwidths = new StringBuilder();
+            for (OpusPacketParser.Bandwidth bandwidth : OpusPacketParser.Bandwidth.values()) {
+                appendCount(bandwidths, bandwidth, stats.getBandwidthPacketsCount(bandwidth));
+            }
+            out.println("  Modes: " + modes);
+            out.println("  Bandwidths: " + bandwidths);
+            out.println("  Stereo packets: " + stats.getStereoPacketsCount());
+            if (stats.getMalformedPacketsCount() > 0) {
+                out.println("  Malformed packets: " + stats.getMalformedPacketsCount());
+            }
+            printStatistics(stats, out);
+        } finally {
+            inp.close();
+        }
+    }
+
+    private static void appendCount(StringBuilder sb, Object what, int count) {
+        if (count > 0) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(what).append(' ').append(count);
         }
-        System.out.println("  Average bitrate: "
-                           +formatBitrate(stats.getAverageOverallBitrate())
-                           +", w/o overhead: "
-                           +formatBitrate(stats.getAverageAudioBitrate())+cbr);
     }
 }
@@ -19,6 +19,7 @@ import java.io.IOException;
 
 import org.gagravarr.ogg.tools.OggAudioInfoTool;
 import org.gagravarr.vorbis.VorbisFile;
+import org.gagravarr.vorbis.VorbisSetup;
 
 /**
  * A tool for looking at the innards of a Vorbis File
@@ -39,39 +40,55 @@ public class VorbisInfoTool extends OggAudioInfoTool {
 
     @Override
     public void process(File file, boolean debugging) throws IOException {
-        InfoPacketReader r = new InfoPacketReader(
-                new FileInputStream(file));
-        VorbisFile vf = new VorbisFile(r);
+        FileInputStream inp = new FileInputStream(file);
+        try {
+            InfoPacketReader r = new InfoPacketReader(inp, out);
+            VorbisFile vf = new VorbisFile(r);
 
-        System.out.println("Processing file \"" + file + "\"");
+            out.println("Processing file \"" + file + "\"");
 
-        System.out.println("");
-        System.out.println("Vorbis Headers:");
-        System.out.println("  Version: " + vf.getInfo().getVersion());
-        System.out.println("  Vendor: " + vf.getComment().getVendor());
-        System.out.println("  Channels: " + vf.getInfo().getChannels());
-        System.out.println("  Rate: " + vf.getInfo().getRate());
-        System.out.println("");
-        System.out.println("  Nominal Bitrate: " + vf.getInfo().getBitrateNominal());
-        System.out.println("  Lower Bitrate: " + vf.getInfo().getBitrateLower());
-        System.out.println("  Upper Bitrate: " + vf.getInfo().getBitrateUpper());
+            out.println("");
+            out.println("Vorbis Headers:");
+            out.println("  Version: " + vf.getInfo().getVersion());
+            out.println("  Vendor: " + vf.getComment().getVendor());
+            out.println("  Channels: " + vf.getInfo().getChannels());
+            out.println("  Rate: " + vf.getInfo().getRate());
+            out.println("");
+            out.println("  Nominal Bitrate: " + vf.getInfo().getBitrateNominal());
+            out.println("  Lower Bitrate: " + vf.getInfo().getBitrateLower());
+            out.println("  Upper Bitrate: " + vf.getInfo().getBitrateUpper());
 
-        System.out.println("");
-        System.out.println("User Comments:");
-        listTags(vf);
-        System.out.println("");
+            out.println("");
+            out.println("User Comments:");
+            listTags(vf, out);
+            out.println("");
 
-        System.out.println("Vorbis Setup:");
-        System.out.println("  Codebooks: " + vf.getSetup().getNumberOfCodebooks());
-        System.out.println("");
+            out.println("Vorbis Setup:");
+            VorbisSetup setup = vf.getSetup();
+            try {
+                setup.parse(vf.getInfo());
+                out.println("  Codebooks: " + setup.getNumberOfCodebooks());
+                out.println("  Floors: " + setup.getFloors().length);
+                out.println("  Residues: " + setup.getResidues().length);
+                out.println("  Mappings: " + setup.getMappings().length);
+                out.println("  Modes: " + setup.getModes().length);
+            } catch (IllegalArgumentException e) {
+                // Report it, and carry on with what can still be done
+                out.println("  Setup: unable to parse - " + e.getMessage());
+            }
+            out.println("");
 
-        InfoAudioStats stats = new InfoAudioStats(vf, vf, r.getLastSeqNum(), debugging);
-        stats.calculate();
-        System.out.println("");
-        System.out.println("Vorbis Audio:");
-        System.out.println("  Total Data Packets: " + stats.getAudioPacketsCount());
-        System.out.println("  Total Data Length: " + stats.getAudioDataSize());
-        System.out.println("  Audio Length Seconds: " + stats.getDurationSeconds());
-        System.out.println("  Audio Length: " + stats.getDuration());
+            InfoAudioStats stats = new InfoAudioStats(vf, vf, r.getLastSeqNum(), debugging, out);
+            stats.calculate();
+            out.println("");
+            out.println("Vorbis Audio:");
+            out.println("  Total Data Packets: " + stats.getAudioPacketsCount());
+            out.println("  Total Data Length: " + stats.getAudioDataSize());
+            out.println("  Audio Length Seconds: " + stats.getDurationSeconds());
+            out.println("  Audio Length: " + stats.getDuration());
+            printStatistics(stats, out);
+        } finally {
+            inp.close();
+        }
     }
 }
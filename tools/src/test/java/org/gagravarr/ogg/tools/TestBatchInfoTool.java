@@ -0,0 +1,162 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for running the Info Tools over lots of files
+ */
+public class TestBatchInfoTool extends TestCase {
+    private File dir;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = File.createTempFile("vorbis-java-batch", "");
+        dir.delete();
+        dir.mkdir();
+    }
+    @Override
+    protected void tearDown() {
+        delete(dir);
+    }
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private File copy(String resource, String name) throws IOException {
+        File file = new File(dir, name);
+        file.getParentFile().mkdirs();
+        InputStream in = getClass().getResourceAsStream("/" + resource);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+        return file;
+    }
+    private static PrintStream print(OutputStream out) throws IOException {
+        return new PrintStream(out, true, "UTF-8");
+    }
+    private List<String> findFiles() throws IOException {
+        List<String> found = new ArrayList<String>();
+        Iterator<Path> it = BatchInfoTool.findFiles(dir);
+        while (it.hasNext()) {
+            found.add(dir.toPath().relativize(it.next()).toString().replace(File.separatorChar, '/'));
+        }
+        return found;
+    }
+
+    public void testFindFiles() throws IOException {
+        copy("testVORBIS.ogg", "b.ogg");
+        copy("testOPUS_11.opus", "a.opus");
+        copy("testFLAC.flac", "c/d.FLAC");
+        copy("testVORBIS.ogg", "c/e/f.oga");
+        copy("testVORBIS.ogg", "c/notes.txt");
+        new File(dir, "empty").mkdir();
+
+        // Each directory's entries in order, going into directories
+        //  as they come, and only with the known extensions
+        assertEquals(Arrays.asList("a.opus", "b.ogg", "c/d.FLAC", "c/e/f.oga"), findFiles());
+
+        // A single file is returned as-is, whatever it's called
+        File notes = new File(dir, "c/notes.txt");
+        Iterator<Path> it = BatchInfoTool.findFiles(notes);
+        assertEquals(notes.toPath(), it.next());
+        assertFalse(it.hasNext());
+    }
+
+    public void testTextOutput() throws Exception {
+        copy("testVORBIS.ogg", "1.ogg");
+        copy("testOPUS_11.opus", "2.opus");
+        copy("testFLAC.flac", "3.flac");
+        copy("testTheora.ogg", "4.ogv");
+        // An empty file fails
+        new FileOutputStream(new File(dir, "5.ogg")).close();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        PrintStream systemOut = System.out;
+        BatchInfoTool tool = new BatchInfoTool(2, null, print(out), print(err));
+        tool.process(Arrays.asList(dir.getPath()));
+        assertSame(systemOut, System.out);
+
+        // Each file's output is kept together, in order
+        String text = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        int vorbis = text.indexOf("Vorbis Headers:");
+        int opus = text.indexOf("Opus Headers:");
+        int flac = text.indexOf("FLAC Native");
+        int theora = text.indexOf("Theora");
+        int empty = text.indexOf("Error - unable to process");
+        assertTrue(text, vorbis > 0);
+        assertTrue(text, opus > vorbis);
+        assertTrue(text, flac > opus);
+        assertTrue(text, theora > flac);
+        assertTrue(text, empty > theora);
+        assertTrue(text.indexOf("Processing file", vorbis) < opus);
+
+        String progress = new String(err.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(progress, progress.startsWith("Finished - 5 files processed (1 failed, 0 already done)"));
+    }
+
+    public void testJournal() throws Exception {
+        copy("testVORBIS.ogg", "1.ogg");
+        copy("testOPUS_11.opus", "2.opus");
+        File journal = new File(dir, "journal.txt");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        BatchInfoTool tool = new BatchInfoTool(1, journal, print(out), print(err));
+        tool.setRecordWriter(InfoRecordWriter.create("json", out));
+        tool.process(Arrays.asList(dir.getPath()));
+        String json = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertEquals(2, json.split("\n").length);
+        assertTrue(json, json.contains("\"codec\":\"Vorbis\""));
+        assertTrue(json, json.contains("\"codec\":\"Opus\""));
+
+        // Run again, and the files are skipped
+        out.reset();
+        err.reset();
+        tool = new BatchInfoTool(1, journal, print(out), print(err));
+        tool.process(Arrays.asList(dir.getPath()));
+        assertEquals(0, out.size());
+        assertTrue(err.toString("UTF-8").contains("0 files processed (0 failed, 2 already done)"));
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.ogg.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.gagravarr.ogg.tools.InfoRecordWriter.CsvWriter;
+
+/**
+ * Tests for writing out the Info records as JSON Lines and CSV
+ */
+public class TestInfoRecordWriter extends TestCase {
+    private static String write(String format, InfoRecord... records) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InfoRecordWriter writer = InfoRecordWriter.create(format, out);
+        for (InfoRecord record : records) {
+            writer.write(record);
+        }
+        writer.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+    private static InfoRecord record(String file) {
+        // Not a real file, so the size is zero
+        return new InfoRecord(new File(file));
+    }
+
+    public void testJsonEscaping() throws IOException {
+        InfoRecord record = record("test.ogg");
+        Map<String, Object> tags = new LinkedHashMap<String, Object>();
+        tags.put("title", Arrays.asList("Say \"Hi\"", "C:\\Music"));
+        tags.put("comment", "Line 1\nLine 2\r\tEnd\u0001\u001f");
+        tags.put("artist", "Caf\u00e9");
+        record.put("tags", tags);
+
+        String json = write("json", record);
+        assertEquals("{\"schema_version\":1,\"file\":\"test.ogg\",\"size\":0," +
+                "\"tags\":{\"title\":[\"Say \\\"Hi\\\"\",\"C:\\\\Music\"]," +
+                "\"comment\":\"Line 1\\nLine 2\\r\\tEnd\\u0001\\u001f\"," +
+                "\"artist\":\"Caf\u00e9\"}}\n", json);
+
+        // Each record is one line
+        assertEquals(2, write("jsonl", record, record).split("\n").length);
+    }
+
+    public void testJsonNumbers() throws IOException {
+        InfoRecord record = record("test.ogg");
+        Map<String, Object> s = new LinkedHashMap<String, Object>();
+        s.put("nan", Double.NaN);
+        s.put("inf", Double.POSITIVE_INFINITY);
+        s.put("neg_inf", Float.NEGATIVE_INFINITY);
+        s.put("whole", 12.0);
+        s.put("fraction", 0.125);
+        s.put("count", 42L);
+        s.put("vbr", true);
+        record.put("statistics", s);
+
+        String json = write("json", record);
+        assertTrue(json, json.contains("\"statistics\":{\"nan\":null,\"inf\":null," +
+                "\"neg_inf\":null,\"whole\":12,\"fraction\":0.125,\"count\":42,\"vbr\":true}"));
+    }
+
+    public void testCsvQuoting() throws IOException {
+        InfoRecord record = record("a, \"b\".ogg");
+        Map<String, Object> tags = new LinkedHashMap<String, Object>();
+        tags.put("TITLE", "Two\nLines");
+        tags.put("Artist", Arrays.asList("One", "Two"));
+        tags.put("album", "Plain");
+        record.put("tags", tags);
+        record.put("error", "Broken\r");
+
+        String[] lines = write("csv", record).split("\r\n");
+        assertEquals(2, lines.length);
+        String row = lines[1];
+
+        // Commas and quotes are quoted, with the quotes doubled, as
+        //  are newlines, and tags are found whatever their case
+        assertTrue(row, row.startsWith("\"a, \"\"b\"\".ogg\",0,"));
+        assertTrue(row, row.contains(",\"Two\nLines\",One;Two,Plain,"));
+        assertTrue(row, row.endsWith(",\"Broken\r\""));
+    }
+
+    public void testCsvColumns() throws IOException {
+        // Fields are added in a different order to the columns
+        InfoRecord record = record("test.opus");
+        Map<String, Object> audio = new LinkedHashMap<String, Object>();
+        audio.put("duration_seconds", 1.5);
+        audio.put("sample_rate", 48000L);
+        audio.put("codec", "Opus");
+        record.put("warnings", Arrays.asList("First", "Second"));
+        record.put("audio", audio);
+        List<Object> streams = new ArrayList<Object>();
+        Map<String, Object> stream = new LinkedHashMap<String, Object>();
+        stream.put("sid", 1234);
+        stream.put("type", "Opus");
+        streams.add(stream);
+        record.put("streams", streams);
+        record.put("container", "ogg");
+        Map<String, Object> s = new LinkedHashMap<String, Object>();
+        s.put("bitrate_average", Double.NaN);
+        record.put("statistics", s);
+
+        String[] lines = write("csv", record, record("other.ogg")).split("\r\n");
+        assertEquals(3, lines.length);
+
+        // The header is only written once, and is the fixed columns
+        StringBuilder header = new StringBuilder();
+        for (String column : CsvWriter.COLUMNS) {
+            if (header.length() > 0) header.append(',');
+            header.append(column);
+        }
+        assertEquals(header.toString(), lines[0]);
+        assertTrue(lines[0].startsWith("file,size,container,streams,audio.codec,"));
+        assertTrue(lines[0].endsWith(",warnings,error"));
+
+        // Every row has a value for every column, in that order,
+        //  with anything missing or not a number left blank
+        List<String> values = Arrays.asList(lines[1].split(",", -1));
+        assertEquals(CsvWriter.COLUMNS.size(), values.size());
+        assertEquals("test.opus", values.get(CsvWriter.COLUMNS.indexOf("file")));
+        assertEquals("ogg", values.get(CsvWriter.COLUMNS.indexOf("container")));
+        assertEquals("1234:Opus", values.get(CsvWriter.COLUMNS.indexOf("streams")));
+        assertEquals("Opus", values.get(CsvWriter.COLUMNS.indexOf("audio.codec")));
+        assertEquals("48000", values.get(CsvWriter.COLUMNS.indexOf("audio.sample_rate")));
+        assertEquals("1.5", values.get(CsvWriter.COLUMNS.indexOf("audio.duration_seconds")));
+        assertEquals("", values.get(CsvWriter.COLUMNS.indexOf("audio.channels")));
+        assertEquals("", values.get(CsvWriter.COLUMNS.indexOf("statistics.bitrate_average")));
+        assertEquals("First;Second", values.get(CsvWriter.COLUMNS.indexOf("warnings")));
+
+        values = Arrays.asList(lines[2].split(",", -1));
+        assertEquals(CsvWriter.COLUMNS.size(), values.size());
+        assertEquals("other.ogg", values.get(0));
+        assertEquals("0", values.get(1));
+        for (String v : values.subList(2, values.size())) {
+            assertEquals("", v);
+        }
+    }
+}
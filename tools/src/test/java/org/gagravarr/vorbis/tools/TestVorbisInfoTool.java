@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gagravarr.vorbis.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+import org.gagravarr.ogg.OggFile;
+import org.gagravarr.ogg.OggPacket;
+import org.gagravarr.vorbis.VorbisAudioData;
+import org.gagravarr.vorbis.VorbisFile;
+import org.gagravarr.vorbis.VorbisSetup;
+
+/**
+ * Tests for the Vorbis Info Tool
+ */
+public class TestVorbisInfoTool extends TestCase {
+    private File tmp;
+
+    @Override
+    protected void tearDown() {
+        if (tmp != null) {
+            tmp.delete();
+        }
+    }
+
+    private String process(File file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VorbisInfoTool tool = new VorbisInfoTool();
+        tool.setOutput(new PrintStream(out, true, "UTF-8"));
+        tool.process(file, false);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A setup which can't be parsed is reported, with the
+     *  rest of the file still processed
+     */
+    public void testInvalidSetup() throws IOException {
+        VorbisFile in = new VorbisFile(new OggFile(
+                getClass().getResourceAsStream("/testVORBIS.ogg")));
+        byte[] data = in.getSetup().getData().clone();
+        // Breaks the sync pattern of the first codebook
+        data[8] = 0;
+        VorbisSetup setup = new VorbisSetup(new OggPacket(data));
+
+        tmp = File.createTempFile("vorbis-java-tools", ".ogg");
+        FileOutputStream fout = new FileOutputStream(tmp);
+        VorbisFile out = new VorbisFile(fout, in.getInfo(), in.getComment(), setup);
+        VorbisAudioData audio;
+        while ((audio = in.getNextAudioPacket()) != null) {
+            out.writeAudioData(audio);
+        }
+        out.close();
+        in.close();
+
+        String text = process(tmp);
+        assertTrue(text, text.contains("Vendor: "));
+        assertTrue(text, text.contains("  Setup: unable to parse - "));
+        assertFalse(text, text.contains("Codebooks: "));
+        assertTrue(text, text.contains("Vorbis Audio:"));
+    }
+}